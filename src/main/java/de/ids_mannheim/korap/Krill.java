@@ -1,6 +1,7 @@
 package de.ids_mannheim.korap;
 
 import java.io.IOException;
+import java.util.Properties;
 
 import org.apache.lucene.search.spans.SpanQuery;
 import org.slf4j.Logger;
@@ -9,9 +10,12 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import de.ids_mannheim.korap.query.QueryCache;
 import de.ids_mannheim.korap.query.wrap.SpanQueryWrapper;
+import de.ids_mannheim.korap.response.Notifications;
 import de.ids_mannheim.korap.response.Response;
 import de.ids_mannheim.korap.response.Result;
+import de.ids_mannheim.korap.util.KrillProperties;
 import de.ids_mannheim.korap.util.QueryException;
 
 /**
@@ -57,10 +61,32 @@ import de.ids_mannheim.korap.util.QueryException;
 public class Krill extends Response {
     private KrillIndex index;
     private SpanQuery spanQuery;
+    private boolean sharedQuery = false;
     private JsonNode request;
 
     private final ObjectMapper mapper = new ObjectMapper();
 
+    // Logger
+    private final static Logger log = LoggerFactory.getLogger(Krill.class);
+
+    // Cache of compiled queries, shared by all requests
+    private static volatile QueryCache queryCache;
+
+    // Some initializations ...
+    static {
+        int size = 1000;
+        final Properties prop = KrillProperties.loadDefaultProperties();
+        if (prop != null && prop.getProperty("krill.query.cache") != null) {
+            try {
+                size = Integer.parseInt(prop.getProperty("krill.query.cache"));
+            }
+            catch (NumberFormatException e) {
+                log.error("krill.query.cache expected to be a numerical value");
+            };
+        };
+        queryCache = new QueryCache(size);
+    };
+
     /**
      * Construct a new Krill object.
      */
@@ -158,42 +184,31 @@ public class Krill extends Response {
 
         // Parse "query" attribute
         if (json.has("query")) {
-            try {
-                final KrillQuery kq = new KrillQuery("tokens");
-                this.setQuery(kq);
-
-                final SpanQueryWrapper qw = kq.fromKoral(json.get("query"));
-
-                // Koral messages are moved to the Krill object
-                this.moveNotificationsFrom(kq);
-
-                // Throw an error, in case the query matches everywhere
-                if (qw.isEmpty()) {
-                    this.addError(780, "This query matches everywhere");
-                }
-                else if (qw.isNull()) {
-                    this.addError(783, "This query can't match anywhere");
-                }
-
-                else {
-
-                    // Serialize a Lucene SpanQuery based on the SpanQueryWrapper
-                    this.spanQuery = qw.toQuery();
-
-                    // TODO: Make these information query rewrites
-
-                    // Throw a warning in case the root object is optional
-                    if (qw.isOptional())
-                        this.addWarning(781, "Optionality of query is ignored");
-
-                    // Throw a warning in case the root object is negative
-                    if (qw.isNegative())
-                        this.addWarning(782, "Exclusivity of query is ignored");
-                };
+            final JsonNode queryNode = json.get("query");
+            final KrillQuery kq = new KrillQuery("tokens");
+            this.setQuery(kq);
+
+            // Reuse the compiled query of an equivalent request
+            final QueryCache cache = queryCache;
+            final String key = cache.isEnabled()
+                    ? QueryCache.canonicalize(queryNode) : null;
+            QueryCache.Entry entry = key != null ? cache.get(key) : null;
+
+            if (entry == null) {
+                entry = this._compile(kq, queryNode);
+                if (key != null)
+                    cache.put(key, entry);
             }
-            catch (QueryException q) {
-                this.addError(q.getErrorCode(), q.getMessage());
+
+            // Set the query for reserialization
+            else {
+                kq.setJson(queryNode);
             };
+
+            // Koral messages are moved to the Krill object
+            this.copyNotificationsFrom(entry.getNotifications());
+            this.spanQuery = entry.getQuery();
+            this.sharedQuery = key != null;
         }
         else
             this.addError(700, "No query given");
@@ -237,6 +252,73 @@ public class Krill extends Response {
     };
 
 
+    // Compile a KoralQuery query object
+    private QueryCache.Entry _compile (KrillQuery kq, JsonNode json) {
+        final Notifications notes = new Notifications();
+        SpanQuery sq = null;
+        try {
+            final SpanQueryWrapper qw = kq.fromKoral(json);
+
+            // Koral messages are moved to the entry
+            notes.moveNotificationsFrom(kq);
+
+            // Throw an error, in case the query matches everywhere
+            if (qw.isEmpty()) {
+                notes.addError(780, "This query matches everywhere");
+            }
+            else if (qw.isNull()) {
+                notes.addError(783, "This query can't match anywhere");
+            }
+
+            else {
+
+                // Serialize a Lucene SpanQuery based on the SpanQueryWrapper
+                sq = qw.toQuery();
+
+                // TODO: Make these information query rewrites
+
+                // Throw a warning in case the root object is optional
+                if (qw.isOptional())
+                    notes.addWarning(781, "Optionality of query is ignored");
+
+                // Throw a warning in case the root object is negative
+                if (qw.isNegative())
+                    notes.addWarning(782, "Exclusivity of query is ignored");
+            };
+        }
+        catch (QueryException q) {
+            notes.addError(q.getErrorCode(), q.getMessage());
+        };
+
+        return new QueryCache.Entry(sq, notes);
+    };
+
+
+    /**
+     * Get the cache of compiled queries,
+     * shared by all requests.
+     * 
+     * @return The {@link QueryCache}.
+     */
+    public static QueryCache getQueryCache () {
+        return queryCache;
+    };
+
+
+    /**
+     * Set the number of compiled queries to be cached.
+     * Defaults to <tt>krill.query.cache</tt> in the
+     * configuration or 1000. <tt>0</tt> disables the cache.
+     * Replaces the current cache.
+     * 
+     * @param size
+     *            The number of cached queries.
+     */
+    public static void setQueryCacheSize (int size) {
+        queryCache = new QueryCache(size);
+    };
+
+
     /**
      * Get the associated {@link KrillIndex} object.
      * 
@@ -334,6 +416,18 @@ public class Krill extends Response {
     //EM
     public void setSpanQuery (SpanQuery sq) {
         this.spanQuery = sq;
-        
+        this.sharedQuery = false;
     }
+
+
+    /**
+     * Check if the {@link SpanQuery} is shared with other
+     * requests by the {@link QueryCache}.
+     * Shared queries must not be modified.
+     * 
+     * @return <code>true</code> in case the query is shared.
+     */
+    public boolean hasSharedQuery () {
+        return this.sharedQuery;
+    };
 };
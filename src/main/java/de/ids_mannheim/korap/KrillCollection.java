@@ -4,10 +4,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.IOUtils;
@@ -15,6 +19,7 @@ import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
@@ -35,6 +40,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import de.ids_mannheim.korap.collection.CachedVCData;
 import de.ids_mannheim.korap.collection.CollectionBuilder;
 import de.ids_mannheim.korap.collection.DocBits;
+import de.ids_mannheim.korap.collection.StatisticsCache;
+import de.ids_mannheim.korap.index.FieldDocument;
 import de.ids_mannheim.korap.response.Notifications;
 import de.ids_mannheim.korap.util.KrillProperties;
 import de.ids_mannheim.korap.util.QueryException;
@@ -66,7 +73,6 @@ public final class KrillCollection extends Notifications {
     private JsonNode json;
     private CollectionBuilder cb = new CollectionBuilder();
     private CollectionBuilder.Interface cbi;
-    private byte[] pl = new byte[4];
 
     private ObjectMapper mapper = new ObjectMapper();
     
@@ -681,51 +687,287 @@ public final class KrillCollection extends Notifications {
      * @see KrillIndex#numberOf
      */
     public long numberOf (String field, String type) throws IOException {
+        return this.numbersOf(field, type).get(type);
+    };
+
+
+    /**
+     * Search for the number of occurrences of multiple types,
+     * e.g. <i>documents</i>, <i>tokens</i>, <i>sentences</i> etc.
+     * in the virtual collection in a single pass over all segments.
+     * 
+     * Results are cached per index revision and per segment,
+     * so after a commit only new segments need to be counted.
+     * 
+     * @param field
+     *            The field containing the textual data and the
+     *            annotations as a string.
+     * @param types
+     *            The types of meta information,
+     *            e.g. <i>documents</i> or <i>sentences</i> as
+     *            strings.
+     * @return A map of types and their numbers of occurrences,
+     *         in the order of the requested types.
+     * @throws IOException
+     * @see #numberOf
+     */
+    public Map<String, Long> numbersOf (String field, String ... types)
+            throws IOException {
+
+        // No index defined
+        if (this.index == null)
+            return this._numbersOf(field, types);
+
+        // Count all types in the same snapshot of the index
+        this.index.acquireReader();
+        try {
+            return this._numbersOf(field, types);
+        }
+        finally {
+            this.index.releaseReader();
+        };
+    };
+
+
+    // Count all types in the snapshot of the index
+    private Map<String, Long> _numbersOf (String field, String ... types)
+            throws IOException {
+
+        Map<String, Long> numbers = new LinkedHashMap<String, Long>(
+                types.length);
 
         // No index defined
-        if (this.index == null) return (long) -1;
+        if (this.index == null) {
+            for (String type : types)
+                numbers.put(type, (long) -1);
+            return numbers;
+        };
 
-        // No reader (inex is empty)
-        if (this.index.reader() == null) return (long) 0;
+        // No reader (index is empty)
+        if (this.index.reader() == null) {
+            for (String type : types)
+                numbers.put(type, (long) 0);
+            return numbers;
+        };
 
-        // This is redundant to index stuff
-        if (type.equals("documents") || type.equals("base/texts")) {
-            if (this.cbi == null) {
-                if (this.index.reader() == null) return (long) 0;
-                return (long) this.index.reader().numDocs();
-            }
-            else
-                return this.docCount();
+        final String vc = this.statisticsKey();
+        final StatisticsCache sc = this.index.getStatisticsCache();
+        final String fingerprint = this.index.getFingerprint();
+
+        // Check for cached totals
+        List<String> missing = new ArrayList<String>(types.length);
+        for (String type : types) {
+            Long total = null;
+
+            // This is redundant to index stuff
+            if (type.equals("documents") || type.equals("base/texts")) {
+                if (this.cbi == null)
+                    total = (long) this.index.reader().numDocs();
+            };
+
+            if (total == null && vc != null)
+                total = sc.getTotal(fingerprint, vc, field, type);
+
+            if (total != null)
+                numbers.put(type, total);
+            else if (!missing.contains(type))
+                missing.add(type);
+        };
+
+        if (missing.isEmpty())
+            return numbers;
+
+        if (DEBUG) log.debug("Iterate for {}/{}", field, missing);
+
+        final String[] missingTypes = missing.toArray(new String[missing.size()]);
+        final AtomicBoolean complete = new AtomicBoolean(true);
+        final List<LeafReaderContext> leaves = this.index.reader().leaves();
+
+        try {
+            // Serialize the filter once before segments are processed
+            this.toFilter();
+        }
+
+        // E.g. reference corpus not found
+        catch (QueryException e) {
+            log.warn(e.getLocalizedMessage());
+            complete.set(false);
+        };
+
+        long[] occurrences = new long[missingTypes.length];
+        if (complete.get()) {
+
+            // Iterate over all atomic readers and collect occurrences,
+            // in parallel in case there are multiple segments
+            occurrences = (leaves.size() > 1 ? leaves.parallelStream()
+                    : leaves.stream())
+                    .map(atomic -> this._numbersOfAtomic(atomic, field,
+                            missingTypes, vc, sc, complete))
+                    .reduce(occurrences, (x, y) -> {
+                        long[] sum = new long[x.length];
+                        for (int i = 0; i < x.length; i++)
+                            sum[i] = x[i] + y[i];
+                        return sum;
+                    });
         };
 
-        // Create search term
-        // This may be prefixed by foundries
-        Term term = new Term(field, "-:" + type);
+        for (int i = 0; i < occurrences.length; i++) {
+            String type = missingTypes[i];
+
+            // Do not cache partial results
+            if (complete.get() && vc != null)
+                sc.putTotal(fingerprint, vc, field, type, occurrences[i]);
+
+            numbers.put(type, occurrences[i]);
+        };
+
+        // Keep the requested order
+        Map<String, Long> ordered = new LinkedHashMap<String, Long>(
+                types.length);
+        for (String type : types)
+            ordered.put(type, numbers.get(type));
+
+        return ordered;
+    };
+
+
+    // Count occurrences of multiple types in a single segment
+    private long[] _numbersOfAtomic (LeafReaderContext atomic, String field,
+            String[] types, String vc, StatisticsCache sc,
+            AtomicBoolean complete) {
 
-        if (DEBUG) log.debug("Iterate for {}/{}", field, type);
+        long[] occurrences = new long[types.length];
+        final String segment = (vc == null) ? null
+                : StatisticsCache.segmentKey(atomic.reader());
 
-        long occurrences = 0;
         try {
-            // Iterate over all atomic readers and collect occurrences
-            for (LeafReaderContext atomic : this.index.reader().leaves()) {
-                Bits bits = this.bits(atomic);
 
+            // Collect the types not cached for the segment
+            List<Integer> missing = new ArrayList<Integer>(types.length);
+            for (int i = 0; i < types.length; i++) {
+                Long value = (segment == null) ? null
+                        : sc.getSegment(segment, vc, field, types[i]);
+
+                if (value == null)
+                    missing.add(i);
+                else
+                    occurrences[i] = value;
+            };
+
+            // The bits are only created once per segment,
+            // and only in case a value is not cached
+            if (!missing.isEmpty()) {
+                final FixedBitSet bits = this.bits(atomic);
                 if (DEBUG) log.debug("Final bits  {}", _bits(bits));
 
-                occurrences += this._numberOfAtomic(bits, atomic, term);
-                if (DEBUG) log.debug("Added up to {} for {}/{}", occurrences,
-                        field, type);
+                String[] missingTypes = new String[missing.size()];
+                for (int i = 0; i < missingTypes.length; i++)
+                    missingTypes[i] = types[missing.get(i)];
+
+                final long[] values = this.numbersOfAtomic(bits, atomic,
+                        field, missingTypes);
+
+                for (int i = 0; i < missingTypes.length; i++) {
+                    occurrences[missing.get(i)] = values[i];
+                    if (segment != null)
+                        sc.putSegment(segment, vc, field, missingTypes[i],
+                                values[i]);
+                };
             };
+
+            if (DEBUG) log.debug("Added {} for {}/{} in segment {}",
+                    Arrays.toString(occurrences), field,
+                    Arrays.toString(types), segment);
         }
 
         // Something went wrong
         catch (IOException e) {
             log.warn(e.getLocalizedMessage());
+            complete.set(false);
 		}
 
 		// E.g. reference corpus not found
         catch (QueryException e) {
             log.warn(e.getLocalizedMessage());
+            complete.set(false);
+        };
+
+        return occurrences;
+    };
+
+
+    // Count occurrences of multiple types in a single segment
+    // in one pass over the documents of the collection
+    long[] numbersOfAtomic (FixedBitSet bits, LeafReaderContext atomic,
+            String field, String ... types) throws IOException {
+
+        final long[] occurrences = new long[types.length];
+        final LeafReader reader = atomic.reader();
+        final NumericDocValues[] counts = new NumericDocValues[types.length];
+        final Bits[] withCounts = new Bits[types.length];
+        boolean docValues = false;
+
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].equals("documents")
+                    || types[i].equals("base/texts")) {
+                occurrences[i] = (long) bits.cardinality();
+                continue;
+            };
+
+            final String dvField = FieldDocument.countField(field, types[i]);
+            counts[i] = reader.getNumericDocValues(dvField);
+            if (counts[i] != null) {
+                withCounts[i] = reader.getDocsWithField(dvField);
+                docValues = true;
+            };
+        };
+
+        final int maxDoc = bits.length();
+
+        // Documents lacking doc values (e.g. merged from old segments)
+        final FixedBitSet[] withoutCounts = new FixedBitSet[types.length];
+
+        if (docValues) {
+            int doc = maxDoc > 0 ? bits.nextSetBit(0)
+                    : DocIdSetIterator.NO_MORE_DOCS;
+
+            while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                for (int i = 0; i < types.length; i++) {
+                    if (counts[i] == null)
+                        continue;
+
+                    if (withCounts[i] == null || withCounts[i].get(doc)) {
+                        occurrences[i] += counts[i].get(doc);
+                    }
+                    else {
+                        if (withoutCounts[i] == null)
+                            withoutCounts[i] = new FixedBitSet(maxDoc);
+                        withoutCounts[i].set(doc);
+                    };
+                };
+
+                doc = (doc + 1 < maxDoc) ? bits.nextSetBit(doc + 1)
+                        : DocIdSetIterator.NO_MORE_DOCS;
+            };
+        };
+
+        // Fall back to payloads for types or documents
+        // without doc values (e.g. in old indices)
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].equals("documents")
+                    || types[i].equals("base/texts"))
+                continue;
+
+            // Create search term
+            // This may be prefixed by foundries
+            final Term term = new Term(field, "-:" + types[i]);
+
+            if (counts[i] == null)
+                occurrences[i] = this._numberOfAtomic((Bits) bits, atomic,
+                        term);
+            else if (withoutCounts[i] != null)
+                occurrences[i] += this._numberOfAtomic(
+                        (Bits) withoutCounts[i], atomic, term);
         };
 
         return occurrences;
@@ -764,6 +1006,7 @@ public final class KrillCollection extends Notifications {
                 // Init some variables for data copying
                 long occurrences = 0;
                 BytesRef payload;
+                byte[] pl = new byte[4];
 
                 // Init nextDoc()
                 while (docs.nextDoc() != DocsAndPositionsEnum.NO_MORE_DOCS) {
@@ -801,33 +1044,54 @@ public final class KrillCollection extends Notifications {
 
     /**
      * Return the number of documents in the virtual
-     * collection.
+     * collection, counted for the default field <i>tokens</i>.
      * 
      * @return The number of the occurrences.
      * @see #numberOf
      */
     public long docCount () {
+        return this.docCount("tokens");
+    };
+
+
+    /**
+     * Return the number of documents in the virtual
+     * collection, sharing cached statistics with other
+     * types counted for the field.
+     * 
+     * @param field
+     *            The field containing the textual data and the
+     *            annotations as a string.
+     * @return The number of the occurrences.
+     * @see #numbersOf
+     */
+    public long docCount (String field) {
 
         // No index defined
         if (this.index == null) return (long) 0;
 
-        // TODO: Caching!
-
-        long docCount = 0;
         try {
-            FixedBitSet bitset;
-            for (LeafReaderContext atomic : this.index.reader().leaves()) {
-                if ((bitset = this.bits(atomic)) != null)
-                    docCount += bitset.cardinality();
-            };
+            return this.numbersOf(field, "documents").get("documents");
         }
         catch (IOException e) {
             log.warn(e.getLocalizedMessage());
-		}
-        catch (QueryException e) {
-            log.warn(e.getLocalizedMessage());
-        };
-        return docCount;
+		};
+        return (long) 0;
+    };
+
+
+    // Create a normalized key of the collection for caching statistics.
+    // Returns null in case the collection can't be cached, e.g. because
+    // it refers to named virtual corpora that may change independently.
+    String statisticsKey () {
+        if (this.cbi == null)
+            return "";
+
+        String key = this.toString();
+        if (key.contains("referTo("))
+            return null;
+
+        return key;
     };
 
 
@@ -846,18 +1110,26 @@ public final class KrillCollection extends Notifications {
                     "Collection name is required for caching.");
         }
         
-        List<LeafReaderContext> leaves = this.index.reader().leaves();
-        Map<Integer, DocBits> docIdMap =
-                new HashMap<Integer, DocBits>(leaves.size());
-
-        for (LeafReaderContext context : leaves) {
-            if (docIdMap.get(context.hashCode()) == null) {
-                FixedBitSet bitset = bits(context);
-                DocBits docBits = new DocBits(bitset.getBits(), bitset.length());
-                docIdMap.put(context.hashCode(),
-                        docBits);
+        Map<Integer, DocBits> docIdMap;
+
+        // Cache the bits of all segments of the same snapshot
+        this.index.acquireReader();
+        try {
+            List<LeafReaderContext> leaves = this.index.reader().leaves();
+            docIdMap = new HashMap<Integer, DocBits>(leaves.size());
+
+            for (LeafReaderContext context : leaves) {
+                if (docIdMap.get(context.hashCode()) == null) {
+                    FixedBitSet bitset = bits(context);
+                    DocBits docBits = new DocBits(bitset.getBits(), bitset.length());
+                    docIdMap.put(context.hashCode(),
+                            docBits);
+                }
             }
         }
+        finally {
+            this.index.releaseReader();
+        };
 
         CachedVCData cc = new CachedVCData(docIdMap);
         cache.put(new Element(cacheKey, cc));
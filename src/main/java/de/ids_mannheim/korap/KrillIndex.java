@@ -5,7 +5,18 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 // Java core classes
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 
 import java.time.LocalDate;
@@ -18,15 +29,22 @@ import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.ReaderManager;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermContext;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.TieredMergePolicy;
 // Lucene classes
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
@@ -35,14 +53,20 @@ import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.StringHelper;
 import org.apache.lucene.util.automaton.CompiledAutomaton;
 import org.apache.lucene.util.automaton.RegExp;
 // Log4j Logger classes
@@ -52,18 +76,31 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 // Krill classes
+import de.ids_mannheim.korap.collection.StatisticsCache;
 import de.ids_mannheim.korap.index.FieldDocument;
+import de.ids_mannheim.korap.index.FieldDocumentParser;
 import de.ids_mannheim.korap.index.KeywordAnalyzer;
 import de.ids_mannheim.korap.index.PositionsToOffset;
+import de.ids_mannheim.korap.index.PrimaryKeyResolver;
 import de.ids_mannheim.korap.index.SpanInfo;
+import de.ids_mannheim.korap.index.TermContextCache;
 import de.ids_mannheim.korap.index.TermInfo;
 import de.ids_mannheim.korap.index.TextAnalyzer;
 import de.ids_mannheim.korap.index.TimeOutThread;
+import de.ids_mannheim.korap.query.DocumentApproximation;
+import de.ids_mannheim.korap.query.PayloadRequirement;
+import de.ids_mannheim.korap.query.SpanMultipleDistanceQuery;
+import de.ids_mannheim.korap.query.SpanQueryCost;
+import de.ids_mannheim.korap.query.SpanQuerySimplifier;
+import de.ids_mannheim.korap.query.SpanWithinQuery;
+import de.ids_mannheim.korap.response.Aggregation;
+import de.ids_mannheim.korap.response.Collocations;
 import de.ids_mannheim.korap.response.Match;
 import de.ids_mannheim.korap.response.MatchCollector;
 import de.ids_mannheim.korap.response.MetaFields;
 import de.ids_mannheim.korap.response.Result;
 import de.ids_mannheim.korap.response.SearchContext;
+import de.ids_mannheim.korap.response.collector.MatchExporter;
 import de.ids_mannheim.korap.response.Text;
 import de.ids_mannheim.korap.util.KrillProperties;
 import de.ids_mannheim.korap.util.KrillDate;
@@ -151,13 +188,90 @@ public final class KrillIndex {
     private String version = "Unknown";
     private String name = "Unknown";
 
-    private String indexRevision;
+    // Fingerprint of the index, cached per reader
+    private volatile Map.Entry<Object, String> indexRevision;
+
+    // Bulk load mode for initial index creation
+    private boolean bulkLoad = false;
+
+    // RAM buffer of the writer in bulk load mode in MB
+    private double bulkRAMBufferSize = 512.0;
+
+    // Store term vectors of token streams
+    private boolean termVectors = true;
+
+    // Metadata fields stored as doc values for aggregations
+    private Set<String> facets = Collections.emptySet();
+
+    // Resolvers of primary keys per reader, dropped once
+    // the reader is closed
+    private final Map<Object, PrimaryKeyResolver> primaryKeys =
+            new ConcurrentHashMap<Object, PrimaryKeyResolver>();
+
+    // Number of cached primary keys
+    private int primaryKeyCacheSize = 10000;
+
+    // Caches of term contexts per reader, dropped once
+    // the reader is closed
+    private final Map<Object, TermContextCache> termContexts =
+            new ConcurrentHashMap<Object, TermContextCache>();
+
+    // Number of cached term contexts
+    private int termContextCacheSize = 10000;
+
+    // Elements looked up in interval indices in within queries
+    private volatile Set<String> intervalElements = Collections.emptySet();
+
+    // Evaluate multiple distance constraints in a single join
+    private volatile boolean distanceJoin = false;
+
+    // Cache for corpus statistics
+    private final StatisticsCache statisticsCache = new StatisticsCache();
+
+    // Size of the queues per segment for parallel exports
+    private final static int EXPORT_QUEUE_SIZE = 256;
+
+    // Marker for the end of an exported segment
+    private final static String EXPORT_END = new String();
+
+    // Interval in milliseconds for segments of aborted exports
+    // to check for cancellation while waiting on their queue
+    private final static long EXPORT_OFFER_TIMEOUT = 100;
+
+    // Number of documents with matches, for which the positions
+    // of collocates are read in a single pass over the postings
+    private final static int COLLOCATION_DOCS = 256;
+
+    // Valid foundry and layer names for match information
+    private final static Pattern HARMLESS_FOUNDRY = Pattern
+            .compile("^[-a-zA-Z0-9_]+$");
+    private final static Pattern HARMLESS_LAYER = Pattern
+            .compile("^[-a-zA-Z0-9_:]+$");
+
+    // Cache of automata for foundry and layer filters of match information
+    private final static int AUTOMATON_CACHE_SIZE = 128;
+    private final static Map<String, CompiledAutomaton> automatonCache = Collections
+            .synchronizedMap(new LinkedHashMap<String, CompiledAutomaton>(16,
+                    0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry (
+                        Map.Entry<String, CompiledAutomaton> eldest) {
+                    return size() > AUTOMATON_CACHE_SIZE;
+                };
+            });
     
-    // Temp:
-    private IndexReader reader;
+    // Manager of reference counted readers
+    private ReaderManager readerManager;
+
+    // Reader snapshot of the current thread
+    private final ThreadLocal<Snapshot> snapshot = new ThreadLocal<Snapshot>();
+
+    // Interval of background reader refreshs in milliseconds
+    private long refreshInterval = 0;
+    private ScheduledExecutorService refresher;
 
     private IndexWriter writer;
-    private boolean readerOpen = false;
+    private volatile boolean readerOpen = false;
     private boolean writerOpen = false;
     private Directory directory;
 
@@ -165,7 +279,6 @@ public final class KrillIndex {
     // counting unstaged changes per thread (for bulk insertions)
     // It does not represent real unstaged documents.
     private int commitCounter = 0;
-    private HashMap termContexts;
     private ObjectMapper mapper = new ObjectMapper();
 
     // private ByteBuffer bbTerm;
@@ -193,6 +306,103 @@ public final class KrillIndex {
                         "krill.index.commit.auto expected to be a numerical value");
             };
         };
+
+        // Check for bulk load RAM buffer size
+        String ramBufferStr = null;
+        if (prop != null)
+            ramBufferStr = prop.getProperty("krill.index.bulk.ramBuffer");
+
+        if (ramBufferStr != null) {
+            try {
+                this.bulkRAMBufferSize = Double.parseDouble(ramBufferStr);
+            }
+            catch (NumberFormatException e) {
+                log.error(
+                        "krill.index.bulk.ramBuffer expected to be a numerical value");
+            };
+        };
+
+        // Check for term vector option
+        if (prop != null)
+            this.termVectors = Boolean.parseBoolean(
+                    prop.getProperty("krill.index.termVectors", "true"));
+
+        // Check for primary key cache size
+        String pkCacheStr = null;
+        if (prop != null)
+            pkCacheStr = prop.getProperty("krill.index.pkCache");
+
+        if (pkCacheStr != null) {
+            try {
+                this.primaryKeyCacheSize = Integer.parseInt(pkCacheStr);
+            }
+            catch (NumberFormatException e) {
+                log.error(
+                        "krill.index.pkCache expected to be a numerical value");
+            };
+        };
+
+        // Check for term context cache size
+        String tcCacheStr = null;
+        if (prop != null)
+            tcCacheStr = prop.getProperty("krill.index.termContextCache");
+
+        if (tcCacheStr != null) {
+            try {
+                this.termContextCacheSize = Integer.parseInt(tcCacheStr);
+            }
+            catch (NumberFormatException e) {
+                log.error(
+                        "krill.index.termContextCache expected to be a numerical value");
+            };
+        };
+
+        // Check for elements with interval indices
+        if (prop != null) {
+            String intervalStr = prop
+                    .getProperty("krill.index.elementIntervals");
+            if (intervalStr != null)
+                this.setIntervalElements(intervalStr.split("\\s*,\\s*"));
+        };
+
+        // Check for metadata fields stored as facets
+        if (prop != null) {
+            String facetStr = prop.getProperty("krill.index.facets");
+            if (facetStr != null)
+                this.setFacets(facetStr.split("\\s*,\\s*"));
+        };
+
+        // Check for multi-way joins of distance constraints
+        if (prop != null)
+            this.distanceJoin = Boolean.parseBoolean(
+                    prop.getProperty("krill.index.distanceJoin", "false"));
+
+        // Check for refresh interval
+        String refreshStr = null;
+        if (prop != null)
+            refreshStr = prop.getProperty("krill.index.refresh");
+
+        if (refreshStr != null) {
+            try {
+                this.refreshInterval = Long.parseLong(refreshStr);
+            }
+            catch (NumberFormatException e) {
+                log.error(
+                        "krill.index.refresh expected to be a numerical value");
+            };
+        };
+    };
+
+
+    // A reader acquired by a thread
+    private static class Snapshot {
+        private final DirectoryReader reader;
+        private int depth = 1;
+
+
+        private Snapshot (DirectoryReader reader) {
+            this.reader = reader;
+        };
     };
 
 
@@ -243,17 +453,293 @@ public final class KrillIndex {
      * The Lucene {@link IndexReader} object.
      * 
      * Will be opened, in case it's closed.
+     * In case the current thread acquired a snapshot
+     * using {@link #acquireReader()}, the reader of the snapshot
+     * is returned.
+     * Otherwise the current reader of the index is returned,
+     * that is only kept open until the index is refreshed
+     * or committed. Callers using the reader for more than
+     * a single lookup therefore need to hold a snapshot,
+     * as all methods of the index and of
+     * {@link KrillCollection} and {@link KrillStats} do.
      * 
      * @return The {@link IndexReader} object.
      */
     public IndexReader reader () {
-        // Todo: Maybe use DirectoryReader.openIfChanged(DirectoryReader)       
-        if (!readerOpen)
-            this.openReader();
-        if (!readerOpen)
+        final Snapshot s = this.snapshot.get();
+        if (s != null)
+            return s.reader;
+
+        final ReaderManager rm = this.openReader();
+        if (rm == null)
+            return null;
+
+        // The current reader is referenced by the manager
+        // until it is replaced by a refresh
+        try {
+            final DirectoryReader reader = rm.acquire();
+            rm.release(reader);
+            return reader;
+        }
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+        };
+        return null;
+    };
+
+
+    /**
+     * Acquire a reference counted snapshot of the index
+     * for the current thread.
+     * Until the snapshot is released using {@link #releaseReader()},
+     * all calls of {@link #reader()} in the thread return the same
+     * reader, even if the index is committed or refreshed
+     * in the meantime.
+     * Acquisitions can be nested.
+     * 
+     * @return The {@link IndexReader} object or <code>null</code>
+     *         in case the index is empty.
+     */
+    public IndexReader acquireReader () {
+        Snapshot s = this.snapshot.get();
+        if (s != null) {
+            s.depth++;
+            return s.reader;
+        };
+
+        final ReaderManager rm = this.openReader();
+        if (rm == null)
+            return null;
+
+        try {
+            s = new Snapshot(rm.acquire());
+            this.snapshot.set(s);
+            return s.reader;
+        }
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+        };
+        return null;
+    };
+
+
+    /**
+     * Release the snapshot of the current thread
+     * acquired by {@link #acquireReader()}.
+     * The reader is closed, once it is released by all threads
+     * and a newer reader was opened.
+     */
+    public void releaseReader () {
+        final Snapshot s = this.snapshot.get();
+        if (s == null || --s.depth > 0)
+            return;
+
+        this.snapshot.remove();
+        try {
+            s.reader.decRef();
+        }
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+        };
+    };
+
+
+    /**
+     * Get the resolver of primary keys (like <i>textSigle</i>
+     * or <i>UID</i>) for the current reader.
+     * The resolver caches recently resolved keys,
+     * until the reader is closed.
+     * 
+     * @return The {@link PrimaryKeyResolver} or <code>null</code>
+     *         in case the index is empty.
+     */
+    public PrimaryKeyResolver getPrimaryKeyResolver () {
+        final IndexReader reader = this.reader();
+        if (reader == null)
+            return null;
+        return this.primaryKeys(reader);
+    };
+
+
+    /**
+     * Set the number of primary keys cached by the
+     * {@link PrimaryKeyResolver}.
+     * Defaults to <tt>krill.index.pkCache</tt> in the
+     * configuration or 10000. <tt>0</tt> disables the cache.
+     * Takes effect once the reader is reopened.
+     * 
+     * @param size
+     *            The number of cached keys.
+     */
+    public void setPrimaryKeyCacheSize (int size) {
+        this.primaryKeyCacheSize = size;
+    };
+
+
+    /**
+     * Set the elements to be looked up in an interval index
+     * per document in containment queries, e.g.
+     * <tt>base/s:s</tt> for sentences.
+     * Defaults to <tt>krill.index.elementIntervals</tt> in the
+     * configuration.
+     * 
+     * @param elements
+     *            The elements.
+     * @see de.ids_mannheim.korap.query.spans.IntervalWithinSpans
+     */
+    public void setIntervalElements (String ... elements) {
+        final Set<String> set = new HashSet<String>();
+        for (String element : elements) {
+            if (element.length() > 0)
+                set.add(element);
+        };
+        this.intervalElements = Collections.unmodifiableSet(set);
+    };
+
+
+    /**
+     * Set <code>true</code> to evaluate all distance constraints
+     * of a multiple distance query in a single join of
+     * the operands, instead of a distance query per constraint.
+     * Defaults to <tt>krill.index.distanceJoin</tt> in the
+     * configuration.
+     * 
+     * @param distanceJoin
+     *            Boolean flag for multi-way joins.
+     * @see de.ids_mannheim.korap.query.spans.MultipleDistanceJoinSpans
+     */
+    public void setDistanceJoin (boolean distanceJoin) {
+        this.distanceJoin = distanceJoin;
+    };
+
+
+    /**
+     * Get the cache of {@link TermContext TermContexts}
+     * for the current reader, shared by all searches.
+     * The cache is dropped once the reader is closed.
+     * 
+     * @return The {@link TermContextCache} or <code>null</code>
+     *         in case the index is empty.
+     */
+    public TermContextCache getTermContextCache () {
+        final IndexReader reader = this.reader();
+        if (reader == null)
             return null;
+        return this.termContexts(reader);
+    };
+
+
+    /**
+     * Set the number of terms cached by the
+     * {@link TermContextCache}.
+     * Defaults to <tt>krill.index.termContextCache</tt> in the
+     * configuration or 10000. <tt>0</tt> disables the cache.
+     * Takes effect once the reader is reopened.
+     * 
+     * @param size
+     *            The number of cached terms.
+     */
+    public void setTermContextCacheSize (int size) {
+        this.termContextCacheSize = size;
+    };
+
+
+    // Get the term context cache bound to the reader of the segment
+    private TermContextCache termContexts (LeafReaderContext atomic) {
+        return this.termContexts(
+                ReaderUtil.getTopLevelContext(atomic).reader());
+    };
+
+
+    // Get the term context cache bound to the reader.
+    // Searches on snapshots of older readers keep their caches,
+    // so they don't invalidate the cache of the current reader
+    private TermContextCache termContexts (IndexReader reader) {
+        final Object key = reader.getCoreCacheKey();
+        TermContextCache tc = this.termContexts.get(key);
+        if (tc != null)
+            return tc;
+
+        tc = new TermContextCache(reader, this.termContextCacheSize);
+        final TermContextCache cached = this.termContexts.putIfAbsent(key,
+                tc);
+        if (cached != null)
+            return cached;
+
+        try {
+            reader.addReaderClosedListener(r -> this.termContexts.remove(key));
+        }
+        catch (AlreadyClosedException e) {
+            this.termContexts.remove(key);
+        };
+        return tc;
+    };
+
+
+    // Get the primary key resolver bound to the reader.
+    // Lookups on snapshots of older readers keep their resolvers,
+    // so they don't invalidate the resolver of the current reader
+    private PrimaryKeyResolver primaryKeys (IndexReader reader) {
+        final Object key = reader.getCoreCacheKey();
+        PrimaryKeyResolver pk = this.primaryKeys.get(key);
+        if (pk != null)
+            return pk;
+
+        pk = new PrimaryKeyResolver(reader, this.primaryKeyCacheSize);
+        final PrimaryKeyResolver cached = this.primaryKeys.putIfAbsent(key,
+                pk);
+        if (cached != null)
+            return cached;
+
+        try {
+            reader.addReaderClosedListener(r -> this.primaryKeys.remove(key));
+        }
+        catch (AlreadyClosedException e) {
+            this.primaryKeys.remove(key);
+        };
+        return pk;
+    };
+
+
+    /**
+     * Reopen the reader in case the index changed.
+     * Searches in progress keep their snapshot of the index.
+     * 
+     * @return <tt>true</tt> in case the reader was refreshed
+     *         or not opened yet.
+     */
+    public boolean refreshReader () {
+        final ReaderManager rm = this.readerManager;
+        if (rm == null)
+            return true;
+
+        try {
+            rm.maybeRefreshBlocking();
+            return true;
+        }
+        catch (IOException | AlreadyClosedException e) {
+            log.warn(e.getLocalizedMessage());
+        };
+        return false;
+    };
+
 
-        return this.reader;
+    /**
+     * Set the interval for refreshing the reader in the background,
+     * e.g. in case the index is modified by another process.
+     * Defaults to <tt>krill.index.refresh</tt> in the configuration.
+     * Commits of the index itself are visible immediately.
+     * 
+     * @param interval
+     *            The interval in milliseconds,
+     *            <tt>0</tt> disables the background refresh.
+     */
+    public synchronized void setRefreshInterval (long interval) {
+        this.refreshInterval = interval;
+        if (this.readerManager != null) {
+            this._stopRefresher();
+            this._startRefresher();
+        };
     };
 
 
@@ -275,8 +761,8 @@ public final class KrillIndex {
     };
     
 
-    // Open index reader
-    private void openWriter () {
+    // Open index writer
+    private synchronized void openWriter () {
         if (writerOpen) {
             return;
         };
@@ -293,7 +779,25 @@ public final class KrillIndex {
                 new TextAnalyzer(), analyzerPerField);
 
             // Create configuration with base analyzer
-            this.writer = new IndexWriter(this.directory, new IndexWriterConfig(analyzer));
+            IndexWriterConfig config = new IndexWriterConfig(analyzer);
+
+            // Flush large segments and merge less often during
+            // an initial load, a final force merge can
+            // reduce the number of segments afterwards
+            if (this.bulkLoad) {
+                TieredMergePolicy mergePolicy = new TieredMergePolicy();
+                mergePolicy.setSegmentsPerTier(30);
+                mergePolicy.setMaxMergeAtOnce(30);
+                mergePolicy.setNoCFSRatio(0.0);
+                config.setRAMBufferSizeMB(this.bulkRAMBufferSize);
+                config.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+                config.setMergePolicy(mergePolicy);
+                config.setUseCompoundFile(false);
+                log.info("Open writer in bulk load mode ({} MB RAM buffer)",
+                        this.bulkRAMBufferSize);
+            };
+
+            this.writer = new IndexWriter(this.directory, config);
             writerOpen = true;
         }
 
@@ -306,34 +810,95 @@ public final class KrillIndex {
 
 
     // Open index reader
-    private void openReader () {
-        if (readerOpen) {
-            return;
-        };
+    private ReaderManager openReader () {
+        ReaderManager rm = this.readerManager;
+        if (rm != null)
+            return rm;
 
-        try {
-            // open reader
-            this.reader = DirectoryReader.open(this.directory);
+        synchronized (this) {
+            if (this.readerManager != null)
+                return this.readerManager;
+
+            try {
+                // open reader
+                rm = new ReaderManager(this.directory);
+            }
+
+            // Failed to open reader
+            catch (IOException e) {
+                // This is in tests most of the time
+                // no problem, because the message just says
+                // "No segments found", because the reader
+                // is empty initially.
+                log.warn(e.getLocalizedMessage());
+                return null;
+            };
+
+            // Invalidate revision dependent data on changes
+            rm.addListener(new ReferenceManager.RefreshListener() {
+                @Override
+                public void beforeRefresh () {};
+
+
+                @Override
+                public void afterRefresh (boolean didRefresh) {
+                    if (!didRefresh)
+                        return;
+                    indexRevision = null;
+                    if (KrillCollection.cache != null)
+                        KrillCollection.cache.removeAll();
+                };
+            });
+
+            this.readerManager = rm;
             readerOpen = true;
+            this._startRefresher();
+            return rm;
         }
+    };
 
-        // Failed to open reader
-        catch (IOException e) {
-            // This is in tests most of the time
-            // no problem, because the message just says
-            // "No segments found", because the reader
-            // is empty initially.
-            log.warn(e.getLocalizedMessage());
+
+    // Close index reader.
+    // Acquired snapshots stay valid until they are released.
+    public synchronized void closeReader () throws IOException {
+        this._stopRefresher();
+        if (readerOpen || this.readerManager != null) {
+            this.readerManager.close();
+            this.readerManager = null;
+            readerOpen = false;
         };
     };
 
 
-    // Close index reader
-    public void closeReader () throws IOException {
-        if (readerOpen || this.reader != null) {
-            this.reader.close();
-            this.reader = null;
-            readerOpen = false;
+    // Start refreshing the reader in the background
+    private void _startRefresher () {
+        if (this.refreshInterval <= 0 || this.refresher != null)
+            return;
+
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "KrillIndex-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+
+        final ReaderManager rm = this.readerManager;
+        this.refresher.scheduleWithFixedDelay(() -> {
+            try {
+                rm.maybeRefresh();
+            }
+            catch (IOException | AlreadyClosedException e) {
+                log.warn(e.getLocalizedMessage());
+            };
+        }, this.refreshInterval, this.refreshInterval,
+                TimeUnit.MILLISECONDS);
+    };
+
+
+    // Stop refreshing the reader in the background
+    private void _stopRefresher () {
+        if (this.refresher != null) {
+            this.refresher.shutdownNow();
+            this.refresher = null;
         };
     };
 
@@ -379,14 +944,21 @@ public final class KrillIndex {
 
     /**
      * Commit staged data to the index.
+     * Commits are synchronized, so documents can be added
+     * from multiple threads.
      * 
      * @throws IOException
      */
-    public void commit () throws IOException {
+    public synchronized void commit () throws IOException {
         log.info("Internal committing index ... ");
         this.writer().commit();
         commitCounter = 0;
-        this.closeReader();
+
+        // Make the commit visible to new searches
+        // without closing readers in use
+        if (!this.refreshReader())
+            this.closeReader();
+        this.indexRevision = null;
         if (KrillCollection.cache != null)
             KrillCollection.cache.removeAll();
     };
@@ -414,107 +986,199 @@ public final class KrillIndex {
 
 
     /**
-     * Update a document in the index as a {@link FieldDocument}
-     * if it already exists (based on the textSigle), otherwise
-     * insert it to the index.
+     * Check if the index is in bulk load mode.
      * 
-     * @param doc
-     *            The {@link FieldDocument} to add to the index.
-     * @return The {@link FieldDocument}, which means, the same
-     *         object, that was passed to the method.
+     * @return <tt>true</tt> in case the index is in bulk load mode.
      */
-    public FieldDocument upsertDoc (FieldDocument doc) {
-        if (doc == null)
-            return doc;
+    public boolean isBulkLoad () {
+        return this.bulkLoad;
+    };
 
-        // Create a filter based on the corpusID and the docID
-        String textSigle = doc.getTextSigle();
-        KrillDate current = new KrillDate(LocalDate.now());
-        KrillDate indexCreationDate = current;
-        KrillDate indexLastModified = current;
-               
-        // Delete the document if exists
-        if (textSigle != null) {
 
-            // First find the document
-            Filter filter = (Filter) new QueryWrapperFilter(
-                new TermQuery(new Term("textSigle", textSigle))
-                );
-            
-            try {
-                // Iterate over all atomic indices and find the matching document
+    /**
+     * Switch the bulk load mode for initial index creation.
+     * In bulk load mode, the writer uses a large RAM buffer
+     * and a merge policy suitable for loading many documents,
+     * documents are always added without checking for existing
+     * documents with the same textSigle (i.e. upserts become adds)
+     * and the autocommit is disabled, so changes are only committed
+     * on explicit {@link #commit()} calls.
+     * An already opened writer is committed and closed, so the
+     * next write operation opens a writer with the new configuration.
+     * 
+     * @param bulkLoad
+     *            <tt>true</tt> to enable bulk load mode.
+     * @throws IOException
+     */
+    public synchronized void setBulkLoad (boolean bulkLoad)
+            throws IOException {
+        if (this.bulkLoad == bulkLoad)
+            return;
 
-            UPSERT:
-                while (true) {
+        if (writerOpen) {
+            this.commit();
+            this.closeWriter();
+        };
+        this.bulkLoad = bulkLoad;
+    };
 
-                    if (this.reader() != null) {
-                
-                        for (LeafReaderContext atomic : this.reader().leaves()) {
-                        
-                            // The reader is closed
-                            /*
-                            if (this.reader.getRefCount() == 0) {
-
-                                // Retry update
-                                // System.err.println("Retry update!");
-                                break;
-                            };
-                            */
-                        
-                            // Retrieve the single document of interest
-                            DocIdSet filterSet = filter.getDocIdSet(
-                                atomic,
-                                atomic.reader().getLiveDocs());
-                        
-                            DocIdSetIterator filterIterator = filterSet.iterator();
-
-                            if (filterIterator == null) {
-                                continue;
-                            };
-                    
-                            // Go to the matching doc - and remember its ID
-                            int localDocID = filterIterator.nextDoc();
 
-                            if (localDocID == DocIdSetIterator.NO_MORE_DOCS) {
-                                continue;
-                            };
+    /**
+     * Check if term vectors are stored for newly added documents.
+     * 
+     * @return <tt>true</tt> in case term vectors are stored.
+     */
+    public boolean hasTermVectors () {
+        return this.termVectors;
+    };
 
-                            // We've found the correct document! Hurray!
-                            if (DEBUG)
-                                log.trace("We've found a matching document");
-                            
-                            // TODO: Probably use
-                            // document(int docID, StoredFieldVisitor visitor)
-                            Document storedDoc = atomic.reader().document(localDocID);
-
-                            // Document is loadable
-                            if (storedDoc != null) {
-                                IndexableField indexCreationField =
-                                    storedDoc.getField("indexCreationDate");
-                        
-                                if (indexCreationField == null) {
-                                    indexCreationDate = current;
-                                }
-                                else {
-                                    indexCreationDate = new KrillDate(
-                                        indexCreationField.numericValue().toString()
-                                        );
-                                };
-                            };
 
-                            this.delDocs("textSigle", textSigle);
-                            break UPSERT;
+    /**
+     * Define, whether term vectors are stored for
+     * newly added documents.
+     * Defaults to <tt>krill.index.termVectors</tt> in the
+     * configuration or <tt>true</tt>.
+     * Without term vectors, the index is considerably smaller,
+     * and match information as well as collocations are
+     * retrieved by seeking the requested terms in the postings
+     * of the document's segment, which is slower in case many terms
+     * match the requested foundries and layers.
+     * Indices with and without term vectors can be mixed.
+     * 
+     * @param termVectors
+     *            <tt>true</tt> to store term vectors.
+     */
+    public void setTermVectors (boolean termVectors) {
+        this.termVectors = termVectors;
+    };
+
+
+    /**
+     * Set the metadata fields stored as doc values
+     * for newly added documents, e.g. <tt>author</tt>
+     * or <tt>pubDate</tt>, so matches can be aggregated
+     * by these fields without reading their postings.
+     * Defaults to <tt>krill.index.facets</tt> in the
+     * configuration. Other fields are aggregated based on
+     * their indexed terms.
+     * 
+     * @param fields
+     *            The metadata fields.
+     * @see Aggregation
+     */
+    public void setFacets (String ... fields) {
+        final Set<String> set = new HashSet<String>();
+        for (String field : fields) {
+            if (field.length() > 0)
+                set.add(field);
+        };
+        this.facets = Collections.unmodifiableSet(set);
+    };
+
+
+    /**
+     * Set the size of the RAM buffer of the writer in bulk load mode.
+     * Defaults to <tt>krill.index.bulk.ramBuffer</tt> in the
+     * configuration or 512 MB.
+     * 
+     * @param size
+     *            The size of the RAM buffer in MB.
+     */
+    public void setBulkRAMBufferSize (double size) {
+        this.bulkRAMBufferSize = size;
+    };
+
+
+    /**
+     * Merge the index down to a maximum number of segments
+     * and commit the result.
+     * This is expensive and should only be done after an
+     * initial load of an index that is not changed often.
+     * 
+     * @param maxSegments
+     *            The maximum number of segments.
+     * @throws IOException
+     */
+    public synchronized void forceMerge (int maxSegments) throws IOException {
+        log.info("Merging index to {} segments ... ", maxSegments);
+        this.writer().forceMerge(maxSegments);
+        this.commit();
+    };
+
+
+    /**
+     * Update a document in the index as a {@link FieldDocument}
+     * if it already exists (based on the textSigle), otherwise
+     * insert it to the index.
+     * 
+     * @param doc
+     *            The {@link FieldDocument} to add to the index.
+     * @return The {@link FieldDocument}, which means, the same
+     *         object, that was passed to the method.
+     */
+    public FieldDocument upsertDoc (FieldDocument doc) {
+        if (doc == null)
+            return doc;
+
+        // Create a filter based on the corpusID and the docID
+        String textSigle = doc.getTextSigle();
+        KrillDate current = new KrillDate(LocalDate.now());
+        KrillDate indexCreationDate = current;
+        KrillDate indexLastModified = current;
+               
+        // Delete the document if exists
+        // (in bulk load mode, the index is expected to be new)
+        if (textSigle != null && !this.bulkLoad) {
+
+            // Use a snapshot of the index, so the reader
+            // can't be closed by a concurrent commit
+            final IndexReader reader = this.acquireReader();
+            try {
+                if (reader != null) {
+
+                    // First find the document
+                    PrimaryKeyResolver.Location loc = this
+                            .primaryKeys(reader).lookup("textSigle", textSigle);
+
+                    if (loc != null) {
+
+                        // We've found the correct document! Hurray!
+                        if (DEBUG)
+                            log.trace("We've found a matching document");
+
+                        // TODO: Probably use
+                        // document(int docID, StoredFieldVisitor visitor)
+                        Document storedDoc = loc.getContext().reader()
+                                .document(loc.getDocID());
+
+                        // Document is loadable
+                        if (storedDoc != null) {
+                            IndexableField indexCreationField =
+                                storedDoc.getField("indexCreationDate");
+
+                            if (indexCreationField == null) {
+                                indexCreationDate = current;
+                            }
+                            else {
+                                indexCreationDate = new KrillDate(
+                                    indexCreationField.numericValue().toString()
+                                    );
+                            };
                         };
-                    }
-                    else {
-                        log.warn("Reader is null");
+
+                        this.delDocs("textSigle", textSigle);
                     };
-                    break;
+                }
+                else {
+                    log.warn("Reader is null");
                 };
             }
 
             catch (IOException e) {
                 log.error("Unable to upsert document");
+            }
+            finally {
+                this.releaseReader();
             };
         };
 
@@ -553,9 +1217,14 @@ public final class KrillIndex {
 
         try {
 
+            if (!this.termVectors)
+                doc.setTermVectors(false);
+
+            doc.setFacets(this.facets);
+
             // Add document to writer
             this.writer().addDocument(doc.compile());
-            if (++commitCounter > autoCommit) {
+            if (++commitCounter > autoCommit && !this.bulkLoad) {
                 this.commit();
                 commitCounter = 0;
             };
@@ -583,7 +1252,7 @@ public final class KrillIndex {
             return false;
         try {
             this.writer().deleteDocuments(new Term(field, term));
-            if (++commitCounter > autoCommit) {
+            if (++commitCounter > autoCommit && !this.bulkLoad) {
                 this.commit();
                 commitCounter = 0;
             };
@@ -707,8 +1376,7 @@ public final class KrillIndex {
     // Parse JSON document from Input stream
     private FieldDocument _fromJson (String json) {
         try {
-            FieldDocument fd = this.mapper.readValue(json, FieldDocument.class);
-            return fd;
+            return FieldDocumentParser.parse(json);
         }
         catch (IOException e) {
             log.error("File json not found or unmappable: {}",
@@ -725,13 +1393,12 @@ public final class KrillIndex {
 
                 GZIPInputStream gzipFile = new GZIPInputStream(json);
 
-                // Create json field document
-                FieldDocument fd = this.mapper.readValue(
-                        gzipFile, FieldDocument.class);
+                // Stream json field document
+                FieldDocument fd = FieldDocumentParser.stream(gzipFile);
                 gzipFile.close();
                 return fd;
             };
-            FieldDocument field = this.mapper.readValue(json, FieldDocument.class);
+            FieldDocument field = FieldDocumentParser.stream(json);
             json.close();
             return field;
         }
@@ -763,6 +1430,19 @@ public final class KrillIndex {
      */
     public long numberOf (KrillCollection collection, String field,
             String type) {
+        this.acquireReader();
+        try {
+            return this._numberOf(collection, field, type);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
+
+
+    // Count on a snapshot of the index
+    private long _numberOf (KrillCollection collection, String field,
+            String type) {
 
         collection.setIndex(this);
         try {
@@ -811,59 +1491,96 @@ public final class KrillIndex {
     };
 
 
-    public Text getDoc (String uid) {
-        // This is very similar to getMatchInfo
+    /**
+     * Search for the number of occurrences of multiple types,
+     * e.g. <i>documents</i>, <i>tokens</i> or <i>sentences</i>,
+     * in a single pass.
+     * 
+     * @param field
+     *            The field containing the textual data and the
+     *            annotations as a string.
+     * @param types
+     *            The types of meta information as strings.
+     * @return A map of types and their numbers of occurrences.
+     * @see KrillCollection#numbersOf
+     */
+    public Map<String, Long> numbersOf (String field, String ... types) {
+        this.acquireReader();
+        try {
+            return this._numbersOf(field, types);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
 
-        Text text = new Text();
 
-        // Rewrite parse ID
-        uid = new Integer(Integer.parseInt(uid)).toString();
+    // Count on a snapshot of the index
+    private Map<String, Long> _numbersOf (String field, String ... types) {
+        KrillCollection collection = new KrillCollection(this);
+        try {
+            return collection.numbersOf(field, types);
+        }
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+        };
+
+        Map<String, Long> numbers = new LinkedHashMap<String, Long>();
+        for (String type : types)
+            numbers.put(type, (long) -1);
+        return numbers;
+    };
+
+
+    /**
+     * Get the cache for corpus statistics of this index.
+     * 
+     * @return The {@link StatisticsCache} object.
+     */
+    public StatisticsCache getStatisticsCache () {
+        return this.statisticsCache;
+    };
 
-        Filter filter = (Filter) new QueryWrapperFilter(
-            new TermQuery(new Term("UID", uid)));
 
+    public Text getDoc (String uid) {
+        this.acquireReader();
         try {
+            return this._getDoc(uid);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
 
-            // Iterate over all atomic indices and find the matching document
-            for (LeafReaderContext atomic : this.reader().leaves()) {
 
-                // Retrieve the single document of interest
-                DocIdSet filterSet = filter.getDocIdSet(atomic,
-                        atomic.reader().getLiveDocs());
+    // Retrieve the document from a snapshot of the index
+    private Text _getDoc (String uid) {
+        // This is very similar to getMatchInfo
 
-                DocIdSetIterator filterIterator = filterSet.iterator();
+        Text text = new Text();
 
-                if (DEBUG) {
-					// Create a bitset for the correct document
-					Bits bitset = filterSet.bits();
-					
-                    log.trace("Checking document in {} with {}", filterSet,
-							  bitset);
-				};
+        // Rewrite parse ID
+        uid = new Integer(Integer.parseInt(uid)).toString();
 
-                // No document found
-                if (filterIterator == null)
-                    continue;
+        try {
+            IndexReader reader = this.reader();
 
-                // Go to the matching doc - and remember its ID
-                int localDocID = filterIterator.nextDoc();
+            // Find the matching document
+            PrimaryKeyResolver.Location loc = reader == null ? null
+                    : this.primaryKeys(reader).lookup("UID", uid);
 
-                if (localDocID == DocIdSetIterator.NO_MORE_DOCS)
-                    continue;
+            if (loc != null) {
 
                 // We've found the correct document! Hurray!
                 if (DEBUG)
                     log.trace("We've found a matching document");
 
-                // HashSet<String> fields = (HashSet<String>) new Krill()
-                //    .getMeta().getFields().clone();
-                // fields.add(field);
-
                 // Load the necessary fields of the document
 
                 // TODO: Probably use
                 // document(int docID, StoredFieldVisitor visitor)
-                Document doc = atomic.reader().document(localDocID);
+                Document doc = loc.getContext().reader()
+                        .document(loc.getDocID());
                 text.populateFields(doc);
 
                 return text;
@@ -942,370 +1659,688 @@ public final class KrillIndex {
             List<String> foundry, List<String> layer, boolean includeSpans,
             boolean includeHighlights, boolean extendToSentence)
             throws QueryException {
+        this.acquireReader();
+        try {
+            return this._getMatchInfo(idString, field, info, foundry, layer,
+                    includeSpans, includeHighlights, extendToSentence);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
 
-        if (DEBUG)
-            log.trace("Get info on {}", idString);
 
-        Match match = new Match(idString, includeHighlights);
+    // Retrieve the match from a snapshot of the index
+    private Match _getMatchInfo (String idString, String field,
+            boolean info, List<String> foundry, List<String> layer,
+            boolean includeSpans, boolean includeHighlights,
+            boolean extendToSentence) throws QueryException {
+        return this._getMatchInfos(Collections.singletonList(idString), field,
+                info, foundry, layer, includeSpans, includeHighlights,
+                extendToSentence).get(0);
+    };
 
-        if (this.getVersion() != null)
-            match.setVersion(this.getVersion());
 
-        if (this.getName() != null)
-            match.setName(this.getName());
+    /**
+     * Get information on multiple matches at once.
+     * Matches are grouped by their documents, so every document
+     * (including its stored fields and term vector) is only loaded
+     * once for all its matches.
+     * 
+     * @param ids
+     *            The list of match identifiers.
+     * @param field
+     *            The field of the token stream.
+     * @param info
+     *            Retrieve annotations of the matches.
+     * @param foundry
+     *            The list of requested foundries.
+     * @param layer
+     *            The list of requested layers.
+     * @param includeSpans
+     *            Retrieve span annotations.
+     * @param includeHighlights
+     *            Include highlights of the match identifiers.
+     * @param extendToSentence
+     *            Extend the matches to the surrounding sentence.
+     * @return The list of {@link Match} objects
+     *         in the order of the identifiers.
+     * @throws QueryException
+     */
+    public List<Match> getMatchInfos (List<String> ids, String field,
+            boolean info, List<String> foundry, List<String> layer,
+            boolean includeSpans, boolean includeHighlights,
+            boolean extendToSentence) throws QueryException {
+        this.acquireReader();
+        try {
+            return this._getMatchInfos(ids, field, info, foundry, layer,
+                    includeSpans, includeHighlights, extendToSentence);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
 
-        if (match.getStartPos() == -1)
-            return match;
 
-        // Create a filter based on the corpusID and the docID
-        BooleanQuery bool = new BooleanQuery();
-        if (match.getTextSigle() != null) {
-            bool.add(new TermQuery(new Term("textSigle", match.getTextSigle())),
-                    BooleanClause.Occur.MUST);
-        }
+    // Retrieve matches grouped by document from a snapshot of the index
+    private List<Match> _getMatchInfos (List<String> ids, String field,
+            boolean info, List<String> foundry, List<String> layer,
+            boolean includeSpans, boolean includeHighlights,
+            boolean extendToSentence) throws QueryException {
 
-        // <legacy>
-        else if (match.getDocID() != null) {
-            bool.add(new TermQuery(new Term("ID", match.getDocID())),
-                    BooleanClause.Occur.MUST);
-            bool.add(new TermQuery(new Term("corpusID", match.getCorpusID())),
-                    BooleanClause.Occur.MUST);
-        }
-        // </legacy>
+        final List<Match> matches = new ArrayList<Match>(ids.size());
 
-        // Invalid
-        else {
-            match.addError(730, "Invalid match identifier", idString);
-            return match;
-        };
+        // Matches grouped by document
+        final Map<String, List<Match>> docMatches = new LinkedHashMap<String, List<Match>>();
 
-        if (DEBUG)
-            log.trace("The bool query is {}", bool.toString());
+        for (String idString : ids) {
+            if (DEBUG)
+                log.trace("Get info on {}", idString);
 
-        Filter filter = (Filter) new QueryWrapperFilter(bool);
+            Match match = new Match(idString, includeHighlights);
+            matches.add(match);
 
-        CompiledAutomaton fst = null;
-        ByteBuffer bbTerm = ByteBuffer.allocate(32);
+            if (this.getVersion() != null)
+                match.setVersion(this.getVersion());
 
-        if (info) {
-            /* Create an automaton for prefixed terms of interest.
-             * You can define the necessary foundry, the necessary layer,
-             * in case the foundry is given, and if span annotations
-             * are of interest.
-             */
-            StringBuilder regex = new StringBuilder();
-            // TODO: Make these static
-            Pattern harmlessFoundry = Pattern.compile("^[-a-zA-Z0-9_]+$");
-            Pattern harmlessLayer = Pattern.compile("^[-a-zA-Z0-9_:]+$");
-            Iterator<String> iter;
-            int i = 0;
-
-            if (includeSpans)
-                regex.append("((\">\"|\"<\"\">\")\":\")?");
-
-            // There is a foundry given
-            if (foundry != null && foundry.size() > 0) {
-
-                // Filter out bad foundries
-                for (i = foundry.size() - 1; i >= 0; i--) {
-                    if (!harmlessFoundry.matcher(foundry.get(i)).matches()) {
-                        match.addError(970, "Invalid foundry requested",
-                                foundry.get(i));
-                        return match;
-                    };
-                };
+            if (this.getName() != null)
+                match.setName(this.getName());
 
-                // Build regex for multiple foundries
-                if (foundry.size() > 0) {
-                    regex.append("(");
-                    iter = foundry.iterator();
-                    while (iter.hasNext()) {
-                        regex.append(iter.next()).append("|");
-                    };
-                    regex.replace(regex.length() - 1, regex.length(), ")");
-                    regex.append("\"/\"");
-
-                    // There is a filter given
-                    if (layer != null && layer.size() > 0) {
-
-                        // Filter out bad layers
-                        for (i = layer.size() - 1; i >= 0; i--) {
-                            if (!harmlessLayer.matcher(layer.get(i))
-                                    .matches()) {
-                                throw new QueryException(
-                                        "Invalid layer requested: "
-                                                + layer.get(i));
-                                // layer.remove(i);
-                            };
-                        };
+            if (match.getStartPos() == -1)
+                continue;
 
-                        // Build regex for multiple layers
-                        if (layer.size() > 0) {
-                            regex.append("(");
-                            iter = layer.iterator();
-                            while (iter.hasNext()) {
-                                regex.append(iter.next()).append("|");
-                            };
-                            regex.replace(regex.length() - 1, regex.length(),
-                                    ")");
-                            regex.append("\":\"");
-                        };
-                    };
-                };
+            String key;
+            if (match.getTextSigle() != null) {
+                key = match.getTextSigle();
             }
-            else if (includeSpans) {
-                // No foundries - but spans
-                regex.append("([^-is]|[-is][^:])");
+
+            // <legacy>
+            else if (match.getDocID() != null) {
+                key = match.getCorpusID() + "!" + match.getDocID() + "!";
             }
+            // </legacy>
+
+            // Invalid
             else {
-                // No foundries - no spans
-                regex.append("([^-is<>]|[-is>][^:]|<[^:>])");
+                match.addError(730, "Invalid match identifier", idString);
+                continue;
             };
-            regex.append("(.){1,}|_[0-9]+");
-
-            if (DEBUG)
-                log.trace("The final regexString is {}", regex.toString());
 
-            RegExp regexObj = new RegExp(regex.toString(), RegExp.COMPLEMENT);
-            fst = new CompiledAutomaton(regexObj.toAutomaton());
-            if (DEBUG)
-                log.trace("The final regexObj is {}", regexObj.toString());
+            List<Match> list = docMatches.get(key);
+            if (list == null) {
+                list = new ArrayList<Match>(1);
+                docMatches.put(key, list);
+            };
+            list.add(match);
         };
 
-        try {
-
-            // Iterate over all atomic indices and find the matching document
-            for (LeafReaderContext atomic : this.reader().leaves()) {
+        if (docMatches.isEmpty())
+            return matches;
 
-                // Retrieve the single document of interest
-                DocIdSet filterSet = filter.getDocIdSet(atomic,
-                        atomic.reader().getLiveDocs());
+        CompiledAutomaton fst = null;
+        List<BytesRef> prefixes = null;
 
-                DocIdSetIterator filterIterator = filterSet.iterator();
+        if (info) {
 
-                if (DEBUG) {
-					// Create a bitset for the correct document
-					Bits bitset = filterSet.bits();
+            // Filter out bad foundries
+            if (foundry != null) {
+                for (String f : foundry) {
+                    if (!HARMLESS_FOUNDRY.matcher(f).matches()) {
+                        for (List<Match> list : docMatches.values()) {
+                            for (Match match : list)
+                                match.addError(970,
+                                        "Invalid foundry requested", f);
+                        };
+                        return matches;
+                    };
+                };
+            };
 
-                    log.trace("Checking document in {} with {}", filterSet,
-							  bitset);
-				};
+            fst = _matchInfoAutomaton(foundry, layer, includeSpans);
+            prefixes = _matchInfoPrefixes(foundry, layer, includeSpans);
+        };
 
-                // No document found
-                if (filterIterator == null)
-                    continue;
+        for (List<Match> list : docMatches.values()) {
+            try {
+                this._getDocMatchInfos(list, field, info, fst, prefixes,
+                        extendToSentence);
+            }
+            catch (IOException e) {
+                for (Match match : list)
+                    match.addError(600, "Unable to read index",
+                            e.getLocalizedMessage());
+                log.warn(e.getLocalizedMessage());
+            };
+        };
 
-                // Go to the matching doc - and remember its ID
-                int localDocID = filterIterator.nextDoc();
+        return matches;
+    };
 
-                if (DEBUG)
-                    log.trace("localDocID is {}", localDocID);
 
-                if (localDocID == DocIdSetIterator.NO_MORE_DOCS)
-                    continue;
+    /*
+     * Create an automaton for prefixed terms of interest.
+     * You can define the necessary foundry, the necessary layer,
+     * in case the foundry is given, and if span annotations
+     * are of interest.
+     * Automata are cached, as their compilation is expensive.
+     */
+    private static CompiledAutomaton _matchInfoAutomaton (
+            List<String> foundry, List<String> layer, boolean includeSpans)
+            throws QueryException {
 
-                // We've found the correct document! Hurray!
-                if (DEBUG)
-                    log.trace("We've found a matching document");
+        StringBuilder regex = new StringBuilder();
+        Iterator<String> iter;
 
-                // Get terms from the document
-                Terms docTerms = atomic.reader().getTermVector(localDocID,
-                        field);
+        if (includeSpans)
+            regex.append("((\">\"|\"<\"\">\")\":\")?");
 
-				// The following fields should be lifted for the match
-                List<String> fields = (ArrayList<String>) new Krill().getMeta()
-                    .getFields().clone();
+        // There is a foundry given
+        if (foundry != null && foundry.size() > 0) {
 
-				// Lift all fields
-				if (fields.contains("@all"))
-					fields = null;
+            // Build regex for multiple foundries
+            regex.append("(");
+            iter = foundry.iterator();
+            while (iter.hasNext()) {
+                regex.append(iter.next()).append("|");
+            };
+            regex.replace(regex.length() - 1, regex.length(), ")");
+            regex.append("\"/\"");
 
-                HashSet<String> fieldsSet = new HashSet<String>(fields);
+            // There is a filter given
+            if (layer != null && layer.size() > 0) {
 
-				// Lift primary field
-                fieldsSet.add(field);
-                
-                // Load the necessary fields of the document
-                Document doc = (fields != null)
-                    ? atomic.reader().document(localDocID, fieldsSet)
-                    : atomic.reader().document(localDocID);
-
-                // Put some more information to the match
-                PositionsToOffset pto = new PositionsToOffset(atomic, field);
-                match.setPositionsToOffset(pto);
-                match.setLocalDocID(localDocID);
-                match.populateDocument(doc, field, (List<String>) fields);
-                if (DEBUG)
-                    log.trace("The document has the id '{}' or the sigle '{}'",
-                            match.getDocID(), match.getTextSigle());
+                // Filter out bad layers
+                for (int i = layer.size() - 1; i >= 0; i--) {
+                    if (!HARMLESS_LAYER.matcher(layer.get(i)).matches()) {
+                        throw new QueryException(
+                                "Invalid layer requested: " + layer.get(i));
+                    };
+                };
 
-                // Todo:
-                SearchContext context = match.getContext();
+                // Build regex for multiple layers
+                regex.append("(");
+                iter = layer.iterator();
+                while (iter.hasNext()) {
+                    regex.append(iter.next()).append("|");
+                };
+                regex.replace(regex.length() - 1, regex.length(), ")");
+                regex.append("\":\"");
+            };
+        }
+        else if (includeSpans) {
+            // No foundries - but spans
+            regex.append("([^-is]|[-is][^:])");
+        }
+        else {
+            // No foundries - no spans
+            regex.append("([^-is<>]|[-is>][^:]|<[^:>])");
+        };
+        regex.append("(.){1,}|_[0-9]+");
 
-                // Override the normal match marking
-                // to have an inner match
-                match.overrideMatchPosition(match.getStartPos(),
-                        match.getEndPos() - 1);
+        final String regexString = regex.toString();
 
+        if (DEBUG)
+            log.trace("The final regexString is {}", regexString);
 
-                // Search for minimal surrounding sentences
-                if (extendToSentence) {
-                    
-                    String element = "base/s:s";
-                    int[] spanContext = match.expandContextToSpan(element);
+        CompiledAutomaton fst = automatonCache.get(regexString);
+        if (fst == null) {
+            RegExp regexObj = new RegExp(regexString, RegExp.COMPLEMENT);
+            fst = new CompiledAutomaton(regexObj.toAutomaton());
+            automatonCache.put(regexString, fst);
+            if (DEBUG)
+                log.trace("The final regexObj is {}", regexObj.toString());
+        };
 
-                    if (DEBUG)
-                        log.trace("Extend to sentence element '{}'", element);
+        return fst;
+    };
 
-                    if (spanContext[0] >= 0
-                            && spanContext[0] < spanContext[1]) {
 
-                        // Match needs to be cutted!
-                        if ((spanContext[1] - spanContext[0]) > match.getMaxMatchTokens()) {
-                            int contextLength = match.getMaxMatchTokens() - match.getLength();
-                            int halfContext = contextLength / 2;
+    /*
+     * Get the literal prefixes of the terms accepted by the automaton
+     * of a foundry and layer filter (see _matchInfoAutomaton),
+     * in the order of the term dictionary.
+     * Without a foundry, the terms of interest are not restricted
+     * to prefixes and null is returned.
+     */
+    private static List<BytesRef> _matchInfoPrefixes (List<String> foundry,
+            List<String> layer, boolean includeSpans) {
 
-                            // This is the extended context calculated
-                            int realLeftLength = match.getStartPos() - spanContext[0];
+        if (foundry == null || foundry.size() == 0)
+            return null;
 
-                            // The length is too large - cut!
-                            if (realLeftLength > halfContext) {
-                                match.startCutted = true;
-                                spanContext[0] = match.getStartPos() - halfContext;
-                            }
-                        }
+        final TreeSet<BytesRef> sorted = new TreeSet<BytesRef>();
+        for (String f : foundry) {
+            final List<String> annotations = new ArrayList<String>();
+            if (layer != null && layer.size() > 0) {
+                for (String l : layer)
+                    annotations.add(f + "/" + l + ":");
+            }
+            else {
+                annotations.add(f + "/");
+            };
 
-                        match.setStartPos(spanContext[0]);
-                        match.setEndPos(spanContext[1]);
-						match.potentialStartPosChar = spanContext[2];
-						match.potentialEndPosChar = spanContext[3];
-                        match.startMore = false;
-                        match.endMore = false;
-                    }
-                    else {
-                        match.addWarning(651, "Unable to extend context");
-                    };
-                }
-                else {
-                    if (DEBUG)
-                        log.trace("Don't expand context");
+            for (String annotation : annotations) {
+                sorted.add(new BytesRef(annotation));
+                if (includeSpans) {
+                    sorted.add(new BytesRef("<>:" + annotation));
+                    sorted.add(new BytesRef(">:" + annotation));
                 };
+            };
+        };
 
-                context.left.setToken(true).setLength(0);
-                context.right.setToken(true).setLength(0);
+        // Positions
+        sorted.add(new BytesRef("_"));
 
-                if (!info)
-                    break;
+        // Ignore prefixes covered by a shorter prefix
+        final List<BytesRef> prefixes = new ArrayList<BytesRef>(sorted.size());
+        for (BytesRef prefix : sorted) {
+            if (prefixes.isEmpty() || !StringHelper.startsWith(prefix,
+                    prefixes.get(prefixes.size() - 1)))
+                prefixes.add(prefix);
+        };
 
-                // Limit the terms to all the terms of interest
-                TermsEnum termsEnum = docTerms.intersect(fst, null);
+        return prefixes;
+    };
 
-                DocsAndPositionsEnum docs = null;
 
-                // List of terms to populate
-                SpanInfo termList = new SpanInfo(pto, localDocID);
+    // Retrieve all matches of a single document
+    private void _getDocMatchInfos (List<Match> list, String field,
+            boolean info, CompiledAutomaton fst, List<BytesRef> prefixes,
+            boolean extendToSentence) throws IOException {
 
-                // Iterate over all terms in the document
-                while (termsEnum.next() != null) {
+        final Match first = list.get(0);
 
-                    // Get the positions and payloads of the term in the document
-                    // The bitvector may look different (don't know why)
-                    // and so the local ID may differ.
-                    // That's why the requesting bitset is null.
-                    docs = termsEnum.docsAndPositions(null, docs,
-                            DocsAndPositionsEnum.FLAG_PAYLOADS);
+        LeafReaderContext atomic = null;
+        int localDocID = DocIdSetIterator.NO_MORE_DOCS;
 
-                    // Init document iterator
-                    docs.nextDoc();
+        // Find the document based on the textSigle
+        if (first.getTextSigle() != null) {
+            PrimaryKeyResolver.Location loc = this.primaryKeys(this.reader())
+                    .lookup("textSigle", first.getTextSigle());
+            if (loc != null) {
+                atomic = loc.getContext();
+                localDocID = loc.getDocID();
+            };
+        }
 
-                    // Should never happen ... but hell!
-                    if (docs.docID() == DocIdSetIterator.NO_MORE_DOCS)
-                        continue;
+        // <legacy>
+        else {
+            // Create a filter based on the corpusID and the docID
+            BooleanQuery bool = new BooleanQuery();
+            bool.add(new TermQuery(new Term("ID", first.getDocID())),
+                    BooleanClause.Occur.MUST);
+            bool.add(new TermQuery(new Term("corpusID", first.getCorpusID())),
+                    BooleanClause.Occur.MUST);
 
-                    // String representation of the term
-                    String termString = termsEnum.term().utf8ToString();
+            if (DEBUG)
+                log.trace("The bool query is {}", bool.toString());
 
-                    // Iterate over all occurrences
-                    for (int i = 0; i < docs.freq(); i++) {
+            Filter filter = (Filter) new QueryWrapperFilter(bool);
 
-                        // Init positions and get the current
-                        int pos = docs.nextPosition();
+            // Iterate over all atomic indices and find the matching document
+            for (LeafReaderContext leaf : this.reader().leaves()) {
 
-                        // Check, if the position of the term is in the area of interest
-                        if (pos >= match.getStartPos()
-                                && pos < match.getEndPos()) {
+                // Retrieve the single document of interest
+                DocIdSet filterSet = filter.getDocIdSet(leaf,
+                        leaf.reader().getLiveDocs());
 
-                            if (DEBUG)
-                                log.trace(">> {}: freq:{}, pos:{}, payload:{}",
-										  termString,
-										  docs.freq(),
-										  pos,
-										  docs.getPayload());
+                // No document found
+                if (filterSet == null)
+                    continue;
 
-                            BytesRef payload = docs.getPayload();
+                DocIdSetIterator filterIterator = filterSet.iterator();
 
-                            // Copy the payload
-                            bbTerm.clear();
+                // No document found
+                if (filterIterator == null)
+                    continue;
 
-                            if (payload != null && payload.length <= bbTerm.capacity()) {
-                                bbTerm.put(payload.bytes, payload.offset,
-                                        payload.length);
-                            };
-                            TermInfo ti = new TermInfo(termString, pos, bbTerm)
-                                    .analyze();
-                            if (ti.getEndPos() < match.getEndPos()) {
-                                if (DEBUG)
-                                    log.trace("Add {}", ti.toString());
-                                termList.add(ti);
-                            };
-                        };
-                    };
+                // Go to the matching doc - and remember its ID
+                localDocID = filterIterator.nextDoc();
+
+                if (localDocID != DocIdSetIterator.NO_MORE_DOCS) {
+                    atomic = leaf;
+                    break;
                 };
+            };
+        };
+        // </legacy>
 
-                // Add annotations based on the retrieved infos
-                for (TermInfo t : termList.getTerms()) {
-                    if (DEBUG)
-                        log.trace(
-							"Add term {}/{}:{} with char:{}(pos:{})-char:{}(pos:{})",
-							t.getFoundry(), t.getLayer(), t.getValue(),
-							t.getStartChar(), t.getStartPos(),
-							t.getEndChar(), t.getEndPos());
-
-
-					// Ignore empty types for the moment
-                    if (t.getType().equals("term") || t.getType().equals("span")) {
-                        match.addAnnotation(t.getStartPos(), t.getEndPos(),
-                                t.getAnnotation());
-					}
-
-					// TODO:
-					// else if (t.getType().equals("empty")) {
-					// }
-
-					// Use relSrc for annotation views
-					else if (t.getType().equals("relSrc")) {
-						// This only respects relSrc!
-						// May require more information for bidirectional relations
-                        match.addRelation(
-							t.getStartPos(),
-							t.getEndPos(),
-							t.getTargetStartPos(),
-							t.getTargetEndPos(),
-							t.getAnnotation()
-							);
-					};
+        if (DEBUG)
+            log.trace("localDocID is {}", localDocID);
+
+        // No document found
+        if (atomic == null)
+            return;
+
+        // We've found the correct document! Hurray!
+        if (DEBUG)
+            log.trace("We've found a matching document");
+
+        // Get terms from the document
+        Terms docTerms = atomic.reader().getTermVector(localDocID, field);
+
+        // In case no term vectors are stored, the terms
+        // are read from the postings of the segment
+        final boolean fromPostings = docTerms == null;
+        if (fromPostings)
+            docTerms = atomic.reader().terms(field);
+
+        // The following fields should be lifted for the match
+        List<String> fields = (ArrayList<String>) new Krill().getMeta()
+            .getFields().clone();
+
+        // Lift all fields
+        if (fields.contains("@all"))
+            fields = null;
+
+        // Load the necessary fields of the document
+        Document doc;
+        if (fields != null) {
+            HashSet<String> fieldsSet = new HashSet<String>(fields);
+
+            // Lift primary field
+            fieldsSet.add(field);
+            doc = atomic.reader().document(localDocID, fieldsSet);
+        }
+        else {
+            doc = atomic.reader().document(localDocID);
+        };
+
+        // Offsets are shared by all matches of the document
+        PositionsToOffset pto = new PositionsToOffset(atomic, field);
+
+        int start = Integer.MAX_VALUE, end = 0;
+        for (Match match : list) {
+            match.setPositionsToOffset(pto);
+            match.setLocalDocID(localDocID);
+            match.populateDocument(doc, field, (List<String>) fields);
+            if (DEBUG)
+                log.trace("The document has the id '{}' or the sigle '{}'",
+                        match.getDocID(), match.getTextSigle());
+
+            _setMatchContext(match, extendToSentence);
+
+            start = Math.min(start, match.getStartPos());
+            end = Math.max(end, match.getEndPos());
+        };
+
+        if (!info || docTerms == null)
+            return;
+
+        // The annotations of interest are read once
+        // for all matches of the document
+        MatchTerms terms = _matchTerms(docTerms, fromPostings, localDocID,
+                fst, prefixes, start, end);
+
+        ByteBuffer bbTerm = ByteBuffer.allocate(32);
+        for (Match match : list)
+            _fillMatchInfo(match, localDocID, pto, terms, bbTerm);
+    };
+
+
+    // Annotations of a document in the area of its matches,
+    // in the order of the terms
+    private static class MatchTerms {
+        private int size = 0;
+        private String[] terms = new String[64];
+        private int[] positions = new int[64];
+        private byte[][] payloads = new byte[64][];
+
+
+        private void add (String term, int pos, byte[] payload) {
+            if (this.size == this.positions.length) {
+                this.terms = ArrayUtil.grow(this.terms, this.size + 1);
+                this.positions = ArrayUtil.grow(this.positions,
+                        this.size + 1);
+                this.payloads = ArrayUtil.grow(this.payloads,
+                        this.size + 1);
+            };
+            this.terms[this.size] = term;
+            this.positions[this.size] = pos;
+            this.payloads[this.size++] = payload;
+        };
+    };
+
+
+    // Collect all annotations of interest
+    // in the positions [start, end) of a document
+    private static MatchTerms _matchTerms (Terms docTerms,
+            boolean fromPostings, int localDocID, CompiledAutomaton fst,
+            List<BytesRef> prefixes, int start, int end) throws IOException {
+
+        final MatchTerms terms = new MatchTerms();
+        DocsAndPositionsEnum docs = null;
+
+        // Without term vectors, only the terms of the segment
+        // starting with the prefixes of interest are read,
+        // instead of intersecting the whole dictionary
+        if (fromPostings && prefixes != null) {
+            final TermsEnum termsEnum = docTerms.iterator(null);
+
+            for (BytesRef prefix : prefixes) {
+                if (termsEnum.seekCeil(prefix) == TermsEnum.SeekStatus.END)
+                    break;
+
+                BytesRef term = termsEnum.term();
+                while (term != null && StringHelper.startsWith(term, prefix)) {
+                    if (fst.runAutomaton == null || fst.runAutomaton
+                            .run(term.bytes, term.offset, term.length)) {
+                        docs = _addMatchTerms(terms, termsEnum, docs, true,
+                                localDocID, start, end);
+                    };
+                    term = termsEnum.next();
                 };
+            };
+
+            return terms;
+        };
+
+        // Limit the terms to all the terms of interest
+        TermsEnum termsEnum = docTerms.intersect(fst, null);
+
+        // Iterate over all terms in the document
+        while (termsEnum.next() != null) {
+            docs = _addMatchTerms(terms, termsEnum, docs, fromPostings,
+                    localDocID, start, end);
+        };
+
+        return terms;
+    };
+
+
+    // Add the occurrences of the current term of the enumeration
+    // in the positions [start, end) of a document
+    private static DocsAndPositionsEnum _addMatchTerms (MatchTerms terms,
+            TermsEnum termsEnum, DocsAndPositionsEnum docs,
+            boolean fromPostings, int localDocID, int start, int end)
+            throws IOException {
+
+        // Get the positions and payloads of the term in the document
+        // The bitvector may look different (don't know why)
+        // and so the local ID may differ.
+        // That's why the requesting bitset is null.
+        docs = termsEnum.docsAndPositions(null, docs,
+                DocsAndPositionsEnum.FLAG_PAYLOADS);
+
+        // Move to the document in the postings
+        if (fromPostings) {
+            if (docs.advance(localDocID) != localDocID)
+                return docs;
+        }
+
+        // Init document iterator
+        else {
+            docs.nextDoc();
+
+            // Should never happen ... but hell!
+            if (docs.docID() == DocIdSetIterator.NO_MORE_DOCS)
+                return docs;
+        };
+
+        // String representation of the term
+        String termString = null;
+
+        // Iterate over all occurrences
+        for (int i = 0; i < docs.freq(); i++) {
+
+            // Init positions and get the current
+            int pos = docs.nextPosition();
+
+            // Check, if the position of the term is in the area of interest
+            if (pos < start || pos >= end)
+                continue;
+
+            if (termString == null)
+                termString = termsEnum.term().utf8ToString();
+
+            BytesRef payload = docs.getPayload();
+
+            if (DEBUG)
+                log.trace(">> {}: freq:{}, pos:{}, payload:{}",
+                          termString,
+                          docs.freq(),
+                          pos,
+                          payload);
+
+            // Copy the payload
+            if (payload != null && payload.length <= 32) {
+                terms.add(termString, pos, Arrays.copyOfRange(
+                        payload.bytes, payload.offset,
+                        payload.offset + payload.length));
+            }
+            else {
+                terms.add(termString, pos, BytesRef.EMPTY_BYTES);
+            };
+        };
+
+        return docs;
+    };
+
+
+    // Set the context of a match,
+    // optionally extended to the surrounding sentence
+    private static void _setMatchContext (Match match,
+            boolean extendToSentence) {
+
+        // Todo:
+        SearchContext context = match.getContext();
+
+        // Override the normal match marking
+        // to have an inner match
+        match.overrideMatchPosition(match.getStartPos(),
+                match.getEndPos() - 1);
+
 
-                break;
+        // Search for minimal surrounding sentences
+        if (extendToSentence) {
+
+            String element = "base/s:s";
+            int[] spanContext = match.expandContextToSpan(element);
+
+            if (DEBUG)
+                log.trace("Extend to sentence element '{}'", element);
+
+            if (spanContext[0] >= 0
+                    && spanContext[0] < spanContext[1]) {
+
+                // Match needs to be cutted!
+                if ((spanContext[1] - spanContext[0]) > match.getMaxMatchTokens()) {
+                    int contextLength = match.getMaxMatchTokens() - match.getLength();
+                    int halfContext = contextLength / 2;
+
+                    // This is the extended context calculated
+                    int realLeftLength = match.getStartPos() - spanContext[0];
+
+                    // The length is too large - cut!
+                    if (realLeftLength > halfContext) {
+                        match.startCutted = true;
+                        spanContext[0] = match.getStartPos() - halfContext;
+                    }
+                }
+
+                match.setStartPos(spanContext[0]);
+                match.setEndPos(spanContext[1]);
+                match.potentialStartPosChar = spanContext[2];
+                match.potentialEndPosChar = spanContext[3];
+                match.startMore = false;
+                match.endMore = false;
+            }
+            else {
+                match.addWarning(651, "Unable to extend context");
             };
         }
-        catch (IOException e) {
-            match.addError(600, "Unable to read index",
-                    e.getLocalizedMessage());
-            log.warn(e.getLocalizedMessage());
+        else {
+            if (DEBUG)
+                log.trace("Don't expand context");
+        };
+
+        context.left.setToken(true).setLength(0);
+        context.right.setToken(true).setLength(0);
+    };
+
+
+    // Retrieve the annotations of a match
+    // from the annotations of its document
+    private static void _fillMatchInfo (Match match, int localDocID,
+            PositionsToOffset pto, MatchTerms terms, ByteBuffer bbTerm) {
+
+        final int start = match.getStartPos(), end = match.getEndPos();
+
+        // List of terms to populate
+        SpanInfo termList = new SpanInfo(pto, localDocID);
+
+        for (int i = 0; i < terms.size; i++) {
+            final int pos = terms.positions[i];
+
+            // Check, if the position of the term is in the area of interest
+            if (pos < start || pos >= end)
+                continue;
+
+            bbTerm.clear();
+            bbTerm.put(terms.payloads[i]);
+
+            TermInfo ti = new TermInfo(terms.terms[i], pos, bbTerm).analyze();
+            if (ti.getEndPos() < end) {
+                if (DEBUG)
+                    log.trace("Add {}", ti.toString());
+                termList.add(ti);
+            };
+        };
+
+        // Add annotations based on the retrieved infos
+        for (TermInfo t : termList.getTerms()) {
+            if (DEBUG)
+                log.trace(
+                    "Add term {}/{}:{} with char:{}(pos:{})-char:{}(pos:{})",
+                    t.getFoundry(), t.getLayer(), t.getValue(),
+                    t.getStartChar(), t.getStartPos(),
+                    t.getEndChar(), t.getEndPos());
+
+
+            // Ignore empty types for the moment
+            if (t.getType().equals("term") || t.getType().equals("span")) {
+                match.addAnnotation(t.getStartPos(), t.getEndPos(),
+                        t.getAnnotation());
+            }
+
+            // TODO:
+            // else if (t.getType().equals("empty")) {
+            // }
+
+            // Use relSrc for annotation views
+            else if (t.getType().equals("relSrc")) {
+                // This only respects relSrc!
+                // May require more information for bidirectional relations
+                match.addRelation(
+                    t.getStartPos(),
+                    t.getEndPos(),
+                    t.getTargetStartPos(),
+                    t.getTargetEndPos(),
+                    t.getAnnotation()
+                    );
+            };
         };
 
-        return match;
     };
 
 
@@ -1338,15 +2373,73 @@ public final class KrillIndex {
     };
 
 
+    /**
+     * Estimate the cost of searching the query of a
+     * {@link Krill} object, before the search is executed.
+     *
+     * @param ks
+     *            The {@link Krill} object.
+     * @return The estimated number of enumerated spans
+     *         or <tt>-1</tt> in case the query can't be estimated.
+     * @see SpanQueryCost
+     */
+    public long estimateCost (Krill ks) {
+        this.acquireReader();
+        try {
+            return this._estimateCost(ks);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
+
+
+    // Estimate the cost on a snapshot of the index
+    private long _estimateCost (Krill ks) {
+        SpanQuery query = ks.getSpanQuery();
+        final IndexReader reader = this.reader();
+        if (query == null || reader == null)
+            return -1;
+
+        try {
+            // Rewrite query (for regex and wildcard queries)
+            for (Query rewrittenQuery = query.rewrite(reader);
+                 !rewrittenQuery.equals(query);
+                 rewrittenQuery = query.rewrite(reader)) {
+                query = (SpanQuery) rewrittenQuery;
+            };
+
+            query = SpanQuerySimplifier.simplify(query,
+                    ks.getMeta().getHighlights());
+            return SpanQueryCost.estimate(query, reader,
+                    this.termContexts(reader));
+        }
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+        };
+        return -1;
+    };
+
+
     /**
      * Search the endpoint.
      */
     public Result search (Krill ks) {
+        this.acquireReader();
+        try {
+            return this._search(ks);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
+
+
+    // Search on a snapshot of the index
+    private Result _search (Krill ks) {
         if (DEBUG)
             log.trace("Start search");
 
-        this.termContexts = new HashMap<Term, TermContext>();
-
         final KrillCollection collection = ks.getCollection();
         collection.setIndex(this);
 
@@ -1418,6 +2511,10 @@ public final class KrillIndex {
         // See: http://www.ibm.com/developerworks/java/library/j-benchmark1/index.html
         long t1 = System.nanoTime();
 
+        // Aggregation of matches by metadata fields
+        Aggregation aggregation = null;
+        boolean counted = false;
+
         try {
             // Rewrite query (for regex and wildcard queries)
             // Revise!
@@ -1433,6 +2530,60 @@ public final class KrillIndex {
 			if (DEBUG)
 				log.trace("Rewritten query is {}", query.toString());
 
+            // Remove operators without effect on the matches
+            query = snippets
+                    ? SpanQuerySimplifier.simplify(query, meta.getHighlights())
+                    : SpanQuerySimplifier.simplify(query, false);
+
+            // Use interval indices for selected elements
+            if (!this.intervalElements.isEmpty())
+                query = SpanWithinQuery.withIntervalIndex(query,
+                        this.intervalElements);
+
+            // Join the operands of multiple distance constraints once
+            if (this.distanceJoin)
+                query = SpanMultipleDistanceQuery.withMultiwayJoin(query,
+                        true);
+
+            // Payloads are only required for snippets,
+            // counting and aggregating works on positions only
+            final SpanQuery countQuery = PayloadRequirement
+                    .withoutPayloads(query);
+            final SpanQuery matchQuery = snippets ? query : countQuery;
+
+            // Aggregate all matches by metadata fields
+            if (!meta.getAggregations().isEmpty()) {
+                aggregation = this._aggregate(countQuery, collection,
+                        meta.getAggregations(), tthread, timeout);
+                kr.setAggregation(aggregation);
+
+                if (!aggregation.isComplete()) {
+                    if (tthread.getTime() > timeout) {
+                        kr.setTimeExceeded(true);
+                        isTimeout = true;
+                    };
+                }
+
+                // All matches are already counted
+                // (cut off searches keep an unknown total)
+                else if (!cutoff && itemsPerResource == 0 && limit == 0) {
+                    counted = true;
+                };
+            };
+
+            // Analyse collocates of all matches
+            if (meta.getCollocations() != null) {
+                final Collocations collocations = this._collocate(countQuery,
+                        collection, field, meta.getCollocations(), tthread,
+                        timeout);
+                kr.setCollocations(collocations);
+
+                if (!collocations.isComplete()
+                        && tthread.getTime() > timeout) {
+                    kr.setTimeExceeded(true);
+                    isTimeout = true;
+                };
+            };
 
             // Todo: run this in a separated thread
             for (LeafReaderContext atomic : this.reader().leaves()) {
@@ -1456,8 +2607,10 @@ public final class KrillIndex {
                 final PositionsToOffset pto = snippets ? new PositionsToOffset(atomic, field) : null;
 				
                 // Spans spans = NearSpansOrdered();
-                final Spans spans = query.getSpans(atomic, (Bits) bitset,
-                        termContexts);
+                final Spans spans = matchQuery.getSpans(atomic,
+                        DocumentApproximation.approximate(matchQuery, atomic,
+                                bitset),
+                        this.termContexts(atomic));
 
                 final IndexReader lreader = atomic.reader();
                 int localDocID, docID;
@@ -1561,7 +2714,7 @@ public final class KrillIndex {
                 };
 
                 // Can be disabled TEMPORARILY
-                while (!cutoff && !isTimeout && spans.next()) {
+                while (!cutoff && !counted && !isTimeout && spans.next()) {
 
                     // TODO: Deprecated
                     if (limit > 0 && i >= limit)
@@ -1610,7 +2763,10 @@ public final class KrillIndex {
             if (itemsPerResource > 0)
                 kr.setItemsPerResource(itemsPerResource);
 
-            kr.setTotalResults(cutoff ? (long) -1 : (long) i);
+            if (counted)
+                kr.setTotalResults(aggregation.getMatches());
+            else
+                kr.setTotalResults(cutoff ? (long) -1 : (long) i);
         }
 
         catch (IOException e) {
@@ -1632,124 +2788,828 @@ public final class KrillIndex {
         return kr;
     };
 
-    public MetaFields getFields (String textSigle) {
+    // Aggregate all matches of a query by metadata fields,
+    // in parallel in case there are multiple segments
+    private Aggregation _aggregate (final SpanQuery query,
+            final KrillCollection collection, final List<String> fields,
+            final TimeOutThread tthread, final long timeout) {
 
-        List hs = new ArrayList<String>();
-        hs.add("@all");
-        return this.getFields(textSigle, hs);
-    };
+        final List<LeafReaderContext> leaves = this.reader().leaves();
 
+        final List<Aggregation> segments = (leaves.size() > 1
+                ? leaves.parallelStream() : leaves.stream())
+                        .map(atomic -> this._aggregateAtomic(query, atomic,
+                                collection, fields, tthread, timeout))
+                        .collect(Collectors.toList());
 
-	// Return field values
-    public MetaFields getFields (String textSigle, List<String> fields) {
+        // Merge aggregations of all segments
+        final Aggregation aggregation = new Aggregation(fields);
+        for (Aggregation segment : segments)
+            aggregation.merge(segment);
 
-		// Create TermQuery for document
-		TermQuery textSigleQuery = new TermQuery(new Term("textSigle", textSigle));
+        return aggregation;
+    };
 
-		Filter filter = (Filter) new QueryWrapperFilter(textSigleQuery);
 
-		if (fields.contains("@all"))
-			fields = null;
+    // Aggregate all matches of a query in a single segment.
+    // Values are counted per ordinal of the doc values
+    // and only resolved once per segment
+    private Aggregation _aggregateAtomic (SpanQuery query,
+            LeafReaderContext atomic, KrillCollection collection,
+            List<String> fields, TimeOutThread tthread, long timeout) {
 
-		MetaFields metaFields = new MetaFields(textSigle);
+        final Aggregation aggregation = new Aggregation(fields);
 
         try {
+            final FixedBitSet bitset = collection.bits(atomic);
+
+            if (bitset.cardinality() == 0)
+                return aggregation;
+
+            final LeafReader reader = atomic.reader();
+            final int size = fields.size();
+            final SortedSetDocValues[] values = new SortedSetDocValues[size];
+            final long[][] matches = new long[size][];
+            final long[][] docs = new long[size][];
+
+            // Matches per document for fields without doc values
+            long[] docMatchesPerDoc = null;
+            FixedBitSet matched = null;
+
+            for (int f = 0; f < size; f++) {
+                values[f] = reader.getSortedSetDocValues(FieldDocument
+                        .facetField(Aggregation.fieldName(fields.get(f))));
+
+                // Field has no doc values in this segment
+                if (values[f] == null) {
+                    if (docMatchesPerDoc == null) {
+                        docMatchesPerDoc = new long[reader.maxDoc()];
+                        matched = new FixedBitSet(reader.maxDoc());
+                    };
+                    continue;
+                };
 
-            // Iterate over all atomic indices and find the matching document
-            for (LeafReaderContext atomic : this.reader().leaves()) {
-
-				// Retrieve the single document of interest
-                DocIdSet filterSet = filter.getDocIdSet(atomic, atomic.reader().getLiveDocs());
+                matches[f] = new long[(int) values[f].getValueCount()];
+                docs[f] = new long[matches[f].length];
+            };
 
-                DocIdSetIterator filterIterator = filterSet.iterator();
+            final Spans spans = query.getSpans(atomic,
+                    DocumentApproximation.approximate(query, atomic, bitset),
+                    this.termContexts(atomic));
 
-				// No document found
-                if (filterIterator == null)
-                    continue;
+            int localDocID = -1;
+            long docMatches = 0, totalMatches = 0, totalDocs = 0;
 
+            while (spans.next()) {
 
-                // Go to the matching doc - and remember its ID
-                int localDocID = filterIterator.nextDoc();
+                // New document
+                if (spans.doc() != localDocID) {
+                    if (docMatches > 0)
+                        _aggregateDoc(values, matches, docs, localDocID,
+                                docMatches);
+                    docMatches = 0;
 
-                if (localDocID == DocIdSetIterator.NO_MORE_DOCS)
-                    continue;
+                    // Timeout!
+                    if (tthread.getTime() > timeout) {
+                        aggregation.setComplete(false);
+                        break;
+                    };
 
-                Document doc = atomic.reader().document(localDocID);
-                if (fields == null)
-                    metaFields.populateFields(doc);
-                else
-                    metaFields.populateFields(doc, fields);
+                    localDocID = spans.doc();
+                    totalDocs++;
 
-				return metaFields;
-			};
-		}
-		catch  (IOException e) {
-            metaFields.addError(600, "Unable to read index", e.getLocalizedMessage());
-            log.warn(e.getLocalizedMessage());
-        };
+                    if (matched != null)
+                        matched.set(localDocID);
+                };
 
-        metaFields.addError(630, "Document not found");
+                if (docMatchesPerDoc != null)
+                    docMatchesPerDoc[localDocID]++;
 
-		return metaFields;
-    };
+                docMatches++;
+                totalMatches++;
+            };
 
+            if (docMatches > 0)
+                _aggregateDoc(values, matches, docs, localDocID, docMatches);
 
-    public void getValues (String field) {
-            
-    };
+            aggregation.incrTotals(totalMatches, totalDocs);
 
+            // Resolve ordinals to bucket values
+            for (int f = 0; f < size; f++) {
+                final String field = fields.get(f);
 
-	/**
-     * Return a fingerprint of the current state of the index.
-     * Contains information about the number of segments, docs per segment
-     * and deletions per segment.
-     */
-    public String getFingerprint () {
+                // Fall back to the postings of the field
+                if (values[f] == null) {
+                    if (totalDocs > 0)
+                        _aggregatePostings(aggregation, reader, field,
+                                docMatchesPerDoc, matched);
+                    continue;
+                };
 
-        // indexRevision is cached
-        if (this.indexRevision != null) {
-            return this.indexRevision;
-        };
+                for (int ord = 0; ord < docs[f].length; ord++) {
+                    if (docs[f][ord] == 0)
+                        continue;
 
-        // Reader is empty
-        if (this.reader() == null) {
-            return "null";
+                    aggregation.add(field,
+                            Aggregation.bucketValue(field,
+                                    values[f].lookupOrd(ord).utf8ToString()),
+                            matches[f][ord], docs[f][ord]);
+                };
+            };
         }
 
-        MessageDigest md;
-        try {
-            // MD5 used for fingerprinting (no security implications here)
-            md = MessageDigest.getInstance("MD5");
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+            aggregation.setComplete(false);
         }
-        catch (NoSuchAlgorithmException e) {
-            log.error(e.getMessage());
-            return e.getMessage();
+
+        catch (QueryException e) {
+            log.warn(e.getLocalizedMessage());
+            aggregation.setComplete(false);
         };
-        
-        String hash = this.reader().getCombinedCoreAndDeletesKey().toString();
 
-        md.update(hash.getBytes());
+        return aggregation;
+    };
 
-        // Turn bytes into Base64 string
-        this.indexRevision = new String(
-            Base64.getEncoder().encode(md.digest())
-            );
 
-        return this.indexRevision;
-    };
-    
+    // Aggregate the matches of a segment by the indexed terms of
+    // a metadata field without doc values, e.g. in case the field
+    // is not configured as a facet. Values are the indexed terms,
+    // e.g. lower cased keywords.
+    private static void _aggregatePostings (Aggregation aggregation,
+            LeafReader reader, String field, long[] docMatches,
+            FixedBitSet matched) throws IOException {
 
-    // Collect matches
-    public MatchCollector collect (Krill ks, MatchCollector mc) {
+        final Terms terms = reader.terms(Aggregation.fieldName(field));
+        if (terms == null)
+            return;
+
+        TermsEnum termsEnum = terms.iterator(null);
+
+        // Dates are indexed as prefix coded integers,
+        // only terms of full precision are respected
+        final boolean numeric = _isPrefixCodedInt(terms);
+        if (numeric)
+            termsEnum = NumericUtils.filterPrefixCodedInts(termsEnum);
+
+        DocsEnum docs = null;
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+            docs = termsEnum.docs(matched, docs, DocsEnum.FLAG_NONE);
+
+            long termMatches = 0, termDocs = 0;
+            int doc;
+            while ((doc = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                termMatches += docMatches[doc];
+                termDocs++;
+            };
+
+            if (termDocs == 0)
+                continue;
+
+            final String value = numeric
+                    ? String.valueOf(NumericUtils.prefixCodedToInt(term))
+                    : term.utf8ToString();
+
+            aggregation.add(field, Aggregation.bucketValue(field, value),
+                    termMatches, termDocs);
+        };
+    };
+
+
+    // Numeric fields start with terms of full precision,
+    // that are prefix coded with a shift of 0
+    private static boolean _isPrefixCodedInt (Terms terms)
+            throws IOException {
+        final BytesRef first = terms.iterator(null).next();
+        return first != null && first.length == NumericUtils.BUF_SIZE_INT
+                && first.bytes[first.offset] == NumericUtils.SHIFT_START_INT;
+    };
+
+
+    // Add the matches of a document to the counts
+    // of all values of the document
+    private static void _aggregateDoc (SortedSetDocValues[] values,
+            long[][] matches, long[][] docs, int localDocID,
+            long docMatches) {
+
+        for (int f = 0; f < values.length; f++) {
+            if (values[f] == null)
+                continue;
+
+            values[f].setDocument(localDocID);
+            long ord;
+            while ((ord = values[f]
+                    .nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                matches[f][(int) ord] += docMatches;
+                docs[f][(int) ord]++;
+            };
+        };
+    };
+
+
+    // Analyse collocates of all matches of a query,
+    // in parallel in case there are multiple segments
+    private Collocations _collocate (final SpanQuery query,
+            final KrillCollection collection, final String field,
+            final Collocations params, final TimeOutThread tthread,
+            final long timeout) {
+
+        final List<LeafReaderContext> leaves = this.reader().leaves();
+        final Collocations collocations = new Collocations(params);
+
+        // Count cooccurrences in all windows
+        final List<Collocations> segments = (leaves.size() > 1
+                ? leaves.parallelStream() : leaves.stream())
+                        .map(atomic -> this._collocateAtomic(query, atomic,
+                                collection, field, params, tthread, timeout))
+                        .collect(Collectors.toList());
+
+        for (Collocations segment : segments)
+            collocations.merge(segment);
+
+        // Count frequencies of all candidates in the collection
+        final Set<String> candidates = collocations.getCandidates();
+        if (!candidates.isEmpty()) {
+            final List<Map<String, Long>> frequencies = (leaves.size() > 1
+                    ? leaves.parallelStream() : leaves.stream())
+                            .map(atomic -> this._collocateFrequencies(atomic,
+                                    collection, field, params.getPrefix(),
+                                    candidates))
+                            .collect(Collectors.toList());
+
+            for (Map<String, Long> segment : frequencies) {
+                if (segment == null) {
+                    collocations.setComplete(false);
+                    continue;
+                };
+                for (Map.Entry<String, Long> freq : segment.entrySet())
+                    collocations.addFrequency(freq.getKey(), freq.getValue());
+            };
+        };
+
+        // Number of annotations of the layer in the collection
+        long tokens = 0;
+        final List<Long> segmentTokens = (leaves.size() > 1
+                ? leaves.parallelStream() : leaves.stream())
+                        .map(atomic -> this._collocateTokens(atomic,
+                                collection, field, params.getPrefix()))
+                        .collect(Collectors.toList());
+
+        for (Long segment : segmentTokens) {
+            if (segment < 0) {
+                collocations.setComplete(false);
+                continue;
+            };
+            tokens += segment;
+        };
+
+        return collocations.score(tokens);
+    };
+
+
+    // Count cooccurrences of all matches in a single segment.
+    // Collocates are mapped to ids per segment
+    // and only resolved once per segment
+    private Collocations _collocateAtomic (SpanQuery query,
+            LeafReaderContext atomic, KrillCollection collection,
+            String field, Collocations params, TimeOutThread tthread,
+            long timeout) {
+
+        final Collocations collocations = new Collocations(params);
+
+        try {
+            final FixedBitSet bitset = collection.bits(atomic);
+
+            if (bitset.cardinality() == 0)
+                return collocations;
+
+            final LeafReader reader = atomic.reader();
+            final String prefix = params.getPrefix();
+            final BytesRef prefixBytes = new BytesRef(prefix);
+            final int left = params.getLeft(), right = params.getRight();
+
+            final BytesRefHash ids = new BytesRefHash();
+            long[] counts = new long[16];
+            long[] positions = new long[0];
+
+            // Without term vectors, matches are buffered, so the
+            // postings of the layer are read once per batch of documents
+            final FieldInfo fieldInfo = reader.getFieldInfos()
+                    .fieldInfo(field);
+            final boolean vectors = fieldInfo != null
+                    && fieldInfo.hasVectors();
+            final int[] docs = new int[COLLOCATION_DOCS];
+            int docCount = 0, bufferSize = 0;
+            int[] bufferDocs = new int[16];
+            long[] buffer = new long[16];
+
+            final Spans spans = query.getSpans(atomic,
+                    DocumentApproximation.approximate(query, atomic, bitset),
+                    this.termContexts(atomic));
+
+            int localDocID = -1;
+            long matches = 0, window = 0;
+
+            boolean next = spans.next();
+            while (true) {
+                boolean newDoc = next && spans.doc() != localDocID;
+
+                // Timeout!
+                if (newDoc && tthread.getTime() > timeout) {
+                    collocations.setComplete(false);
+                    next = newDoc = false;
+                };
+
+                // Count the windows of all buffered matches
+                if (!vectors && bufferSize > 0
+                        && (!next || (newDoc && docCount == docs.length))) {
+                    final long[][] docPositions = _collocationPositions(
+                            reader, docs, docCount, field, prefixBytes, ids);
+
+                    if (ids.size() > counts.length)
+                        counts = ArrayUtil.grow(counts, ids.size());
+
+                    for (int i = 0; i < bufferSize; i++) {
+                        final int start = (int) (buffer[i] >>> 32);
+                        final int end = (int) buffer[i];
+                        positions = docPositions[bufferDocs[i]];
+                        window += _collocationWindow(positions, start - left,
+                                start, counts);
+                        window += _collocationWindow(positions, end,
+                                end + right, counts);
+                    };
+
+                    docCount = 0;
+                    bufferSize = 0;
+                };
+
+                if (!next)
+                    break;
+
+                // New document
+                if (newDoc) {
+                    localDocID = spans.doc();
+
+                    if (vectors) {
+                        positions = _collocationPositions(reader, localDocID,
+                                field, prefixBytes, ids);
+
+                        if (ids.size() > counts.length)
+                            counts = ArrayUtil.grow(counts, ids.size());
+                    }
+                    else {
+                        docs[docCount++] = localDocID;
+                    };
+                };
+
+                matches++;
+
+                if (vectors) {
+                    window += _collocationWindow(positions,
+                            spans.start() - left, spans.start(), counts);
+                    window += _collocationWindow(positions, spans.end(),
+                            spans.end() + right, counts);
+                }
+                else {
+                    if (bufferSize == buffer.length) {
+                        buffer = ArrayUtil.grow(buffer, bufferSize + 1);
+                        bufferDocs = ArrayUtil.grow(bufferDocs,
+                                bufferSize + 1);
+                    };
+                    bufferDocs[bufferSize] = docCount - 1;
+                    buffer[bufferSize++] = ((long) spans.start() << 32)
+                            | (spans.end() & 0xFFFFFFFFL);
+                };
+
+                next = spans.next();
+            };
+
+            collocations.incrTotals(matches, window);
+
+            // Resolve ids to collocates
+            final BytesRef term = new BytesRef();
+            for (int id = 0; id < ids.size(); id++) {
+                if (counts[id] == 0)
+                    continue;
+
+                ids.get(id, term);
+                collocations.addCooccurrences(
+                        term.utf8ToString().substring(prefix.length()),
+                        counts[id]);
+            };
+        }
+
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+            collocations.setComplete(false);
+        }
+
+        catch (QueryException e) {
+            log.warn(e.getLocalizedMessage());
+            collocations.setComplete(false);
+        };
+
+        return collocations;
+    };
+
+
+    // Get the positions of all annotations with a certain prefix
+    // in the term vector of a document (or the postings, in case
+    // no term vector is stored), packed as the position
+    // and the id of the annotation and sorted by position
+    private static long[] _collocationPositions (LeafReader reader,
+            int localDocID, String field, BytesRef prefix, BytesRefHash ids)
+            throws IOException {
+
+        final Terms terms = reader.getTermVector(localDocID, field);
+        if (terms == null)
+            return _collocationPositions(reader, new int[] { localDocID },
+                    1, field, prefix, ids)[0];
+
+        final TermsEnum termsEnum = terms.iterator(null);
+        if (termsEnum.seekCeil(prefix) == TermsEnum.SeekStatus.END)
+            return new long[0];
+
+        long[] packed = new long[64];
+        int size = 0;
+
+        DocsAndPositionsEnum docs = null;
+        BytesRef term = termsEnum.term();
+
+        while (term != null && StringHelper.startsWith(term, prefix)) {
+            docs = termsEnum.docsAndPositions(null, docs);
+            if (docs != null && docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                final int id = _collocationId(ids, term);
+                for (int i = docs.freq(); i > 0; i--) {
+                    if (size == packed.length)
+                        packed = ArrayUtil.grow(packed, size + 1);
+                    packed[size++] = ((long) docs.nextPosition() << 32) | id;
+                };
+            };
+
+            term = termsEnum.next();
+        };
+
+        Arrays.sort(packed, 0, size);
+        return Arrays.copyOf(packed, size);
+    };
+
+
+    // Get the positions of all annotations with a certain prefix
+    // in multiple ascending documents from the postings,
+    // in a single pass over the annotations
+    private static long[][] _collocationPositions (LeafReader reader,
+            int[] localDocIDs, int count, String field, BytesRef prefix,
+            BytesRefHash ids) throws IOException {
+
+        final long[][] packed = new long[count][];
+        final int[] sizes = new int[count];
+        for (int i = 0; i < count; i++)
+            packed[i] = new long[64];
+
+        final Terms terms = reader.terms(field);
+        final TermsEnum termsEnum = terms == null ? null
+                : terms.iterator(null);
+
+        if (termsEnum != null
+                && termsEnum.seekCeil(prefix) != TermsEnum.SeekStatus.END) {
+
+            DocsAndPositionsEnum docs = null;
+            BytesRef term = termsEnum.term();
+
+            while (term != null && StringHelper.startsWith(term, prefix)) {
+                docs = termsEnum.docsAndPositions(null, docs);
+                int id = -1, doc = -1;
+
+                for (int d = 0; docs != null && d < count; d++) {
+                    if (doc < localDocIDs[d])
+                        doc = docs.advance(localDocIDs[d]);
+
+                    if (doc == DocIdSetIterator.NO_MORE_DOCS)
+                        break;
+
+                    if (doc != localDocIDs[d])
+                        continue;
+
+                    if (id == -1)
+                        id = _collocationId(ids, term);
+
+                    for (int i = docs.freq(); i > 0; i--) {
+                        if (sizes[d] == packed[d].length)
+                            packed[d] = ArrayUtil.grow(packed[d],
+                                    sizes[d] + 1);
+                        packed[d][sizes[d]++] = ((long) docs
+                                .nextPosition() << 32) | id;
+                    };
+                };
+
+                term = termsEnum.next();
+            };
+        };
+
+        for (int d = 0; d < count; d++) {
+            Arrays.sort(packed[d], 0, sizes[d]);
+            packed[d] = Arrays.copyOf(packed[d], sizes[d]);
+        };
+
+        return packed;
+    };
+
+
+    // Get the id of an annotation
+    private static int _collocationId (BytesRefHash ids, BytesRef term) {
+        final int id = ids.add(term);
+
+        // The term is already known
+        if (id < 0)
+            return -id - 1;
+        return id;
+    };
+
+
+    // Count all annotations in the window [from, to)
+    private static long _collocationWindow (long[] positions, int from,
+            int to, long[] counts) {
+
+        if (from < 0)
+            from = 0;
+
+        if (from >= to)
+            return 0;
+
+        int i = Arrays.binarySearch(positions, (long) from << 32);
+        if (i < 0)
+            i = -i - 1;
+
+        long n = 0;
+        for (; i < positions.length && (positions[i] >>> 32) < to; i++) {
+            counts[(int) positions[i]]++;
+            n++;
+        };
+
+        return n;
+    };
+
+
+    // Count the annotations of a layer in the collection
+    // in a single segment, by seeking to the prefix of the layer.
+    // Returns -1 in case of an error
+    private long _collocateTokens (LeafReaderContext atomic,
+            KrillCollection collection, String field, String prefix) {
+
+        long tokens = 0;
+
+        try {
+            final FixedBitSet bitset = collection.bits(atomic);
+            final int cardinality = bitset.cardinality();
+
+            if (cardinality == 0)
+                return 0;
+
+            final Terms terms = atomic.reader().terms(field);
+            if (terms == null)
+                return 0;
+
+            // In case all documents are part of the collection
+            // and there are no deletions, term statistics are sufficient
+            final boolean all = cardinality == atomic.reader().maxDoc();
+
+            final BytesRef prefixBytes = new BytesRef(prefix);
+            final TermsEnum termsEnum = terms.iterator(null);
+            if (termsEnum.seekCeil(prefixBytes) == TermsEnum.SeekStatus.END)
+                return 0;
+
+            DocsEnum docs = null;
+            BytesRef term = termsEnum.term();
+
+            while (term != null && StringHelper.startsWith(term, prefixBytes)) {
+                if (all) {
+                    tokens += termsEnum.totalTermFreq();
+                }
+                else {
+                    docs = termsEnum.docs(bitset, docs, DocsEnum.FLAG_FREQS);
+                    while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS)
+                        tokens += docs.freq();
+                };
+                term = termsEnum.next();
+            };
+        }
+
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+            return -1;
+        }
+
+        catch (QueryException e) {
+            log.warn(e.getLocalizedMessage());
+            return -1;
+        };
+
+        return tokens;
+    };
+
+
+    // Count the frequencies of collocates in the collection
+    // in a single segment. Returns null in case of an error
+    private Map<String, Long> _collocateFrequencies (LeafReaderContext atomic,
+            KrillCollection collection, String field, String prefix,
+            Set<String> candidates) {
+
+        final Map<String, Long> frequencies = new HashMap<String, Long>();
+
+        try {
+            final FixedBitSet bitset = collection.bits(atomic);
+            final int cardinality = bitset.cardinality();
+
+            if (cardinality == 0)
+                return frequencies;
+
+            final Terms terms = atomic.reader().terms(field);
+            if (terms == null)
+                return frequencies;
+
+            // In case all documents are part of the collection
+            // and there are no deletions, term statistics are sufficient
+            final boolean all = cardinality == atomic.reader().maxDoc();
+
+            final TermsEnum termsEnum = terms.iterator(null);
+            DocsEnum docs = null;
+
+            for (String candidate : candidates) {
+                if (!termsEnum.seekExact(new BytesRef(prefix + candidate)))
+                    continue;
+
+                long freq = 0;
+                if (all) {
+                    freq = termsEnum.totalTermFreq();
+                }
+                else {
+                    docs = termsEnum.docs(bitset, docs, DocsEnum.FLAG_FREQS);
+                    while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS)
+                        freq += docs.freq();
+                };
+
+                if (freq > 0)
+                    frequencies.put(candidate, freq);
+            };
+        }
+
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+            return null;
+        }
+
+        catch (QueryException e) {
+            log.warn(e.getLocalizedMessage());
+            return null;
+        };
+
+        return frequencies;
+    };
+
+
+    public MetaFields getFields (String textSigle) {
+
+        List hs = new ArrayList<String>();
+        hs.add("@all");
+        return this.getFields(textSigle, hs);
+    };
+
+
+	// Return field values
+    public MetaFields getFields (String textSigle, List<String> fields) {
+        this.acquireReader();
+        try {
+            return this._getFields(textSigle, fields);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
+
+
+    // Retrieve the fields from a snapshot of the index
+    private MetaFields _getFields (String textSigle, List<String> fields) {
+
+		if (fields.contains("@all"))
+			fields = null;
+
+		MetaFields metaFields = new MetaFields(textSigle);
+
+        try {
+            IndexReader reader = this.reader();
+
+            // Find the matching document
+            PrimaryKeyResolver.Location loc = reader == null ? null
+                    : this.primaryKeys(reader).lookup("textSigle", textSigle);
+
+            if (loc != null) {
+                Document doc = loc.getContext().reader()
+                        .document(loc.getDocID());
+                if (fields == null)
+                    metaFields.populateFields(doc);
+                else
+                    metaFields.populateFields(doc, fields);
+
+				return metaFields;
+			};
+		}
+		catch  (IOException e) {
+            metaFields.addError(600, "Unable to read index", e.getLocalizedMessage());
+            log.warn(e.getLocalizedMessage());
+        };
+
+        metaFields.addError(630, "Document not found");
+
+		return metaFields;
+    };
+
+
+    public void getValues (String field) {
+            
+    };
+
+
+	/**
+     * Return a fingerprint of the current state of the index.
+     * Contains information about the number of segments, docs per segment
+     * and deletions per segment.
+     */
+    public String getFingerprint () {
+        this.acquireReader();
+        try {
+            return this._getFingerprint();
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
+
+
+    // Fingerprint of the snapshot of the index
+    private String _getFingerprint () {
+
+        final IndexReader reader = this.reader();
+
+        // Reader is empty
+        if (reader == null) {
+            return "null";
+        }
+
+        // indexRevision is cached for the reader
+        // (threads may use different snapshots)
+        final Object key = reader.getCombinedCoreAndDeletesKey();
+        final Map.Entry<Object, String> revision = this.indexRevision;
+        if (revision != null && revision.getKey() == key) {
+            return revision.getValue();
+        };
+
+        MessageDigest md;
+        try {
+            // MD5 used for fingerprinting (no security implications here)
+            md = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            log.error(e.getMessage());
+            return e.getMessage();
+        };
+        
+        String hash = key.toString();
+
+        md.update(hash.getBytes());
+
+        // Turn bytes into Base64 string
+        final String fingerprint = new String(
+            Base64.getEncoder().encode(md.digest())
+            );
+        this.indexRevision = new AbstractMap.SimpleImmutableEntry<Object, String>(
+                key, fingerprint);
+
+        return fingerprint;
+    };
+    
+
+    // Collect matches
+    public MatchCollector collect (Krill ks, MatchCollector mc) {
+        this.acquireReader();
+        try {
+            return this._collect(ks, mc);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
+
+
+    // Collect on a snapshot of the index
+    private MatchCollector _collect (Krill ks, MatchCollector mc) {
         if (DEBUG)
             log.trace("Start collecting");
 
         KrillCollection collection = ks.getCollection();
         collection.setIndex(this);
 
-        // Init term context
-        this.termContexts = new HashMap<Term, TermContext>();
-
         // Get span query
         SpanQuery query = ks.getSpanQuery();
 
@@ -1774,6 +3634,22 @@ public final class KrillIndex {
                 query = (SpanQuery) rewrittenQuery;
             };
 
+            // Remove operators without effect on the matches
+            query = SpanQuerySimplifier.simplify(query, false);
+
+            // Use interval indices for selected elements
+            if (!this.intervalElements.isEmpty())
+                query = SpanWithinQuery.withIntervalIndex(query,
+                        this.intervalElements);
+
+            // Join the operands of multiple distance constraints once
+            if (this.distanceJoin)
+                query = SpanMultipleDistanceQuery.withMultiwayJoin(query,
+                        true);
+
+            // Matches are only counted
+            query = PayloadRequirement.withoutPayloads(query);
+
             int matchcount = 0;
             String uniqueDocIDString;;
             int uniqueDocID = -1;
@@ -1789,8 +3665,9 @@ public final class KrillIndex {
 
                 // PositionsToOffset pto = new PositionsToOffset(atomic, field);
 
-                Spans spans = query.getSpans(atomic, (Bits) bitset,
-                        termContexts);
+                Spans spans = query.getSpans(atomic,
+                        DocumentApproximation.approximate(query, atomic, bitset),
+                        this.termContexts(atomic));
 
                 IndexReader lreader = atomic.reader();
 
@@ -1853,6 +3730,274 @@ public final class KrillIndex {
         return mc;
     };
     
+    /**
+     * Export all matches of a query.
+     *
+     * In contrast to {@link #search(Krill)} all matches are
+     * iterated once, serialized and directly written to the
+     * {@link MatchExporter}, so the export is neither limited
+     * by the page size nor by the timeout of the request.
+     * Offsets are only kept for the current document.
+     *
+     * In case multiple threads are requested, segments are
+     * processed in parallel. Each segment writes to a bounded
+     * queue and the queues are drained in the order of the
+     * segments, so the order of matches is identical to the
+     * order of a sequential export.
+     *
+     * @param ks
+     *            The {@link Krill} query object.
+     * @param exporter
+     *            The {@link MatchExporter} to write to.
+     * @param threads
+     *            The number of threads to process segments.
+     * @return The {@link MatchExporter} object.
+     */
+    public MatchExporter export (Krill ks, MatchExporter exporter,
+            int threads) {
+        this.acquireReader();
+        try {
+            return this._export(ks, exporter, threads);
+        }
+        finally {
+            this.releaseReader();
+        };
+    };
+
+
+    // Export from a snapshot of the index
+    private MatchExporter _export (Krill ks, MatchExporter exporter,
+            int threads) {
+        if (DEBUG)
+            log.trace("Start exporting");
+
+        final KrillCollection collection = ks.getCollection();
+        collection.setIndex(this);
+
+        SpanQuery query = ks.getSpanQuery();
+        final String field = query.getField();
+        final KrillMeta meta = ks.getMeta();
+
+        // Copy notification info
+        exporter.moveNotificationsFrom(ks);
+
+        if (this.getVersion() != null)
+            exporter.setVersion(this.getVersion());
+
+        long t1 = System.nanoTime();
+        ExecutorService pool = null;
+
+        // Segments stop as soon as the export is aborted
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final List<BlockingQueue<String>> queues = new ArrayList<>();
+
+        try {
+
+            // Rewrite query (for regex and wildcard queries)
+            for (Query rewrittenQuery = query.rewrite(this.reader());
+                 !rewrittenQuery.equals(query);
+                 rewrittenQuery = query.rewrite(this.reader())) {
+                query = (SpanQuery) rewrittenQuery;
+            };
+
+            // Remove operators without effect on the matches
+            query = SpanQuerySimplifier.simplify(query, meta.getHighlights());
+
+            // Use interval indices for selected elements
+            if (!this.intervalElements.isEmpty())
+                query = SpanWithinQuery.withIntervalIndex(query,
+                        this.intervalElements);
+
+            // Join the operands of multiple distance constraints once
+            if (this.distanceJoin)
+                query = SpanMultipleDistanceQuery.withMultiwayJoin(query,
+                        true);
+
+            final SpanQuery rewritten = query;
+
+            // Serialize the filter once before segments are processed
+            collection.toFilter();
+
+            exporter.writeHeader();
+
+            final List<LeafReaderContext> leaves = this.reader().leaves();
+
+            if (threads <= 1 || leaves.size() <= 1) {
+                for (LeafReaderContext atomic : leaves)
+                    this._exportAtomic(rewritten, atomic, collection, field,
+                            meta, exporter, exporter::write);
+            }
+            else {
+                // Worker threads don't prevent the JVM from exiting
+                pool = Executors.newFixedThreadPool(
+                        Math.min(threads, leaves.size()), r -> {
+                            Thread t = new Thread(r, "KrillIndex-export");
+                            t.setDaemon(true);
+                            return t;
+                        });
+
+                final List<Future<?>> tasks = new ArrayList<>(
+                        leaves.size());
+
+                // Segments are started in order, so the segment
+                // drained at the moment is always running or done
+                for (LeafReaderContext atomic : leaves) {
+                    final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(
+                            EXPORT_QUEUE_SIZE);
+                    queues.add(queue);
+                    tasks.add(pool.submit(() -> {
+                        if (cancelled.get())
+                            return null;
+                        try {
+                            this._exportAtomic(rewritten, atomic, collection,
+                                    field, meta, exporter,
+                                    line -> _exportOffer(queue, line,
+                                            cancelled));
+                        }
+                        finally {
+
+                            // Nobody is waiting for aborted exports
+                            if (!cancelled.get())
+                                _exportOffer(queue, EXPORT_END, cancelled);
+                        };
+                        return null;
+                    }));
+                };
+
+                for (int s = 0; s < queues.size(); s++) {
+                    final BlockingQueue<String> queue = queues.get(s);
+                    for (String line = queue.take(); line != EXPORT_END;
+                         line = queue.take()) {
+                        exporter.write(line);
+                    };
+
+                    // Rethrow exceptions of the segment
+                    tasks.get(s).get();
+                };
+            };
+
+            exporter.setBenchmark(t1, System.nanoTime());
+        }
+        catch (IOException e) {
+
+            // The client closed the connection
+            if (exporter.isAborted())
+                exporter.addError(606, "Unable to write export stream",
+                        e.getLocalizedMessage());
+            else
+                exporter.addError(600, "Unable to read index",
+                        e.getLocalizedMessage());
+            log.warn(e.getLocalizedMessage());
+        }
+        catch (QueryException e) {
+            exporter.addError(e.getErrorCode(), e.getLocalizedMessage());
+            log.warn(e.getLocalizedMessage());
+        }
+        catch (ExecutionException e) {
+            exporter.addError(600, "Unable to read index",
+                    e.getCause().getLocalizedMessage());
+            log.warn(e.getCause().getLocalizedMessage());
+        }
+        catch (InterruptedException e) {
+            exporter.addError(600, "Unable to read index",
+                    e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        }
+        finally {
+
+            // Stop all segments in case the export was aborted,
+            // e.g. because the client closed the connection.
+            // Queues are cleared, so no segment blocks on a full queue
+            if (pool != null) {
+                cancelled.set(true);
+                for (BlockingQueue<String> queue : queues)
+                    queue.clear();
+                pool.shutdownNow();
+            };
+        };
+
+        exporter.close();
+        return exporter;
+    };
+
+
+    // Add a line to the queue of a segment, waiting for space
+    // as long as the export is not aborted
+    private static void _exportOffer (BlockingQueue<String> queue,
+            String line, AtomicBoolean cancelled)
+            throws InterruptedException {
+        while (!queue.offer(line, EXPORT_OFFER_TIMEOUT,
+                TimeUnit.MILLISECONDS)) {
+            if (cancelled.get())
+                throw new InterruptedException("Export aborted");
+        };
+    };
+
+
+    // Export all matches of a segment to a sink
+    private void _exportAtomic (SpanQuery query, LeafReaderContext atomic,
+            KrillCollection collection, String field, KrillMeta meta,
+            MatchExporter exporter, MatchExporter.Sink sink)
+            throws IOException, InterruptedException {
+
+        final FixedBitSet bitset = collection.bits(atomic);
+
+        if (bitset.cardinality() == 0)
+            return;
+
+        // The following fields should be lifted for matches
+        List<String> fields = new ArrayList<String>(meta.getFields());
+        final HashSet<String> fieldsSet = new HashSet<String>(fields);
+
+        // Lift all fields
+        if (fields.contains("@all"))
+            fields = null;
+
+        // Lift primary field
+        else
+            fieldsSet.add(field);
+
+        final PositionsToOffset pto = new PositionsToOffset(atomic, field);
+        final Spans spans = query.getSpans(atomic,
+                DocumentApproximation.approximate(query, atomic, bitset),
+                this.termContexts(atomic));
+        final LeafReader lreader = atomic.reader();
+
+        int localDocID = -1;
+        Document doc = null;
+
+        while (spans.next()) {
+
+            // New document
+            if (spans.doc() != localDocID) {
+                localDocID = spans.doc();
+                doc = (fields != null) ? lreader.document(localDocID, fieldsSet)
+                        : lreader.document(localDocID);
+
+                // Offsets are only needed for the current document
+                pto.clear();
+            };
+
+            final Match match = new Match(pto, localDocID, spans.start(),
+                    spans.end());
+            match.setContext(meta.getContext());
+            match.retrievePagebreaks("~:base/s:pb");
+
+            if (spans.isPayloadAvailable())
+                match.addPayload((List<byte[]>) spans.getPayload());
+
+            match.internalDocID = atomic.docBase + localDocID;
+
+            if (fields != null)
+                match.populateDocument(doc, field, fields);
+            else
+                match.populateDocument(doc, field);
+
+            sink.accept(exporter.serialize(match));
+        };
+    };
+
+
     public boolean isReaderOpen () {
         return readerOpen;
     }
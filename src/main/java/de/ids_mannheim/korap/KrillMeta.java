@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.*;
 
+import de.ids_mannheim.korap.response.Collocations;
 import de.ids_mannheim.korap.response.SearchContext;
 import de.ids_mannheim.korap.util.QueryException;
 import de.ids_mannheim.korap.response.Notifications;
@@ -32,6 +33,12 @@ public final class KrillMeta extends Notifications {
     private ArrayList<String> fields;
     HashSet<Integer> highlights;
 
+    // Metadata fields to aggregate matches by
+    private ArrayList<String> aggregations;
+
+    // Parameters of a collocation analysis
+    private Collocations collocations;
+
     // Timeout search after milliseconds
     private long timeout = (long) 120_000;
     // private long timeoutStart = Long.MIN_VALUE;
@@ -69,6 +76,7 @@ public final class KrillMeta extends Notifications {
 
         // Classes used for highlights
         highlights = new HashSet<Integer>(3);
+        aggregations = new ArrayList<String>(4);
         context = new SearchContext();
     };
 
@@ -183,6 +191,22 @@ public final class KrillMeta extends Notifications {
             };
         };
 
+        // Defined fields to aggregate matches by
+        if (json.has("aggregate")) {
+            if (json.get("aggregate").isArray()) {
+                for (JsonNode field : (JsonNode) json.get("aggregate")) {
+                    this.addAggregation(field.asText());
+                };
+            }
+            else {
+                this.addAggregation(json.get("aggregate").asText());
+            };
+        };
+
+        // Defined collocation analysis
+        if (json.has("collocation"))
+            this.collocations = new Collocations(json.get("collocation"));
+
         return this;
     };
 
@@ -308,6 +332,54 @@ public final class KrillMeta extends Notifications {
     };
 
 
+    /**
+     * Get the metadata fields to aggregate matches by.
+     */
+    public ArrayList<String> getAggregations () {
+        return this.aggregations;
+    };
+
+
+    /**
+     * Add a metadata field to aggregate matches by.
+     * Dates can be aggregated by year by appending
+     * <tt>:year</tt> to the field name, e.g. <tt>pubDate:year</tt>.
+     * 
+     * @param field
+     *            The field to aggregate matches by.
+     * @return The {@link KrillMeta} object for chaining.
+     */
+    public KrillMeta addAggregation (String field) {
+        if (!this.aggregations.contains(field))
+            this.aggregations.add(field);
+        return this;
+    };
+
+
+    /**
+     * Get the parameters of the requested collocation analysis.
+     * 
+     * @return The {@link Collocations} parameters or <tt>null</tt>,
+     *         in case no collocation analysis was requested.
+     */
+    public Collocations getCollocations () {
+        return this.collocations;
+    };
+
+
+    /**
+     * Request a collocation analysis of all matches.
+     * 
+     * @param collocations
+     *            The {@link Collocations} parameters.
+     * @return The {@link KrillMeta} object for chaining.
+     */
+    public KrillMeta setCollocations (Collocations collocations) {
+        this.collocations = collocations;
+        return this;
+    };
+
+
     /**
      * Add class numbers to highlight in KWIC view.
      * 
@@ -321,6 +393,23 @@ public final class KrillMeta extends Notifications {
     };
 
 
+    /**
+     * Get the class numbers to highlight in KWIC view.
+     * In case class numbers are given, classes neither
+     * highlighted nor referred to by an operator
+     * are removed from the query and are therefore
+     * not part of the snippets.
+     * 
+     * @return The class numbers to highlight or <tt>null</tt>,
+     *         in case all classes are highlighted.
+     */
+    public Set<Integer> getHighlights () {
+        if (this.highlights.isEmpty())
+            return null;
+        return this.highlights;
+    };
+
+
     @Deprecated
     public boolean doCutOff () {
         return this.cutOff;
@@ -393,6 +482,18 @@ public final class KrillMeta extends Notifications {
         if (this.itemsPerResource > 0)
             json.put("itemsPerResource", (int) this.getItemsPerResource());
 
+        // Add aggregate attribute
+        if (!this.aggregations.isEmpty()) {
+            ArrayNode aggregateNode = mapper.createArrayNode();
+            for (String aggregation : this.aggregations)
+                aggregateNode.add(aggregation);
+            json.put("aggregate", aggregateNode);
+        };
+
+        // Add collocation attribute
+        if (this.collocations != null)
+            json.put("collocation", this.collocations.paramsToJsonNode());
+
         // Add highlight attribute
         if (!this.highlights.isEmpty()) {
             ArrayNode highlightNode = mapper.createArrayNode();
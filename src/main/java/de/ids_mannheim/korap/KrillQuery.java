@@ -404,6 +404,13 @@ public final class KrillQuery extends Notifications {
     };
 
 
+    // Set the KoralQuery query object for reserialization,
+    // in case the query was compiled before
+    void setJson (JsonNode json) {
+        this.json = json;
+    };
+
+
     /**
      * Return the associated KoralQuery query object
      * as a JSON string. This won't work,
@@ -1,31 +1,53 @@
 package de.ids_mannheim.korap;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 import java.io.IOException;
 
 import com.fasterxml.jackson.annotation.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import de.ids_mannheim.korap.response.Notifications;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 
-import java.nio.ByteBuffer;
+import de.ids_mannheim.korap.collection.StatisticsCache;
+import de.ids_mannheim.korap.response.Notifications;
+import de.ids_mannheim.korap.util.QueryException;
+import de.ids_mannheim.korap.util.StatusCodes;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Create a Statistics object.
- * 
- * This is early work and highliy experimental!
- * 
+ *
+ * Collects statistics of a virtual collection in a single pass
+ * over all terms of all segments of the index.
+ * Segments are processed in parallel.
+ * The statistics contain the number of texts,
+ * all meta counts (like <i>-:tokens</i> or
+ * <i>-:base/sentences</i>), the number of span annotations
+ * per foundry, layer and key (like <i>&lt;&gt;:base/s:s</i>)
+ * and the number of token annotations per foundry and layer
+ * (like <i>opennlp/p</i>).
+ *
  * <blockquote><pre>
  * KrillStats ks = new KrillStats(json);
+ * ks.apply(index);
  * </pre></blockquote>
- * 
- * Should serialize to something like
- * 
+ *
+ * Serializes to something like
+ *
  * "stats" : {
  * "@type" : "koral:stats",
  * "collection" : [
@@ -43,16 +65,12 @@ import org.slf4j.LoggerFactory;
  * }
  * ]
  * }
- * 
- * 
+ *
+ * Statistics are cached per segment and per index revision,
+ * so repeated requests don't need to iterate the index.
+ *
  * @author diewald
  */
-/*
- * TODO: THIS IS CURRENTLY HIGHLY EXPERIMENTAL
- * TODO: Stats may use Column Stride fields (or DocValues)
- * (or similiar concepts) https://issues.apache.org/jira/browse/LUCENE-1231
- * https://issues.apache.org/jira/browse/LUCENE-3108
- */
 public final class KrillStats extends Notifications {
 
     // Logger
@@ -61,14 +79,170 @@ public final class KrillStats extends Notifications {
     // This advices the java compiler to ignore all loggings
     public static final boolean DEBUG = false;
 
+    // Separator of foundry, layer and key in value keys
+    private static final char SEP = '\u0000';
+
+    private KrillCollection collection;
+    private KrillIndex index;
+    private String field = "tokens";
+
+    private Map<String, Long> values;
+
 
     /**
      * Construct a new KrillStats.
-     * 
+     *
      */
     public KrillStats () {};
 
 
+    /**
+     * Construct a new KrillStats based on a KoralQuery.
+     * In case the query has no collection defined,
+     * the statistics refer to the whole index.
+     *
+     * @param json
+     *            The KoralQuery document as a JSON string.
+     */
+    public KrillStats (String json) {
+        this.collection = new KrillCollection();
+        try {
+            JsonNode node = mapper.readTree(json);
+
+            if (node.has("errors") && node.get("errors").size() > 0) {
+                this.addError(StatusCodes.INVALID_QUERY, "Json has errors.");
+            }
+            else if (node.has("collection")) {
+                this.collection.fromKoral(node.get("collection"));
+            };
+        }
+
+        // Query Exception
+        catch (QueryException qe) {
+            this.addError(qe.getErrorCode(), qe.getMessage());
+        }
+
+        // JSON exception
+        catch (IOException e) {
+            this.addError(StatusCodes.UNABLE_TO_PARSE_JSON,
+                    "Unable to parse JSON", "KrillStats",
+                    e.getLocalizedMessage());
+        };
+
+        this.moveNotificationsFrom(this.collection);
+    };
+
+
+    /**
+     * Construct a new KrillStats based on a {@link KrillCollection}.
+     *
+     * @param collection
+     *            The virtual collection.
+     */
+    public KrillStats (KrillCollection collection) {
+        this.collection = collection;
+    };
+
+
+    /**
+     * Get the virtual collection the statistics refer to.
+     *
+     * @return The {@link KrillCollection} object.
+     */
+    @JsonIgnore
+    public KrillCollection getCollection () {
+        if (this.collection == null)
+            this.collection = new KrillCollection();
+        return this.collection;
+    };
+
+
+    /**
+     * Set the field the statistics refer to.
+     * Defaults to <i>tokens</i>.
+     *
+     * @param field
+     *            The field containing the textual data
+     *            and the annotations.
+     * @return The {@link KrillStats} object for chaining.
+     */
+    public KrillStats setField (String field) {
+        this.field = field;
+        this.values = null;
+        return this;
+    };
+
+
+    /**
+     * Collect the statistics of the collection
+     * in the given index.
+     *
+     * @param index
+     *            The {@link KrillIndex}.
+     * @return The {@link KrillStats} object for chaining.
+     */
+    public KrillStats apply (KrillIndex index) {
+        this.index = index;
+        this.values = null;
+
+        if (this.hasErrors())
+            return this;
+
+        if (index == null) {
+            this.addError(StatusCodes.UNABLE_TO_FIND_INDEX,
+                    "Unable to find index");
+            return this;
+        };
+
+        this.getCollection().setIndex(index);
+
+        // Collect all statistics from the same snapshot of the index
+        index.acquireReader();
+        try {
+            this.values = this._collect();
+        }
+        catch (QueryException qe) {
+            this.addError(qe.getErrorCode(), qe.getMessage());
+        }
+        finally {
+            index.releaseReader();
+        };
+
+        return this;
+    };
+
+
+    /**
+     * Get a single value of the statistics.
+     *
+     * @param foundry
+     *            The foundry, may be <code>null</code>.
+     * @param layer
+     *            The layer, may be <code>null</code>.
+     * @param key
+     *            The key, e.g. <i>texts</i>, <i>tokens</i>
+     *            or the key of a span annotation.
+     * @return The value or <code>0</code>
+     *         in case the value is not known.
+     */
+    public long getValue (String foundry, String layer, String key) {
+        if (this.values == null)
+            return 0;
+        Long value = this.values.get(_key(foundry, layer, key));
+        return value == null ? 0 : value;
+    };
+
+
+    /**
+     * Get the number of collected values.
+     *
+     * @return The number of values.
+     */
+    public int size () {
+        return this.values == null ? 0 : this.values.size();
+    };
+
+
     @Override
     public JsonNode toJsonNode () {
         ObjectMapper mapper = new ObjectMapper();
@@ -76,6 +250,231 @@ public final class KrillStats extends Notifications {
 
         json.put("@type", "koral:stats");
 
+        if (this.values != null) {
+            ArrayNode coll = json.putArray("collection");
+            for (Map.Entry<String, Long> entry : this.values.entrySet()) {
+                String[] parts = entry.getKey().split(String.valueOf(SEP),
+                        -1);
+                ObjectNode value = coll.addObject();
+                value.put("@type", "stats:collection");
+                if (parts[0].length() > 0)
+                    value.put("foundry", parts[0]);
+                if (parts[1].length() > 0)
+                    value.put("layer", parts[1]);
+                value.put("key", parts[2]);
+                value.put("value", entry.getValue());
+            };
+        };
+
         return (JsonNode) json;
-    }
+    };
+
+
+    // Collect all values of the collection
+    private Map<String, Long> _collect () throws QueryException {
+
+        Map<String, Long> values = new TreeMap<String, Long>();
+
+        // Index is empty
+        if (this.index.reader() == null) {
+            values.put(_key(null, null, "texts"), (long) 0);
+            return values;
+        };
+
+        final String vc = this.collection.statisticsKey();
+        final StatisticsCache sc = this.index.getStatisticsCache();
+        final String fingerprint = this.index.getFingerprint();
+
+        // Check for cached statistics of the index revision
+        if (vc != null) {
+            Map<String, Long> cached = sc.getCollection(fingerprint, vc,
+                    this.field);
+            if (cached != null)
+                return cached;
+        };
+
+        // Serialize the filter once before segments are processed
+        this.collection.toFilter();
+
+        final AtomicBoolean complete = new AtomicBoolean(true);
+        final List<LeafReaderContext> leaves = this.index.reader().leaves();
+
+        // Iterate over all atomic readers,
+        // in parallel in case there are multiple segments
+        List<Map<String, Long>> segments = (leaves.size() > 1
+                ? leaves.parallelStream() : leaves.stream())
+                        .map(atomic -> this._collectAtomic(atomic, vc, sc,
+                                complete))
+                        .collect(Collectors.toList());
+
+        // Merge values of all segments
+        for (Map<String, Long> segment : segments) {
+            for (Map.Entry<String, Long> e : segment.entrySet())
+                values.merge(e.getKey(), e.getValue(), Long::sum);
+        };
+
+        if (values.isEmpty())
+            values.put(_key(null, null, "texts"), (long) 0);
+
+        // Do not cache partial results
+        if (!complete.get()) {
+            this.addWarning(StatusCodes.UNABLE_TO_READ_INDEX,
+                    "Unable to read index", "Statistics may be incomplete");
+        }
+        else if (vc != null) {
+            sc.putCollection(fingerprint, vc, this.field, values);
+        };
+
+        return values;
+    };
+
+
+    // Collect all values of the collection in a single segment
+    private Map<String, Long> _collectAtomic (LeafReaderContext atomic,
+            String vc, StatisticsCache sc, AtomicBoolean complete) {
+
+        final String segment = (vc == null) ? null
+                : StatisticsCache.segmentKey(atomic.reader());
+
+        if (segment != null) {
+            Map<String, Long> cached = sc.getCollection(segment, vc,
+                    this.field);
+            if (cached != null)
+                return cached;
+        };
+
+        Map<String, Long> values = new HashMap<String, Long>();
+
+        try {
+            final LeafReader reader = atomic.reader();
+            final FixedBitSet bits = this.collection.bits(atomic);
+            final int cardinality = bits.cardinality();
+
+            values.put(_key(null, null, "texts"), (long) cardinality);
+
+            // In case all documents are part of the collection
+            // and there are no deletions, term statistics are sufficient
+            final boolean all = cardinality == reader.maxDoc();
+
+            final Terms terms = (cardinality == 0) ? null
+                    : reader.terms(this.field);
+
+            if (terms != null) {
+                final TermsEnum termsEnum = terms.iterator(null);
+                final List<String> types = new ArrayList<String>();
+                DocsEnum docs = null;
+                BytesRef term;
+
+                while ((term = termsEnum.next()) != null) {
+                    final String t = term.utf8ToString();
+
+                    // Meta counts are collected in a single pass
+                    if (t.startsWith("-:")) {
+                        types.add(t.substring(2));
+                        continue;
+                    };
+
+                    final String key = _annotationKey(t);
+                    if (key == null)
+                        continue;
+
+                    long freq = 0;
+                    if (all) {
+                        freq = termsEnum.totalTermFreq();
+                    }
+                    else {
+                        docs = termsEnum.docs(bits, docs, DocsEnum.FLAG_FREQS);
+                        while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS)
+                            freq += docs.freq();
+                    };
+
+                    if (freq > 0)
+                        values.merge(key, freq, Long::sum);
+                };
+
+                final long[] counts = this.collection.numbersOfAtomic(bits,
+                        atomic, this.field,
+                        types.toArray(new String[types.size()]));
+                for (int i = 0; i < counts.length; i++) {
+                    final String type = types.get(i);
+                    final int slash = type.indexOf('/');
+                    values.merge(slash < 0 ? _key(null, null, type)
+                            : _key(type.substring(0, slash), null,
+                                    type.substring(slash + 1)),
+                            counts[i], Long::sum);
+                };
+            };
+
+            if (segment != null)
+                sc.putCollection(segment, vc, this.field, values);
+        }
+
+        // Something went wrong
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+            complete.set(false);
+        }
+
+        // E.g. reference corpus not found
+        catch (QueryException e) {
+            log.warn(e.getLocalizedMessage());
+            complete.set(false);
+        };
+
+        if (DEBUG)
+            log.debug("Collected {} values in segment {}", values.size(),
+                    segment);
+
+        return values;
+    };
+
+
+    // Get the key of an annotation term,
+    // or null in case the term is ignored
+    private static String _annotationKey (String term) {
+        if (term.length() == 0)
+            return null;
+
+        // Span annotation, e.g. <>:base/s:s
+        if (term.startsWith("<>:")) {
+            final String anno = term.substring(3);
+            final int colon = anno.indexOf(':');
+
+            if (colon < 0)
+                return _key(null, null, anno);
+
+            final String prefix = anno.substring(0, colon);
+            final int slash = prefix.indexOf('/');
+            if (slash < 0)
+                return _key(null, prefix, anno.substring(colon + 1));
+
+            return _key(prefix.substring(0, slash),
+                    prefix.substring(slash + 1), anno.substring(colon + 1));
+        };
+
+        // Ignore relations, attributes, positions etc.
+        if (!Character.isLetterOrDigit(term.charAt(0)))
+            return null;
+
+        // Token annotation, e.g. opennlp/p:NN or s:Baum
+        final int colon = term.indexOf(':');
+        if (colon <= 0)
+            return null;
+
+        final String prefix = term.substring(0, colon);
+        final int slash = prefix.indexOf('/');
+        if (slash < 0)
+            return _key(null, prefix, "tokens");
+
+        return _key(prefix.substring(0, slash), prefix.substring(slash + 1),
+                "tokens");
+    };
+
+
+    // Create a key of foundry, layer and key
+    private static String _key (String foundry, String layer, String key) {
+        return new StringBuilder(foundry == null ? "" : foundry).append(SEP)
+                .append(layer == null ? "" : layer).append(SEP).append(key)
+                .toString();
+    };
 };
@@ -0,0 +1,214 @@
+package de.ids_mannheim.korap.collection;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SegmentReader;
+
+/**
+ * Cache for corpus statistics (like the number of documents,
+ * tokens or sentences) of virtual collections.
+ *
+ * Values are stored on two levels:
+ * Totals are bound to the fingerprint of the index,
+ * while per-segment values are bound to the name and the
+ * deletion generation of the segment, so after a commit
+ * only new or modified segments need to be recounted.
+ *
+ * Full statistics of collections (as collected by
+ * {@link de.ids_mannheim.korap.KrillStats}) are stored
+ * as maps of values, bound to either of these revisions.
+ *
+ * All levels are bounded and evict the least recently
+ * used entries.
+ */
+public class StatisticsCache {
+
+    // Default number of entries per level
+    public static final int MAX_ENTRIES = 4096;
+
+    private final Map<String, Long> totals;
+    private final Map<String, Long> segments;
+    private final Map<String, Map<String, Long>> collections;
+
+
+    /**
+     * Construct a new StatisticsCache.
+     */
+    public StatisticsCache () {
+        this(MAX_ENTRIES);
+    };
+
+
+    /**
+     * Construct a new StatisticsCache.
+     *
+     * @param maxEntries
+     *            The maximum number of entries per level.
+     */
+    public StatisticsCache (int maxEntries) {
+        this.totals = _lruMap(maxEntries);
+        this.segments = _lruMap(maxEntries);
+        this.collections = _lruMap(maxEntries);
+    };
+
+
+    /**
+     * Get the cached total value of a statistic.
+     *
+     * @param fingerprint
+     *            The fingerprint of the index.
+     * @param vc
+     *            The normalized serialization of the collection.
+     * @param field
+     *            The field of the statistic.
+     * @param type
+     *            The type of the statistic,
+     *            e.g. <i>documents</i> or <i>sentences</i>.
+     * @return The cached value or <code>null</code>.
+     */
+    public Long getTotal (String fingerprint, String vc, String field,
+            String type) {
+        return this.totals.get(_key(fingerprint, vc, field, type));
+    };
+
+
+    /**
+     * Cache the total value of a statistic.
+     *
+     * @see #getTotal
+     */
+    public void putTotal (String fingerprint, String vc, String field,
+            String type, long value) {
+        this.totals.put(_key(fingerprint, vc, field, type), value);
+    };
+
+
+    /**
+     * Get the cached value of a statistic for a single segment.
+     *
+     * @param segment
+     *            The segment key as returned by
+     *            {@link #segmentKey}.
+     * @param vc
+     *            The normalized serialization of the collection.
+     * @param field
+     *            The field of the statistic.
+     * @param type
+     *            The type of the statistic.
+     * @return The cached value or <code>null</code>.
+     */
+    public Long getSegment (String segment, String vc, String field,
+            String type) {
+        return this.segments.get(_key(segment, vc, field, type));
+    };
+
+
+    /**
+     * Cache the value of a statistic for a single segment.
+     *
+     * @see #getSegment
+     */
+    public void putSegment (String segment, String vc, String field,
+            String type, long value) {
+        this.segments.put(_key(segment, vc, field, type), value);
+    };
+
+
+    /**
+     * Get the cached statistics of a collection.
+     *
+     * @param revision
+     *            Either the fingerprint of the index or
+     *            a segment key as returned by {@link #segmentKey}.
+     * @param vc
+     *            The normalized serialization of the collection.
+     * @param field
+     *            The field of the statistics.
+     * @return The cached, unmodifiable map of values
+     *         or <code>null</code>.
+     */
+    public Map<String, Long> getCollection (String revision, String vc,
+            String field) {
+        return this.collections.get(_key(revision, vc, field, "stats"));
+    };
+
+
+    /**
+     * Cache the statistics of a collection.
+     *
+     * @see #getCollection
+     */
+    public void putCollection (String revision, String vc, String field,
+            Map<String, Long> values) {
+        this.collections.put(_key(revision, vc, field, "stats"),
+                Collections.unmodifiableMap(values));
+    };
+
+
+    /**
+     * Remove all cached values.
+     */
+    public void clear () {
+        this.totals.clear();
+        this.segments.clear();
+        this.collections.clear();
+    };
+
+
+    /**
+     * Get the number of cached entries on all levels.
+     *
+     * @return The number of cached entries.
+     */
+    public int size () {
+        return this.totals.size() + this.segments.size()
+                + this.collections.size();
+    };
+
+
+    /**
+     * Create a key identifying the state of a segment,
+     * that is stable across reader reopenings.
+     *
+     * @param reader
+     *            The {@link LeafReader} of the segment.
+     * @return The key as a string or <code>null</code>,
+     *         in case the reader is no segment reader
+     *         and can't be cached.
+     */
+    public static String segmentKey (LeafReader reader) {
+        if (!(reader instanceof SegmentReader))
+            return null;
+
+        SegmentReader sr = (SegmentReader) reader;
+        return sr.getSegmentName() + "_" + sr.getSegmentInfo().getDelGen();
+    };
+
+
+    // Create key
+    private static String _key (String revision, String vc, String field,
+            String type) {
+        return new StringBuilder(revision).append('\u0000').append(field)
+                .append('\u0000').append(type).append('\u0000').append(vc)
+                .toString();
+    };
+
+
+    // Create synchronized map evicting the least recently used entries
+    private static <V> Map<String, V> _lruMap (final int maxEntries) {
+        return Collections.synchronizedMap(
+                new LinkedHashMap<String, V>(64, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+
+                    @Override
+                    protected boolean removeEldestEntry (
+                            Map.Entry<String, V> eldest) {
+                        return this.size() > maxEntries;
+                    };
+                });
+    };
+};
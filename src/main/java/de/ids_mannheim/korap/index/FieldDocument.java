@@ -24,11 +24,15 @@ import org.apache.lucene.document.IntField;
 import org.apache.lucene.document.DoubleField;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.util.BytesRef;
 
 import org.apache.lucene.analysis.TokenStream;
 
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.io.StringReader;
 import java.io.IOException;
 
@@ -66,12 +70,18 @@ public class FieldDocument extends AbstractDocument {
 
 	// This advices the java compiler to ignore all loggings
     public static final boolean DEBUG = false;
+
+    // Maximum length of a sorted doc value in bytes
+    private static final int MAX_FACET_LENGTH = 32766;
     
     @JsonIgnore
     public Document doc = new Document();
     private FieldType tvField = new FieldType(TextField.TYPE_STORED);
     private FieldType tvNoField = new FieldType(TextField.TYPE_NOT_STORED);
     private FieldType keywordField = new FieldType(TextField.TYPE_STORED);
+
+    // Metadata fields stored as doc values for aggregations
+    private Set<String> facets = Collections.emptySet();
     
     {
         tvField.setStoreTermVectors(true);
@@ -89,6 +99,46 @@ public class FieldDocument extends AbstractDocument {
     };
 
 
+    /**
+     * Define, whether term vectors with positions and payloads
+     * are stored for token stream fields (the default).
+     * Without term vectors, the index is considerably smaller,
+     * but match information needs to be read from the postings.
+     * Has to be set before the document is added to the index.
+     * 
+     * @param termVectors
+     *            <tt>true</tt> to store term vectors.
+     * @return The {@link FieldDocument} object for chaining.
+     */
+    public FieldDocument setTermVectors (boolean termVectors) {
+
+        // Fields refer to the types until they are indexed
+        for (FieldType type : new FieldType[] { tvField, tvNoField }) {
+            type.setStoreTermVectors(termVectors);
+            type.setStoreTermVectorPositions(termVectors);
+            type.setStoreTermVectorPayloads(termVectors);
+        };
+        return this;
+    };
+
+
+    /**
+     * Define the metadata fields stored as sorted set doc values
+     * (see {@link #addFacetValue}), so matches can be aggregated
+     * by these fields without reading their postings.
+     * Per default no facets are stored.
+     * Has to be set before the document is compiled.
+     * 
+     * @param facets
+     *            The names of the metadata fields.
+     * @return The {@link FieldDocument} object for chaining.
+     */
+    public FieldDocument setFacets (Set<String> facets) {
+        this.facets = facets;
+        return this;
+    };
+
+
     /**
      * Add all fields to document
      */
@@ -115,6 +165,8 @@ public class FieldDocument extends AbstractDocument {
                 if (date != null) {
                     try {
                         doc.add(new IntField(mf.key, date.toInteger(), Field.Store.YES));
+                        if (this.facets.contains(mf.key))
+                            this.addFacetValue(mf.key, String.valueOf(date.toInteger()));
                     }
                     catch (NumberFormatException ne) {
                         continue;
@@ -131,6 +183,8 @@ public class FieldDocument extends AbstractDocument {
                         Field.Store.YES
                         )
                     );
+                if (this.facets.contains(mf.key))
+                    this.addFacetValue(mf.key, mf.values.get(0));
                 break;
 
             case "type:keywords":
@@ -141,6 +195,12 @@ public class FieldDocument extends AbstractDocument {
                         keywordField
                         )
                     );
+                if (this.facets.contains(mf.key)) {
+                    for (String value : mf.values) {
+                        for (String keyword : value.split("\\s+"))
+                            this.addFacetValue(mf.key, keyword);
+                    };
+                };
                 break;
             
             case "type:text":
@@ -171,12 +231,105 @@ public class FieldDocument extends AbstractDocument {
         Field textField = new Field(key, value, tvField);
         textField.setTokenStream(ts);
         doc.add(textField);
+        this.addCountValues(key, ts);
     };
 
 
     public void addTV (String key, MultiTermTokenStream ts) {
         Field textField = new Field(key, ts, tvNoField);
         doc.add(textField);
+        this.addCountValues(key, ts);
+    };
+
+
+    /**
+     * Add the numerical payloads of meta terms in a token stream
+     * (like <tt>-:tokens$&lt;i&gt;18</tt>) as numeric doc values,
+     * so counts can be summed up without reading payloads.
+     * Only the first occurrence of each meta term is respected,
+     * identical to the payload based counting.
+     * 
+     * @param key
+     *            The field name of the token stream.
+     * @param ts
+     *            The {@link MultiTermTokenStream}.
+     */
+    public void addCountValues (String key, MultiTermTokenStream ts) {
+        for (int i = 0; i < ts.getSize(); i++) {
+            for (MultiTerm mt : ts.get(i).terms) {
+
+                if (mt.term == null || !mt.term.startsWith("-:"))
+                    continue;
+
+                BytesRef pl = mt.payload;
+                if (pl == null || pl.length < 4 || mt.start != mt.end)
+                    continue;
+
+                String dvField = countField(key, mt.term.substring(2));
+
+                // Doc values may only be set once per document
+                if (doc.getField(dvField) != null)
+                    continue;
+
+                doc.add(new NumericDocValuesField(dvField,
+                        (long) ByteBuffer.wrap(pl.bytes, pl.offset, 4).getInt()));
+            };
+        };
+    };
+
+
+    /**
+     * Get the name of the numeric doc values field
+     * storing the per-document count of a meta type
+     * (e.g. <i>tokens</i> or <i>base/sentences</i>).
+     * 
+     * @param field
+     *            The field containing the textual data and the
+     *            annotations as a string.
+     * @param type
+     *            The type of meta information.
+     * @return The name of the doc values field.
+     */
+    public static String countField (String field, String type) {
+        return field + "/-:" + type;
+    };
+
+
+    /**
+     * Add a value of a metadata field as a sorted set doc value,
+     * so matches can be aggregated by metadata
+     * without loading stored fields.
+     * 
+     * @param key
+     *            The metadata field name.
+     * @param value
+     *            The value of the field.
+     */
+    public void addFacetValue (String key, String value) {
+        if (value == null || value.length() == 0)
+            return;
+
+        BytesRef bytes = new BytesRef(value);
+
+        // Values exceeding the doc values limit are not aggregatable
+        if (bytes.length > MAX_FACET_LENGTH)
+            return;
+
+        doc.add(new SortedSetDocValuesField(facetField(key), bytes));
+    };
+
+
+    /**
+     * Get the name of the sorted set doc values field
+     * storing the values of a metadata field
+     * for aggregations.
+     * 
+     * @param key
+     *            The metadata field name.
+     * @return The name of the doc values field.
+     */
+    public static String facetField (String key) {
+        return key + "/-:facet";
     };
 
 
@@ -0,0 +1,407 @@
+package de.ids_mannheim.korap.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.apache.lucene.util.BytesRef;
+
+import de.ids_mannheim.korap.util.CorpusDataException;
+import de.ids_mannheim.korap.util.StatusCodes;
+
+/**
+ * Streaming deserialization of {@link FieldDocument FieldDocuments}.
+ *
+ * In contrast to the data binding of {@link FieldDocument#setData},
+ * the token stream of the document is read token by token from
+ * the JSON parser and directly added to the
+ * {@link MultiTermTokenStream}, without creating intermediate maps
+ * and lists of all annotation strings of the document.
+ * All other properties of the document (e.g. the metadata fields)
+ * are small and are deserialized by the data binding per property.
+ *
+ * Parsed by {@link #stream(InputStream)}, the token stream isn't
+ * held in memory at all. As the document can only be added
+ * to the index after all of its properties are parsed
+ * (the order of properties in JSON objects is not fixed,
+ * the name of the stream and the metadata fields
+ * usually follow the stream), the parsed tokens are written
+ * to a {@link TokenSpool} and read back one token at a time,
+ * while the document is indexed.
+ * This way, the memory needed to index a document is
+ * bounded by the annotations of a single token
+ * instead of the size of the document.
+ *
+ * Terms of the stream can either be given in the string
+ * representation of {@link MultiTerm} or in an array encoding,
+ * that does not need to be parsed as a string.
+ * The array consists of the term, optionally followed by
+ * the start and end character offsets, optionally followed by
+ * typed payload segments as pairs of a type
+ * (<tt>b</tt> for bytes, <tt>s</tt> for shorts, <tt>i</tt> for
+ * integers, <tt>l</tt> for longs and <tt>x</tt> for UTF-8 strings)
+ * and a value. The following terms are equal:
+ *
+ * <blockquote><pre>
+ * "&lt;&gt;:s#0-38$&lt;b&gt;64&lt;i&gt;38&lt;i&gt;7&lt;b&gt;0"
+ * ["&lt;&gt;:s", 0, 38, "b", 64, "i", 38, "i", 7, "b", 0]
+ * </pre></blockquote>
+ */
+public final class FieldDocumentParser {
+
+    // The mapper is thread-safe
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+
+    /**
+     * Parse a document from an {@link InputStream}.
+     *
+     * @param json
+     *            The JSON document as an {@link InputStream}.
+     * @return The parsed {@link FieldDocument}.
+     * @throws IOException
+     */
+    public static FieldDocument parse (InputStream json) throws IOException {
+        return _parse(mapper.getFactory().createParser(json), false);
+    };
+
+
+    /**
+     * Parse a document from an {@link InputStream} for indexing,
+     * with the token stream spooled to a temporary file.
+     * The token stream of the document is read from the spool
+     * one token at a time, when the document is added to
+     * the index, and can only be consumed once.
+     *
+     * @param json
+     *            The JSON document as an {@link InputStream}.
+     * @return The parsed {@link FieldDocument}.
+     * @throws IOException
+     */
+    public static FieldDocument stream (InputStream json) throws IOException {
+        return _parse(mapper.getFactory().createParser(json), true);
+    };
+
+
+    /**
+     * Parse a document from a byte array.
+     *
+     * @param json
+     *            The JSON document as UTF-8 encoded bytes.
+     * @return The parsed {@link FieldDocument}.
+     * @throws IOException
+     */
+    public static FieldDocument parse (byte[] json) throws IOException {
+        return _parse(mapper.getFactory().createParser(json), false);
+    };
+
+
+    /**
+     * Parse a document from a string.
+     *
+     * @param json
+     *            The JSON document as a string.
+     * @return The parsed {@link FieldDocument}.
+     * @throws IOException
+     */
+    public static FieldDocument parse (String json) throws IOException {
+        return _parse(mapper.getFactory().createParser(json), false);
+    };
+
+
+    // Parse the properties of the document
+    private static FieldDocument _parse (JsonParser parser, boolean spooled)
+            throws IOException {
+        final FieldDocument fd = new FieldDocument();
+
+        try (JsonParser p = parser) {
+            if (p.nextToken() != JsonToken.START_OBJECT)
+                throw new JsonParseException(p, "Document is not an object");
+
+            final ObjectReader updater = mapper.readerForUpdating(fd);
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = p.getCurrentName();
+
+                // Stream token data
+                if (p.nextToken() == JsonToken.START_OBJECT
+                        && name.equals("data")) {
+                    _parseData(p, fd, spooled);
+                    continue;
+                };
+
+                // Bind all other properties
+                JsonNode value = mapper.readTree(p);
+                ObjectNode node = mapper.createObjectNode();
+                node.set(name, value == null ? NullNode.getInstance() : value);
+                updater.readValue(node);
+            };
+        };
+
+        return fd;
+    };
+
+
+    // Parse the token stream data,
+    // identical to FieldDocument#setData,
+    // optionally with the tokens written to a spool
+    private static void _parseData (JsonParser p, FieldDocument fd,
+            boolean spooled) throws IOException {
+        TokenSpool spool = null;
+        try {
+            spool = spooled ? new TokenSpool() : null;
+            _parseDataProperties(p, fd, spool);
+        }
+        catch (IOException | RuntimeException e) {
+            if (spool != null)
+                spool.close();
+            throw e;
+        };
+    };
+
+
+    // Parse the properties of the token stream data,
+    // with tokens either added to a stream or to a spool
+    private static void _parseDataProperties (JsonParser p,
+            FieldDocument fd, TokenSpool spool) throws IOException {
+        String text = null, name = null, foundries = null,
+                layerInfos = null, tokenSource = null;
+
+        final MultiTermTokenStream mtts = spool == null
+                ? fd.newMultiTermTokenStream()
+                : new MultiTermTokenStream(spool);
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = p.getCurrentName();
+            final JsonToken token = p.nextToken();
+
+            switch (key) {
+            case "text":
+                text = p.getValueAsString();
+                break;
+            case "name":
+                name = p.getValueAsString();
+                break;
+            case "foundries":
+                foundries = p.getValueAsString();
+                break;
+            case "layerInfos":
+                layerInfos = p.getValueAsString();
+                break;
+            case "tokenSource":
+                tokenSource = p.getValueAsString();
+                break;
+            case "stream":
+                if (token == JsonToken.START_ARRAY) {
+                    _parseStream(p, fd, mtts, spool);
+                    break;
+                };
+
+                // Ignore invalid streams
+            default:
+                p.skipChildren();
+            };
+        };
+
+        // TODO: Replace surrogates here, see AbstractDocument#setPrimaryData
+        fd.setPrimaryData(text);
+
+        // Add tokenstream to fielddocument
+        fd.addTV(name, fd.getPrimaryData(), mtts);
+        if (spool != null)
+            fd.addCountValues(name, spool.getMetaTerms());
+
+        // Get foundry info
+        if (foundries != null)
+            fd.addKeywords("foundries", foundries);
+
+        // Get layer info
+        if (layerInfos != null)
+            fd.addStored("layerInfos", layerInfos);
+
+        // Get tokenSource info
+        if (tokenSource != null)
+            fd.addStored("tokenSource", tokenSource);
+    };
+
+
+    // Parse all tokens of the stream, one token at a time,
+    // and add them to the stream or the spool
+    private static void _parseStream (JsonParser p, FieldDocument fd,
+            MultiTermTokenStream mtts, TokenSpool spool) throws IOException {
+
+        while (p.nextToken() == JsonToken.START_ARRAY) {
+            MultiTermToken mtt = null;
+            boolean valid = true;
+
+            for (JsonToken t = p.nextToken(); t != JsonToken.END_ARRAY; t = p
+                    .nextToken()) {
+
+                if (t == null)
+                    throw new JsonParseException(p, "Unexpected end of stream");
+
+                // Ignore the rest of an invalid token
+                if (!valid) {
+                    p.skipChildren();
+                    continue;
+                };
+
+                try {
+
+                    // Term in array encoding
+                    if (t == JsonToken.START_ARRAY) {
+                        MultiTerm mt = _parseTerm(p);
+                        if (mtt == null)
+                            mtt = new MultiTermToken(mt);
+                        else
+                            mtt.add(mt);
+                    }
+
+                    // Initialize MultiTermToken
+                    else if (mtt == null)
+                        mtt = new MultiTermToken(p.getValueAsString());
+
+                    // Add rest of the list
+                    else
+                        mtt.add(p.getValueAsString());
+                }
+                catch (CorpusDataException cde) {
+                    fd.addError(cde.getErrorCode(), cde.getMessage());
+                    valid = false;
+                };
+            };
+
+            // Add MultiTermToken to stream
+            if (!valid || mtt == null)
+                continue;
+
+            if (spool != null)
+                spool.add(mtt);
+            else
+                mtts.addMultiTermToken(mtt);
+        };
+    };
+
+
+    // Parse a term in array encoding
+    private static MultiTerm _parseTerm (JsonParser p)
+            throws IOException, CorpusDataException {
+        String term = null, error = null;
+        int start = 0, end = 0;
+        ByteBuffer bb = null;
+
+        JsonToken t = p.nextToken();
+        if (t == JsonToken.VALUE_STRING) {
+            term = p.getText();
+            t = p.nextToken();
+        }
+        else {
+            error = "Term is missing";
+        };
+
+        // Parse offsets
+        if (error == null && t == JsonToken.VALUE_NUMBER_INT) {
+            start = p.getIntValue();
+            t = p.nextToken();
+            if (t == JsonToken.VALUE_NUMBER_INT) {
+                end = p.getIntValue();
+                t = p.nextToken();
+            }
+            else {
+                error = "Offset information is incomplete";
+            };
+        };
+
+        // Parse typed payload segments
+        while (error == null && t != JsonToken.END_ARRAY) {
+            if (t != JsonToken.VALUE_STRING) {
+                error = "Payload type is missing";
+                break;
+            };
+
+            final String type = p.getText();
+            t = p.nextToken();
+
+            if (bb == null)
+                bb = ByteBuffer.allocate(32);
+
+            if (type.equals("x") && t == JsonToken.VALUE_STRING) {
+                byte[] bytes = p.getText().getBytes(StandardCharsets.UTF_8);
+                bb = _ensure(bb, bytes.length);
+                bb.put(bytes);
+            }
+            else if (t == JsonToken.VALUE_NUMBER_INT) {
+                final long value = p.getLongValue();
+                bb = _ensure(bb, 8);
+                switch (type) {
+                    case "b":
+                        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE)
+                            error = "Byte value out of range";
+                        else
+                            bb.put((byte) value);
+                        break;
+                    case "s":
+                        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE)
+                            error = "Short value out of range";
+                        else
+                            bb.putShort((short) value);
+                        break;
+                    case "i":
+                        if (value < Integer.MIN_VALUE
+                                || value > Integer.MAX_VALUE)
+                            error = "Integer value out of range";
+                        else
+                            bb.putInt((int) value);
+                        break;
+                    case "l":
+                        bb.putLong(value);
+                        break;
+                    default:
+                        error = "Unknown payload type " + type;
+                };
+            }
+            else {
+                error = "Invalid payload value for type " + type;
+            };
+            t = p.nextToken();
+        };
+
+        // Skip the rest of an invalid term
+        while (t != JsonToken.END_ARRAY) {
+            if (t == null)
+                throw new JsonParseException(p, "Unexpected end of stream");
+            p.skipChildren();
+            t = p.nextToken();
+        };
+
+        if (error != null)
+            throw new CorpusDataException(
+                    StatusCodes.INVALID_TERM_ENCODING,
+                    error + " in term " + term);
+
+        return new MultiTerm(term, start, end, bb == null ? null
+                : new BytesRef(Arrays.copyOf(bb.array(), bb.position())));
+    };
+
+
+    // Ensure the buffer has enough space remaining
+    private static ByteBuffer _ensure (ByteBuffer bb, int size) {
+        if (bb.remaining() >= size)
+            return bb;
+        ByteBuffer newBB = ByteBuffer
+                .allocate(Math.max(bb.capacity() * 2, bb.position() + size));
+        bb.flip();
+        return newBB.put(bb);
+    };
+};
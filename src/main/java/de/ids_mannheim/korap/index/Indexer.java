@@ -2,12 +2,22 @@ package de.ids_mannheim.korap.index;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Iterator;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -33,18 +43,33 @@ import de.ids_mannheim.korap.util.KrillProperties;
  * (especially as it is way faster).
  * <br><br>
  * Input directories should contain files in the json.gz format. Files
- * of other formats will be skipped or not indexed. The output
+ * of other formats will be skipped or not indexed. Directories
+ * are walked recursively. The output
  * directory can be specified in the config file. See
  * src/main/resources/krill.properties.info to create a config file.
+ * <br><br>
+ * Documents are indexed by a pool of worker threads, each
+ * decompressing and parsing a document and adding it to the shared
+ * index writer. The queue of the pool is bounded and token streams
+ * are spooled to temporary files instead of being held in memory
+ * (see {@link FieldDocumentParser#stream}), so the memory needed
+ * for indexing doesn't depend on the size of the documents.
+ * <br><br>
+ * For the initial creation of an index, the bulk load mode (-b)
+ * adds all documents without checking for existing documents,
+ * uses a large RAM buffer (krill.index.bulk.ramBuffer in MB)
+ * and only commits at the end. Optionally the index
+ * can be merged to a maximum number of segments afterwards (-m).
  * 
  * <pre>
  * Usage:
  * 
  * java -jar Krill-Indexer.jar -c [propfile] -i [input directories] -o
- * [output directory]
+ * [output directory] -t [threads] -b -m [segments]
  * 
  * java -jar Krill-Indexer.jar --config [propfile] --input [input
- * directories] --output [output directory]
+ * directories] --output [output directory] --threads [threads]
+ * --bulk --maxSegments [segments]
  * </pre>
  * 
  * 
@@ -53,13 +78,28 @@ import de.ids_mannheim.korap.util.KrillProperties;
  */
 public class Indexer {
     private KrillIndex index;
-    private int count;
+    private final AtomicInteger count = new AtomicInteger(0);
+    private final AtomicInteger failed = new AtomicInteger(0);
+    private final AtomicLong bytes = new AtomicLong(0);
     private int commitCount;
+    private int threads;
 
     private static String path = null;
     private static boolean addInsteadOfUpsert = false;
+    private static int threadsOption = 0;
+    private static boolean bulkLoad = false;
+    private static int maxSegments = 0;
     private Pattern jsonFilePattern;
 
+    // Pool of indexing threads
+    private ThreadPoolExecutor workers;
+
+    // Progress report
+    private long startTime, lastReport;
+
+    // Report progress every 10 seconds
+    private final static long REPORT_INTERVAL = 10000;
+
     // Init logger
     private final static Logger log = LoggerFactory.getLogger(Indexer.class);
     private static final boolean DEBUG = false;
@@ -82,68 +122,165 @@ public class Indexer {
         String commitCount = prop.getProperty("krill.index.commit.count",
                 "1000");
 
+        // Default to the number of available processors
+        String threads = prop.getProperty("krill.index.threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors()));
+
         // Create a new index object based on the directory
         this.index = new KrillIndex(new MMapDirectory(Paths.get(path)));
-        this.count = 0;
         this.commitCount = Integer.parseInt(commitCount);
+        this.threads = threadsOption > 0 ? threadsOption
+                : Math.max(1, Integer.parseInt(threads));
 
         jsonFilePattern = Pattern.compile(".*\\.json\\.gz$");
+
+        // Configure the writer for an initial load
+        if (bulkLoad) {
+            log.info("Bulk load mode");
+            addInsteadOfUpsert = true;
+            this.index.setBulkLoad(true);
+        };
+
+        // Open the writer before documents are added concurrently
+        this.index.writer();
+
+        log.info("Indexing with {} threads", this.threads);
+
+        this.workers = _pool(this.threads, this.threads * 4);
+
+        this.startTime = this.lastReport = System.currentTimeMillis();
     }
 
 
     /**
-     * Parse a directory for document files.
+     * Parse a directory recursively for document files.
+     * Files are passed to the workers,
+     * call {@link #closeIndex()} to wait for all documents.
      * 
      * @param dir
      *            The {@link File} directory containing
      *            documents to index.
      */
     private void parse (File dir) {
-        Matcher matcher;
-        for (String file : dir.list()) {
-            matcher = jsonFilePattern.matcher(file);
-            if (matcher.find()) {
-                file = dir.getPath() + '/' + file;
-
-                try {
-                    if (addInsteadOfUpsert) {
-                        log.info("{} Add {} to the index. ", this.count, file);
-                        if (this.index.addDoc(new FileInputStream(file),
-                                              true) == null) {
-                            log.warn("fail.");
-                            continue;
-                        }
-                    }
-                    else {
-                        log.info("{} Add or update {} to the index. ", this.count, file);
-                        if (this.index.upsertDoc(new FileInputStream(file),
-                                                 true) == null) {
-                            log.warn("fail.");
-                            continue;
-                        };
-                    };
-                    this.count++;
-                    if (DEBUG){
-                        log.debug("Finished adding files. (" + count + ").");
-                    }
-
-                    // Commit in case the commit count is reached
-                    if ((this.count % this.commitCount) == 0) {
-
-                        // This will be done in addition to the
-                        // autocommit initiated by KrillIndex
-                        this.commit();
-                    }
-                }
-                catch (FileNotFoundException e) {
-                    log.error("File " + file + " is not found!");
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            Iterator<Path> iter = files.filter(Files::isRegularFile)
+                    .iterator();
+            while (iter.hasNext()) {
+                final String file = iter.next().toString();
+                Matcher matcher = jsonFilePattern.matcher(file);
+                if (matcher.find()) {
+                    this.workers.execute(() -> this._index(file));
                 }
-            }
-            else {
-                log.warn("Skip " + file
-                        + " since it does not have json.gz format.");
-            }
+                else {
+                    log.warn("Skip " + file
+                            + " since it does not have json.gz format.");
+                };
+            };
+        }
+        catch (IOException e) {
+            log.error("Unable to read directory " + dir);
+        };
+    }
+
+
+    // Parse a document and add it to the index
+    private void _index (String file) {
+        FieldDocument fd;
+        try (InputStream is = new GZIPInputStream(
+                new FileInputStream(file))) {
+            fd = FieldDocumentParser.stream(is);
+            this.bytes.addAndGet(new File(file).length());
+        }
+        catch (IOException e) {
+            log.error("File {} not readable or mappable: {}", file,
+                    e.getLocalizedMessage());
+            fd = null;
+        };
+
+        if (fd == null) {
+            log.warn("fail.");
+            this.failed.incrementAndGet();
+            return;
+        };
+
+        if (addInsteadOfUpsert) {
+            if (DEBUG)
+                log.debug("Add {} to the index. ", file);
+
+            // The index writer is thread-safe
+            this.index.addDoc(fd);
+        }
+        else {
+            if (DEBUG)
+                log.debug("Add or update {} to the index. ", file);
+
+            // Upserting reads from the index and
+            // needs to be exclusive with respect to commits
+            synchronized (this.index) {
+                this.index.upsertDoc(fd);
+            };
+        };
+
+        int count = this.count.incrementAndGet();
+
+        // Commit in case the commit count is reached
+        // (deferred to the end in bulk load mode)
+        if (!bulkLoad && (count % this.commitCount) == 0) {
+
+            // This will be done in addition to the
+            // autocommit initiated by KrillIndex
+            this.commit();
+        };
+
+        this._report(false);
+    }
+
+
+    // Log the indexing throughput
+    private void _report (boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - this.lastReport < REPORT_INTERVAL)
+            return;
+
+        synchronized (this) {
+            if (!force && now - this.lastReport < REPORT_INTERVAL)
+                return;
+            this.lastReport = now;
+        };
+
+        double seconds = Math.max(now - this.startTime, 1) / 1000.0;
+        log.info(String.format(
+                "%d documents indexed (%d failed) in %.1fs: "
+                        + "%.1f docs/s, %.2f MB/s",
+                this.count.get(), this.failed.get(), seconds,
+                this.count.get() / seconds,
+                this.bytes.get() / (1024.0 * 1024.0) / seconds));
+    }
+
+
+    // Create a bounded thread pool.
+    // In case the queue is full, the submitting thread
+    // runs the task itself, which slows down walking the files
+    private static ThreadPoolExecutor _pool (int threads, int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+
+    // Wait for all tasks of a pool
+    private static void _await (ThreadPoolExecutor pool) {
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+                log.info("Waiting for {} documents", pool.getQueue().size()
+                        + pool.getActiveCount());
         }
+        catch (InterruptedException e) {
+            log.error("Indexing interrupted");
+            Thread.currentThread().interrupt();
+        };
     }
 
 
@@ -161,7 +298,22 @@ public class Indexer {
     }
 
     private void closeIndex() throws IOException {
+
+        _await(this.workers);
+        this._report(true);
+
+        long t = System.currentTimeMillis();
         this.commit();
+        log.info("Committed in {}s", (System.currentTimeMillis() - t) / 1000.0);
+
+        // Reduce the number of segments
+        if (maxSegments > 0) {
+            t = System.currentTimeMillis();
+            this.index.forceMerge(maxSegments);
+            log.info("Merged to {} segments in {}s", maxSegments,
+                    (System.currentTimeMillis() - t) / 1000.0);
+        };
+
         this.index.closeReader();
         this.index.closeWriter();
     }
@@ -195,9 +347,28 @@ public class Indexer {
         options.addOption(Option.builder("a").longOpt("addInsteadofUpsert")
                 .desc("Always add files to the index, never update")
                 .build());
+        options.addOption(Option.builder("t").longOpt("threads")
+                .desc("number of indexing threads (defaults to "
+                        + "krill.index.threads in the configuration "
+                        + "or the number of processors).")
+                .hasArg().argName("threads").build());
+        options.addOption(Option.builder("b").longOpt("bulk")
+                .desc("Bulk load mode for the initial creation of an index: "
+                        + "always add, commit only at the end")
+                .build());
+        options.addOption(Option.builder("m").longOpt("maxSegments")
+                .desc("merge the index to a maximum number of "
+                        + "segments after indexing")
+                .hasArg().argName("segments").build());
         
         CommandLineParser parser = new DefaultParser();
 
+        // Reset options of previous runs
+        addInsteadOfUpsert = false;
+        bulkLoad = false;
+        threadsOption = 0;
+        maxSegments = 0;
+
         String propFile = null;
         String[] inputDirectories = null;
         try {
@@ -217,12 +388,37 @@ public class Indexer {
                 addInsteadOfUpsert = true;
             };
 
+            if (cmd.hasOption("t")) {
+                try {
+                    threadsOption = Integer.parseInt(cmd.getOptionValue("t"));
+                }
+                catch (NumberFormatException e) {
+                    log.error("Invalid number of threads: "
+                            + cmd.getOptionValue("t"));
+                };
+            };
+
+            if (cmd.hasOption("b")) {
+                bulkLoad = true;
+            };
+
+            if (cmd.hasOption("m")) {
+                try {
+                    maxSegments = Integer.parseInt(cmd.getOptionValue("m"));
+                }
+                catch (NumberFormatException e) {
+                    log.error("Invalid number of segments: "
+                            + cmd.getOptionValue("m"));
+                };
+            };
+
         }
         catch (MissingOptionException e) {
             HelpFormatter formatter = new HelpFormatter();
             formatter.printHelp(
                     "Krill indexer\n java -jar -c <properties file> -i <input directories> "
-                            + "[-o <output directory> -a]",
+                            + "[-o <output directory> -a -t <threads> "
+                            + "-b -m <segments>]",
                     options);
             return;
         }
@@ -253,8 +449,8 @@ public class Indexer {
             String message = "Added ";
             if (!addInsteadOfUpsert)
                 message += "or updated ";
-            message += indexer.count + " file";
-            if (indexer.count > 1) {
+            message += indexer.count.get() + " file";
+            if (indexer.count.get() > 1) {
                 message += "s";
             }
             System.out.println(message + ".");
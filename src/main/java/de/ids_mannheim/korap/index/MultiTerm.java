@@ -51,11 +51,6 @@ public class MultiTerm implements Comparable<MultiTerm> {
     private boolean storeOffsets = false;
     public BytesRef payload = null;
 
-    private static ByteBuffer bb = ByteBuffer.allocate(8);
-    private static String[] stringOffset;
-
-    private static short i, l;
-
     // This advices the java compiler to ignore all loggings
     public static final boolean DEBUG = false;
     private final Logger log = LoggerFactory
@@ -104,6 +99,27 @@ public class MultiTerm implements Comparable<MultiTerm> {
     };
 
 
+    /**
+     * Construct a new MultiTerm object
+     * without parsing a string representation.
+     * 
+     * @param term
+     *            The term (unescaped).
+     * @param start
+     *            The start character offset.
+     * @param end
+     *            The end character offset.
+     * @param payload
+     *            The payload, may be <tt>null</tt>.
+     */
+    public MultiTerm (String term, int start, int end, BytesRef payload) {
+        this.term = term;
+        this.start = start;
+        this.end = end;
+        this.payload = payload;
+    };
+
+
     /**
      * Get the term value of the MultiTerm.
      * 
@@ -375,100 +391,143 @@ public class MultiTerm implements Comparable<MultiTerm> {
 
     /*
      * Deserialize MultiTerm from string representation.
+     * The string is scanned once without regular expressions
+     * and without shared buffers, so terms can be
+     * deserialized in parallel.
      */
     private void _fromString (String term) throws CorpusDataException {
-        String[] termSurface = term.split("(?<!\\\\)\\$", 2);
-
-        // Payload is given
-        if (termSurface.length == 2) {
-            String payloadStr = termSurface[1];
-
-            // Payload has a type
-            if (payloadStr.charAt(0) == '<' && payloadStr.charAt(2) == '>') {
-
-                // Rewind bytebuffer
-                bb.rewind();
-
-                // Split payload at type marker boundaries
-                String[] pls = payloadStr.split("((?=<)|(?<=>))(?!\\A)");
-
-                l = 0; // Bytearray length
+        final int length = term.length();
 
-                try {
-                    for (i = 1; i < pls.length;) {
-
-                        // Resize the bytebuffer
-                        if ((bb.capacity() - l) < 8) {
-                            bb = ByteBuffer.allocate(bb.capacity() + 8)
-                                    .put(bb.array());
-                            bb.position(l);
-                        };
-
-                        switch (pls[i-1]) {
-                            case "<b>": // byte
-                                bb.put(Byte.parseByte(pls[i]));
-                                l++;
-                                break;
-                            case "<s>": // short
-                                bb.putShort(Short.parseShort(pls[i]));
-                                l += 2;
-                                break;
-                            case "<i>": // integer
-                                bb.putInt(Integer.parseInt(pls[i]));
-                                l += 4;
-                                break;
-                            case "<l>": // long
-                                bb.putLong(Long.parseLong(pls[i]));
-                                l += 8;
-                                break;
-                        };
-                        i += 2;
-                    };
-
-                    byte[] bytes = new byte[l];
-                    System.arraycopy(bb.array(), 0, bytes, 0, l);
-                    this.payload = new BytesRef(bytes);
-                }
-                catch (Exception e) {
-                    if (DEBUG)
-                        log.warn(e.getMessage());
-                };
-            }
+        // Split at the first unescaped payload marker
+        int surfaceEnd = _indexOfUnescaped(term, '$', length);
 
-            // Payload is a string
-            else {
-                this.payload = new BytesRef(payloadStr);
-            };
-        };
+        // Payload is given
+        if (surfaceEnd != -1)
+            this.payload = _payloadFromString(term, surfaceEnd + 1, length);
+        else
+            surfaceEnd = length;
 
         // Parse offset information
-        stringOffset = termSurface[0].split("(?<!\\\\)\\#", 2);
+        int termEnd = _indexOfUnescaped(term, '#', surfaceEnd);
 
-        if (stringOffset.length == 2) {
+        if (termEnd != -1) {
 
             // Split start and end position of the offset
-            String[] offset = stringOffset[1].split("\\-", 2);
+            int dash = term.indexOf('-', termEnd + 1);
 
             // Start and end is given
-            if (offset.length == 2 && offset[0].length() > 0) {
+            if (dash != -1 && dash < surfaceEnd && dash > termEnd + 1) {
                 try {
-                    this.start = Integer.parseInt(offset[0]);
-                    this.end = Integer.parseInt(offset[1]);
-
+                    this.start = Integer
+                            .parseInt(term.substring(termEnd + 1, dash));
+                    this.end = Integer
+                            .parseInt(term.substring(dash + 1, surfaceEnd));
                 }
                 catch (NumberFormatException e) {
                     throw new CorpusDataException(952,
                             "Given offset information is not numeric in "
-                                    + termSurface[0]);
+                                    + term.substring(0, surfaceEnd));
                 };
             }
             else {
                 throw new CorpusDataException(953,
                         "Given offset information is incomplete in "
-                                + termSurface[0]);
+                                + term.substring(0, surfaceEnd));
+            };
+        }
+        else {
+            termEnd = surfaceEnd;
+        };
+
+        this.term = _unescape(term.substring(0, termEnd));
+    };
+
+
+    /*
+     * Deserialize a payload from string representation.
+     * Typed payloads consist of segments of a type marker
+     * (<b>, <s>, <i> or <l>) followed by a value.
+     * In case a value is not valid, no payload is set.
+     */
+    private BytesRef _payloadFromString (String pl, int from, int to) {
+
+        // Payload is a string
+        if (to - from < 3 || pl.charAt(from) != '<'
+                || pl.charAt(from + 2) != '>') {
+            if (from == to)
+                return null;
+            return new BytesRef(pl.substring(from, to));
+        };
+
+        // Every segment has at least 4 characters and at most 8 bytes
+        final ByteBuffer bb = ByteBuffer.allocate((to - from) * 2);
+
+        int pos = from, typeEnd, valueEnd;
+        try {
+            while (pos < to) {
+                typeEnd = _segmentEnd(pl, pos, to);
+
+                // Type marker without a value
+                if (typeEnd >= to)
+                    break;
+
+                valueEnd = _segmentEnd(pl, typeEnd, to);
+
+                // Unknown type markers are ignored
+                if (typeEnd - pos == 3 && pl.charAt(pos) == '<'
+                        && pl.charAt(pos + 2) == '>') {
+                    switch (pl.charAt(pos + 1)) {
+                        case 'b': // byte
+                            bb.put(Byte.parseByte(
+                                    pl.substring(typeEnd, valueEnd)));
+                            break;
+                        case 's': // short
+                            bb.putShort(Short.parseShort(
+                                    pl.substring(typeEnd, valueEnd)));
+                            break;
+                        case 'i': // integer
+                            bb.putInt(Integer.parseInt(
+                                    pl.substring(typeEnd, valueEnd)));
+                            break;
+                        case 'l': // long
+                            bb.putLong(Long.parseLong(
+                                    pl.substring(typeEnd, valueEnd)));
+                            break;
+                    };
+                };
+                pos = valueEnd;
             };
+        }
+        catch (NumberFormatException e) {
+            if (DEBUG)
+                log.warn(e.getMessage());
+            return null;
+        };
+
+        return new BytesRef(Arrays.copyOf(bb.array(), bb.position()));
+    };
+
+
+    // Get the end of a payload segment, which is
+    // before a type marker or after the end of a type marker
+    private static int _segmentEnd (String pl, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (pl.charAt(i) == '>')
+                return i + 1;
+            if (pl.charAt(i) == '<' && i > from)
+                return i;
+        };
+        return to;
+    };
+
+
+    // Get the position of the first unescaped character
+    private static int _indexOfUnescaped (String term, char c, int to) {
+        for (int i = 0; i < to; i++) {
+            if (term.charAt(i) == c && (i == 0 || term.charAt(i - 1) != '\\'))
+                return i;
         };
-        this.term = _unescape(stringOffset[0]);
+        return -1;
     };
 
 
@@ -56,6 +56,9 @@ public class MultiTermTokenStream extends TokenStream {
     private int mttIndex = 0, mtIndex = 0;
     private short i = 0;
 
+    // Source of lazily read tokens
+    private TokenSpool spool;
+
     private ByteBuffer payload = ByteBuffer.allocate(36);
 
 
@@ -88,6 +91,25 @@ public class MultiTermTokenStream extends TokenStream {
     };
 
 
+    /**
+     * Construct a new MultiTermTokenStream object, reading
+     * its tokens one at a time from a {@link TokenSpool}
+     * while being consumed.
+     * Only the current token is held in memory, so
+     * {@link #get(int)}, {@link #getSize()} and
+     * {@link #toString()} only refer to the current token.
+     * The stream can be consumed only once.
+     * 
+     * @param spool
+     *            The {@link TokenSpool} of the stream.
+     */
+    MultiTermTokenStream (TokenSpool spool) {
+        this();
+        this.multiTermTokens = new ArrayList<MultiTermToken>(1);
+        this.spool = spool;
+    };
+
+
     /**
      * Construct a new MultiTermTokenStream object
      * 
@@ -366,7 +388,8 @@ public class MultiTermTokenStream extends TokenStream {
         this.payloadAttr.setPayload(null);
 
         // Last token reached
-        if (this.multiTermTokens.size() == this.mttIndex) {
+        if (this.multiTermTokens.size() == this.mttIndex
+                && !this._nextFromSpool()) {
             reset();
             return false;
         };
@@ -383,7 +406,8 @@ public class MultiTermTokenStream extends TokenStream {
             this.mttIndex++;
 
             // Last term of last token reached
-            if (this.multiTermTokens.size() == this.mttIndex) {
+            if (this.multiTermTokens.size() == this.mttIndex
+                    && !this._nextFromSpool()) {
                 reset();
                 return false;
             }
@@ -463,4 +487,30 @@ public class MultiTermTokenStream extends TokenStream {
         this.mttIndex = 0;
         this.mtIndex = 0;
     };
+
+
+    @Override
+    public void close () throws IOException {
+        super.close();
+        if (this.spool != null)
+            this.spool.close();
+    };
+
+
+    // Replace the current token by the next token of the spool
+    private boolean _nextFromSpool () throws IOException {
+        if (this.spool == null)
+            return false;
+
+        this.multiTermTokens.clear();
+        this.mttIndex = 0;
+        this.mtIndex = 0;
+
+        MultiTermToken mtt = this.spool.next();
+        if (mtt == null)
+            return false;
+
+        this.multiTermTokens.add(mtt);
+        return true;
+    };
 };
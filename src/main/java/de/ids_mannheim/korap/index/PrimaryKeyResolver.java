@@ -0,0 +1,219 @@
+package de.ids_mannheim.korap.index;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Resolve primary keys of documents (like <i>textSigle</i>
+ * or <i>UID</i>) to the segment and the local document ID
+ * in an {@link IndexReader}.
+ *
+ * Instead of filtering all segments, the key term is seeked
+ * in the terms dictionary of each segment, starting with the
+ * most recent segments. The {@link TermsEnum TermsEnums} per
+ * segment are reused for subsequent lookups.
+ * Resolved keys are kept in a bounded LRU cache.
+ *
+ * The resolver is bound to a single reader, so a reopened
+ * reader requires a new resolver (which invalidates the cache).
+ * The resolver is thread-safe.
+ *
+ * <blockquote><pre>
+ * PrimaryKeyResolver pk = new PrimaryKeyResolver(reader, 1000);
+ * PrimaryKeyResolver.Location loc = pk.lookup("textSigle", "a/b/c");
+ * </pre></blockquote>
+ */
+public class PrimaryKeyResolver {
+
+    private final IndexReader reader;
+    private final List<LeafReaderContext> leaves;
+
+    // Pool of reusable enums per field
+    private final Map<String, Queue<TermsEnum[]>> enums = new ConcurrentHashMap<String, Queue<TermsEnum[]>>();
+
+    // Cache of resolved keys (packed segment and document ID)
+    private final Map<String, Long> cache;
+
+    private long lookups = 0, hits = 0;
+
+
+    /**
+     * The location of a document in a reader.
+     */
+    public static class Location {
+        private final LeafReaderContext context;
+        private final int docID;
+
+
+        public Location (LeafReaderContext context, int docID) {
+            this.context = context;
+            this.docID = docID;
+        };
+
+
+        /**
+         * Get the segment of the document.
+         *
+         * @return The {@link LeafReaderContext} of the segment.
+         */
+        public LeafReaderContext getContext () {
+            return this.context;
+        };
+
+
+        /**
+         * Get the document ID local to the segment.
+         *
+         * @return The local document ID.
+         */
+        public int getDocID () {
+            return this.docID;
+        };
+    };
+
+
+    /**
+     * Construct a new resolver.
+     *
+     * @param reader
+     *            The {@link IndexReader} to resolve keys in.
+     * @param cacheSize
+     *            The maximum number of cached keys,
+     *            <tt>0</tt> disables the cache.
+     */
+    public PrimaryKeyResolver (IndexReader reader, final int cacheSize) {
+        this.reader = reader;
+        this.leaves = reader.leaves();
+
+        if (cacheSize > 0) {
+            this.cache = Collections.synchronizedMap(
+                    new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry (
+                                Map.Entry<String, Long> eldest) {
+                            return size() > cacheSize;
+                        };
+                    });
+        }
+        else {
+            this.cache = null;
+        };
+    };
+
+
+    /**
+     * Get the reader the resolver is bound to.
+     *
+     * @return The {@link IndexReader}.
+     */
+    public IndexReader getReader () {
+        return this.reader;
+    };
+
+
+    /**
+     * Resolve a primary key to the location of the
+     * first live document containing the key term.
+     *
+     * @param field
+     *            The field of the key, e.g. <i>textSigle</i>.
+     * @param key
+     *            The key, e.g. <i>GOE/AGA/00000</i>.
+     * @return The {@link Location} of the document or
+     *         <code>null</code> in case no document was found.
+     * @throws IOException
+     */
+    public Location lookup (String field, String key) throws IOException {
+        if (field == null || key == null)
+            return null;
+
+        final String cacheKey = field + ':' + key;
+
+        if (this.cache != null) {
+            final Long packed = this.cache.get(cacheKey);
+            synchronized (this) {
+                this.lookups++;
+                if (packed != null)
+                    this.hits++;
+            };
+            if (packed != null) {
+                return new Location(this.leaves.get((int) (packed >>> 32)),
+                        (int) packed.longValue());
+            };
+        };
+
+        Queue<TermsEnum[]> pool = this.enums.get(field);
+        if (pool == null) {
+            this.enums.putIfAbsent(field,
+                    new ConcurrentLinkedQueue<TermsEnum[]>());
+            pool = this.enums.get(field);
+        };
+
+        TermsEnum[] segmentEnums = pool.poll();
+        if (segmentEnums == null)
+            segmentEnums = new TermsEnum[this.leaves.size()];
+
+        try {
+            final BytesRef term = new BytesRef(key);
+            DocsEnum docs = null;
+
+            // Segments are in the order of creation,
+            // so recently added documents are found first
+            for (int i = this.leaves.size() - 1; i >= 0; i--) {
+                final LeafReaderContext leaf = this.leaves.get(i);
+
+                TermsEnum termsEnum = segmentEnums[i];
+                if (termsEnum == null) {
+                    final Terms terms = leaf.reader().terms(field);
+                    termsEnum = terms == null ? TermsEnum.EMPTY
+                            : terms.iterator(null);
+                    segmentEnums[i] = termsEnum;
+                };
+
+                if (!termsEnum.seekExact(term))
+                    continue;
+
+                docs = termsEnum.docs(leaf.reader().getLiveDocs(), docs,
+                        DocsEnum.FLAG_NONE);
+
+                final int docID = docs.nextDoc();
+                if (docID == DocIdSetIterator.NO_MORE_DOCS)
+                    continue;
+
+                if (this.cache != null)
+                    this.cache.put(cacheKey, ((long) i << 32) | docID);
+
+                return new Location(leaf, docID);
+            };
+        }
+        finally {
+            pool.offer(segmentEnums);
+        };
+
+        return null;
+    };
+
+
+    /**
+     * Get the ratio of lookups served by the cache.
+     *
+     * @return The hit rate between <tt>0</tt> and <tt>1</tt>.
+     */
+    public synchronized double getHitRate () {
+        return this.lookups == 0 ? 0 : (double) this.hits / this.lookups;
+    };
+};
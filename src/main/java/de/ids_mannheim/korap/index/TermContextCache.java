@@ -0,0 +1,162 @@
+package de.ids_mannheim.korap.index;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache the {@link TermContext TermContexts} of terms
+ * in an {@link IndexReader}.
+ *
+ * A term context holds the states of a term in all segments
+ * of a reader, so the terms dictionaries need to be seeked only
+ * once per term and reader, instead of once per term, segment
+ * and request. This includes terms expanded by rewrites of
+ * regular expressions and wildcards.
+ * Contexts are kept in a bounded LRU cache.
+ *
+ * The cache can be passed as the map of term contexts to
+ * {@link org.apache.lucene.search.spans.SpanQuery#getSpans}.
+ * Missing contexts are built on lookup.
+ *
+ * The cache is bound to a single reader, so a reopened
+ * reader requires a new cache.
+ * The cache is thread-safe.
+ *
+ * <blockquote><pre>
+ * TermContextCache tc = new TermContextCache(reader, 10000);
+ * Spans spans = query.getSpans(atomic, bits, tc);
+ * </pre></blockquote>
+ */
+public class TermContextCache extends AbstractMap<Term, TermContext> {
+
+    // Logger
+    private final static Logger log = LoggerFactory
+            .getLogger(TermContextCache.class);
+
+    private final IndexReader reader;
+
+    // Cache of term contexts
+    private final Map<Term, TermContext> cache;
+
+    private long lookups = 0, hits = 0;
+
+
+    /**
+     * Construct a new cache.
+     *
+     * @param reader
+     *            The {@link IndexReader} to build term contexts for.
+     * @param cacheSize
+     *            The maximum number of cached terms,
+     *            <tt>0</tt> disables the cache.
+     */
+    public TermContextCache (IndexReader reader, final int cacheSize) {
+        this.reader = reader;
+
+        if (cacheSize > 0) {
+            this.cache = Collections.synchronizedMap(
+                    new LinkedHashMap<Term, TermContext>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry (
+                                Map.Entry<Term, TermContext> eldest) {
+                            return size() > cacheSize;
+                        };
+                    });
+        }
+        else {
+            this.cache = null;
+        };
+    };
+
+
+    /**
+     * Get the reader the cache is bound to.
+     *
+     * @return The {@link IndexReader}.
+     */
+    public IndexReader getReader () {
+        return this.reader;
+    };
+
+
+    /**
+     * Get the context of a term in the reader.
+     * In case the context is not cached yet, it is built.
+     *
+     * @param key
+     *            The {@link Term}.
+     * @return The {@link TermContext} or <code>null</code>
+     *         in case the cache is disabled, so the term
+     *         needs to be seeked per segment.
+     */
+    @Override
+    public TermContext get (Object key) {
+        if (this.cache == null || !(key instanceof Term))
+            return null;
+
+        TermContext context = this.cache.get(key);
+        synchronized (this) {
+            this.lookups++;
+            if (context != null)
+                this.hits++;
+        };
+
+        if (context != null)
+            return context;
+
+        final Term term = (Term) key;
+        try {
+            context = TermContext.build(this.reader.getContext(), term);
+        }
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+            return null;
+        };
+
+        // Terms of rewritten queries may share their bytes
+        this.cache.put(
+                new Term(term.field(), BytesRef.deepCopyOf(term.bytes())),
+                context);
+        return context;
+    };
+
+
+    @Override
+    public int size () {
+        return this.cache == null ? 0 : this.cache.size();
+    };
+
+
+    @Override
+    public Set<Map.Entry<Term, TermContext>> entrySet () {
+        if (this.cache == null)
+            return Collections.emptySet();
+
+        synchronized (this.cache) {
+            return new HashSet<Map.Entry<Term, TermContext>>(
+                    this.cache.entrySet());
+        }
+    };
+
+
+    /**
+     * Get the ratio of lookups served by the cache.
+     *
+     * @return The hit rate between <tt>0</tt> and <tt>1</tt>.
+     */
+    public synchronized double getHitRate () {
+        return this.lookups == 0 ? 0 : (double) this.hits / this.lookups;
+    };
+};
@@ -0,0 +1,182 @@
+package de.ids_mannheim.korap.index;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Temporary file of {@link MultiTermToken MultiTermTokens}.
+ * Tokens are appended while a document is parsed and read
+ * one at a time while the document is indexed, so the token
+ * stream of a document is never held in memory completely
+ * (see {@link FieldDocumentParser#stream}).
+ *
+ * The file is deleted when the spool is closed,
+ * which happens automatically after the last token is read.
+ */
+final class TokenSpool implements Closeable {
+
+    // Size of the file buffers
+    private static final int BUFFER = 65536;
+
+    private final FileChannel channel;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private int count = 0, read = 0;
+    private boolean closed = false;
+
+    // Meta terms of the stream, e.g. -:tokens
+    private final MultiTermTokenStream metaTerms = new MultiTermTokenStream();
+
+
+    /**
+     * Construct a new TokenSpool in the temporary directory.
+     *
+     * @throws IOException
+     */
+    TokenSpool () throws IOException {
+        this.channel = FileChannel.open(
+                Files.createTempFile("krill-", ".tokens"), READ, WRITE,
+                DELETE_ON_CLOSE);
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(this.channel), BUFFER));
+    };
+
+
+    /**
+     * Append a {@link MultiTermToken} to the spool.
+     *
+     * @param mtt
+     *            A {@link MultiTermToken}.
+     * @throws IOException
+     */
+    void add (MultiTermToken mtt) throws IOException {
+        MultiTermToken meta = null;
+
+        this.out.writeInt(mtt.terms.size());
+        for (MultiTerm mt : mtt.terms) {
+            final byte[] term = mt.term.getBytes(StandardCharsets.UTF_8);
+            this.out.writeInt(term.length);
+            this.out.write(term);
+            this.out.writeInt(mt.start);
+            this.out.writeInt(mt.end);
+
+            // The payload is written as indexed
+            // by MultiTermTokenStream
+            if (mt.payload == null) {
+                this.out.writeInt(-1);
+            }
+            else {
+                this.out.writeInt(mt.payload.bytes.length);
+                this.out.write(mt.payload.bytes);
+            };
+
+            if (mt.term.startsWith("-:")) {
+                if (meta == null)
+                    meta = new MultiTermToken(mt);
+                else
+                    meta.add(mt);
+            };
+        };
+
+        if (meta != null)
+            this.metaTerms.addMultiTermToken(meta);
+
+        this.count++;
+    };
+
+
+    /**
+     * Get all meta terms of the spooled tokens, one token per
+     * spooled token with meta terms, to add their count values
+     * (see {@link FieldDocument#addCountValues}).
+     *
+     * @return A {@link MultiTermTokenStream} of the meta terms.
+     */
+    MultiTermTokenStream getMetaTerms () {
+        return this.metaTerms;
+    };
+
+
+    /**
+     * Read the next {@link MultiTermToken} of the spool.
+     * Tokens can only be read once, after all tokens are appended.
+     *
+     * @return The next {@link MultiTermToken} or <tt>null</tt>,
+     *         if all tokens are read.
+     * @throws IOException
+     */
+    MultiTermToken next () throws IOException {
+        if (this.closed)
+            return null;
+
+        if (this.read == this.count) {
+            this.close();
+            return null;
+        };
+
+        // Switch from writing to reading
+        if (this.in == null) {
+            this.out.flush();
+            this.out = null;
+            this.channel.position(0);
+            this.in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(this.channel), BUFFER));
+        };
+
+        MultiTermToken mtt = null;
+        for (int i = this.in.readInt(); i > 0; i--) {
+            final byte[] term = new byte[this.in.readInt()];
+            this.in.readFully(term);
+            final int start = this.in.readInt();
+            final int end = this.in.readInt();
+
+            BytesRef payload = null;
+            final int length = this.in.readInt();
+            if (length >= 0) {
+                payload = new BytesRef(new byte[length]);
+                this.in.readFully(payload.bytes);
+            };
+
+            final MultiTerm mt = new MultiTerm(
+                    new String(term, StandardCharsets.UTF_8), start, end,
+                    payload);
+            if (mtt == null)
+                mtt = new MultiTermToken(mt);
+            else
+                mtt.add(mt);
+        };
+
+        this.read++;
+        return mtt;
+    };
+
+
+    /**
+     * Close and delete the spool.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close () throws IOException {
+        if (this.closed)
+            return;
+        this.closed = true;
+        this.out = null;
+        this.in = null;
+        this.channel.close();
+    };
+};
@@ -0,0 +1,216 @@
+package de.ids_mannheim.korap.query;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.spans.SpanNotQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * A document-level approximation of span queries.
+ *
+ * Span operators like {@link SpanNextQuery} or {@link SpanWithinQuery}
+ * only match in documents containing the terms of all their
+ * required clauses. Before the spans of a query are created,
+ * the documents of a segment containing all required terms
+ * are determined by leap-frogging the document iterators of the
+ * terms (without reading any positions), starting with the
+ * rarest term. The resulting document set is passed to the spans
+ * as accepted documents, so position matching only takes
+ * place in documents that pass the approximation.
+ *
+ * The document set is evaluated lazily: the iterators are only
+ * advanced up to the highest document requested so far,
+ * so searches stopping early (e.g. cut off searches)
+ * don't walk the whole segment in advance.
+ *
+ * <blockquote><pre>
+ * Spans spans = query.getSpans(atomic,
+ * DocumentApproximation.approximate(query, atomic, bitset),
+ * termContexts);
+ * </pre></blockquote>
+ */
+public class DocumentApproximation {
+
+    // Order iterators by their (estimated) number of documents
+    private final static Comparator<TermsEnum> DOC_FREQ = new Comparator<TermsEnum>() {
+        @Override
+        public int compare (TermsEnum a, TermsEnum b) {
+            try {
+                return Integer.compare(a.docFreq(), b.docFreq());
+            }
+            catch (IOException e) {
+                return 0;
+            }
+        };
+    };
+
+
+    /**
+     * Collects the terms that need to occur in a document
+     * for the query to match in the document.
+     * Queries not known to require certain terms
+     * (e.g. {@link org.apache.lucene.search.spans.SpanOrQuery})
+     * don't add any terms.
+     *
+     * @param query
+     *            The {@link SpanQuery}.
+     * @param terms
+     *            The set of required terms.
+     */
+    public static void extractRequiredTerms (SpanQuery query,
+            Set<Term> terms) {
+        if (query instanceof SpanTermQuery)
+            terms.add(((SpanTermQuery) query).getTerm());
+        else if (query instanceof SimpleSpanQuery)
+            ((SimpleSpanQuery) query).extractRequiredTerms(terms);
+        else if (query instanceof SpanWithinQuery)
+            ((SpanWithinQuery) query).extractRequiredTerms(terms);
+        else if (query instanceof SpanNotQuery)
+            extractRequiredTerms(((SpanNotQuery) query).getInclude(), terms);
+    };
+
+
+    /**
+     * Restricts the accepted documents of a segment to the
+     * documents containing all required terms of the query.
+     *
+     * @param query
+     *            The {@link SpanQuery}.
+     * @param context
+     *            The {@link LeafReaderContext} of the segment.
+     * @param acceptDocs
+     *            The accepted documents of the segment,
+     *            may be <code>null</code>.
+     * @return The accepted documents passing the approximation,
+     *         determined on request.
+     *         In case the query requires less than two terms,
+     *         the passed accepted documents are returned.
+     * @throws IOException
+     */
+    public static Bits approximate (SpanQuery query,
+            LeafReaderContext context, Bits acceptDocs) throws IOException {
+
+        final Set<Term> terms = new LinkedHashSet<Term>();
+        extractRequiredTerms(query, terms);
+
+        // A single term is already the lead of the spans
+        if (terms.size() < 2)
+            return acceptDocs;
+
+        final LeafReader reader = context.reader();
+        final TermsEnum[] termsEnums = new TermsEnum[terms.size()];
+
+        int i = 0;
+        for (Term term : terms) {
+            final Terms fieldTerms = reader.terms(term.field());
+
+            // A required term is missing in the segment
+            if (fieldTerms == null)
+                return new Bits.MatchNoBits(reader.maxDoc());
+
+            final TermsEnum termsEnum = fieldTerms.iterator(null);
+            if (!termsEnum.seekExact(term.bytes()))
+                return new Bits.MatchNoBits(reader.maxDoc());
+
+            termsEnums[i++] = termsEnum;
+        };
+
+        // Lead with the rarest term
+        Arrays.sort(termsEnums, DOC_FREQ);
+
+        final DocsEnum[] iterators = new DocsEnum[termsEnums.length];
+        for (i = 0; i < termsEnums.length; i++) {
+            iterators[i] = termsEnums[i].docs(acceptDocs, null,
+                    DocsEnum.FLAG_NONE);
+        };
+
+        return new Conjunction(iterators, reader.maxDoc());
+    };
+
+
+    /**
+     * Documents of a segment matching all iterators, determined
+     * by leap-frogging the iterators up to the requested documents.
+     * As multiple spans may request documents independently,
+     * the documents already determined are remembered.
+     */
+    private static class Conjunction implements Bits {
+
+        private final DocsEnum[] iterators;
+        private final FixedBitSet docs;
+
+        // The current document of the leading iterator,
+        // all documents before are determined
+        private int doc = -1;
+
+
+        private Conjunction (DocsEnum[] iterators, int maxDoc) {
+            this.iterators = iterators;
+            this.docs = new FixedBitSet(maxDoc);
+        };
+
+
+        @Override
+        public boolean get (int index) {
+            if (index >= this.doc) {
+                try {
+                    this.advance(index);
+                }
+                // Bits don't allow checked exceptions
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                };
+            };
+            return this.docs.get(index);
+        };
+
+
+        @Override
+        public int length () {
+            return this.docs.length();
+        };
+
+
+        // Leap-frog all iterators beyond the target document
+        private void advance (int target) throws IOException {
+            final DocsEnum lead = this.iterators[0];
+            int doc = this.doc == -1 ? lead.nextDoc() : this.doc;
+
+            OUTER: while (doc <= target) {
+                for (int i = 1; i < this.iterators.length; i++) {
+                    int other = this.iterators[i].docID();
+                    if (other < doc)
+                        other = this.iterators[i].advance(doc);
+
+                    if (other == DocIdSetIterator.NO_MORE_DOCS) {
+                        doc = DocIdSetIterator.NO_MORE_DOCS;
+                        break OUTER;
+                    };
+
+                    if (other > doc) {
+                        doc = lead.advance(other);
+                        continue OUTER;
+                    };
+                };
+                this.docs.set(doc);
+                doc = lead.nextDoc();
+            };
+
+            this.doc = doc;
+        };
+    };
+};
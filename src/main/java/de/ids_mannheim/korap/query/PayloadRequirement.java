@@ -0,0 +1,120 @@
+package de.ids_mannheim.korap.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+/**
+ * Propagate the requirement of payloads top-down through a
+ * span query tree.
+ *
+ * In case the payloads of the matches are not required
+ * (e.g. for counting or collecting matches without snippets),
+ * {@link #withoutPayloads(SpanQuery)} returns an equivalent query,
+ * where
+ * <ul>
+ * <li>positional operators don't assemble payloads,</li>
+ * <li>classes not referred to by any operator are omitted and</li>
+ * <li>plain term leafs are replaced by
+ * {@link SpanTermPositionsQuery SpanTermPositionsQueries}
+ * reading postings without payloads.</li>
+ * </ul>
+ *
+ * Operators relying on the payloads of their operands
+ * (like {@link SpanFocusQuery} or {@link SpanClassFilterQuery})
+ * and leafs relying on their own payloads
+ * (like {@link SpanElementQuery} or {@link SpanRelationQuery})
+ * are kept unchanged, including their operands.
+ *
+ * <blockquote><pre>
+ * SpanQuery counting = PayloadRequirement.withoutPayloads(query);
+ * </pre></blockquote>
+ *
+ * The passed query is never modified.
+ */
+public class PayloadRequirement {
+
+    /**
+     * Get an equivalent query not requiring payloads.
+     *
+     * @param query
+     *            The {@link SpanQuery}.
+     * @return A {@link SpanQuery} matching the same spans,
+     *         possibly without payloads.
+     */
+    public static SpanQuery withoutPayloads (SpanQuery query) {
+
+        // Plain term
+        if (query.getClass() == SpanTermQuery.class) {
+            final SpanQuery sq = new SpanTermPositionsQuery(
+                    ((SpanTermQuery) query).getTerm());
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        // Alternatives
+        else if (query.getClass() == SpanOrQuery.class) {
+            final SpanQuery[] clauses = ((SpanOrQuery) query).getClauses();
+            for (int i = 0; i < clauses.length; i++)
+                clauses[i] = withoutPayloads(clauses[i]);
+
+            final SpanQuery sq = new SpanOrQuery(clauses);
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        // Classes are only of interest for their payloads
+        else if (query instanceof SpanClassQuery) {
+            return withoutPayloads(((SpanClassQuery) query).getFirstClause());
+        }
+
+        else if (query instanceof SpanWithinQuery) {
+            final SpanWithinQuery within = (SpanWithinQuery) query;
+            final SpanWithinQuery sq = new SpanWithinQuery(
+                    withoutPayloads(within.wrap()),
+                    withoutPayloads(within.embedded()), within.flag(), false);
+            sq.setIntervalIndex(within.hasIntervalIndex());
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        else if (isPositional(query)) {
+            final SimpleSpanQuery sq = ((SimpleSpanQuery) query).clone();
+            sq.setCollectPayloads(false);
+
+            if (sq.getFirstClause() != null)
+                sq.setFirstClause(withoutPayloads(sq.getFirstClause()));
+
+            if (sq.getSecondClause() != null)
+                sq.setSecondClause(withoutPayloads(sq.getSecondClause()));
+
+            else if (sq.getClauseList() != null) {
+                final List<SpanQuery> clauses = new ArrayList<SpanQuery>(
+                        sq.getClauseList().size());
+                for (SpanQuery clause : sq.getClauseList())
+                    clauses.add(withoutPayloads(clause));
+                sq.setClauseList(clauses);
+            };
+
+            sq.setBoost(query.getBoost());
+            return sq;
+        };
+
+        return query;
+    };
+
+
+    // Operators only relying on the positions of their operands
+    private static boolean isPositional (SpanQuery query) {
+        return query instanceof SpanNextQuery
+                || query instanceof SpanSegmentQuery
+                || query instanceof SpanDistanceQuery
+                || query instanceof SpanMultipleDistanceQuery
+                || query instanceof SpanRepetitionQuery
+                || query instanceof SpanExpansionQuery
+                || query instanceof SpanSubspanQuery;
+    };
+};
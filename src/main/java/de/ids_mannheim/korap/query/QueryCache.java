@@ -0,0 +1,246 @@
+package de.ids_mannheim.korap.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.spans.SpanQuery;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import de.ids_mannheim.korap.response.Notifications;
+
+/**
+ * Cache compiled {@link SpanQuery SpanQueries} of
+ * KoralQuery query objects.
+ *
+ * The query objects are canonicalized (i.e. serialized with
+ * ordered keys), so equivalent requests share a single entry,
+ * regardless of the order of attributes.
+ * Besides the compiled query, an entry keeps all
+ * notifications raised during the compilation,
+ * including errors of queries that can't be compiled.
+ * Entries are kept in a bounded LRU cache.
+ *
+ * Cached queries are shared by all requests and threads,
+ * so they must not be modified when applied to an index
+ * (see {@link de.ids_mannheim.korap.Krill#hasSharedQuery()}).
+ * The cache is thread-safe.
+ *
+ * <blockquote><pre>
+ * QueryCache cache = new QueryCache(1000);
+ * String key = QueryCache.canonicalize(json.get("query"));
+ * QueryCache.Entry entry = cache.get(key);
+ * </pre></blockquote>
+ */
+public class QueryCache {
+
+    // Cache of compiled queries
+    private final Map<String, Entry> cache;
+
+    private long lookups = 0, hits = 0;
+
+
+    /**
+     * A compiled query with all notifications
+     * of the compilation.
+     */
+    public static class Entry {
+        private final SpanQuery query;
+        private final Notifications notifications;
+
+
+        /**
+         * Construct a new entry.
+         *
+         * @param query
+         *            The compiled {@link SpanQuery},
+         *            may be <code>null</code> in case of errors.
+         * @param notifications
+         *            The {@link Notifications} of the compilation.
+         */
+        public Entry (SpanQuery query, Notifications notifications) {
+            this.query = query;
+            this.notifications = new Notifications()
+                    .copyNotificationsFrom(notifications);
+        };
+
+
+        /**
+         * Get the compiled query.
+         *
+         * @return The {@link SpanQuery} or <code>null</code>
+         *         in case the query couldn't be compiled.
+         */
+        public SpanQuery getQuery () {
+            return this.query;
+        };
+
+
+        /**
+         * Get the notifications of the compilation.
+         * The notifications are shared and need to be copied.
+         *
+         * @return The {@link Notifications}.
+         */
+        public Notifications getNotifications () {
+            return this.notifications;
+        };
+    };
+
+
+    /**
+     * Construct a new cache.
+     *
+     * @param cacheSize
+     *            The maximum number of cached queries,
+     *            <tt>0</tt> disables the cache.
+     */
+    public QueryCache (final int cacheSize) {
+        if (cacheSize > 0) {
+            this.cache = Collections.synchronizedMap(
+                    new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry (
+                                Map.Entry<String, Entry> eldest) {
+                            return size() > cacheSize;
+                        };
+                    });
+        }
+        else {
+            this.cache = null;
+        };
+    };
+
+
+    /**
+     * Check if the cache is enabled.
+     *
+     * @return <code>true</code> in case queries are cached.
+     */
+    public boolean isEnabled () {
+        return this.cache != null;
+    };
+
+
+    /**
+     * Get the cached entry of a canonicalized query.
+     *
+     * @param key
+     *            The canonical form of the query.
+     * @return The {@link Entry} or <code>null</code>
+     *         in case the query is not cached.
+     */
+    public Entry get (String key) {
+        if (this.cache == null)
+            return null;
+
+        final Entry entry = this.cache.get(key);
+        synchronized (this) {
+            this.lookups++;
+            if (entry != null)
+                this.hits++;
+        };
+        return entry;
+    };
+
+
+    /**
+     * Cache the entry of a canonicalized query.
+     *
+     * @param key
+     *            The canonical form of the query.
+     * @param entry
+     *            The {@link Entry}.
+     */
+    public void put (String key, Entry entry) {
+        if (this.cache != null)
+            this.cache.put(key, entry);
+    };
+
+
+    /**
+     * Get the number of cached queries.
+     *
+     * @return The number of cached queries.
+     */
+    public int size () {
+        return this.cache == null ? 0 : this.cache.size();
+    };
+
+
+    /**
+     * Remove all cached queries.
+     */
+    public void clear () {
+        if (this.cache != null)
+            this.cache.clear();
+    };
+
+
+    /**
+     * Get the ratio of lookups served by the cache.
+     *
+     * @return The hit rate between <tt>0</tt> and <tt>1</tt>.
+     */
+    public synchronized double getHitRate () {
+        return this.lookups == 0 ? 0 : (double) this.hits / this.lookups;
+    };
+
+
+    /**
+     * Canonicalize a KoralQuery query object
+     * by serializing it with ordered keys.
+     *
+     * @param json
+     *            The query object as a {@link JsonNode}.
+     * @return The canonical form of the query.
+     */
+    public static String canonicalize (JsonNode json) {
+        final StringBuilder sb = new StringBuilder();
+        _canonicalize(json, sb);
+        return sb.toString();
+    };
+
+
+    private static void _canonicalize (JsonNode json, StringBuilder sb) {
+
+        // Objects with ordered keys
+        if (json.isObject()) {
+            final List<String> names = new ArrayList<String>(json.size());
+            final Iterator<String> i = json.fieldNames();
+            while (i.hasNext())
+                names.add(i.next());
+            Collections.sort(names);
+
+            sb.append('{');
+            for (int n = 0; n < names.size(); n++) {
+                if (n > 0)
+                    sb.append(',');
+                sb.append(TextNode.valueOf(names.get(n)).toString());
+                sb.append(':');
+                _canonicalize(json.get(names.get(n)), sb);
+            };
+            sb.append('}');
+        }
+
+        // Arrays keep their order
+        else if (json.isArray()) {
+            sb.append('[');
+            for (int n = 0; n < json.size(); n++) {
+                if (n > 0)
+                    sb.append(',');
+                _canonicalize(json.get(n), sb);
+            };
+            sb.append(']');
+        }
+
+        else {
+            sb.append(json.toString());
+        };
+    };
+};
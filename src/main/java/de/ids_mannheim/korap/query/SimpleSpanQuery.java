@@ -1,8 +1,10 @@
 package de.ids_mannheim.korap.query;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,6 +12,8 @@ import org.slf4j.LoggerFactory;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.spans.SpanNotQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
 import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.search.spans.SpanTermQuery;
 
@@ -321,6 +325,23 @@ public abstract class SimpleSpanQuery extends SpanQuery implements Cloneable {
     };
 
 
+    /**
+     * Collects the terms that need to occur in a document
+     * for the query to match in the document. The terms
+     * are used for a document-level approximation of the
+     * query, see {@link DocumentApproximation}.
+     * By default, only the first clause is required.
+     * Queries requiring further clauses override this method.
+     * 
+     * @param terms
+     *            a set of terms
+     */
+    public void extractRequiredTerms (Set<Term> terms) {
+        if (firstClause != null)
+            DocumentApproximation.extractRequiredTerms(firstClause, terms);
+    };
+
+
     /** {@inheritDoc} */
     @Override
     public Query rewrite (IndexReader reader) throws IOException {
@@ -445,4 +466,99 @@ public abstract class SimpleSpanQuery extends SpanQuery implements Cloneable {
 
     public abstract SimpleSpanQuery clone ();
 
+
+    /**
+     * Get a copy of a query with all operands transformed.
+     * Handles {@link SimpleSpanQuery SimpleSpanQueries},
+     * {@link SpanOrQuery SpanOrQueries} and
+     * {@link SpanNotQuery SpanNotQueries},
+     * all other queries are returned unchanged.
+     * 
+     * The passed query is never modified, in case no operand
+     * is changed by the transformation, the query is returned.
+     * 
+     * @param query
+     *            a {@link SpanQuery}
+     * @param transform
+     *            the transformation of the operands
+     * @return a {@link SpanQuery} with transformed operands
+     */
+    static SpanQuery withOperands (SpanQuery query,
+            UnaryOperator<SpanQuery> transform) {
+
+        if (query instanceof SimpleSpanQuery) {
+            final SimpleSpanQuery ssq = (SimpleSpanQuery) query;
+            final SpanQuery first = ssq.firstClause == null ? null
+                    : transform.apply(ssq.firstClause);
+            final SpanQuery second = ssq.secondClause == null ? null
+                    : transform.apply(ssq.secondClause);
+            boolean changed = first != ssq.firstClause
+                    || second != ssq.secondClause;
+
+            List<SpanQuery> clauses = null;
+            if (ssq.clauseList != null) {
+                clauses = new ArrayList<SpanQuery>(ssq.clauseList.size());
+                for (SpanQuery clause : ssq.clauseList) {
+                    final SpanQuery c = transform.apply(clause);
+                    changed |= c != clause;
+                    clauses.add(c);
+                };
+            };
+
+            if (!changed)
+                return query;
+
+            final SimpleSpanQuery sq = ssq.clone();
+            if (first != null)
+                sq.setFirstClause(first);
+            if (second != null)
+                sq.setSecondClause(second);
+            if (clauses != null)
+                sq.setClauseList(clauses);
+
+            // Window sizes are not cloned
+            if (query instanceof SpanFocusQuery)
+                ((SpanFocusQuery) sq).setWindowSize(
+                        ((SpanFocusQuery) query).getWindowSize());
+            else if (query instanceof SpanSubspanQuery)
+                ((SpanSubspanQuery) sq).setWindowSize(
+                        ((SpanSubspanQuery) query).getWindowSize());
+
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        else if (query.getClass() == SpanOrQuery.class) {
+            final SpanQuery[] clauses = ((SpanOrQuery) query).getClauses();
+            boolean changed = false;
+            for (int i = 0; i < clauses.length; i++) {
+                final SpanQuery clause = transform.apply(clauses[i]);
+                changed |= clause != clauses[i];
+                clauses[i] = clause;
+            };
+
+            if (!changed)
+                return query;
+
+            final SpanQuery sq = new SpanOrQuery(clauses);
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        // Negations are created without pre and post distances
+        else if (query.getClass() == SpanNotQuery.class) {
+            final SpanNotQuery not = (SpanNotQuery) query;
+            final SpanQuery include = transform.apply(not.getInclude());
+            final SpanQuery exclude = transform.apply(not.getExclude());
+
+            if (include == not.getInclude() && exclude == not.getExclude())
+                return query;
+
+            final SpanQuery sq = new SpanNotQuery(include, exclude);
+            sq.setBoost(query.getBoost());
+            return sq;
+        };
+
+        return query;
+    };
 }
@@ -2,6 +2,7 @@ package de.ids_mannheim.korap.query;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
@@ -108,6 +109,17 @@ public class SpanAttributeQuery extends SimpleSpanQuery {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * Negated attributes don't require any terms.
+     */
+    @Override
+    public void extractRequiredTerms (Set<Term> terms) {
+        if (!isNegation())
+            super.extractRequiredTerms(terms);
+    }
+
+
     @Override
     public Spans getSpans (LeafReaderContext context, Bits acceptDocs,
             Map<Term, TermContext> termContexts) throws IOException {
@@ -2,6 +2,7 @@ package de.ids_mannheim.korap.query;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
@@ -204,6 +205,19 @@ public class SpanDistanceQuery extends SimpleSpanQuery {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * The second clause is only required in case it
+     * is not excluded.
+     */
+    @Override
+    public void extractRequiredTerms (Set<Term> terms) {
+        DocumentApproximation.extractRequiredTerms(firstClause, terms);
+        if (!isExclusion())
+            DocumentApproximation.extractRequiredTerms(secondClause, terms);
+    }
+
+
     @Override
     public Spans getSpans (LeafReaderContext context, Bits acceptDocs,
             Map<Term, TermContext> termContexts) throws IOException {
@@ -3,6 +3,7 @@ package de.ids_mannheim.korap.query;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
@@ -12,6 +13,7 @@ import org.apache.lucene.search.spans.Spans;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.ToStringUtils;
 
+import de.ids_mannheim.korap.query.spans.MultipleDistanceJoinSpans;
 import de.ids_mannheim.korap.query.spans.MultipleDistanceSpans;
 
 /**
@@ -72,6 +74,7 @@ public class SpanMultipleDistanceQuery extends SimpleSpanQuery {
     private List<DistanceConstraint> constraints;
     private boolean isOrdered;
     private String spanName;
+    private boolean multiwayJoin = false;
 
 
     /**
@@ -115,6 +118,7 @@ public class SpanMultipleDistanceQuery extends SimpleSpanQuery {
                 (SpanQuery) secondClause.clone(), this.constraints,
                 this.isOrdered, collectPayloads);
 
+        query.setMultiwayJoin(this.multiwayJoin);
         query.setBoost(getBoost());
         return query;
     }
@@ -153,10 +157,29 @@ public class SpanMultipleDistanceQuery extends SimpleSpanQuery {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * The second clause is only required in case no
+     * constraint excludes it.
+     */
+    @Override
+    public void extractRequiredTerms (Set<Term> terms) {
+        DocumentApproximation.extractRequiredTerms(firstClause, terms);
+        for (DistanceConstraint c : constraints) {
+            if (c.isExclusion())
+                return;
+        }
+        DocumentApproximation.extractRequiredTerms(secondClause, terms);
+    }
+
+
     /**
      * Filters the span matches of each constraint, returning only the
      * matches
      * meeting all the constraints.
+     * In case a multi-way join is enabled and supported by the
+     * constraints, all constraints are evaluated in a single
+     * {@link MultipleDistanceJoinSpans}.
      * 
      * @return only the span matches meeting all the constraints.
      */
@@ -164,6 +187,12 @@ public class SpanMultipleDistanceQuery extends SimpleSpanQuery {
     public Spans getSpans (LeafReaderContext context, Bits acceptDocs,
             Map<Term, TermContext> termContexts) throws IOException {
 
+        if (this.multiwayJoin
+                && MultipleDistanceJoinSpans.supports(constraints, isOrdered)) {
+            return new MultipleDistanceJoinSpans(this, context, acceptDocs,
+                    termContexts);
+        }
+
         SpanDistanceQuery sdq, sdq2;
         Spans ds, ds2;
         MultipleDistanceSpans mds = null;
@@ -208,4 +237,97 @@ public class SpanMultipleDistanceQuery extends SimpleSpanQuery {
         this.constraints = constraints;
     }
 
+
+    /**
+     * Tells if the sub-spans must occur in order.
+     * 
+     * @return <code>true</code> if the firstspans must occur before
+     *         the secondspans, <code>false</code> otherwise.
+     */
+    public boolean isOrdered () {
+        return isOrdered;
+    }
+
+
+    /**
+     * Tells if all constraints are evaluated in a single
+     * multi-way join instead of a {@link SpanDistanceQuery} per
+     * constraint.
+     * 
+     * @return <code>true</code> if a multi-way join is used,
+     *         <code>false</code> otherwise.
+     * @see MultipleDistanceJoinSpans
+     */
+    public boolean hasMultiwayJoin () {
+        return multiwayJoin;
+    }
+
+
+    /**
+     * Sets <code>true</code> if all constraints should be evaluated
+     * in a single multi-way join. The join is only used in case
+     * no constraint is an exclusion and all constraints have the
+     * order of the query.
+     * 
+     * @param multiwayJoin
+     *            a boolean flag determining if a multi-way join
+     *            is to be used or not.
+     */
+    public void setMultiwayJoin (boolean multiwayJoin) {
+        this.multiwayJoin = multiwayJoin;
+    }
+
+
+    /**
+     * Get a copy of a query, where the multi-way join is enabled
+     * or disabled for all {@link SpanMultipleDistanceQuery
+     * SpanMultipleDistanceQueries}.
+     * 
+     * The passed query is never modified, so it may be shared
+     * by concurrent searches. Unchanged subqueries are shared.
+     * 
+     * @param query
+     *            a {@link SpanQuery}
+     * @param multiwayJoin
+     *            a boolean flag determining if a multi-way join
+     *            is to be used or not.
+     * @return a {@link SpanQuery} using the multi-way join
+     */
+    public static SpanQuery withMultiwayJoin (SpanQuery query,
+            boolean multiwayJoin) {
+
+        if (query instanceof SpanWithinQuery) {
+            final SpanWithinQuery within = (SpanWithinQuery) query;
+            final SpanQuery wrap = withMultiwayJoin(within.wrap(),
+                    multiwayJoin);
+            final SpanQuery embedded = withMultiwayJoin(within.embedded(),
+                    multiwayJoin);
+
+            if (wrap == within.wrap() && embedded == within.embedded())
+                return query;
+
+            final SpanWithinQuery sq = new SpanWithinQuery(wrap, embedded,
+                    within.flag(), within.isCollectPayloads());
+            sq.setIntervalIndex(within.hasIntervalIndex());
+            sq.setBoost(query.getBoost());
+            return sq;
+        };
+
+        final SpanQuery sq = SimpleSpanQuery.withOperands(query,
+                clause -> withMultiwayJoin(clause, multiwayJoin));
+
+        if (!(sq instanceof SpanMultipleDistanceQuery))
+            return sq;
+
+        final SpanMultipleDistanceQuery mdq = (SpanMultipleDistanceQuery) sq;
+        if (mdq.multiwayJoin == multiwayJoin)
+            return mdq;
+
+        final SpanMultipleDistanceQuery join = new SpanMultipleDistanceQuery(
+                mdq.firstClause, mdq.secondClause, mdq.constraints,
+                mdq.isOrdered, mdq.collectPayloads);
+        join.setMultiwayJoin(multiwayJoin);
+        join.setBoost(query.getBoost());
+        return join;
+    }
 }
@@ -2,6 +2,7 @@ package de.ids_mannheim.korap.query;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.IndexReader;
@@ -15,6 +16,7 @@ import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.ToStringUtils;
 
 import de.ids_mannheim.korap.query.spans.NextSpans;
+import de.ids_mannheim.korap.query.spans.TermSequenceSpans;
 
 /*
  * Based on SpanNearQuery
@@ -84,10 +86,31 @@ public class SpanNextQuery extends SimpleSpanQuery implements Cloneable {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * Both clauses are required.
+     */
+    @Override
+    public void extractRequiredTerms (Set<Term> terms) {
+        DocumentApproximation.extractRequiredTerms(firstClause, terms);
+        DocumentApproximation.extractRequiredTerms(secondClause, terms);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * Sequences of terms with fixed gaps are matched like phrases
+     * by {@link TermSequenceSpans}.
+     */
     @Override
     // TODO: 5.3 removes getSpans fro SpanQuery ... oh, well ...
     public Spans getSpans (final LeafReaderContext context, Bits acceptDocs,
             Map<Term, TermContext> termContexts) throws IOException {
+        final TermSequence sequence = TermSequence.of(this);
+        if (sequence != null) {
+            return (Spans) new TermSequenceSpans(this, sequence, context,
+                    acceptDocs, termContexts);
+        };
         return (Spans) new NextSpans(this, context, acceptDocs, termContexts);
     }
 
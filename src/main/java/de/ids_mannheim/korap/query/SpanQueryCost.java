@@ -0,0 +1,212 @@
+package de.ids_mannheim.korap.query;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.spans.SpanNotQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+/**
+ * Estimate the cost of searching a span query tree
+ * before it is executed.
+ *
+ * The cost is the estimated number of spans enumerated
+ * by all operators of the query in the whole index.
+ * Terms contribute the number of their occurrences
+ * (<tt>totalTermFreq</tt>, or <tt>docFreq</tt> in case
+ * the frequencies are not indexed).
+ * Operators contribute the costs of their operands, multiplied
+ * by their fan-out:
+ * <ul>
+ * <li>alternatives, sequences and positional constraints
+ * merge their operands,</li>
+ * <li>distances compare the spans of the rarer operand with
+ * all spans in their window (<tt>max - min + 1</tt>),</li>
+ * <li>repetitions and expansions create a span per
+ * repetition (<tt>max - min + 1</tt>).</li>
+ * </ul>
+ *
+ * The estimate doesn't take virtual collections into account.
+ * It is not meant to predict the response time,
+ * but to compare queries, so pathological queries
+ * can be identified beforehand.
+ *
+ * Queries need to be rewritten (see
+ * {@link org.apache.lucene.search.Query#rewrite}), as
+ * multi-term queries like regular expressions
+ * are not expanded to their terms.
+ *
+ * <blockquote><pre>
+ * long cost = SpanQueryCost.estimate(query, reader, termContexts);
+ * </pre></blockquote>
+ */
+public class SpanQueryCost {
+
+    /**
+     * Estimate the cost of a query.
+     *
+     * @param query
+     *            The rewritten {@link SpanQuery}.
+     * @param reader
+     *            The {@link IndexReader}.
+     * @param termContexts
+     *            A map managing term states, may be
+     *            a {@link de.ids_mannheim.korap.index.TermContextCache}.
+     * @return The estimated number of enumerated spans.
+     * @throws IOException
+     */
+    public static long estimate (SpanQuery query, IndexReader reader,
+            Map<Term, TermContext> termContexts) throws IOException {
+        final double cost = new SpanQueryCost(reader, termContexts)
+                .cost(query);
+        return cost >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) cost;
+    };
+
+
+    private final IndexReader reader;
+    private final Map<Term, TermContext> termContexts;
+
+
+    private SpanQueryCost (IndexReader reader,
+                           Map<Term, TermContext> termContexts) {
+        this.reader = reader;
+        this.termContexts = termContexts;
+    };
+
+
+    // Estimate the number of spans enumerated by the query
+    private double cost (SpanQuery query) throws IOException {
+
+        if (query instanceof SpanTermQuery)
+            return this.frequency(((SpanTermQuery) query).getTerm());
+
+        // Alternatives
+        else if (query instanceof SpanOrQuery) {
+            double cost = 0;
+            for (SpanQuery clause : ((SpanOrQuery) query).getClauses())
+                cost += this.cost(clause);
+            return cost;
+        }
+
+        else if (query instanceof SpanNotQuery) {
+            final SpanNotQuery not = (SpanNotQuery) query;
+            return this.cost(not.getInclude()) + this.cost(not.getExclude());
+        }
+
+        else if (query instanceof SpanWithinQuery) {
+            final SpanWithinQuery within = (SpanWithinQuery) query;
+            return this.cost(within.wrap()) + this.cost(within.embedded());
+        }
+
+        // Distances compare all spans in the window
+        else if (query instanceof SpanDistanceQuery) {
+            final SpanDistanceQuery distance = (SpanDistanceQuery) query;
+            double cost = join(this.cost(distance.getFirstClause()),
+                    this.cost(distance.getSecondClause()),
+                    width(distance.getMinDistance(),
+                            distance.getMaxDistance()));
+            if (distance.getElementQuery() != null)
+                cost += this.cost(distance.getElementQuery());
+            return cost;
+        }
+
+        else if (query instanceof SpanMultipleDistanceQuery) {
+            final SpanMultipleDistanceQuery distance = (SpanMultipleDistanceQuery) query;
+            double width = 0, elements = 0;
+            for (DistanceConstraint constraint : distance.getConstraints()) {
+                width += width(constraint.getMinDistance(),
+                        constraint.getMaxDistance());
+                if (constraint.getElementQuery() != null)
+                    elements += this.cost(constraint.getElementQuery());
+            };
+            return join(this.cost(distance.getFirstClause()),
+                    this.cost(distance.getSecondClause()), width) + elements;
+        }
+
+        // Repetitions create a span per repetition
+        else if (query instanceof SpanRepetitionQuery) {
+            final SpanRepetitionQuery repetition = (SpanRepetitionQuery) query;
+            return this.cost(repetition.getFirstClause())
+                    * width(repetition.getMin(), repetition.getMax());
+        }
+
+        // Expansions create a span per expansion
+        else if (query instanceof SpanExpansionQuery) {
+            final SpanExpansionQuery expansion = (SpanExpansionQuery) query;
+            double cost = this.cost(expansion.getFirstClause())
+                    * width(expansion.getMin(), expansion.getMax());
+            if (expansion.getSecondClause() != null)
+                cost += this.cost(expansion.getSecondClause());
+            return cost;
+        }
+
+        // Sequences, classes, focus etc. merge or pass their operands
+        else if (query instanceof SimpleSpanQuery) {
+            final SimpleSpanQuery ssq = (SimpleSpanQuery) query;
+
+            // Leafs like elements or relations
+            if (ssq.getFirstClause() == null)
+                return this.extracted(query);
+
+            double cost = this.cost(ssq.getFirstClause());
+            if (ssq.getSecondClause() != null)
+                cost += this.cost(ssq.getSecondClause());
+            else if (ssq.getClauseList() != null) {
+                for (SpanQuery clause : ssq.getClauseList())
+                    cost += this.cost(clause);
+            };
+            return cost;
+        };
+
+        return this.extracted(query);
+    };
+
+
+    // The occurrences of all terms of a query
+    private double extracted (SpanQuery query) throws IOException {
+        final Set<Term> terms = new HashSet<Term>();
+        try {
+            query.extractTerms(terms);
+        }
+
+        // Not all queries support term extraction
+        catch (UnsupportedOperationException e) {
+            return 0;
+        };
+
+        double cost = 0;
+        for (Term term : terms)
+            cost += this.frequency(term);
+        return cost;
+    };
+
+
+    // The number of occurrences of a term
+    private double frequency (Term term) throws IOException {
+        TermContext context = this.termContexts.get(term);
+        if (context == null)
+            context = TermContext.build(this.reader.getContext(), term);
+
+        final long frequency = context.totalTermFreq();
+        return frequency >= 0 ? frequency : context.docFreq();
+    };
+
+
+    // Spans of the rarer operand are compared with
+    // all spans of the other operand in their window
+    private static double join (double first, double second, double width) {
+        return first + second + Math.min(first, second) * width;
+    };
+
+
+    private static double width (int min, int max) {
+        return max >= min ? max - min + 1 : 1;
+    };
+};
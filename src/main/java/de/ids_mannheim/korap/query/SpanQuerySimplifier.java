@@ -0,0 +1,328 @@
+package de.ids_mannheim.korap.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+/**
+ * Remove redundant operators from a span query tree.
+ *
+ * Serialized queries often contain operators without any effect
+ * on the matches, each adding a layer of spans buffering
+ * candidates and copying payloads.
+ * {@link #simplify(SpanQuery, Set)} returns an equivalent query,
+ * where
+ * <ul>
+ * <li>classes neither highlighted nor referred to by
+ * an enclosing operator (like {@link SpanFocusQuery},
+ * {@link SpanClassFilterQuery} or {@link SpanReferenceQuery})
+ * are omitted,</li>
+ * <li>alternatives with a single operand are replaced
+ * by the operand,</li>
+ * <li>repetitions <tt>{1,1}</tt> and subspans covering the
+ * whole span are replaced by their operands, in case the
+ * operands are sequences of terms (so their spans are ordered
+ * and unique and don't have element payloads) and</li>
+ * <li>focus operators nested in an identical focus operator
+ * are merged.</li>
+ * </ul>
+ *
+ * Operators relying on their own payloads
+ * (like {@link SpanElementQuery} or {@link SpanRelationQuery})
+ * are kept unchanged, including their operands.
+ *
+ * <blockquote><pre>
+ * SpanQuery simplified = SpanQuerySimplifier.simplify(query,
+ *         meta.getHighlights());
+ * </pre></blockquote>
+ *
+ * The passed query is never modified, unchanged subqueries
+ * are shared.
+ */
+public class SpanQuerySimplifier {
+
+    /**
+     * Get an equivalent query without redundant operators.
+     *
+     * @param query
+     *            The {@link SpanQuery}.
+     * @param highlights
+     *            <code>true</code> in case all classes
+     *            of the matches are highlighted,
+     *            otherwise only classes referred to by
+     *            operators are kept.
+     * @return A {@link SpanQuery} matching the same spans.
+     */
+    public static SpanQuery simplify (SpanQuery query, boolean highlights) {
+        return simplify(query,
+                highlights ? null : Collections.<Integer> emptySet());
+    };
+
+
+    /**
+     * Get an equivalent query without redundant operators.
+     *
+     * @param query
+     *            The {@link SpanQuery}.
+     * @param highlights
+     *            The numbers of the highlighted classes
+     *            or <code>null</code>, in case all classes
+     *            of the matches are highlighted.
+     *            Other classes are only kept, in case they
+     *            are referred to by operators.
+     * @return A {@link SpanQuery} matching the same spans.
+     */
+    public static SpanQuery simplify (SpanQuery query,
+            Set<Integer> highlights) {
+        return simplify(query, highlights, new HashSet<Byte>());
+    };
+
+
+    private static SpanQuery simplify (SpanQuery query,
+            Set<Integer> highlights, Set<Byte> classes) {
+
+        // Alternatives
+        if (query.getClass() == SpanOrQuery.class) {
+            final SpanQuery[] clauses = ((SpanOrQuery) query).getClauses();
+            boolean changed = false;
+            for (int i = 0; i < clauses.length; i++) {
+                final SpanQuery clause = simplify(clauses[i], highlights,
+                        classes);
+                changed |= clause != clauses[i];
+                clauses[i] = clause;
+            };
+
+            // Single operand
+            if (clauses.length == 1)
+                return clauses[0];
+
+            if (!changed)
+                return query;
+
+            final SpanQuery sq = new SpanOrQuery(clauses);
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        // Classes
+        else if (query instanceof SpanClassQuery) {
+            final SpanClassQuery cls = (SpanClassQuery) query;
+            final SpanQuery clause = simplify(cls.getFirstClause(),
+                    highlights, classes);
+
+            // The class is not required
+            if (!classes.contains(cls.getNumber())
+                    && !isHighlighted(highlights, cls.getNumber()))
+                return clause;
+
+            if (clause == cls.getFirstClause())
+                return query;
+
+            final SpanClassQuery sq = new SpanClassQuery(clause,
+                    cls.getNumber());
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        // Focus
+        else if (query instanceof SpanFocusQuery) {
+            final SpanFocusQuery focus = (SpanFocusQuery) query;
+            final SpanQuery clause = simplify(focus.getFirstClause(),
+                    highlights, refer(classes, focus.getClassNumbers()));
+
+            // Identical nested focus
+            if (clause instanceof SpanFocusQuery
+                    && isSameFocus(focus, (SpanFocusQuery) clause))
+                return clause;
+
+            if (clause == focus.getFirstClause())
+                return query;
+
+            final SpanFocusQuery sq = focus.clone();
+            sq.setFirstClause(clause);
+            sq.setWindowSize(focus.getWindowSize());
+            return sq;
+        }
+
+        // Class filters
+        else if (query instanceof SpanClassFilterQuery) {
+            final SpanClassFilterQuery filter = (SpanClassFilterQuery) query;
+            final List<Byte> numbers = new ArrayList<Byte>(2);
+            numbers.add(filter.getClassNum1());
+            numbers.add(filter.getClassNum2());
+            final SpanQuery clause = simplify(filter.getFirstClause(),
+                    highlights, refer(classes, numbers));
+
+            if (clause == filter.getFirstClause())
+                return query;
+
+            final SpanQuery sq = new SpanClassFilterQuery(clause,
+                    filter.getOperation(), filter.getClassNum1(),
+                    filter.getClassNum2(), filter.isCollectPayloads());
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        // References
+        else if (query instanceof SpanReferenceQuery) {
+            final SpanReferenceQuery reference = (SpanReferenceQuery) query;
+            final List<Byte> numbers = new ArrayList<Byte>(1);
+            numbers.add(reference.getClassNum());
+            final SpanQuery clause = simplify(reference.getFirstClause(),
+                    highlights, refer(classes, numbers));
+
+            if (clause == reference.getFirstClause())
+                return query;
+
+            final SpanQuery sq = new SpanReferenceQuery(clause,
+                    reference.getClassNum(), reference.isCollectPayloads());
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        // Single repetitions
+        else if (query instanceof SpanRepetitionQuery) {
+            final SpanRepetitionQuery repetition = (SpanRepetitionQuery) query;
+            final SpanQuery clause = simplify(repetition.getFirstClause(),
+                    highlights, classes);
+
+            if (repetition.getMin() == 1 && repetition.getMax() == 1
+                    && isTermSequence(clause))
+                return operand(repetition, clause);
+
+            return withClauses(repetition, clause, null);
+        }
+
+        // Subspans covering the whole span
+        else if (query instanceof SpanSubspanQuery) {
+            final SpanSubspanQuery subspan = (SpanSubspanQuery) query;
+            final SpanQuery clause = simplify(subspan.getFirstClause(),
+                    highlights, classes);
+
+            if (subspan.getStartOffset() == 0 && subspan.getLength() == 0
+                    && isTermSequence(clause))
+                return operand(subspan, clause);
+
+            if (clause == subspan.getFirstClause())
+                return query;
+
+            final SpanSubspanQuery sq = (SpanSubspanQuery) subspan.clone();
+            sq.setFirstClause(clause);
+            sq.setWindowSize(subspan.getWindowSize());
+            return sq;
+        }
+
+        else if (query instanceof SpanWithinQuery) {
+            final SpanWithinQuery within = (SpanWithinQuery) query;
+            final SpanQuery wrap = simplify(within.wrap(), highlights,
+                    classes);
+            final SpanQuery embedded = simplify(within.embedded(),
+                    highlights, classes);
+
+            if (wrap == within.wrap() && embedded == within.embedded())
+                return query;
+
+            final SpanWithinQuery sq = new SpanWithinQuery(wrap, embedded,
+                    within.flag(), within.isCollectPayloads());
+            sq.setIntervalIndex(within.hasIntervalIndex());
+            sq.setBoost(query.getBoost());
+            return sq;
+        }
+
+        else if (query instanceof SpanNextQuery
+                || query instanceof SpanDistanceQuery
+                || query instanceof SpanMultipleDistanceQuery
+                || query instanceof SpanExpansionQuery) {
+            final SimpleSpanQuery ssq = (SimpleSpanQuery) query;
+            return withClauses(ssq,
+                    simplify(ssq.getFirstClause(), highlights, classes),
+                    ssq.getSecondClause() == null ? null
+                            : simplify(ssq.getSecondClause(), highlights,
+                                    classes));
+        };
+
+        return query;
+    };
+
+
+    // Replace the clauses of a positional operator
+    private static SpanQuery withClauses (SimpleSpanQuery query,
+            SpanQuery first, SpanQuery second) {
+        if (first == query.getFirstClause()
+                && second == query.getSecondClause())
+            return query;
+
+        final SimpleSpanQuery sq = query.clone();
+        sq.setFirstClause(first);
+        if (second != null)
+            sq.setSecondClause(second);
+        sq.setBoost(query.getBoost());
+        return sq;
+    };
+
+
+    // The operand replacing an operator
+    private static SpanQuery operand (SimpleSpanQuery query,
+            SpanQuery clause) {
+
+        // The operator doesn't pass the payloads
+        if (!query.isCollectPayloads())
+            return PayloadRequirement.withoutPayloads(clause);
+        return clause;
+    };
+
+
+    // Classes set by the system are never highlighted
+    private static boolean isHighlighted (Set<Integer> highlights,
+            byte number) {
+        final int nr = number & 0xFF;
+        return nr <= 128 && (highlights == null || highlights.contains(nr));
+    };
+
+
+    // Add class numbers referred to by an operator
+    private static Set<Byte> refer (Set<Byte> classes, List<Byte> numbers) {
+        final Set<Byte> referred = new HashSet<Byte>(classes);
+        referred.addAll(numbers);
+        return referred;
+    };
+
+
+    // Sequences of terms have ordered and unique spans
+    // without element payloads
+    private static boolean isTermSequence (SpanQuery query) {
+        if (query.getClass() == SpanTermQuery.class
+                || query.getClass() == SpanTermPositionsQuery.class)
+            return true;
+
+        else if (query instanceof SpanClassQuery)
+            return isTermSequence(((SpanClassQuery) query).getFirstClause());
+
+        else if (query instanceof SpanNextQuery) {
+            final SpanNextQuery next = (SpanNextQuery) query;
+            return isTermSequence(next.getFirstClause())
+                    && isTermSequence(next.getSecondClause());
+        };
+
+        return false;
+    };
+
+
+    // A focus on the same classes doesn't change the spans
+    // of a nested focus, as long as classes aren't removed
+    private static boolean isSameFocus (SpanFocusQuery outer,
+            SpanFocusQuery inner) {
+        return outer.getClassNumbers().equals(inner.getClassNumbers())
+                && outer.matchTemporaryClass() == inner.matchTemporaryClass()
+                && !outer.removeTemporaryClasses()
+                && !inner.removeTemporaryClasses()
+                && outer.isSorted() == inner.isSorted()
+                && outer.getWindowSize() == inner.getWindowSize();
+    };
+};
@@ -2,6 +2,7 @@ package de.ids_mannheim.korap.query;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
@@ -69,6 +70,17 @@ public class SpanSegmentQuery extends SimpleSpanQuery {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * Both clauses are required.
+     */
+    @Override
+    public void extractRequiredTerms (Set<Term> terms) {
+        DocumentApproximation.extractRequiredTerms(firstClause, terms);
+        DocumentApproximation.extractRequiredTerms(secondClause, terms);
+    }
+
+
     @Override
     public Spans getSpans (LeafReaderContext context, Bits acceptDocs,
             Map<Term, TermContext> termContexts) throws IOException {
@@ -0,0 +1,82 @@
+package de.ids_mannheim.korap.query;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.search.spans.TermSpans;
+import org.apache.lucene.util.Bits;
+
+/**
+ * A {@link SpanTermQuery} reading positions only.
+ * The postings are opened without payloads, so
+ * the spans never provide payloads.
+ * This is used in case the payloads of a term are not required
+ * for the result, see {@link PayloadRequirement}.
+ *
+ * <pre>
+ * SpanTermPositionsQuery sq = new SpanTermPositionsQuery(new
+ * Term("base","s:Haus"))
+ * </pre>
+ */
+public class SpanTermPositionsQuery extends SpanTermQuery {
+
+    /**
+     * Constructs a SpanTermPositionsQuery for the given term.
+     *
+     * @param term
+     *            a {@link Term}
+     */
+    public SpanTermPositionsQuery (Term term) {
+        super(term);
+    };
+
+
+    @Override
+    public Spans getSpans (final LeafReaderContext context, Bits acceptDocs,
+            Map<Term, TermContext> termContexts) throws IOException {
+
+        final Terms terms = context.reader().terms(term.field());
+
+        // The field does not exist in the segment
+        if (terms == null)
+            return TermSpans.EMPTY_TERM_SPANS;
+
+        final TermsEnum termsEnum = terms.iterator(null);
+        final TermContext termContext = termContexts.get(term);
+
+        if (termContext != null) {
+            final TermState state = termContext.get(context.ord);
+
+            // The term does not exist in the segment
+            if (state == null)
+                return TermSpans.EMPTY_TERM_SPANS;
+
+            termsEnum.seekExact(term.bytes(), state);
+        }
+        else if (!termsEnum.seekExact(term.bytes())) {
+            return TermSpans.EMPTY_TERM_SPANS;
+        };
+
+        // Request neither offsets nor payloads
+        final DocsAndPositionsEnum postings = termsEnum.docsAndPositions(
+                acceptDocs, null, 0);
+
+        if (postings == null) {
+            throw new IllegalStateException("field \"" + term.field()
+                    + "\" was indexed without position data;"
+                    + " cannot run SpanTermPositionsQuery (term="
+                    + term.text() + ")");
+        };
+
+        return new TermSpans(postings, term);
+    };
+};
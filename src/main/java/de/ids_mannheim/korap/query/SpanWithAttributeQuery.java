@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
@@ -190,6 +191,23 @@ public class SpanWithAttributeQuery extends SimpleSpanQuery {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * The referent clause and all attributes are required.
+     */
+    @Override
+    public void extractRequiredTerms (Set<Term> terms) {
+        if (firstClause != null)
+            DocumentApproximation.extractRequiredTerms(firstClause, terms);
+        if (secondClause != null)
+            DocumentApproximation.extractRequiredTerms(secondClause, terms);
+        if (clauseList != null) {
+            for (SpanQuery clause : clauseList)
+                DocumentApproximation.extractRequiredTerms(clause, terms);
+        }
+    }
+
+
     @Override
     public Spans getSpans (LeafReaderContext context, Bits acceptDocs,
             Map<Term, TermContext> termContexts) throws IOException {
@@ -15,6 +15,7 @@ import org.apache.lucene.search.spans.Spans;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.ToStringUtils;
 
+import de.ids_mannheim.korap.query.spans.IntervalWithinSpans;
 import de.ids_mannheim.korap.query.spans.WithinSpans;
 
 
@@ -27,6 +28,7 @@ public class SpanWithinQuery extends SpanQuery implements Cloneable {
     public String field;
     private byte flag;
     private boolean collectPayloads;
+    private boolean intervalIndex = false;
 
     public static final byte OVERLAP = WithinSpans.OVERLAP,
             REAL_OVERLAP = WithinSpans.REAL_OVERLAP,
@@ -110,6 +112,83 @@ public class SpanWithinQuery extends SpanQuery implements Cloneable {
     };
 
 
+    public boolean isCollectPayloads () {
+        return collectPayloads;
+    };
+
+
+    /**
+     * Tells if the elements of the wrapping clause are
+     * looked up in an interval index.
+     * 
+     * @return <code>true</code> if an interval index is used,
+     *         <code>false</code> otherwise.
+     * @see IntervalWithinSpans
+     */
+    public boolean hasIntervalIndex () {
+        return intervalIndex;
+    };
+
+
+    /**
+     * Sets <code>true</code> if the elements of the wrapping clause
+     * should be looked up in an interval index.
+     * The index is only used for containment conditions
+     * with an element as the wrapping clause.
+     * 
+     * @param intervalIndex
+     *            a boolean flag determining if an interval index
+     *            is to be used or not.
+     */
+    public void setIntervalIndex (boolean intervalIndex) {
+        this.intervalIndex = intervalIndex;
+    };
+
+
+    /**
+     * Get a copy of a query, where the interval index is enabled
+     * for all {@link SpanWithinQuery SpanWithinQueries}, whose
+     * wrapping clause is one of the given elements, and disabled
+     * for all others.
+     * 
+     * The passed query is never modified, so it may be shared
+     * by concurrent searches. Unchanged subqueries are shared.
+     * 
+     * @param query
+     *            a {@link SpanQuery}
+     * @param elements
+     *            a set of elements, e.g. <tt>base/s:s</tt>
+     * @return a {@link SpanQuery} using the interval index
+     */
+    public static SpanQuery withIntervalIndex (SpanQuery query,
+            Set<String> elements) {
+
+        if (query instanceof SpanWithinQuery) {
+            final SpanWithinQuery within = (SpanWithinQuery) query;
+            final SpanQuery wrap = withIntervalIndex(within.wrap, elements);
+            final SpanQuery embedded = withIntervalIndex(within.embedded,
+                    elements);
+            final boolean intervalIndex =
+                    within.wrap instanceof SpanElementQuery && elements
+                            .contains(((SpanElementQuery) within.wrap)
+                                    .getElementStr());
+
+            if (wrap == within.wrap && embedded == within.embedded
+                    && intervalIndex == within.intervalIndex)
+                return query;
+
+            final SpanWithinQuery sq = new SpanWithinQuery(wrap, embedded,
+                    within.flag, within.collectPayloads);
+            sq.setIntervalIndex(intervalIndex);
+            sq.setBoost(query.getBoost());
+            return sq;
+        };
+
+        return SimpleSpanQuery.withOperands(query,
+                clause -> withIntervalIndex(clause, elements));
+    };
+
+
     @Override
     public void extractTerms (Set<Term> terms) {
         embedded.extractTerms(terms);
@@ -152,9 +231,30 @@ public class SpanWithinQuery extends SpanQuery implements Cloneable {
     };
 
 
+    /**
+     * Collects the terms that need to occur in a document
+     * for the query to match in the document.
+     * Both the wrapping and the embedded clause are required.
+     * 
+     * @param terms
+     *            a set of terms
+     * @see DocumentApproximation
+     */
+    public void extractRequiredTerms (Set<Term> terms) {
+        DocumentApproximation.extractRequiredTerms(wrap, terms);
+        DocumentApproximation.extractRequiredTerms(embedded, terms);
+    };
+
+
     @Override
     public Spans getSpans (final LeafReaderContext context, Bits acceptDocs,
             Map<Term, TermContext> termContexts) throws IOException {
+        if (this.intervalIndex && wrap instanceof SpanElementQuery
+                && IntervalWithinSpans.supports(this.flag)) {
+            return (Spans) new IntervalWithinSpans(this, context, acceptDocs,
+                    termContexts, this.flag);
+        };
+
         return (Spans) new WithinSpans(this, context, acceptDocs, termContexts,
                 this.flag);
     };
@@ -196,6 +296,7 @@ public class SpanWithinQuery extends SpanQuery implements Cloneable {
         SpanWithinQuery spanWithinQuery = new SpanWithinQuery(
                 (SpanQuery) wrap.clone(), (SpanQuery) embedded.clone(),
                 this.flag, this.collectPayloads);
+        spanWithinQuery.setIntervalIndex(this.intervalIndex);
         spanWithinQuery.setBoost(getBoost());
         return spanWithinQuery;
     };
@@ -0,0 +1,250 @@
+package de.ids_mannheim.korap.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+/**
+ * A sequence of terms at constant offsets.
+ *
+ * Sequences of plain terms with fixed or empty gaps, like
+ * <tt>[orth=der][][lemma=Haus]</tt>, are serialized to nested
+ * {@link SpanNextQuery SpanNextQueries} of terms and
+ * {@link SpanExpansionQuery SpanExpansionQueries} with identical
+ * minimum and maximum expansions. As every term of such a query
+ * has a constant offset to the start of a match, the query can be
+ * matched like a phrase, by intersecting the positions of the terms
+ * (see {@link de.ids_mannheim.korap.query.spans.TermSequenceSpans}).
+ *
+ * The sequence consists of parts in the order their payloads
+ * are collected by the nested operators: Terms and
+ * classes (of {@link SpanClassQuery SpanClassQueries} and
+ * class expansions). Classes are only part of the sequence in
+ * case their payloads are requested.
+ *
+ * <blockquote><pre>
+ * TermSequence sequence = TermSequence.of(spanNextQuery);
+ * if (sequence != null) ...
+ * </pre></blockquote>
+ */
+public class TermSequence {
+
+    private final List<SpanTermQuery> terms = new ArrayList<SpanTermQuery>();
+    private final List<int[]> offsets = new ArrayList<int[]>();
+    private final List<Boolean> payloads = new ArrayList<Boolean>();
+    private int length = 0;
+
+
+    private TermSequence () {};
+
+
+    /**
+     * Recognize a term sequence in a {@link SpanNextQuery}.
+     *
+     * @param query
+     *            The {@link SpanNextQuery}.
+     * @return The {@link TermSequence} or <code>null</code>,
+     *         in case the query is not a pure term sequence.
+     */
+    public static TermSequence of (SpanNextQuery query) {
+        final TermSequence sequence = new TermSequence();
+        final int length = sequence.parse(query, 0, true);
+        if (length < 0)
+            return null;
+        sequence.length = length;
+        return sequence;
+    };
+
+
+    /**
+     * Get the number of parts.
+     *
+     * @return The number of terms and classes.
+     */
+    public int size () {
+        return this.terms.size();
+    };
+
+
+    /**
+     * Get the length of all matches.
+     *
+     * @return The number of positions covered by the sequence.
+     */
+    public int getLength () {
+        return this.length;
+    };
+
+
+    /**
+     * Check if a part is a term.
+     *
+     * @param part
+     *            The index of the part.
+     * @return <code>true</code> for terms,
+     *         <code>false</code> for classes.
+     */
+    public boolean isTerm (int part) {
+        return this.terms.get(part) != null;
+    };
+
+
+    /**
+     * Get the term query of a part.
+     *
+     * @param part
+     *            The index of the part.
+     * @return The {@link SpanTermQuery} or <code>null</code>
+     *         for classes.
+     */
+    public SpanTermQuery getTerm (int part) {
+        return this.terms.get(part);
+    };
+
+
+    /**
+     * Get the start offset of a part relative to
+     * the start of the match.
+     *
+     * @param part
+     *            The index of the part.
+     * @return The start offset.
+     */
+    public int getStart (int part) {
+        return this.offsets.get(part)[0];
+    };
+
+
+    /**
+     * Get the end offset of a part relative to
+     * the start of the match.
+     *
+     * @param part
+     *            The index of the part.
+     * @return The end offset.
+     */
+    public int getEnd (int part) {
+        return this.offsets.get(part)[1];
+    };
+
+
+    /**
+     * Get the class number of a part.
+     *
+     * @param part
+     *            The index of the part.
+     * @return The class number, <code>0</code> for terms.
+     */
+    public byte getClassNumber (int part) {
+        return (byte) this.offsets.get(part)[2];
+    };
+
+
+    /**
+     * Check if the payloads of a term are part of the
+     * payloads of the matches.
+     *
+     * @param part
+     *            The index of the part.
+     * @return <code>true</code> if the payloads are required.
+     */
+    public boolean hasPayloads (int part) {
+        return this.payloads.get(part);
+    };
+
+
+    // Parse the query starting at the offset and return
+    // its length or -1 in case it is no term sequence
+    private int parse (SpanQuery query, int offset, boolean collect) {
+
+        // Term
+        if (query.getClass() == SpanTermQuery.class
+                || query.getClass() == SpanTermPositionsQuery.class) {
+            this.add((SpanTermQuery) query, offset, offset + 1, (byte) 0,
+                    collect && query.getClass() == SpanTermQuery.class);
+            return 1;
+        }
+
+        // Adjacent sequences
+        else if (query instanceof SpanNextQuery) {
+            final SpanNextQuery next = (SpanNextQuery) query;
+            collect &= next.isCollectPayloads();
+
+            final int first = this.parse(next.getFirstClause(), offset,
+                    collect);
+            if (first < 0)
+                return -1;
+
+            final int second = this.parse(next.getSecondClause(),
+                    offset + first, collect);
+            if (second < 0)
+                return -1;
+
+            return first + second;
+        }
+
+        // Fixed gaps
+        else if (query instanceof SpanExpansionQuery) {
+            final SpanExpansionQuery expansion = (SpanExpansionQuery) query;
+            if (expansion.isExclusion
+                    || expansion.getMin() != expansion.getMax())
+                return -1;
+
+            collect &= expansion.isCollectPayloads();
+            final int gap = expansion.getMin();
+            final byte number = expansion.getClassNumber();
+
+            // Expansion to the left
+            if (expansion.getDirection() < 0) {
+                final int length = this.parse(expansion.getFirstClause(),
+                        offset + gap, collect);
+                if (length < 0)
+                    return -1;
+
+                if (collect && number > 0)
+                    this.add(null, offset, offset + gap, number, false);
+
+                return gap + length;
+            };
+
+            // Expansion to the right
+            final int length = this.parse(expansion.getFirstClause(), offset,
+                    collect);
+            if (length < 0)
+                return -1;
+
+            if (collect && number > 0)
+                this.add(null, offset + length, offset + length + gap, number,
+                        false);
+
+            return length + gap;
+        }
+
+        // Classes
+        else if (query instanceof SpanClassQuery) {
+            final SpanClassQuery cls = (SpanClassQuery) query;
+            final int length = this.parse(cls.getFirstClause(), offset,
+                    collect);
+            if (length < 0)
+                return -1;
+
+            if (collect)
+                this.add(null, offset, offset + length, cls.getNumber(),
+                        false);
+
+            return length;
+        };
+
+        return -1;
+    };
+
+
+    private void add (SpanTermQuery term, int start, int end, byte number,
+            boolean payload) {
+        this.terms.add(term);
+        this.offsets.add(new int[] { start, end, number });
+        this.payloads.add(payload);
+    };
+};
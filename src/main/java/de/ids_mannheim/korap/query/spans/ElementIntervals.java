@@ -0,0 +1,262 @@
+package de.ids_mannheim.korap.query.spans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * An interval index of the elements of a single document.
+ *
+ * The elements are kept in primitive arrays, ordered by their
+ * start positions. An implicit binary tree over the
+ * end positions stores the maximum end position of every subtree,
+ * so all elements containing a span can be found in
+ * logarithmic time (plus the number of containing elements)
+ * instead of by co-iterating all elements of the document.
+ *
+ * The index is reused for all documents of a segment.
+ *
+ * <blockquote><pre>
+ * ElementIntervals elements = new ElementIntervals();
+ * elements.add(0, 10, null);
+ * elements.add(10, 20, null);
+ * elements.build();
+ * elements.forEachContaining(12, 14, i -&gt; ...);
+ * </pre></blockquote>
+ */
+public class ElementIntervals {
+
+    private int size = 0;
+    private int[] starts = new int[16], ends = new int[16];
+    private List<Collection<byte[]>> payloads = new ArrayList<Collection<byte[]>>();
+    private boolean sorted = true;
+
+    // Maximum end positions of the implicit tree,
+    // with the leafs starting at leafs
+    private int[] maxEnds = new int[32];
+    private int leafs = 16;
+
+
+    /**
+     * Remove all elements.
+     */
+    public void clear () {
+        this.size = 0;
+        this.payloads.clear();
+        this.sorted = true;
+    };
+
+
+    /**
+     * Add an element to the index.
+     * The index needs to be built again afterwards.
+     *
+     * @param start
+     *            The start position of the element.
+     * @param end
+     *            The end position of the element.
+     * @param payload
+     *            The payload of the element, may be <code>null</code>.
+     */
+    public void add (int start, int end, Collection<byte[]> payload) {
+        if (this.size == this.starts.length) {
+            this.starts = ArrayUtil.grow(this.starts, this.size + 1);
+            this.ends = ArrayUtil.grow(this.ends, this.size + 1);
+        };
+
+        if (this.size > 0 && this.starts[this.size - 1] > start)
+            this.sorted = false;
+
+        this.starts[this.size] = start;
+        this.ends[this.size] = end;
+        this.payloads.add(payload);
+        this.size++;
+    };
+
+
+    /**
+     * Build the index after all elements were added.
+     */
+    public void build () {
+        if (!this.sorted)
+            this.sort();
+
+        this.leafs = 1;
+        while (this.leafs < this.size)
+            this.leafs <<= 1;
+
+        if (this.maxEnds.length < this.leafs << 1)
+            this.maxEnds = new int[this.leafs << 1];
+
+        System.arraycopy(this.ends, 0, this.maxEnds, this.leafs, this.size);
+        Arrays.fill(this.maxEnds, this.leafs + this.size, this.leafs << 1, -1);
+
+        for (int node = this.leafs - 1; node > 0; node--) {
+            this.maxEnds[node] = Math.max(this.maxEnds[node << 1],
+                    this.maxEnds[(node << 1) + 1]);
+        };
+    };
+
+
+    /**
+     * Get the number of elements.
+     *
+     * @return The number of elements.
+     */
+    public int size () {
+        return this.size;
+    };
+
+
+    /**
+     * Get the start position of an element.
+     *
+     * @param element
+     *            The index of the element.
+     * @return The start position.
+     */
+    public int start (int element) {
+        return this.starts[element];
+    };
+
+
+    /**
+     * Get the end position of an element.
+     *
+     * @param element
+     *            The index of the element.
+     * @return The end position.
+     */
+    public int end (int element) {
+        return this.ends[element];
+    };
+
+
+    /**
+     * Get the payload of an element.
+     *
+     * @param element
+     *            The index of the element.
+     * @return The payload, may be <code>null</code>.
+     */
+    public Collection<byte[]> payload (int element) {
+        return this.payloads.get(element);
+    };
+
+
+    /**
+     * Pass all elements containing the span
+     * from start to end to the consumer,
+     * ordered by their start positions.
+     *
+     * @param start
+     *            The start position of the span.
+     * @param end
+     *            The end position of the span.
+     * @param consumer
+     *            The consumer of the element indices.
+     */
+    public void forEachContaining (int start, int end, IntConsumer consumer) {
+
+        // All elements starting at or before start
+        final int limit = this.firstStartAfter(start);
+        if (limit > 0)
+            this.collect(1, 0, this.leafs, limit, end, consumer);
+    };
+
+
+    /**
+     * Get the first element containing the span
+     * from start to end, i.e. the containing element
+     * with the lowest index.
+     *
+     * @param start
+     *            The start position of the span.
+     * @param end
+     *            The end position of the span.
+     * @return The index of the element or <code>-1</code>,
+     *         in case no element contains the span.
+     */
+    public int firstContaining (int start, int end) {
+        final int limit = this.firstStartAfter(start);
+        if (limit > 0)
+            return this.first(1, 0, this.leafs, limit, end);
+        return -1;
+    };
+
+
+    // Descend to the leftmost leaf before limit ending at or after end
+    private int first (int node, int from, int to, int limit, int end) {
+        if (from >= limit || this.maxEnds[node] < end)
+            return -1;
+
+        if (node >= this.leafs)
+            return node - this.leafs;
+
+        final int mid = (from + to) >>> 1;
+        final int found = this.first(node << 1, from, mid, limit, end);
+        if (found != -1)
+            return found;
+        return this.first((node << 1) + 1, mid, to, limit, end);
+    };
+
+
+    // Descend to all leafs before limit ending at or after end
+    private void collect (int node, int from, int to, int limit, int end,
+            IntConsumer consumer) {
+        if (from >= limit || this.maxEnds[node] < end)
+            return;
+
+        if (node >= this.leafs) {
+            consumer.accept(node - this.leafs);
+            return;
+        };
+
+        final int mid = (from + to) >>> 1;
+        this.collect(node << 1, from, mid, limit, end, consumer);
+        this.collect((node << 1) + 1, mid, to, limit, end, consumer);
+    };
+
+
+    // Get the index of the first element starting after the position
+    private int firstStartAfter (int position) {
+        int low = 0, high = this.size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (this.starts[mid] <= position)
+                low = mid + 1;
+            else
+                high = mid;
+        };
+        return low;
+    };
+
+
+    // Order the elements by their start positions,
+    // keeping the order of elements with identical starts
+    private void sort () {
+        final Integer[] order = new Integer[this.size];
+        for (int i = 0; i < this.size; i++)
+            order[i] = i;
+        Arrays.sort(order,
+                (a, b) -> Integer.compare(this.starts[a], this.starts[b]));
+
+        final int[] sortedStarts = new int[this.starts.length];
+        final int[] sortedEnds = new int[this.ends.length];
+        final List<Collection<byte[]>> sortedPayloads = new ArrayList<Collection<byte[]>>(
+                this.size);
+        for (int i = 0; i < this.size; i++) {
+            sortedStarts[i] = this.starts[order[i]];
+            sortedEnds[i] = this.ends[order[i]];
+            sortedPayloads.add(this.payloads.get(order[i]));
+        };
+        this.starts = sortedStarts;
+        this.ends = sortedEnds;
+        this.payloads = sortedPayloads;
+        this.sorted = true;
+    };
+};
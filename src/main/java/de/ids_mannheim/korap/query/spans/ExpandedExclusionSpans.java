@@ -306,6 +306,10 @@ public class ExpandedExclusionSpans extends SimpleSpans {
 
         ArrayList<byte[]> payload = new ArrayList<byte[]>();
 
+        // Payloads are not required
+        if (!collectPayloads)
+            return payload;
+
         if (firstSpans.isPayloadAvailable()) {
             payload.addAll(firstSpans.getPayload());
         }
@@ -186,6 +186,11 @@ public class ExpandedSpans extends SimpleSpans {
             throws IOException {
 
         ArrayList<byte[]> payload = new ArrayList<byte[]>();
+
+        // Payloads are not required
+        if (!collectPayloads)
+            return payload;
+
         if (firstSpans.isPayloadAvailable()) {
             payload.addAll(firstSpans.getPayload());
         }
@@ -0,0 +1,343 @@
+package de.ids_mannheim.korap.query.spans;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ids_mannheim.korap.query.SpanWithinQuery;
+
+/**
+ * Match spans contained in elements, based on an
+ * {@link ElementIntervals} index of the elements per document.
+ *
+ * This is an alternative to {@link WithinSpans} for the flags
+ * {@link WithinSpans#WITHIN}, {@link WithinSpans#REAL_WITHIN},
+ * {@link WithinSpans#STARTSWITH}, {@link WithinSpans#ENDSWITH}
+ * and {@link WithinSpans#MATCH}.
+ * Instead of co-iterating the elements and the embedded spans
+ * with backtracking buffers, all elements of a document are
+ * indexed once and the elements containing an embedded span
+ * are looked up in logarithmic time.
+ *
+ * Matches are ordered by their elements and, per element,
+ * by their embedded spans. The match positions are the positions
+ * of the element, the payloads are the payloads of the embedded
+ * span followed by the payload of the element.
+ */
+public class IntervalWithinSpans extends Spans {
+
+    // Logger
+    private final Logger log = LoggerFactory
+            .getLogger(IntervalWithinSpans.class);
+
+    // This advices the java compiler to ignore all loggings
+    public static final boolean DEBUG = false;
+
+    private final SpanWithinQuery query;
+    private final Spans wrapSpans, embeddedSpans;
+    private final byte flag;
+    private final boolean collectPayloads;
+
+    private boolean initialized = false;
+    private boolean moreWrap = false, moreEmbedded = false;
+
+    // Elements of the current document
+    private final ElementIntervals elements = new ElementIntervals();
+
+    // Embedded spans of the current document
+    private int embeddedCount = 0;
+    private int[] embeddedStarts = new int[16], embeddedEnds = new int[16];
+    private final List<Collection<byte[]>> embeddedPayloads = new ArrayList<Collection<byte[]>>();
+
+    // Matches of the current document as pairs
+    // of element and embedded span
+    private int matchCount = 0, matchIndex = 0;
+    private long[] matches = new long[16];
+
+    private int matchDoc = -1, matchStart = -1, matchEnd = -1;
+    private final List<byte[]> matchPayload = new ArrayList<byte[]>();
+
+
+    /**
+     * Construct a new IntervalWithinSpans object.
+     *
+     * @param spanWithinQuery
+     *            The parental {@link SpanWithinQuery}.
+     * @param context
+     *            The {@link LeafReaderContext}.
+     * @param acceptDocs
+     *            Bit vector representing the documents
+     *            to be searched in.
+     * @param termContexts
+     *            A map managing term states.
+     * @param flag
+     *            A byte flag indicating the positional condition of
+     *            the sub spans.
+     */
+    public IntervalWithinSpans (SpanWithinQuery spanWithinQuery,
+                                LeafReaderContext context, Bits acceptDocs,
+                                Map<Term, TermContext> termContexts,
+                                byte flag)
+            throws IOException {
+        this.query = spanWithinQuery;
+        this.wrapSpans = spanWithinQuery.wrap().getSpans(context, acceptDocs,
+                termContexts);
+        this.embeddedSpans = spanWithinQuery.embedded().getSpans(context,
+                acceptDocs, termContexts);
+        this.flag = flag;
+        this.collectPayloads = spanWithinQuery.isCollectPayloads();
+    };
+
+
+    /**
+     * Check if the positional condition can be
+     * answered by an interval index.
+     *
+     * @param flag
+     *            The flag of the {@link SpanWithinQuery}.
+     * @return <code>true</code> for all containment conditions.
+     */
+    public static boolean supports (byte flag) {
+        return flag == WithinSpans.WITHIN || flag == WithinSpans.REAL_WITHIN
+                || flag == WithinSpans.STARTSWITH
+                || flag == WithinSpans.ENDSWITH || flag == WithinSpans.MATCH;
+    };
+
+
+    @Override
+    public boolean next () throws IOException {
+        if (!this.initialized) {
+            this.initialized = true;
+            this.moreWrap = this.wrapSpans.next();
+            this.moreEmbedded = this.embeddedSpans.next();
+        };
+
+        while (this.matchIndex >= this.matchCount) {
+            if (!this.nextDocument()) {
+                this.matchDoc = DocIdSetIterator.NO_MORE_DOCS;
+                return false;
+            };
+        };
+
+        this.setMatch(this.matches[this.matchIndex++]);
+        return true;
+    };
+
+
+    @Override
+    public boolean skipTo (int target) throws IOException {
+        if (DEBUG)
+            log.trace("Skip IntervalWithinSpans {} -> {}", matchDoc, target);
+
+        // There may be further matches in the current document
+        if (this.matchDoc >= target)
+            return this.next();
+
+        this.matchCount = 0;
+        this.matchIndex = 0;
+
+        if (!this.initialized) {
+            this.initialized = true;
+            this.moreWrap = this.wrapSpans.next();
+            this.moreEmbedded = this.embeddedSpans.next();
+        };
+
+        if (this.moreWrap && this.wrapSpans.doc() < target)
+            this.moreWrap = this.wrapSpans.skipTo(target);
+
+        if (this.moreEmbedded && this.embeddedSpans.doc() < target)
+            this.moreEmbedded = this.embeddedSpans.skipTo(target);
+
+        return this.next();
+    };
+
+
+    // Move to the next document with matches
+    private boolean nextDocument () throws IOException {
+        this.matchCount = 0;
+        this.matchIndex = 0;
+
+        while (this.moreWrap && this.moreEmbedded) {
+            final int wrapDoc = this.wrapSpans.doc();
+            final int embeddedDoc = this.embeddedSpans.doc();
+
+            if (wrapDoc < embeddedDoc) {
+                this.moreWrap = this.wrapSpans.skipTo(embeddedDoc);
+            }
+            else if (embeddedDoc < wrapDoc) {
+                this.moreEmbedded = this.embeddedSpans.skipTo(wrapDoc);
+            }
+            else {
+                this.collectDocument(wrapDoc);
+                if (this.matchCount > 0)
+                    return true;
+            };
+        };
+        return false;
+    };
+
+
+    // Index all spans of a document and find all matches
+    private void collectDocument (int doc) throws IOException {
+        this.matchDoc = doc;
+
+        // Index the elements
+        this.elements.clear();
+        do {
+            this.elements.add(this.wrapSpans.start(), this.wrapSpans.end(),
+                    this.collectPayloads ? copy(this.wrapSpans.getPayload())
+                            : null);
+        } while ((this.moreWrap = this.wrapSpans.next())
+                && this.wrapSpans.doc() == doc);
+        this.elements.build();
+
+        // Collect the embedded spans
+        this.embeddedCount = 0;
+        this.embeddedPayloads.clear();
+        do {
+            if (this.embeddedCount == this.embeddedStarts.length) {
+                this.embeddedStarts = ArrayUtil.grow(this.embeddedStarts,
+                        this.embeddedCount + 1);
+                this.embeddedEnds = ArrayUtil.grow(this.embeddedEnds,
+                        this.embeddedCount + 1);
+            };
+            this.embeddedStarts[this.embeddedCount] = this.embeddedSpans
+                    .start();
+            this.embeddedEnds[this.embeddedCount] = this.embeddedSpans.end();
+            if (this.collectPayloads) {
+                this.embeddedPayloads.add(this.embeddedSpans
+                        .isPayloadAvailable()
+                                ? copy(this.embeddedSpans.getPayload())
+                                : null);
+            };
+            this.embeddedCount++;
+        } while ((this.moreEmbedded = this.embeddedSpans.next())
+                && this.embeddedSpans.doc() == doc);
+
+        // Find the containing elements per embedded span
+        for (int i = 0; i < this.embeddedCount; i++) {
+            final int start = this.embeddedStarts[i];
+            final int end = this.embeddedEnds[i];
+            final long embedded = i;
+            this.elements.forEachContaining(start, end, element -> {
+                if (this.satisfies(element, start, end))
+                    this.addMatch(((long) element << 32) | embedded);
+            });
+        };
+
+        // Order by elements and embedded spans
+        Arrays.sort(this.matches, 0, this.matchCount);
+
+        if (DEBUG)
+            log.trace("Found {} matches in {} elements of doc {}",
+                    this.matchCount, this.elements.size(), doc);
+    };
+
+
+    // Check the condition for an element containing the span
+    private boolean satisfies (int element, int start, int end) {
+        final boolean sameStart = this.elements.start(element) == start;
+        final boolean sameEnd = this.elements.end(element) == end;
+
+        switch (this.flag) {
+            case WithinSpans.REAL_WITHIN:
+                return !(sameStart && sameEnd);
+            case WithinSpans.MATCH:
+                return sameStart && sameEnd;
+            case WithinSpans.STARTSWITH:
+                return sameStart;
+            case WithinSpans.ENDSWITH:
+                return sameEnd;
+        };
+        return true;
+    };
+
+
+    private void addMatch (long match) {
+        if (this.matchCount == this.matches.length)
+            this.matches = ArrayUtil.grow(this.matches, this.matchCount + 1);
+        this.matches[this.matchCount++] = match;
+    };
+
+
+    private void setMatch (long match) {
+        final int element = (int) (match >>> 32);
+        final int embedded = (int) match;
+
+        this.matchStart = this.elements.start(element);
+        this.matchEnd = this.elements.end(element);
+        this.matchPayload.clear();
+
+        if (this.collectPayloads) {
+            if (this.embeddedPayloads.get(embedded) != null)
+                this.matchPayload.addAll(this.embeddedPayloads.get(embedded));
+            if (this.elements.payload(element) != null)
+                this.matchPayload.addAll(this.elements.payload(element));
+        };
+    };
+
+
+    // Copy a payload, as spans may reuse their payload collections
+    private static Collection<byte[]> copy (Collection<byte[]> payload) {
+        if (payload == null || payload.isEmpty())
+            return null;
+        return new ArrayList<byte[]>(payload);
+    };
+
+
+    @Override
+    public int doc () {
+        return this.matchDoc;
+    };
+
+
+    @Override
+    public int start () {
+        return this.matchStart;
+    };
+
+
+    @Override
+    public int end () {
+        return this.matchEnd;
+    };
+
+
+    @Override
+    public Collection<byte[]> getPayload () throws IOException {
+        return this.matchPayload;
+    };
+
+
+    @Override
+    public boolean isPayloadAvailable () {
+        return !this.matchPayload.isEmpty();
+    };
+
+
+    @Override
+    public long cost () {
+        return this.wrapSpans.cost() + this.embeddedSpans.cost();
+    };
+
+
+    @Override
+    public String toString () {
+        return getClass().getName() + "(" + this.query.toString() + ")@"
+                + (this.matchDoc + ":" + this.matchStart + "-"
+                        + this.matchEnd);
+    };
+};
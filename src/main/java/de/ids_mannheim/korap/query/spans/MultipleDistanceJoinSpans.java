@@ -0,0 +1,496 @@
+package de.ids_mannheim.korap.query.spans;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+
+import de.ids_mannheim.korap.query.DistanceConstraint;
+import de.ids_mannheim.korap.query.SpanMultipleDistanceQuery;
+
+/**
+ * Span enumeration of matches whose two sub-spans satisfy all
+ * {@link DistanceConstraint DistanceConstraints} of a
+ * {@link SpanMultipleDistanceQuery} at once.
+ *
+ * Instead of evaluating a {@link DistanceSpans} per constraint, each
+ * reading and buffering both sub-spans again, and merging their
+ * matches in {@link MultipleDistanceSpans}, the sub-spans and the
+ * elements of the constraints are read once per document.
+ * The pairs of sub-spans are enumerated in a single sweep, with all
+ * constraints used as windows to drop sub-spans that can't be part
+ * of any further pair.
+ *
+ * Only ordered queries with ordered constraints without exclusion
+ * and at least one token distance are supported (see
+ * {@link #supports(List, boolean)}), as for these the join yields
+ * the same matches as the nested evaluation.
+ * The match positions and payloads follow the first constraint.
+ * Matches are enumerated in the order of the second sub-spans.
+ */
+public class MultipleDistanceJoinSpans extends SimpleSpans {
+
+    // This advices the java compiler to ignore all loggings
+    public static final boolean DEBUG = false;
+
+    private final List<DistanceConstraint> constraints;
+
+    // Element spans per constraint, null for token constraints
+    private final Spans[] elements;
+    private final boolean[] hasMoreElements;
+    private final ElementIntervals intervals = new ElementIntervals();
+
+    private boolean initialized = false;
+    private boolean hasMoreFirstSpans = false, hasMoreSecondSpans = false;
+
+    // Sub-spans of the current document
+    private final Operand first, second;
+
+    // Matches of the current document as pairs of sub-spans
+    private int matchCount = 0, matchIndex = 0;
+    private int[] matchFirst = new int[16], matchSecond = new int[16],
+            matchStarts = new int[16], matchEnds = new int[16];
+
+
+    /**
+     * Constructs MultipleDistanceJoinSpans for the two sub-spans of
+     * the given {@link SpanMultipleDistanceQuery}.
+     *
+     * @param query
+     *            a SpanMultipleDistanceQuery
+     * @param context
+     * @param acceptDocs
+     * @param termContexts
+     * @throws IOException
+     */
+    public MultipleDistanceJoinSpans (SpanMultipleDistanceQuery query,
+                                      LeafReaderContext context,
+                                      Bits acceptDocs,
+                                      Map<Term, TermContext> termContexts)
+            throws IOException {
+        super(query, context, acceptDocs, termContexts);
+        this.constraints = query.getConstraints();
+
+        final int size = this.constraints.size();
+        this.elements = new Spans[size];
+        this.hasMoreElements = new boolean[size];
+        for (int c = 0; c < size; c++) {
+            final DistanceConstraint constraint = this.constraints.get(c);
+            if (constraint.getElementQuery() != null) {
+                this.elements[c] = constraint.getElementQuery()
+                        .getSpans(context, acceptDocs, termContexts);
+            };
+        };
+
+        this.first = new Operand(size);
+        this.second = new Operand(size);
+    };
+
+
+    /**
+     * Check if the constraints can be evaluated in a single join.
+     *
+     * @param constraints
+     *            The list of {@link DistanceConstraint
+     *            DistanceConstraints}.
+     * @param isOrdered
+     *            <code>true</code> if the sub-spans of the query
+     *            must occur in order.
+     * @return <code>true</code> if the query and all constraints
+     *         are ordered, no constraint is an exclusion and at
+     *         least one constraint is a token distance.
+     */
+    public static boolean supports (List<DistanceConstraint> constraints,
+            boolean isOrdered) {
+        if (!isOrdered || constraints == null || constraints.isEmpty())
+            return false;
+
+        boolean hasTokenDistance = false;
+        for (DistanceConstraint constraint : constraints) {
+            if (constraint.isExclusion() || !constraint.isOrdered())
+                return false;
+            if (constraint.getElementQuery() == null)
+                hasTokenDistance = true;
+        };
+        return hasTokenDistance;
+    };
+
+
+    @Override
+    public boolean next () throws IOException {
+        if (!this.initialized)
+            this.initialize();
+
+        isStartEnumeration = false;
+
+        while (this.matchIndex >= this.matchCount) {
+            if (!this.nextDocument()) {
+                hasMoreSpans = false;
+                matchDocNumber = DocIdSetIterator.NO_MORE_DOCS;
+                matchPayload.clear();
+                return false;
+            };
+        };
+
+        this.setMatch(this.matchIndex++);
+        return true;
+    };
+
+
+    @Override
+    public boolean skipTo (int target) throws IOException {
+        if (DEBUG)
+            log.trace("Skip MultipleDistanceJoinSpans {} -> {}",
+                    matchDocNumber, target);
+
+        // There may be further matches in the current document
+        if (matchDocNumber >= target)
+            return this.next();
+
+        this.matchCount = 0;
+        this.matchIndex = 0;
+
+        if (!this.initialized)
+            this.initialize();
+
+        if (this.hasMoreFirstSpans && firstSpans.doc() < target)
+            this.hasMoreFirstSpans = firstSpans.skipTo(target);
+
+        if (this.hasMoreSecondSpans && secondSpans.doc() < target)
+            this.hasMoreSecondSpans = secondSpans.skipTo(target);
+
+        return this.next();
+    };
+
+
+    private void initialize () throws IOException {
+        this.initialized = true;
+        this.hasMoreFirstSpans = firstSpans.next();
+        this.hasMoreSecondSpans = secondSpans.next();
+        hasMoreSpans = this.hasMoreFirstSpans && this.hasMoreSecondSpans;
+
+        for (int c = 0; c < this.elements.length; c++) {
+            if (this.elements[c] != null)
+                this.hasMoreElements[c] = this.elements[c].next();
+        };
+    };
+
+
+    // Move to the next document with matches
+    private boolean nextDocument () throws IOException {
+        this.matchCount = 0;
+        this.matchIndex = 0;
+
+        while (this.hasMoreFirstSpans && this.hasMoreSecondSpans) {
+            final int firstDoc = firstSpans.doc();
+            final int secondDoc = secondSpans.doc();
+
+            if (firstDoc < secondDoc) {
+                this.hasMoreFirstSpans = firstSpans.skipTo(secondDoc);
+            }
+            else if (secondDoc < firstDoc) {
+                this.hasMoreSecondSpans = secondSpans.skipTo(firstDoc);
+            }
+            else {
+                this.collectDocument(firstDoc);
+                if (this.matchCount > 0)
+                    return true;
+            };
+        };
+        return false;
+    };
+
+
+    // Read all sub-spans of a document and join them
+    private void collectDocument (int doc) throws IOException {
+        matchDocNumber = doc;
+
+        this.first.clear();
+        do {
+            this.first.add(firstSpans.start(), firstSpans.end(),
+                    this.copyPayload(firstSpans));
+        } while ((this.hasMoreFirstSpans = firstSpans.next())
+                && firstSpans.doc() == doc);
+
+        this.second.clear();
+        do {
+            this.second.add(secondSpans.start(), secondSpans.end(),
+                    this.copyPayload(secondSpans));
+        } while ((this.hasMoreSecondSpans = secondSpans.next())
+                && secondSpans.doc() == doc);
+
+        // Number the sub-spans by their elements
+        for (int c = 0; c < this.elements.length; c++) {
+            if (this.elements[c] == null)
+                continue;
+
+            this.intervals.clear();
+            if (this.hasMoreElements[c] && this.elements[c].doc() < doc)
+                this.hasMoreElements[c] = this.elements[c].skipTo(doc);
+
+            while (this.hasMoreElements[c] && this.elements[c].doc() == doc) {
+                this.intervals.add(this.elements[c].start(),
+                        this.elements[c].end(), null);
+                this.hasMoreElements[c] = this.elements[c].next();
+            };
+            this.intervals.build();
+
+            this.first.locate(c, this.intervals);
+            this.second.locate(c, this.intervals);
+        };
+
+        this.join();
+
+        if (DEBUG)
+            log.trace("Found {} matches for {} x {} sub-spans in doc {}",
+                    this.matchCount, this.first.count, this.second.count,
+                    doc);
+    };
+
+
+    // Join the sub-spans per second sub-span,
+    // with candidates starting before its end
+    private void join () {
+        int next = 0;
+        for (int s = 0; s < this.second.count; s++) {
+            if (!this.second.isLocated(s))
+                continue;
+
+            while (next < this.first.count
+                    && this.first.starts[next] < this.second.ends[s]) {
+                if (this.first.isLocated(next))
+                    this.first.activate(next);
+                next++;
+            };
+
+            this.first.retain(this.second, s);
+
+            for (int a = 0; a < this.first.activeCount; a++) {
+                final int f = this.first.active[a];
+                if (this.matches(f, s)) {
+                    if (this.isDistanceZero(f, s)) {
+                        this.addMatch(f, s,
+                                Math.min(this.first.starts[f],
+                                        this.second.starts[s]),
+                                Math.max(this.first.ends[f],
+                                        this.second.ends[s]));
+                    }
+                    else {
+                        this.addMatch(f, s, this.first.starts[f],
+                                this.second.ends[s]);
+                    };
+                };
+            };
+        };
+    };
+
+
+    // Check all constraints for an ordered pair of sub-spans,
+    // like TokenDistanceSpans and ElementDistanceSpans
+    private boolean matches (int f, int s) {
+        for (int c = 0; c < this.elements.length; c++) {
+            final int min = this.constraints.get(c).getMinDistance();
+            final int max = this.constraints.get(c).getMaxDistance();
+
+            // Token distance
+            if (this.elements[c] == null) {
+                if (min == 0 && this.overlap(f, s))
+                    continue;
+
+                final int distance = this.second.starts[s]
+                        - this.first.ends[f] + 1;
+                if (this.first.starts[f] >= this.second.starts[s]
+                        || distance < min || distance > max)
+                    return false;
+            }
+
+            // Element distance
+            else {
+                final int distance = this.second.positions[c][s]
+                        - this.first.positions[c][f];
+                if (distance < min || distance > max)
+                    return false;
+            };
+        };
+        return true;
+    };
+
+
+    // The match spans both sub-spans in case the
+    // first constraint is satisfied with a zero distance
+    private boolean isDistanceZero (int f, int s) {
+        if (this.constraints.get(0).getMinDistance() != 0)
+            return false;
+
+        if (this.elements[0] == null)
+            return this.overlap(f, s);
+
+        return this.first.positions[0][f] == this.second.positions[0][s];
+    };
+
+
+    private boolean overlap (int f, int s) {
+        return this.first.starts[f] < this.second.ends[s]
+                && this.second.starts[s] < this.first.ends[f];
+    };
+
+
+    // Check if a preceding sub-span of one operand
+    // can't be paired with the current or any following sub-span
+    // of the other operand
+    private boolean isOutOfReach (Operand preceding, int p, Operand current,
+            int x) {
+        for (int c = 0; c < this.elements.length; c++) {
+            final int max = this.constraints.get(c).getMaxDistance();
+            if (this.elements[c] == null) {
+                if (preceding.ends[p] + max <= current.starts[x])
+                    return true;
+            }
+            else if (preceding.positions[c][p] + max < current.positions[c][x]) {
+                return true;
+            };
+        };
+        return false;
+    };
+
+
+    private void addMatch (int f, int s, int start, int end) {
+        if (this.matchCount == this.matchFirst.length) {
+            this.matchFirst = ArrayUtil.grow(this.matchFirst,
+                    this.matchCount + 1);
+            this.matchSecond = ArrayUtil.grow(this.matchSecond,
+                    this.matchCount + 1);
+            this.matchStarts = ArrayUtil.grow(this.matchStarts,
+                    this.matchCount + 1);
+            this.matchEnds = ArrayUtil.grow(this.matchEnds,
+                    this.matchCount + 1);
+        };
+        this.matchFirst[this.matchCount] = f;
+        this.matchSecond[this.matchCount] = s;
+        this.matchStarts[this.matchCount] = start;
+        this.matchEnds[this.matchCount] = end;
+        this.matchCount++;
+    };
+
+
+    private void setMatch (int i) {
+        matchStartPosition = this.matchStarts[i];
+        matchEndPosition = this.matchEnds[i];
+        matchPayload.clear();
+
+        if (!collectPayloads)
+            return;
+
+        final int f = this.matchFirst[i];
+        final int s = this.matchSecond[i];
+
+        this.first.addPayload(f, matchPayload);
+        this.second.addPayload(s, matchPayload);
+    };
+
+
+    // Copy a payload, as spans may reuse their payload collections
+    private Collection<byte[]> copyPayload (Spans spans) throws IOException {
+        if (!collectPayloads || !spans.isPayloadAvailable())
+            return null;
+        return new ArrayList<byte[]>(spans.getPayload());
+    };
+
+
+    @Override
+    public long cost () {
+        return firstSpans.cost() + secondSpans.cost();
+    };
+
+
+    // Sub-spans of one operand in the current document
+    private class Operand {
+        private int count = 0;
+        private int[] starts = new int[16], ends = new int[16];
+        private final List<Collection<byte[]>> payloads = new ArrayList<Collection<byte[]>>();
+
+        // Element positions per constraint
+        private final int[][] positions;
+
+        // Sub-spans still in reach of the other operand
+        private int activeCount = 0;
+        private int[] active = new int[16];
+
+
+        private Operand (int constraints) {
+            this.positions = new int[constraints][16];
+        };
+
+
+        private void clear () {
+            this.count = 0;
+            this.activeCount = 0;
+            this.payloads.clear();
+        };
+
+
+        private void add (int start, int end, Collection<byte[]> payload) {
+            this.starts = ArrayUtil.grow(this.starts, this.count + 1);
+            this.ends = ArrayUtil.grow(this.ends, this.count + 1);
+            for (int c = 0; c < this.positions.length; c++)
+                this.positions[c] = ArrayUtil.grow(this.positions[c],
+                        this.count + 1);
+
+            this.starts[this.count] = start;
+            this.ends[this.count] = end;
+            this.payloads.add(payload);
+            this.count++;
+        };
+
+
+        // Number the sub-spans by the first element containing them
+        private void locate (int c, ElementIntervals intervals) {
+            for (int i = 0; i < this.count; i++)
+                this.positions[c][i] = intervals.firstContaining(
+                        this.starts[i], this.ends[i]);
+        };
+
+
+        // Sub-spans not in an element of a constraint never match
+        private boolean isLocated (int i) {
+            for (int c = 0; c < this.positions.length; c++) {
+                if (elements[c] != null && this.positions[c][i] == -1)
+                    return false;
+            };
+            return true;
+        };
+
+
+        private void activate (int i) {
+            this.active = ArrayUtil.grow(this.active, this.activeCount + 1);
+            this.active[this.activeCount++] = i;
+        };
+
+
+        // Drop all active sub-spans out of reach of
+        // the sub-span of the other operand
+        private void retain (Operand other, int x) {
+            int kept = 0;
+            for (int a = 0; a < this.activeCount; a++) {
+                if (!isOutOfReach(this, this.active[a], other, x))
+                    this.active[kept++] = this.active[a];
+            };
+            this.activeCount = kept;
+        };
+
+
+        private void addPayload (int i, Collection<byte[]> payload) {
+            if (this.payloads.get(i) != null)
+                payload.addAll(this.payloads.get(i));
+        };
+    };
+};
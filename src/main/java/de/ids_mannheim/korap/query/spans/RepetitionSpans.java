@@ -3,14 +3,13 @@ package de.ids_mannheim.korap.query.spans;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermContext;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.Bits;
 
 import de.ids_mannheim.korap.query.SpanRepetitionQuery;
@@ -21,7 +20,18 @@ import org.slf4j.LoggerFactory;
 /**
  * Enumeration of spans occurring multiple times in a sequence. The
  * number of repetition depends on the min and max parameters.
- * 
+ *
+ * Adjacent firstspans are collected in a chain, spans skipped by
+ * the chain are kept as candidates for subsequent chains.
+ * Positions of chains and candidates are stored in primitive
+ * arrays, that are consumed by moving indices.
+ *
+ * The matches of a chain with a certain number of repetitions
+ * are ordered by their start and end positions, so the matches
+ * are emitted lazily by merging these runs, one run per number
+ * of repetitions. The payloads of matches are only collected,
+ * once a match is emitted.
+ *
  * @author margaretha
  */
 public class RepetitionSpans extends SimpleSpans {
@@ -33,15 +43,31 @@ public class RepetitionSpans extends SimpleSpans {
     public static final boolean DEBUG = false;
 
     private int min, max;
-    private long matchCost;
-    private List<CandidateSpan> matchList;
-    private List<CandidateSpan> candidates;
+
+    // Spans not being part of a chain, in the order of the firstspans
+    private int candidateHead = 0, candidateCount = 0;
+    private int[] candidateDocs = new int[16],
+            candidateStarts = new int[16], candidateEnds = new int[16];
+    private List<Collection<byte[]>> candidatePayloads;
+
+    // Chain of adjacent spans in a document
+    private int chainDoc, chainLength = 0;
+    private boolean chainHasPayloads;
+    private int[] chainStarts = new int[16], chainEnds = new int[16];
+    private List<Collection<byte[]>> chainPayloads;
+
+    // Runs of matches of the current chain as a heap of
+    // repetition numbers, ordered by the next match of the run.
+    // The next match of a run starts at the chain index runNext
+    // (by repetition number - min)
+    private int runCount = 0;
+    private int[] runs = new int[16], runNext = new int[16];
 
 
     /**
      * Constructs RepetitionSpans from the given
      * {@link SpanRepetitionQuery}.
-     * 
+     *
      * @param query
      *            a SpanRepetitionQuery
      * @param context
@@ -56,8 +82,10 @@ public class RepetitionSpans extends SimpleSpans {
         super(query, context, acceptDocs, termContexts);
         this.min = query.getMin();
         this.max = query.getMax();
-        matchList = new ArrayList<CandidateSpan>();
-        candidates = new ArrayList<CandidateSpan>();
+        if (collectPayloads) {
+            candidatePayloads = new ArrayList<Collection<byte[]>>();
+            chainPayloads = new ArrayList<Collection<byte[]>>();
+        }
         hasMoreSpans = firstSpans.next();
     }
 
@@ -71,10 +99,10 @@ public class RepetitionSpans extends SimpleSpans {
 
 
     /**
-     * Advances the RepetitionSpans to the next match by setting the
-     * first element in the matchlist as the current match. When the
-     * matchlist is empty, it has to be set first.
-     * 
+     * Advances the RepetitionSpans to the next match of the current
+     * chain. When all matches of the chain are consumed, the next
+     * chain is collected.
+     *
      * @return <code>true</code> if a match is found,
      *         <code>false</code>
      *         otherwise.
@@ -82,234 +110,240 @@ public class RepetitionSpans extends SimpleSpans {
      */
     private boolean advance () throws IOException {
 
-        while (hasMoreSpans || !matchList.isEmpty()) {
-            if (!matchList.isEmpty()) {
-
-                // Take the first element of the matchlist
-                setMatchProperties(matchList.get(0));
-                matchList.remove(0);
-               
+        while (hasMoreSpans || runCount > 0) {
+            if (runCount > 0) {
+                setMatchProperties();
                 return true;
             }
-            matchCost = 0;
-
-            List<CandidateSpan> adjacentSpans = collectAdjacentSpans();
 
-            setMatchList(adjacentSpans);
+            collectAdjacentSpans();
+            setMatchList();
         }
         return false;
     }
 
 
     /**
-     * Collects all adjacent firstspans occurring in a sequence 
-     * in the same document.
-     * 
-     * @return a list of the adjacent spans
+     * Collects all adjacent firstspans occurring in a sequence
+     * in the same document, starting with the first candidate
+     * or the current firstspan.
+     *
      * @throws IOException
      */
-    private List<CandidateSpan> collectAdjacentSpans () throws IOException {
-
-        CandidateSpan startSpan;
-        if (!candidates.isEmpty()) {
-            startSpan = candidates.get(0);
-            candidates.remove(0);
+    private void collectAdjacentSpans () throws IOException {
+        chainLength = 0;
+        chainHasPayloads = false;
+        if (chainPayloads != null)
+            chainPayloads.clear();
+
+        if (candidateHead < candidateCount) {
+            chainDoc = candidateDocs[candidateHead];
+            addCandidateToChain(candidateHead++);
         }
         else {
-            startSpan = new CandidateSpan(firstSpans);
+            chainDoc = firstSpans.doc();
+            addToChain(firstSpans.start(), firstSpans.end(), payload());
         }
 
-        List<CandidateSpan> adjacentSpans = new ArrayList<CandidateSpan>();
-        adjacentSpans.add(startSpan);
-
-        CandidateSpan prevSpan = startSpan;
-
-        int i = 0;
-        while (i < candidates.size()) {
-            CandidateSpan cs = candidates.get(i);
-            if (cs.getStart() > prevSpan.getEnd()) {
+        for (int i = candidateHead; i < candidateCount; i++) {
+            if (candidateStarts[i] > chainEnd()) {
                 break;
             }
-            else if (startSpan.getDoc() == cs.getDoc()
-                    && cs.getStart() == prevSpan.getEnd()) {
-                prevSpan = cs;
-                adjacentSpans.add(prevSpan);
+            else if (chainDoc == candidateDocs[i]
+                    && candidateStarts[i] == chainEnd()) {
+                addCandidateToChain(i);
             }
-            i++;
         }
+
         while ((hasMoreSpans = firstSpans.next())
-               && startSpan.getDoc() == firstSpans.doc()) {
+               && chainDoc == firstSpans.doc()) {
 
             if (DEBUG) {
-                log.debug("Check adjacency of rep-spans at {}-{}|{}-{} in {}={}={}",
-                          prevSpan.getStart(), prevSpan.getEnd(),
-                          firstSpans.start(), firstSpans.end(),
-                          startSpan.getDoc(), firstSpans.doc(), prevSpan.getDoc());
+                log.debug("Check adjacency of rep-spans at {}|{}-{} in {}",
+                          chainEnd(), firstSpans.start(), firstSpans.end(),
+                          chainDoc);
             };
 
-            if (firstSpans.start() > prevSpan.getEnd()) {
-                candidates.add(new CandidateSpan(firstSpans));
+            if (firstSpans.start() > chainEnd()) {
+                addCandidate();
                 break;
             }
-
-            /*
-             * ND: This seems to be suboptimal, in cases of searching
-             *     for "ab{2,3}c" and a match like "abbbbbbbbbbbbbbbbbbbbbbbbbbc".
-             */
-            else if (firstSpans.start() == prevSpan.getEnd()) {
-                prevSpan = new CandidateSpan(firstSpans);
-                adjacentSpans.add(prevSpan);
+            else if (firstSpans.start() == chainEnd()) {
+                addToChain(firstSpans.start(), firstSpans.end(), payload());
             }
 
-            // firstSpan.start() < prevSpan.getEnd()
+            // firstSpan.start() < chainEnd()
             else {
-                candidates.add(new CandidateSpan(firstSpans));
+                addCandidate();
             }
         }
-        return adjacentSpans;
     }
 
 
     /**
-     * Generates all possible repetition match spans from the given
-     * list of adjacent spans and add them to the match list.
-     * 
-     * @param adjacentSpans
+     * Starts the runs of all possible repetition matches of the
+     * current chain, one run per number of repetitions.
      */
-    private void setMatchList (List<CandidateSpan> adjacentSpans) {
-        CandidateSpan startSpan, endSpan, matchSpan;
-        
-        for (int i = min; i < max + 1; i++) {
-            int j = 0;
-            int endIndex;
-            while ((endIndex = j + i - 1) < adjacentSpans.size()) {
-                startSpan = adjacentSpans.get(j);
-
-                if (i == 1) {
-                    try {
-                        matchSpan = startSpan.clone();
-                        matchSpan.setPayloads(computeMatchPayload(adjacentSpans,
-                                0, endIndex - 1));
-
-                        if (DEBUG) {
-                            log.debug("1. Add span to matchlist: {}-{} at {}",
-                                      matchSpan.getStart(),
-                                      matchSpan.getEnd(),
-                                      matchSpan.getDoc());
-                        };
-
-                        matchList.add(matchSpan);
-                    }
-                    catch (CloneNotSupportedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                else {
-                    endSpan = adjacentSpans.get(endIndex);
-                    matchSpan = new CandidateSpan(
-                        startSpan.getStart(),
-                        endSpan.getEnd(),
-                        startSpan.getDoc(),
-                        computeMatchCost(adjacentSpans, 0, endIndex),
-                        computeMatchPayload(adjacentSpans, 0, endIndex)
-                        );
-                    //System.out.println("c:"+matchSpan.getCost() +" p:"+ matchSpan.getPayloads().size());
-                    //System.out.println(startSpan.getStart() +","+endSpan.getEnd());
-
-                    if (DEBUG) {
-                        log.debug("2. Add span to matchlist: {}-{} at {}={}",
-                                  matchSpan.getStart(),
-                                  matchSpan.getEnd(),
-                                  matchSpan.getDoc(),
-                                  endSpan.getDoc());
-                    };
-                    
-                    matchList.add(matchSpan);
-                }
-                j++;
-            }
+    private void setMatchList () {
+        runCount = 0;
+
+        final int maxRepetition = Math.min(max, chainLength);
+        if (maxRepetition - min + 1 > runNext.length) {
+            runNext = ArrayUtil.grow(runNext, maxRepetition - min + 1);
+            runs = ArrayUtil.grow(runs, maxRepetition - min + 1);
         }
 
-        Collections.sort(matchList);
+        // Runs are ordered by their first matches
+        for (int i = min; i <= maxRepetition; i++) {
+            runNext[i - min] = 0;
+            runs[runCount++] = i;
+        }
     }
 
 
-    /**
-     * Creates payloads by adding all the payloads of some adjacent
-     * spans, that
-     * are all spans in the given list whose index is between the
-     * start and end
-     * index (including those with these indexes).
-     * 
-     * @param adjacentSpans
-     *            a list of adjacentSpans
-     * @param start
-     *            the start index representing the first adjacent span
-     *            in the
-     *            list to be computed
-     * @param end
-     *            the end index representing the last adjacent span in
-     *            the list
-     *            to be computed
-     * @return payloads
-     */
-    private Collection<byte[]> computeMatchPayload (
-            List<CandidateSpan> adjacentSpans, int start, int end) {
-        Collection<byte[]> payload = new ArrayList<byte[]>();
-        for (int i = start; i <= end; i++) {
-            payload.addAll(adjacentSpans.get(i).getPayloads());
+    // Tell if the next match of the first run precedes the next
+    // match of the second run. Matches with the same positions
+    // are ordered by the number of repetitions
+    private boolean precedes (int run, int other) {
+        final int start = chainStarts[runNext[run - min]],
+                otherStart = chainStarts[runNext[other - min]];
+        if (start != otherStart)
+            return start < otherStart;
+
+        final int end = chainEnds[runNext[run - min] + run - 1],
+                otherEnd = chainEnds[runNext[other - min] + other - 1];
+        if (end != otherEnd)
+            return end < otherEnd;
+
+        return run < other;
+    }
+
+
+    // Move the first run down the heap after its next match changed
+    private void siftDown () {
+        final int run = runs[0];
+        int pos = 0;
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= runCount)
+                break;
+            if (child + 1 < runCount && precedes(runs[child + 1], runs[child]))
+                child++;
+            if (!precedes(runs[child], run))
+                break;
+            runs[pos] = runs[child];
+            pos = child;
         }
-        return payload;
+        runs[pos] = run;
     }
 
 
-    /**
-     * Computes the matchcost by adding all the cost of the adjacent
-     * spans
-     * between the start and end index in the given list.
-     * 
-     * @param adjacentSpans
-     *            a list of adjacent spans
-     * @param start
-     *            the start index
-     * @param end
-     *            the end index
-     * @return
-     */
-    private long computeMatchCost (List<CandidateSpan> adjacentSpans, int start,
-            int end) {
-        long matchCost = 0;
-        for (int i = start; i <= end; i++) {
-            matchCost += adjacentSpans.get(i).getCost();
+    // The end position of the last span of the chain
+    private int chainEnd () {
+        return chainEnds[chainLength - 1];
+    }
+
+
+    private void addToChain (int start, int end, Collection<byte[]> payload) {
+        if (chainLength == chainStarts.length) {
+            chainStarts = ArrayUtil.grow(chainStarts, chainLength + 1);
+            chainEnds = ArrayUtil.grow(chainEnds, chainLength + 1);
+        }
+        chainStarts[chainLength] = start;
+        chainEnds[chainLength++] = end;
+
+        if (chainPayloads != null) {
+            chainPayloads.add(payload);
+            if (payload != null && !payload.isEmpty())
+                chainHasPayloads = true;
+        }
+    }
+
+
+    private void addCandidateToChain (int candidate) {
+        addToChain(candidateStarts[candidate], candidateEnds[candidate],
+                candidatePayloads != null ? candidatePayloads.get(candidate)
+                        : null);
+    }
+
+
+    // Add the current firstspan as a candidate
+    private void addCandidate () throws IOException {
+
+        // Reuse the space of consumed candidates
+        if (candidateHead == candidateCount) {
+            candidateHead = 0;
+            candidateCount = 0;
+            if (candidatePayloads != null)
+                candidatePayloads.clear();
+        }
+
+        if (candidateCount == candidateStarts.length) {
+            candidateDocs = ArrayUtil.grow(candidateDocs, candidateCount + 1);
+            candidateStarts = ArrayUtil.grow(candidateStarts,
+                    candidateCount + 1);
+            candidateEnds = ArrayUtil.grow(candidateEnds, candidateCount + 1);
         }
-        return matchCost;
+        candidateDocs[candidateCount] = firstSpans.doc();
+        candidateStarts[candidateCount] = firstSpans.start();
+        candidateEnds[candidateCount++] = firstSpans.end();
+
+        if (candidatePayloads != null)
+            candidatePayloads.add(payload());
+    }
+
+
+    // Copy the payload of the current firstspan
+    private Collection<byte[]> payload () throws IOException {
+        if (!collectPayloads || !firstSpans.isPayloadAvailable())
+            return null;
+
+        Collection<byte[]> payload = new ArrayList<byte[]>();
+        for (byte[] b : firstSpans.getPayload())
+            payload.add(b == null ? null : b.clone());
+        return payload;
     }
 
 
     /**
-     * Sets properties for the current match from the given candidate
-     * span.
-     * 
-     * @param candidateSpan
-     *            the match candidate span
-     * @throws IOException
+     * Sets properties for the current match from the next match
+     * of the first run and advances the run.
      */
-    private void setMatchProperties (CandidateSpan candidateSpan)
-            throws IOException {
+    private void setMatchProperties () {
+        final int repetition = runs[0];
+        final int first = runNext[repetition - min];
+        final int last = first + repetition - 1;
+
+        matchDocNumber = chainDoc;
+        matchStartPosition = chainStarts[first];
+        matchEndPosition = chainEnds[last];
 
         if (DEBUG) {
             log.debug("Set match properties to {}-{} at {}",
-                      candidateSpan.getStart(),
-                      candidateSpan.getEnd(),
-                      candidateSpan.getDoc()                              
-                );
+                      matchStartPosition,
+                      matchEndPosition,
+                      matchDocNumber);
         };
-        matchDocNumber = candidateSpan.getDoc();
-        matchStartPosition = candidateSpan.getStart();
-        matchEndPosition = candidateSpan.getEnd();
-        if (collectPayloads && candidateSpan.getPayloads() != null) {
-            matchPayload.addAll(candidateSpan.getPayloads());
+
+        // Payloads of the chain up to the match
+        if (collectPayloads && chainHasPayloads) {
+            final int payloadEnd = (repetition == 1) ? last : last + 1;
+            for (int i = 0; i < payloadEnd; i++) {
+                Collection<byte[]> payload = chainPayloads.get(i);
+                if (payload != null)
+                    matchPayload.addAll(payload);
+            }
         }
+
+        // Advance the run
+        if (last + 1 < chainLength) {
+            runNext[repetition - min]++;
+        }
+        else {
+            runs[0] = runs[--runCount];
+        }
+        if (runCount > 0)
+            siftDown();
     }
 
 
@@ -321,19 +355,18 @@ public class RepetitionSpans extends SimpleSpans {
         matchDocNumber = -1;
         matchStartPosition = -1;
         matchEndPosition = -1;
-        if (!candidates.isEmpty()) {
-            Iterator<CandidateSpan> i = candidates.iterator();
-            while (i.hasNext()) {
-                CandidateSpan cs = i.next();
-                if (cs.getDoc() < target) {
-                    i.remove();
-                }
-                else if (cs.getDoc() == target) {
-                    matchList.clear();
-                    return advance();
-                }
-            }
+
+        // Candidates are ordered by document
+        while (candidateHead < candidateCount
+                && candidateDocs[candidateHead] < target) {
+            candidateHead++;
+        }
+        if (candidateHead < candidateCount
+                && candidateDocs[candidateHead] == target) {
+            runCount = 0;
+            return advance();
         }
+
         if (hasMoreSpans && firstSpans.doc() < target) {
             if (!firstSpans.skipTo(target)) {
                 hasMoreSpans = false;
@@ -347,13 +380,13 @@ public class RepetitionSpans extends SimpleSpans {
                           firstSpans.end());
             };
         }
-        matchList.clear();
+        runCount = 0;
         return advance();
     }
 
 
     @Override
     public long cost () {
-        return matchCost;
+        return firstSpans.cost();
     }
 }
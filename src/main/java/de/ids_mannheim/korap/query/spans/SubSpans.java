@@ -166,11 +166,13 @@ public class SubSpans extends SimpleSpans {
         cs.getPayloads().clear();
 
         // Remove element payloads
-        for (byte[] payload : firstSpans.getPayload()) {
-            if ((payload[0] & ((byte) 64)) != 0) {
-                continue;
+        if (collectPayloads) {
+            for (byte[] payload : firstSpans.getPayload()) {
+                if ((payload[0] & ((byte) 64)) != 0) {
+                    continue;
+                };
+                cs.getPayloads().add(payload.clone());
             };
-            cs.getPayloads().add(payload.clone());
         };
 
         cs.setDoc(firstSpans.doc());
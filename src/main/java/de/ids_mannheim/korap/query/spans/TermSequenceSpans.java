@@ -0,0 +1,393 @@
+package de.ids_mannheim.korap.query.spans;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ids_mannheim.korap.query.SpanNextQuery;
+import de.ids_mannheim.korap.query.TermSequence;
+
+/**
+ * Match a {@link TermSequence}, i.e. terms at constant
+ * offsets, like a phrase.
+ *
+ * This is an alternative to nested {@link NextSpans} and
+ * {@link ExpandedSpans} for sequences of terms with fixed gaps.
+ * Instead of buffering candidates per operator, the documents
+ * of all terms are intersected, starting with the rarest term,
+ * and per document the positions of the rarest term are checked
+ * for the other terms at their offsets.
+ *
+ * Matches are ordered by their start positions. The payloads
+ * are identical to the payloads of the nested operators,
+ * including the classes of class queries and class expansions.
+ */
+public class TermSequenceSpans extends Spans {
+
+    // Logger
+    private final Logger log = LoggerFactory
+            .getLogger(TermSequenceSpans.class);
+
+    // This advices the java compiler to ignore all loggings
+    public static final boolean DEBUG = false;
+
+    private final SpanNextQuery query;
+    private final TermSequence sequence;
+    private final int length;
+
+    // Spans of the terms, null for classes
+    private final Spans[] termSpans;
+    private final boolean[] payloads;
+    private boolean collectPayloads = false;
+    private int anchor = -1;
+
+    private boolean initialized = false, more = true;
+
+    // Positions of the terms in the current document
+    private final int[] counts;
+    private final int[][] positions;
+    private final List<List<Collection<byte[]>>> termPayloads;
+
+    // Start positions of the matches in the current document
+    private int matchCount = 0, matchIndex = 0;
+    private int[] matches = new int[16];
+
+    private int matchDoc = -1, matchStart = -1, matchEnd = -1;
+    private final List<byte[]> matchPayload = new ArrayList<byte[]>();
+
+
+    /**
+     * Construct a new TermSequenceSpans object.
+     *
+     * @param spanNextQuery
+     *            The parental {@link SpanNextQuery}.
+     * @param sequence
+     *            The {@link TermSequence} recognized in the query.
+     * @param context
+     *            The {@link LeafReaderContext}.
+     * @param acceptDocs
+     *            Bit vector representing the documents
+     *            to be searched in.
+     * @param termContexts
+     *            A map managing term states.
+     */
+    public TermSequenceSpans (SpanNextQuery spanNextQuery,
+                              TermSequence sequence,
+                              LeafReaderContext context, Bits acceptDocs,
+                              Map<Term, TermContext> termContexts)
+            throws IOException {
+        this.query = spanNextQuery;
+        this.sequence = sequence;
+        this.length = sequence.getLength();
+
+        final int size = sequence.size();
+        this.termSpans = new Spans[size];
+        this.payloads = new boolean[size];
+        this.counts = new int[size];
+        this.positions = new int[size][];
+        this.termPayloads = new ArrayList<List<Collection<byte[]>>>(size);
+
+        long cost = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            this.termPayloads.add(null);
+
+            if (!sequence.isTerm(i)) {
+                this.collectPayloads = true;
+                continue;
+            };
+
+            this.termSpans[i] = sequence.getTerm(i).getSpans(context,
+                    acceptDocs, termContexts);
+            this.positions[i] = new int[16];
+
+            if (sequence.hasPayloads(i)) {
+                this.payloads[i] = true;
+                this.collectPayloads = true;
+                this.termPayloads.set(i,
+                        new ArrayList<Collection<byte[]>>());
+            };
+
+            // Anchor the sequence at the rarest term
+            if (this.termSpans[i].cost() < cost) {
+                cost = this.termSpans[i].cost();
+                this.anchor = i;
+            };
+        };
+    };
+
+
+    @Override
+    public boolean next () throws IOException {
+        if (!this.initialized) {
+            this.initialized = true;
+            for (Spans spans : this.termSpans) {
+                if (spans != null && !spans.next()) {
+                    this.more = false;
+                    break;
+                };
+            };
+        };
+
+        while (this.matchIndex >= this.matchCount) {
+            if (!this.nextDocument()) {
+                this.matchDoc = DocIdSetIterator.NO_MORE_DOCS;
+                return false;
+            };
+        };
+
+        this.setMatch(this.matches[this.matchIndex++]);
+        return true;
+    };
+
+
+    @Override
+    public boolean skipTo (int target) throws IOException {
+        if (DEBUG)
+            log.trace("Skip TermSequenceSpans {} -> {}", matchDoc, target);
+
+        // There may be further matches in the current document
+        if (this.matchDoc >= target)
+            return this.next();
+
+        this.matchCount = 0;
+        this.matchIndex = 0;
+
+        if (!this.initialized) {
+            this.initialized = true;
+            for (Spans spans : this.termSpans) {
+                if (spans != null && !spans.next()) {
+                    this.more = false;
+                    break;
+                };
+            };
+        };
+
+        if (this.more) {
+            for (Spans spans : this.termSpans) {
+                if (spans != null && spans.doc() < target
+                        && !spans.skipTo(target)) {
+                    this.more = false;
+                    break;
+                };
+            };
+        };
+
+        return this.next();
+    };
+
+
+    // Move to the next document with matches
+    private boolean nextDocument () throws IOException {
+        this.matchCount = 0;
+        this.matchIndex = 0;
+
+        while (this.more) {
+
+            // Align all terms to the same document
+            int doc = this.termSpans[this.anchor].doc();
+            boolean aligned = false;
+            while (!aligned) {
+                aligned = true;
+                for (Spans spans : this.termSpans) {
+                    if (spans == null)
+                        continue;
+
+                    if (spans.doc() < doc && !spans.skipTo(doc)) {
+                        this.more = false;
+                        return false;
+                    };
+
+                    if (spans.doc() > doc) {
+                        doc = spans.doc();
+                        aligned = false;
+                    };
+                };
+            };
+
+            this.collectDocument(doc);
+            if (this.matchCount > 0)
+                return true;
+        };
+        return false;
+    };
+
+
+    // Read all positions of the terms in the document
+    // and find all matches
+    private void collectDocument (int doc) throws IOException {
+        this.matchDoc = doc;
+
+        for (int i = 0; i < this.termSpans.length; i++) {
+            final Spans spans = this.termSpans[i];
+            if (spans == null)
+                continue;
+
+            final List<Collection<byte[]>> payload = this.termPayloads.get(i);
+            if (payload != null)
+                payload.clear();
+
+            int count = 0;
+            boolean hasNext;
+            do {
+                if (count == this.positions[i].length)
+                    this.positions[i] = ArrayUtil.grow(this.positions[i],
+                            count + 1);
+                this.positions[i][count++] = spans.start();
+
+                if (payload != null) {
+                    payload.add(spans.isPayloadAvailable()
+                            ? new ArrayList<byte[]>(spans.getPayload())
+                            : null);
+                };
+            } while ((hasNext = spans.next()) && spans.doc() == doc);
+
+            // The term is exhausted
+            if (!hasNext)
+                this.more = false;
+
+            this.counts[i] = count;
+        };
+
+        this.findMatches();
+
+        if (DEBUG)
+            log.trace("Found {} matches in doc {}", this.matchCount, doc);
+    };
+
+
+    // Check the positions of the anchor for all other terms
+    private void findMatches () {
+        final int anchorOffset = this.sequence.getStart(this.anchor);
+        final int[] pointers = new int[this.termSpans.length];
+        int lastStart = -1;
+
+        anchors: for (int a = 0; a < this.counts[this.anchor]; a++) {
+            final int start = this.positions[this.anchor][a] - anchorOffset;
+
+            // Leading gaps can't start before the document
+            if (start < 0 || start <= lastStart)
+                continue;
+
+            for (int i = 0; i < this.termSpans.length; i++) {
+                if (i == this.anchor || this.termSpans[i] == null)
+                    continue;
+
+                final int target = start + this.sequence.getStart(i);
+                while (pointers[i] < this.counts[i]
+                        && this.positions[i][pointers[i]] < target)
+                    pointers[i]++;
+
+                // No further matches in the document
+                if (pointers[i] == this.counts[i])
+                    break anchors;
+
+                if (this.positions[i][pointers[i]] != target)
+                    continue anchors;
+            };
+
+            if (this.matchCount == this.matches.length)
+                this.matches = ArrayUtil.grow(this.matches,
+                        this.matchCount + 1);
+            this.matches[this.matchCount++] = start;
+            lastStart = start;
+        };
+    };
+
+
+    private void setMatch (int start) {
+        this.matchStart = start;
+        this.matchEnd = start + this.length;
+        this.matchPayload.clear();
+
+        if (!this.collectPayloads)
+            return;
+
+        // Assemble the payloads in the order of the nested operators
+        for (int i = 0; i < this.termSpans.length; i++) {
+            if (this.termSpans[i] == null) {
+                this.matchPayload.add(classPayload(
+                        start + this.sequence.getStart(i),
+                        start + this.sequence.getEnd(i),
+                        this.sequence.getClassNumber(i)));
+            }
+            else if (this.payloads[i]) {
+                final int index = Arrays.binarySearch(
+                        this.positions[i], 0, this.counts[i],
+                        start + this.sequence.getStart(i));
+                final Collection<byte[]> payload = this.termPayloads.get(i)
+                        .get(index);
+                if (payload != null)
+                    this.matchPayload.addAll(payload);
+            };
+        };
+    };
+
+
+    // Create a class payload like ClassSpans and ExpandedSpans
+    private static byte[] classPayload (int start, int end, byte number) {
+        final ByteBuffer buffer = ByteBuffer.allocate(10);
+        buffer.put((byte) 0);
+        buffer.putInt(start);
+        buffer.putInt(end);
+        buffer.put(number);
+        return buffer.array();
+    };
+
+
+    @Override
+    public int doc () {
+        return this.matchDoc;
+    };
+
+
+    @Override
+    public int start () {
+        return this.matchStart;
+    };
+
+
+    @Override
+    public int end () {
+        return this.matchEnd;
+    };
+
+
+    @Override
+    public Collection<byte[]> getPayload () throws IOException {
+        return this.matchPayload;
+    };
+
+
+    @Override
+    public boolean isPayloadAvailable () {
+        return !this.matchPayload.isEmpty();
+    };
+
+
+    @Override
+    public long cost () {
+        return this.termSpans[this.anchor].cost();
+    };
+
+
+    @Override
+    public String toString () {
+        return getClass().getName() + "(" + this.query.toString() + ")@"
+                + (this.matchDoc + ":" + this.matchStart + "-"
+                        + this.matchEnd);
+    };
+};
@@ -54,6 +54,7 @@ public class WithinSpans extends Spans {
 
     private Collection<byte[]> matchPayload;
     private Collection<byte[]> embeddedPayload;
+    private boolean collectPayloads;
 
     // Indicates that the wrap and the embedded spans are in the same doc
     private boolean inSameDoc = false;
@@ -122,6 +123,7 @@ public class WithinSpans extends Spans {
 
         // Init copies
         this.matchPayload = new LinkedList<byte[]>();
+        this.collectPayloads = spanWithinQuery.isCollectPayloads();
 
         // Get spans
         this.wrapSpans = spanWithinQuery.wrap().getSpans(context, acceptDocs,
@@ -180,11 +182,13 @@ public class WithinSpans extends Spans {
                 this.matchDoc = embeddedDoc;
                 this.matchPayload.clear();
 
-                if (this.embeddedPayload != null)
-                    matchPayload.addAll(embeddedPayload);
+                if (this.collectPayloads) {
+                    if (this.embeddedPayload != null)
+                        matchPayload.addAll(embeddedPayload);
 
-                if (this.wrapSpans.isPayloadAvailable())
-                    this.matchPayload.addAll(wrapSpans.getPayload());
+                    if (this.wrapSpans.isPayloadAvailable())
+                        this.matchPayload.addAll(wrapSpans.getPayload());
+                };
 
                 if (DEBUG)
                     log.trace("   ---- MATCH ---- {}-{} ({})", matchStart,
@@ -953,7 +957,10 @@ public class WithinSpans extends Spans {
         embedded.doc = this.embeddedDoc;
 
         // Copy payloads
-        if (this.embeddedPayload != null) {
+        if (!this.collectPayloads) {
+            embedded.payload = null;
+        }
+        else if (this.embeddedPayload != null) {
             embedded.payload = new ArrayList<byte[]>(
                     this.embeddedPayload.size());
             embedded.payload.addAll(this.embeddedPayload);
@@ -0,0 +1,310 @@
+package de.ids_mannheim.korap.response;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Aggregation of matches by metadata fields.
+ *
+ * For each requested field, the number of matches and
+ * the number of documents containing matches are counted
+ * per value of the field (a <i>bucket</i>).
+ * Dates can be aggregated by year using the
+ * <tt>:year</tt> suffix, e.g. <tt>pubDate:year</tt>.
+ *
+ * <blockquote><pre>
+ * "aggregation" : {
+ * "matches" : 12,
+ * "documents" : 4,
+ * "fields" : [
+ * {
+ * "field" : "pubDate:year",
+ * "buckets" : [
+ * { "value" : "2005", "matches" : 7, "documents" : 3 },
+ * { "value" : "2006", "matches" : 5, "documents" : 1 }
+ * ]
+ * }
+ * ]
+ * }
+ * </pre></blockquote>
+ */
+public class Aggregation {
+
+    private final List<String> fields;
+    private final Map<String, TreeMap<String, long[]>> buckets;
+
+    private long matches = 0, documents = 0;
+    private boolean complete = true;
+
+
+    /**
+     * Construct a new Aggregation.
+     *
+     * @param fields
+     *            The fields to aggregate by,
+     *            optionally with granularity suffix.
+     */
+    public Aggregation (List<String> fields) {
+        this.fields = new ArrayList<String>(fields);
+        this.buckets = new HashMap<String, TreeMap<String, long[]>>(
+                fields.size() * 2);
+        for (String field : this.fields)
+            this.buckets.put(field, new TreeMap<String, long[]>());
+    };
+
+
+    /**
+     * Get the fields to aggregate by.
+     *
+     * @return The list of field names.
+     */
+    public List<String> getFields () {
+        return this.fields;
+    };
+
+
+    /**
+     * Add matches to a bucket.
+     *
+     * @param field
+     *            The field as requested, e.g. <tt>pubDate:year</tt>.
+     * @param value
+     *            The value of the bucket.
+     * @param matches
+     *            The number of matches.
+     * @param documents
+     *            The number of documents.
+     * @return The {@link Aggregation} object for chaining.
+     */
+    public Aggregation add (String field, String value, long matches,
+            long documents) {
+        TreeMap<String, long[]> fieldBuckets = this.buckets.get(field);
+        if (fieldBuckets == null)
+            return this;
+
+        long[] counts = fieldBuckets.get(value);
+        if (counts == null) {
+            counts = new long[2];
+            fieldBuckets.put(value, counts);
+        };
+        counts[0] += matches;
+        counts[1] += documents;
+        return this;
+    };
+
+
+    /**
+     * Increment the total number of matches and documents.
+     *
+     * @param matches
+     *            The number of matches.
+     * @param documents
+     *            The number of documents.
+     * @return The {@link Aggregation} object for chaining.
+     */
+    public Aggregation incrTotals (long matches, long documents) {
+        this.matches += matches;
+        this.documents += documents;
+        return this;
+    };
+
+
+    /**
+     * Get the total number of aggregated matches.
+     *
+     * @return The number of matches.
+     */
+    public long getMatches () {
+        return this.matches;
+    };
+
+
+    /**
+     * Get the total number of documents with matches.
+     *
+     * @return The number of documents.
+     */
+    public long getDocuments () {
+        return this.documents;
+    };
+
+
+    /**
+     * Get the number of matches in a bucket.
+     *
+     * @param field
+     *            The field as requested.
+     * @param value
+     *            The value of the bucket.
+     * @return The number of matches.
+     */
+    public long getMatches (String field, String value) {
+        return this._counts(field, value)[0];
+    };
+
+
+    /**
+     * Get the number of documents with matches in a bucket.
+     *
+     * @param field
+     *            The field as requested.
+     * @param value
+     *            The value of the bucket.
+     * @return The number of documents.
+     */
+    public long getDocuments (String field, String value) {
+        return this._counts(field, value)[1];
+    };
+
+
+    /**
+     * Get the number of buckets of a field.
+     *
+     * @param field
+     *            The field as requested.
+     * @return The number of buckets.
+     */
+    public int size (String field) {
+        TreeMap<String, long[]> fieldBuckets = this.buckets.get(field);
+        return fieldBuckets == null ? 0 : fieldBuckets.size();
+    };
+
+
+    /**
+     * Check if all matches were aggregated,
+     * e.g. in case of a timeout.
+     *
+     * @return <tt>true</tt> in case the aggregation is complete.
+     */
+    public boolean isComplete () {
+        return this.complete;
+    };
+
+
+    /**
+     * Mark the aggregation as complete or incomplete.
+     *
+     * @param complete
+     *            Boolean value.
+     * @return The {@link Aggregation} object for chaining.
+     */
+    public Aggregation setComplete (boolean complete) {
+        this.complete = complete;
+        return this;
+    };
+
+
+    /**
+     * Merge another aggregation (e.g. of another segment)
+     * into this aggregation.
+     *
+     * @param other
+     *            The {@link Aggregation} to merge.
+     * @return The {@link Aggregation} object for chaining.
+     */
+    public Aggregation merge (Aggregation other) {
+        this.incrTotals(other.matches, other.documents);
+        if (!other.complete)
+            this.complete = false;
+
+        for (Map.Entry<String, TreeMap<String, long[]>> field : other.buckets
+                .entrySet()) {
+            for (Map.Entry<String, long[]> bucket : field.getValue()
+                    .entrySet()) {
+                this.add(field.getKey(), bucket.getKey(), bucket.getValue()[0],
+                        bucket.getValue()[1]);
+            };
+        };
+        return this;
+    };
+
+
+    /**
+     * Get the name of the metadata field of a requested field,
+     * i.e. the field without a granularity suffix.
+     *
+     * @param field
+     *            The field as requested, e.g. <tt>pubDate:year</tt>.
+     * @return The metadata field name, e.g. <tt>pubDate</tt>.
+     */
+    public static String fieldName (String field) {
+        if (field.endsWith(":year"))
+            return field.substring(0, field.length() - 5);
+        return field;
+    };
+
+
+    /**
+     * Get the bucket value of a field value
+     * with respect to the requested granularity.
+     *
+     * @param field
+     *            The field as requested, e.g. <tt>pubDate:year</tt>.
+     * @param value
+     *            The value as stored, e.g. <tt>20050317</tt>.
+     * @return The bucket value, e.g. <tt>2005</tt>.
+     */
+    public static String bucketValue (String field, String value) {
+        if (field.endsWith(":year")) {
+            try {
+                // Dates are stored as integers of the form YYYYMMDD
+                return String.valueOf(Integer.parseInt(value) / 10000);
+            }
+            catch (NumberFormatException e) {
+                return value;
+            };
+        };
+        return value;
+    };
+
+
+    /**
+     * Serialize the aggregation as a {@link JsonNode}.
+     *
+     * @return {@link JsonNode} representation of the aggregation.
+     */
+    public JsonNode toJsonNode () {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode json = mapper.createObjectNode();
+
+        json.put("matches", this.matches);
+        json.put("documents", this.documents);
+
+        if (!this.complete)
+            json.put("complete", false);
+
+        ArrayNode fieldsNode = json.putArray("fields");
+        for (String field : this.fields) {
+            ObjectNode fieldNode = fieldsNode.addObject();
+            fieldNode.put("field", field);
+            ArrayNode bucketsNode = fieldNode.putArray("buckets");
+            for (Map.Entry<String, long[]> bucket : this.buckets.get(field)
+                    .entrySet()) {
+                ObjectNode bucketNode = bucketsNode.addObject();
+                bucketNode.put("value", bucket.getKey());
+                bucketNode.put("matches", bucket.getValue()[0]);
+                bucketNode.put("documents", bucket.getValue()[1]);
+            };
+        };
+
+        return json;
+    };
+
+
+    // Get the counts of a bucket
+    private long[] _counts (String field, String value) {
+        TreeMap<String, long[]> fieldBuckets = this.buckets.get(field);
+        if (fieldBuckets == null)
+            return new long[2];
+        long[] counts = fieldBuckets.get(value);
+        return counts == null ? new long[2] : counts;
+    };
+};
@@ -0,0 +1,524 @@
+package de.ids_mannheim.korap.response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Collocation analysis of matches.
+ *
+ * For all matches, the annotations of a foundry and layer
+ * (e.g. lemmata as <i>tt/l</i> or surface forms as <i>s</i>)
+ * in a window left and right to the match are counted
+ * and scored by an association measure
+ * (log-likelihood or mutual information)
+ * against their frequencies in the virtual collection.
+ *
+ * <blockquote><pre>
+ * "meta" : {
+ * "collocation" : {
+ * "foundry" : "tt",
+ * "layer" : "l",
+ * "left" : 5,
+ * "right" : 5,
+ * "measure" : "ll",
+ * "top" : 20
+ * }
+ * }
+ * </pre></blockquote>
+ */
+public class Collocations {
+
+    // Maximum window size per side
+    public static final int MAX_WINDOW = 50;
+
+    // Maximum number of returned collocates
+    public static final int MAX_TOP = 1000;
+
+    private String foundry = null, layer = "s", measure = "ll";
+    private int left = 5, right = 5, top = 20, minFreq = 1;
+
+    // Cooccurrence counts and frequencies per collocate
+    private final Map<String, long[]> counts = new HashMap<String, long[]>();
+
+    private long matches = 0, window = 0, tokens = 0;
+    private boolean complete = true;
+
+    private List<Collocate> collocates;
+
+
+    /**
+     * A scored collocate.
+     */
+    public static class Collocate {
+        private final String term;
+        private final long cooccurrences, frequency;
+        private final double score;
+
+
+        public Collocate (String term, long cooccurrences, long frequency,
+                double score) {
+            this.term = term;
+            this.cooccurrences = cooccurrences;
+            this.frequency = frequency;
+            this.score = score;
+        };
+
+
+        public String getTerm () {
+            return this.term;
+        };
+
+
+        public long getCooccurrences () {
+            return this.cooccurrences;
+        };
+
+
+        public long getFrequency () {
+            return this.frequency;
+        };
+
+
+        public double getScore () {
+            return this.score;
+        };
+    };
+
+
+    /**
+     * Construct a new Collocations object.
+     */
+    public Collocations () {};
+
+
+    /**
+     * Construct a new Collocations object
+     * based on the parameters of another collocation analysis.
+     *
+     * @param config
+     *            The {@link Collocations} object to copy
+     *            the parameters from.
+     */
+    public Collocations (Collocations config) {
+        this.foundry = config.foundry;
+        this.layer = config.layer;
+        this.measure = config.measure;
+        this.left = config.left;
+        this.right = config.right;
+        this.top = config.top;
+        this.minFreq = config.minFreq;
+    };
+
+
+    /**
+     * Construct a new Collocations object
+     * based on a KoralQuery meta definition.
+     *
+     * @param json
+     *            The collocation parameters as a {@link JsonNode}.
+     */
+    public Collocations (JsonNode json) {
+        if (json.has("foundry"))
+            this.foundry = json.get("foundry").asText();
+        if (json.has("layer"))
+            this.setLayer(json.get("layer").asText());
+        if (json.has("left"))
+            this.setLeft(json.get("left").asInt());
+        if (json.has("right"))
+            this.setRight(json.get("right").asInt());
+        if (json.has("top"))
+            this.setTop(json.get("top").asInt());
+        if (json.has("minFreq"))
+            this.minFreq = json.get("minFreq").asInt();
+        if (json.has("measure"))
+            this.setMeasure(json.get("measure").asText());
+    };
+
+
+    public String getFoundry () {
+        return this.foundry;
+    };
+
+
+    public Collocations setFoundry (String foundry) {
+        this.foundry = foundry;
+        return this;
+    };
+
+
+    public String getLayer () {
+        return this.layer;
+    };
+
+
+    public Collocations setLayer (String layer) {
+        // Map orthographic layer to surface terms
+        this.layer = layer.equals("orth") ? "s" : layer;
+        return this;
+    };
+
+
+    /**
+     * Get the term prefix of the annotations to count,
+     * e.g. <tt>tt/l:</tt>.
+     *
+     * @return The term prefix.
+     */
+    public String getPrefix () {
+        if (this.foundry == null)
+            return this.layer + ":";
+        return this.foundry + "/" + this.layer + ":";
+    };
+
+
+    public int getLeft () {
+        return this.left;
+    };
+
+
+    public Collocations setLeft (int left) {
+        this.left = _clamp(left, MAX_WINDOW);
+        return this;
+    };
+
+
+    public int getRight () {
+        return this.right;
+    };
+
+
+    public Collocations setRight (int right) {
+        this.right = _clamp(right, MAX_WINDOW);
+        return this;
+    };
+
+
+    public int getTop () {
+        return this.top;
+    };
+
+
+    public Collocations setTop (int top) {
+        this.top = _clamp(top, MAX_TOP);
+        return this;
+    };
+
+
+    public int getMinFreq () {
+        return this.minFreq;
+    };
+
+
+    public Collocations setMinFreq (int minFreq) {
+        this.minFreq = minFreq;
+        return this;
+    };
+
+
+    public String getMeasure () {
+        return this.measure;
+    };
+
+
+    /**
+     * Set the association measure.
+     * Supported are <tt>ll</tt> (log-likelihood, the default)
+     * and <tt>mi</tt> (pointwise mutual information).
+     *
+     * @param measure
+     *            The association measure.
+     * @return The {@link Collocations} object for chaining.
+     */
+    public Collocations setMeasure (String measure) {
+        this.measure = measure.equals("mi") ? "mi" : "ll";
+        return this;
+    };
+
+
+    /**
+     * Add cooccurrences of a collocate.
+     *
+     * @param term
+     *            The collocate term without prefix.
+     * @param cooccurrences
+     *            The number of cooccurrences.
+     * @return The {@link Collocations} object for chaining.
+     */
+    public Collocations addCooccurrences (String term, long cooccurrences) {
+        this._counts(term)[0] += cooccurrences;
+        return this;
+    };
+
+
+    /**
+     * Add to the frequency of a collocate in the
+     * virtual collection.
+     *
+     * @param term
+     *            The collocate term without prefix.
+     * @param frequency
+     *            The frequency.
+     * @return The {@link Collocations} object for chaining.
+     */
+    public Collocations addFrequency (String term, long frequency) {
+        this._counts(term)[1] += frequency;
+        return this;
+    };
+
+
+    /**
+     * Increment the number of matches and
+     * the number of annotations in all windows.
+     *
+     * @param matches
+     *            The number of matches.
+     * @param window
+     *            The number of annotations in windows.
+     * @return The {@link Collocations} object for chaining.
+     */
+    public Collocations incrTotals (long matches, long window) {
+        this.matches += matches;
+        this.window += window;
+        return this;
+    };
+
+
+    public long getMatches () {
+        return this.matches;
+    };
+
+
+    public long getWindow () {
+        return this.window;
+    };
+
+
+    public boolean isComplete () {
+        return this.complete;
+    };
+
+
+    public Collocations setComplete (boolean complete) {
+        this.complete = complete;
+        return this;
+    };
+
+
+    /**
+     * Get all candidate collocates passing the minimum frequency.
+     *
+     * @return The set of candidate terms.
+     */
+    public Set<String> getCandidates () {
+        final Set<String> candidates = new HashSet<String>();
+        for (Map.Entry<String, long[]> entry : this.counts.entrySet()) {
+            if (entry.getValue()[0] >= this.minFreq)
+                candidates.add(entry.getKey());
+        };
+        return candidates;
+    };
+
+
+    /**
+     * Merge the counts of another collocation analysis
+     * (e.g. of another segment).
+     *
+     * @param other
+     *            The {@link Collocations} to merge.
+     * @return The {@link Collocations} object for chaining.
+     */
+    public Collocations merge (Collocations other) {
+        this.incrTotals(other.matches, other.window);
+        if (!other.complete)
+            this.complete = false;
+
+        for (Map.Entry<String, long[]> entry : other.counts.entrySet()) {
+            long[] counts = this._counts(entry.getKey());
+            counts[0] += entry.getValue()[0];
+            counts[1] += entry.getValue()[1];
+        };
+        return this;
+    };
+
+
+    /**
+     * Score all candidates and keep the top collocates.
+     *
+     * @param tokens
+     *            The number of annotations of the layer
+     *            in the virtual collection.
+     * @return The {@link Collocations} object for chaining.
+     */
+    public Collocations score (long tokens) {
+        this.tokens = Math.max(tokens, this.window);
+
+        final double n = (double) this.tokens;
+        final double r1 = (double) this.window;
+
+        final List<Collocate> list = new ArrayList<Collocate>();
+        for (Map.Entry<String, long[]> entry : this.counts.entrySet()) {
+            final long o11 = entry.getValue()[0];
+            if (o11 < this.minFreq || o11 == 0)
+                continue;
+
+            // The frequency is at least the number of cooccurrences
+            final long c1 = Math.max(entry.getValue()[1], o11);
+
+            final double score = this.measure.equals("mi")
+                    ? mutualInformation(o11, r1, c1, n)
+                    : logLikelihood(o11, r1, c1, n);
+
+            list.add(new Collocate(entry.getKey(), o11, c1, score));
+        };
+
+        Collections.sort(list, (a, b) -> {
+            int cmp = Double.compare(b.score, a.score);
+            return cmp != 0 ? cmp : a.term.compareTo(b.term);
+        });
+
+        this.collocates = list.size() > this.top
+                ? new ArrayList<Collocate>(list.subList(0, this.top)) : list;
+
+        return this;
+    };
+
+
+    /**
+     * Get the top collocates after scoring.
+     *
+     * @return The list of {@link Collocate} objects.
+     */
+    public List<Collocate> getCollocates () {
+        return this.collocates;
+    };
+
+
+    /**
+     * Calculate the log-likelihood ratio (G2) of a collocate.
+     * Negative values indicate repulsion.
+     *
+     * @param o11
+     *            The number of cooccurrences.
+     * @param r1
+     *            The number of annotations in all windows.
+     * @param c1
+     *            The frequency of the collocate.
+     * @param n
+     *            The number of annotations in the collection.
+     * @return The log-likelihood score.
+     */
+    public static double logLikelihood (double o11, double r1, double c1,
+            double n) {
+        final double o12 = r1 - o11, o21 = c1 - o11,
+                o22 = n - r1 - c1 + o11;
+        final double r2 = n - r1, c2 = n - c1;
+
+        final double e11 = r1 * c1 / n;
+
+        double ll = _ll(o11, e11) + _ll(o12, r1 * c2 / n)
+                + _ll(o21, r2 * c1 / n) + _ll(o22, r2 * c2 / n);
+        ll *= 2;
+
+        return o11 < e11 ? -ll : ll;
+    };
+
+
+    /**
+     * Calculate the pointwise mutual information of a collocate.
+     *
+     * @see #logLikelihood
+     * @return The mutual information score.
+     */
+    public static double mutualInformation (double o11, double r1,
+            double c1, double n) {
+        return Math.log((o11 * n) / (r1 * c1)) / Math.log(2);
+    };
+
+
+    /**
+     * Serialize the parameters of the collocation analysis
+     * as a {@link JsonNode}.
+     *
+     * @return {@link JsonNode} representation of the parameters.
+     */
+    public JsonNode paramsToJsonNode () {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode json = mapper.createObjectNode();
+        if (this.foundry != null)
+            json.put("foundry", this.foundry);
+        json.put("layer", this.layer);
+        json.put("left", this.left);
+        json.put("right", this.right);
+        json.put("measure", this.measure);
+        json.put("top", this.top);
+        json.put("minFreq", this.minFreq);
+        return json;
+    };
+
+
+    /**
+     * Serialize the collocation analysis as a {@link JsonNode}.
+     *
+     * @return {@link JsonNode} representation of the collocates.
+     */
+    public JsonNode toJsonNode () {
+        ObjectNode json = (ObjectNode) this.paramsToJsonNode();
+
+        json.put("matches", this.matches);
+        json.put("window", this.window);
+        json.put("tokens", this.tokens);
+
+        if (!this.complete)
+            json.put("complete", false);
+
+        if (this.collocates != null) {
+            ArrayNode collocatesNode = json.putArray("collocates");
+            for (Collocate c : this.collocates) {
+                ObjectNode node = collocatesNode.addObject();
+                node.put("term", c.term);
+                node.put("cooccurrences", c.cooccurrences);
+                node.put("frequency", c.frequency);
+                node.put("score", c.score);
+            };
+        };
+
+        return json;
+    };
+
+
+    // Get the counts of a term
+    private long[] _counts (String term) {
+        long[] counts = this.counts.get(term);
+        if (counts == null) {
+            counts = new long[2];
+            this.counts.put(term, counts);
+        };
+        return counts;
+    };
+
+
+    // Part of the log-likelihood sum
+    private static double _ll (double o, double e) {
+        if (o <= 0 || e <= 0)
+            return 0;
+        return o * Math.log(o / e);
+    };
+
+
+    // Clamp a value
+    private static int _clamp (int value, int max) {
+        if (value < 0)
+            return 0;
+        return value > max ? max : value;
+    };
+};
@@ -50,6 +50,7 @@ public class Response extends Notifications {
     private long totalResources = -2, // Not set
             totalResults = -2; // Not set
     private String benchmark;
+    private long cost = -1; // Not set
     private boolean timeExceeded = false;
 
     private HashMap<String, ObjectNode> jsonFields;
@@ -227,6 +228,35 @@ public class Response extends Notifications {
     };
 
 
+    /**
+     * Get the estimated cost of the query.
+     * 
+     * @return The estimated cost or <tt>-1</tt>,
+     *         in case the cost was not estimated.
+     */
+    @JsonIgnore
+    public long getCost () {
+        return this.cost;
+    };
+
+
+    /**
+     * Set the estimated cost of the query,
+     * as used for admission control.
+     * The cost is only estimated and serialized
+     * in case an admission policy is enabled,
+     * as the estimation requires additional index lookups.
+     * 
+     * @param cost
+     *            The estimated cost.
+     * @return {@link Response} object for chaining.
+     */
+    public Response setCost (long cost) {
+        this.cost = cost;
+        return this;
+    };
+
+
     /**
      * Get the listener URI as a string.
      * 
@@ -533,6 +563,9 @@ public class Response extends Notifications {
         if (this.getBenchmark() != null)
             meta.put("benchmark", this.getBenchmark());
 
+        if (this.cost >= 0)
+            meta.put("cost", this.cost);
+
         // totalResources is set
         if (this.totalResources != -2)
             meta.put("totalResources", this.totalResources);
@@ -561,6 +594,13 @@ public class Response extends Notifications {
                 json.put("collection", collNode);
         };
 
+        // KoralQuery stats object
+        if (this.stats != null) {
+            JsonNode statsNode = this.stats.toJsonNode();
+            if (statsNode != null)
+                json.put("stats", statsNode);
+        };
+
         return (JsonNode) json;
     };
 
@@ -54,6 +54,10 @@ public final class Result extends Krill {
 
     private JsonNode request;
 
+    private Aggregation aggregation;
+
+    private Collocations collocations;
+
     // Logger
     // This is Match instead of Result!
     private final static Logger log = LoggerFactory.getLogger(Match.class);
@@ -192,6 +196,58 @@ public final class Result extends Krill {
     };
 
 
+    /**
+     * Get the aggregation of matches by metadata fields.
+     * 
+     * @return The {@link Aggregation} object or <tt>null</tt>,
+     *         in case no aggregation was requested.
+     */
+    @JsonIgnore
+    public Aggregation getAggregation () {
+        return this.aggregation;
+    };
+
+
+    /**
+     * Set the aggregation of matches by metadata fields.
+     * 
+     * @param aggregation
+     *            The {@link Aggregation} object.
+     * @return {@link Result} object for chaining.
+     */
+    @JsonIgnore
+    public Result setAggregation (Aggregation aggregation) {
+        this.aggregation = aggregation;
+        return this;
+    };
+
+
+    /**
+     * Get the results of a collocation analysis.
+     * 
+     * @return The {@link Collocations} object or <tt>null</tt>,
+     *         in case no collocation analysis was requested.
+     */
+    @JsonIgnore
+    public Collocations getCollocations () {
+        return this.collocations;
+    };
+
+
+    /**
+     * Set the results of a collocation analysis.
+     * 
+     * @param collocations
+     *            The {@link Collocations} object.
+     * @return {@link Result} object for chaining.
+     */
+    @JsonIgnore
+    public Result setCollocations (Collocations collocations) {
+        this.collocations = collocations;
+        return this;
+    };
+
+
     /**
      * Get the string representation of the search query.
      * 
@@ -273,6 +329,14 @@ public final class Result extends Krill {
 
         this._addMeta(json);
 
+        // Add aggregation
+        if (this.aggregation != null)
+            json.put("aggregation", this.aggregation.toJsonNode());
+
+        // Add collocations
+        if (this.collocations != null)
+            json.put("collocations", this.collocations.toJsonNode());
+
         // Add matches
         if (this.matches != null)
             json.putPOJO("matches", this.getMatches());
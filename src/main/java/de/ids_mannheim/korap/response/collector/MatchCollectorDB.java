@@ -9,25 +9,56 @@ import java.sql.PreparedStatement;
 import javax.sql.DataSource;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Collect matches per document and store the UIDs together
+ * with the number of matches in a database table.
+ *
+ * Matches are buffered as primitive (UID, count) pairs.
+ * Full buffers are passed via a bounded queue to a dedicated
+ * writer thread, that inserts them using a reusable prepared
+ * statement in JDBC batches, so collecting matches does not
+ * wait for the database (unless the writer falls behind
+ * by more than {@link #QUEUE_SIZE} buffers).
+ *
+ * For MySQL, batches are only sent as multi-row inserts
+ * in case <tt>rewriteBatchedStatements=true</tt> is part of the
+ * JDBC URL.
+ */
 public final class MatchCollectorDB extends MatchCollector {
 
     // Logger
     private final static Logger log = LoggerFactory.getLogger(Node.class);
 
-    /*
-     * Todo: In case there are multiple threads searching,
-     * the list should be synchrinized Collections.synchronizedList()
-     */
+    // Maximum number of buffers waiting for the writer
+    public final static int QUEUE_SIZE = 4;
+
+    // Marker to stop the writer thread
+    private final static int[] END = new int[0];
+
+    // Interval in milliseconds to check the writer thread
+    // while waiting for space in the queue
+    private final static long OFFER_TIMEOUT = 100;
+
     private String databaseType;
-    private final List matchCollector;
     private final int bufferSize;
     private int docCollect;
     private final String resultID;
 
+    // Buffer of (UID, count) pairs
+    private int[] buffer;
+
+    private final BlockingQueue<int[]> queue = new ArrayBlockingQueue<int[]>(
+            QUEUE_SIZE);
+    private Thread writer;
+    private volatile Throwable writeError;
+
     // private Connection connection;
     private DataSource pool;
     private Connection connection;
@@ -40,7 +71,7 @@ public final class MatchCollectorDB extends MatchCollector {
     public MatchCollectorDB (int bufferSize, String resultID) {
         this.bufferSize = bufferSize;
         this.resultID = resultID;
-        this.matchCollector = new ArrayList<int[]>(bufferSize + 2);
+        this.buffer = new int[bufferSize * 2];
     };
 
 
@@ -53,7 +84,8 @@ public final class MatchCollectorDB extends MatchCollector {
 
         this.incrTotalResultDocs(1);
         this.incrTotalResults(matchCount);
-        this.matchCollector.add(new int[] { UID, matchCount });
+        this.buffer[this.docCollect * 2] = UID;
+        this.buffer[this.docCollect * 2 + 1] = matchCount;
         this.docCollect++;
     };
 
@@ -86,84 +118,67 @@ public final class MatchCollectorDB extends MatchCollector {
     };
 
 
-    /*
-      Create prepared statement for multiple requests
-      this.prepared = this.conn.prepareStatement(
-      "INSERT INTO people VALUES (?, ?);"
-      );
-      Only prepare if commit > buffersize!
-      Difference between mariadb and sqlite!
-    */
-
-
-    /* TODO: Ensure the commit was successful! */
+    /**
+     * Pass the buffered matches to the writer thread.
+     * The writing itself is asynchronous - use {@link #flush()}
+     * to wait for all matches to be stored.
+     */
     public void commit () {
-        if (this.pool == null)
+        if (this.docCollect == 0)
             return;
 
-        try {
-            /*
-             * This should be heavily optimized! It's aweful!
-             * ARGHHHHHHH!
-             */
-            if (this.connection.isClosed())
-                this.connection = this.pool.getConnection();
-
-            StringBuilder sb = new StringBuilder();
-            sb.append("INSERT INTO ").append(this.resultID)
-                    .append(" (text_id, match_count) ");
-
-            // SQLite batch insertion idiom
-            if (this.getDatabaseType().equals("sqlite")) {
-                for (int i = 1; i < this.docCollect; i++) {
-                    sb.append("SELECT ?, ? UNION ");
-                }
-                if (this.docCollect == 1)
-                    sb.append("VALUES (?, ?)");
-                else
-                    sb.append("SELECT ?, ?");
-            }
-
-            // MySQL batch insertion idiom
-            else if (this.getDatabaseType().equals("mysql")) {
-                sb.append(" VALUES ");
-                for (int i = 1; i < this.docCollect; i++) {
-                    sb.append("(?,?),");
-                };
-                sb.append("(?,?)");
-            }
+        if (this.pool == null) {
+            this.docCollect = 0;
+            return;
+        };
 
-            // Unknown idiom
-            else {
-                log.error("Unsupported Database type");
-                return;
-            };
+        // Start writer thread on demand
+        if (this.writer == null) {
+            this.writer = new Thread(this::_write,
+                    "MatchCollectorDB-" + this.resultID);
+            this.writer.setDaemon(true);
+            this.writer.start();
+        };
 
-            // Prepare statement based on the string
-            PreparedStatement prep = this.connection
-                    .prepareStatement(sb.toString());
+        this._offer(this.docCollect == this.bufferSize ? this.buffer
+                : Arrays.copyOf(this.buffer, this.docCollect * 2));
 
-            int i = 1;
-            ListIterator li = this.matchCollector.listIterator();
-            while (li.hasNext()) {
-                int[] v = (int[]) li.next();
-                prep.setInt(i++, v[0]);
-                prep.setInt(i++, v[1]);
-            };
+        // The full buffer is owned by the writer now
+        if (this.docCollect == this.bufferSize)
+            this.buffer = new int[this.bufferSize * 2];
 
-            prep.addBatch();
-            prep.executeBatch();
-            this.connection.commit();
-        }
+        this.docCollect = 0;
+    };
 
-        // An SQL error occured ...
-        catch (SQLException e) {
+
+    /**
+     * Store all buffered matches and wait
+     * for the writer thread to finish.
+     */
+    public void flush () {
+        this.commit();
+
+        if (this.writer == null)
+            return;
+
+        try {
+            if (this._offer(END))
+                this.writer.join();
+        }
+        catch (InterruptedException e) {
             log.error(e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        };
+        this.writer = null;
+        this.queue.clear();
+
+        if (this.writeError != null) {
+            this.addError(604, "Unable to write to database",
+                    this.writeError.getLocalizedMessage() != null
+                            ? this.writeError.getLocalizedMessage()
+                            : this.writeError.toString());
+            this.writeError = null;
         };
-
-        this.matchCollector.clear();
-        this.docCollect = 0;
-        return;
     };
 
 
@@ -171,9 +186,14 @@ public final class MatchCollectorDB extends MatchCollector {
      * Close collector and connection
      */
     public void close () {
-        this.commit();
+        this.flush();
         try {
-            this.connection.close();
+            if (this.prepared != null)
+                this.prepared.close();
+            this.prepared = null;
+
+            if (this.connection != null)
+                this.connection.close();
         }
         catch (SQLException e) {
             log.warn(e.getLocalizedMessage());
@@ -188,6 +208,91 @@ public final class MatchCollectorDB extends MatchCollector {
         if (close)
             this.close();
 
-        this.commit();
+        this.flush();
+    };
+
+
+    // Pass a buffer to the writer thread, as long as it is alive.
+    // Returns false in case the buffer was dropped
+    private boolean _offer (int[] pairs) {
+        try {
+            while (!this.queue.offer(pairs, OFFER_TIMEOUT,
+                    TimeUnit.MILLISECONDS)) {
+
+                // The writer thread terminated unexpectedly
+                if (!this.writer.isAlive()) {
+                    if (this.writeError == null)
+                        this.writeError = new IllegalStateException(
+                                "Database writer terminated");
+                    return false;
+                };
+            };
+            return true;
+        }
+        catch (InterruptedException e) {
+            log.error(e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        };
+        return false;
+    };
+
+
+    // Insert all buffers of the queue in batches
+    private void _write () {
+        try {
+            for (int[] pairs = this.queue.take(); pairs != END;
+                 pairs = this.queue.take()) {
+
+                // Skip remaining buffers after an error
+                if (this.writeError != null)
+                    continue;
+
+                try {
+                    this._insert(pairs);
+                }
+
+                // An SQL error occured ...
+                catch (SQLException | RuntimeException e) {
+                    log.error(e.getLocalizedMessage());
+                    this.writeError = e;
+                };
+            };
+        }
+        catch (InterruptedException e) {
+            log.error(e.getLocalizedMessage());
+            this.writeError = e;
+        }
+
+        // Errors terminating the writer are reported on flush
+        catch (Throwable t) {
+            log.error(t.getLocalizedMessage());
+            this.writeError = t;
+        };
+    };
+
+
+    // Insert a buffer of pairs as a single batch
+    private void _insert (int[] pairs) throws SQLException {
+        if (this.connection == null || this.connection.isClosed()) {
+            this.connection = this.pool.getConnection();
+            this.prepared = null;
+        };
+
+        // Prepare the statement once
+        if (this.prepared == null) {
+            this.prepared = this.connection.prepareStatement("INSERT INTO "
+                    + this.resultID + " (text_id, match_count) VALUES (?, ?)");
+        };
+
+        for (int i = 0; i < pairs.length; i += 2) {
+            this.prepared.setInt(1, pairs[i]);
+            this.prepared.setInt(2, pairs[i + 1]);
+            this.prepared.addBatch();
+        };
+
+        this.prepared.executeBatch();
+
+        if (!this.connection.getAutoCommit())
+            this.connection.commit();
     };
 };
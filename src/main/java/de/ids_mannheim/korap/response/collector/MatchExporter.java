@@ -0,0 +1,332 @@
+package de.ids_mannheim.korap.response.collector;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.ids_mannheim.korap.response.Match;
+import de.ids_mannheim.korap.response.MatchCollector;
+import de.ids_mannheim.korap.response.Message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Export of all matches of a query as a stream of lines,
+ * either as newline delimited JSON (one serialized match per line)
+ * or as CSV with the match identifier, the requested metadata
+ * fields and the left context, the match and the right context
+ * as plain text (KWIC).
+ * Errors occurring during the export are appended as a final
+ * line, as a JSON object with an <tt>errors</tt> array for NDJSON
+ * and as rows with the match identifier <tt>#error</tt> for CSV.
+ *
+ * Lines are written through a fixed size buffer directly
+ * to the output stream, so the memory consumption is
+ * independent of the number of matches and a slow client
+ * blocks the export (back-pressure).
+ */
+public class MatchExporter extends MatchCollector {
+
+    // Logger
+    private final static Logger log = LoggerFactory
+            .getLogger(MatchExporter.class);
+
+    // Size of the output buffer
+    private final static int BUFFER_SIZE = 8192;
+
+    private final static Pattern TAGS = Pattern.compile("<[^>]*>");
+
+    private final static Pattern SPANS = Pattern.compile("</?span\\b");
+
+    private final static String MATCH_SPAN = "<span class=\"match\">";
+
+    /**
+     * Supported export formats.
+     */
+    public enum Format {
+        NDJSON("application/x-ndjson"), CSV("text/csv");
+
+        private final String mediaType;
+
+
+        Format (String mediaType) {
+            this.mediaType = mediaType;
+        };
+
+
+        public String getMediaType () {
+            return this.mediaType;
+        };
+    };
+
+    /**
+     * Consumer of serialized match lines,
+     * e.g. the exporter itself or a queue per segment.
+     */
+    public interface Sink {
+        public void accept (String line)
+                throws IOException, InterruptedException;
+    };
+
+    private final Writer writer;
+    private final Format format;
+    private final List<String> fields;
+    private long exported = 0;
+    private boolean aborted = false;
+
+
+    /**
+     * Construct a new exporter.
+     *
+     * @param os
+     *            The {@link OutputStream} to write to.
+     * @param format
+     *            The export {@link Format}.
+     * @param fields
+     *            The metadata fields to export as CSV columns.
+     *            The JSON export serializes all lifted fields.
+     */
+    public MatchExporter (OutputStream os, Format format, List<String> fields) {
+        this.writer = new BufferedWriter(
+                new OutputStreamWriter(os, StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+        this.format = format;
+        this.fields = new ArrayList<String>(fields.size());
+        for (String field : fields) {
+            if (!field.equals("@all"))
+                this.fields.add(field);
+        };
+    };
+
+
+    /**
+     * Get the export format of a format name.
+     * Unknown or missing names default to {@link Format#NDJSON}.
+     *
+     * @param name
+     *            The name of the format, e.g. <tt>csv</tt>.
+     * @return The {@link Format}.
+     */
+    public static Format format (String name) {
+        if (name != null && name.trim().equalsIgnoreCase("csv"))
+            return Format.CSV;
+        return Format.NDJSON;
+    };
+
+
+    public Format getFormat () {
+        return this.format;
+    };
+
+
+    /**
+     * Get the number of exported matches.
+     *
+     * @return The number of written match lines.
+     */
+    public long getExported () {
+        return this.exported;
+    };
+
+
+    /**
+     * Check if writing to the stream failed,
+     * e.g. because the client closed the connection.
+     *
+     * @return <code>true</code> in case the export was aborted.
+     */
+    public boolean isAborted () {
+        return this.aborted;
+    };
+
+
+    /**
+     * Write the header line (only for CSV).
+     *
+     * @throws IOException
+     */
+    public void writeHeader () throws IOException {
+        if (this.format != Format.CSV)
+            return;
+
+        final StringBuilder sb = new StringBuilder("matchID");
+        for (String field : this.fields)
+            _csv(sb.append(','), field);
+        sb.append(",left,match,right");
+        this._write(sb.append('\n').toString());
+    };
+
+
+    /**
+     * Serialize a match as a single line in the export format
+     * (without line break).
+     * This does not alter the state of the exporter
+     * and may be called from multiple threads.
+     *
+     * @param match
+     *            The {@link Match} to serialize.
+     * @return The serialized match.
+     */
+    public String serialize (Match match) {
+        if (this.format == Format.NDJSON)
+            return match.toJsonString();
+
+        final StringBuilder sb = new StringBuilder();
+        _csv(sb, match.getID());
+        for (String field : this.fields)
+            _csv(sb.append(','), match.getFieldValue(field));
+
+        // Split the snippet in left context, match and right context
+        // at the boundaries of the match span
+        String snippet = match.getSnippetHTML();
+        String left = "", hit = "", right = "";
+        if (snippet != null) {
+            int m = snippet.indexOf(MATCH_SPAN);
+            int r = m >= 0 ? _spanEnd(snippet, m) : -1;
+            if (r >= 0) {
+                left = _plain(snippet.substring(0, m));
+                hit = _plain(snippet.substring(m, r));
+                right = _plain(snippet.substring(r));
+            }
+            else {
+                hit = _plain(snippet);
+            };
+        };
+        _csv(sb.append(','), left);
+        _csv(sb.append(','), hit);
+        _csv(sb.append(','), right);
+        return sb.toString();
+    };
+
+
+    /**
+     * Write a serialized match line.
+     * Blocks in case the client does not consume the stream.
+     *
+     * @param line
+     *            The serialized match.
+     * @throws IOException
+     */
+    public void write (String line) throws IOException {
+        this._write(line);
+        this._write("\n");
+        this.exported++;
+    };
+
+
+    /**
+     * Serialize and write a match.
+     *
+     * @param match
+     *            The {@link Match} to export.
+     * @throws IOException
+     */
+    public void write (Match match) throws IOException {
+        this.write(this.serialize(match));
+    };
+
+
+    /**
+     * Finish the export.
+     * As the stream may already be partially transmitted,
+     * errors are appended as final lines, as a JSON object
+     * in the NDJSON format and as rows with the match identifier
+     * <tt>#error</tt> and the message in the match column in the
+     * CSV format.
+     */
+    @Override
+    public void close () {
+        this.setTotalResults(this.exported);
+
+        // Nothing can be transmitted anymore
+        if (this.aborted)
+            return;
+
+        try {
+            if (this.hasErrors()) {
+                if (this.format == Format.NDJSON) {
+                    this.writer.write("{\"errors\":"
+                            + this.getErrors().toJsonNode().toString()
+                            + "}\n");
+                }
+                else {
+                    for (Message msg : this.getErrors())
+                        this.writer.write(this._csvError(msg) + "\n");
+                };
+            };
+            this.writer.flush();
+        }
+        catch (IOException e) {
+            log.warn(e.getLocalizedMessage());
+        };
+    };
+
+
+    // Write to the stream and remember failures
+    private void _write (String str) throws IOException {
+        try {
+            this.writer.write(str);
+        }
+        catch (IOException e) {
+            this.aborted = true;
+            throw e;
+        };
+    };
+
+
+    // Serialize an error as a CSV row with the columns of a match
+    private String _csvError (Message msg) {
+        final StringBuilder sb = new StringBuilder();
+        _csv(sb, "#error");
+        for (int i = 0; i < this.fields.size(); i++)
+            sb.append(',');
+        sb.append(',');
+        _csv(sb.append(','), msg.getCode() + ": " + msg.getMessage());
+        sb.append(',');
+        return sb.toString();
+    };
+
+
+    // Get the offset following the closing tag of a span,
+    // respecting nested spans, or -1 in case it is not closed
+    private static int _spanEnd (String html, int start) {
+        final Matcher tag = SPANS.matcher(html);
+        int depth = 0;
+        while (tag.find(start)) {
+            start = tag.end();
+            if (html.charAt(tag.start() + 1) == '/') {
+                if (--depth == 0)
+                    return html.indexOf('>', start) + 1;
+            }
+            else {
+                depth++;
+            };
+        };
+        return -1;
+    };
+
+
+    // Remove markup from a snippet part
+    private static String _plain (String html) {
+        return TAGS.matcher(html).replaceAll("").replace("&lt;", "<")
+                .replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&amp;", "&");
+    };
+
+
+    // Append a quoted CSV value
+    private static void _csv (StringBuilder sb, String value) {
+        if (value == null)
+            return;
+        sb.append('"').append(value.replace("\"", "\"\"").replace('\n', ' '))
+                .append('"');
+    };
+};
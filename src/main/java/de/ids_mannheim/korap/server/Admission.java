@@ -0,0 +1,166 @@
+package de.ids_mannheim.korap.server;
+
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for searches based on the
+ * estimated cost of their queries
+ * (see {@link de.ids_mannheim.korap.KrillIndex#estimateCost}).
+ *
+ * Depending on configurable cost limits, a search is
+ * <ul>
+ * <li>run immediately,</li>
+ * <li>queued, i.e. only a limited number of costly searches
+ * run concurrently (<tt>krill.admission.queue</tt>,
+ * <tt>krill.admission.concurrency</tt>),</li>
+ * <li>queued and forced to not count all matches
+ * (<tt>krill.admission.cutOff</tt>) or</li>
+ * <li>rejected (<tt>krill.admission.reject</tt>).</li>
+ * </ul>
+ * Limits of <tt>0</tt> are disabled, so per default
+ * all searches are run immediately.
+ *
+ * <blockquote><pre>
+ * Admission admission = new Admission(properties);
+ * if (admission.decide(cost) == Admission.Decision.REJECT) ...
+ * </pre></blockquote>
+ */
+public class Admission {
+
+    // Logger
+    private final static Logger log = LoggerFactory.getLogger(Admission.class);
+
+    /**
+     * The decision on a search.
+     */
+    public enum Decision {
+        RUN, QUEUE, CUTOFF, REJECT
+    };
+
+    private final long queueCost, cutOffCost, rejectCost;
+
+    // Slots for queued searches
+    private final Semaphore slots;
+
+
+    /**
+     * Construct a new admission policy.
+     *
+     * @param queueCost
+     *            The cost of searches to queue.
+     * @param cutOffCost
+     *            The cost of searches to queue and cut off.
+     * @param rejectCost
+     *            The cost of searches to reject.
+     * @param concurrency
+     *            The number of queued searches
+     *            running concurrently.
+     */
+    public Admission (long queueCost, long cutOffCost, long rejectCost,
+                      int concurrency) {
+        this.queueCost = queueCost;
+        this.cutOffCost = cutOffCost;
+        this.rejectCost = rejectCost;
+        this.slots = new Semaphore(concurrency > 0 ? concurrency : 1, true);
+    };
+
+
+    /**
+     * Construct a new admission policy based on
+     * the <tt>krill.admission.*</tt> properties.
+     *
+     * @param prop
+     *            The {@link Properties}, may be <code>null</code>.
+     */
+    public Admission (Properties prop) {
+        this(property(prop, "krill.admission.queue"),
+                property(prop, "krill.admission.cutOff"),
+                property(prop, "krill.admission.reject"),
+                (int) property(prop, "krill.admission.concurrency"));
+    };
+
+
+    /**
+     * Check if the admission control is enabled.
+     * Otherwise costs don't need to be estimated.
+     *
+     * @return <code>true</code> in case any limit is set.
+     */
+    public boolean isEnabled () {
+        return this.queueCost > 0 || this.cutOffCost > 0
+                || this.rejectCost > 0;
+    };
+
+
+    /**
+     * Decide on a search based on its estimated cost.
+     *
+     * @param cost
+     *            The estimated cost,
+     *            negative in case it is unknown.
+     * @return The {@link Decision}.
+     */
+    public Decision decide (long cost) {
+        if (cost < 0)
+            return Decision.RUN;
+
+        if (this.rejectCost > 0 && cost >= this.rejectCost)
+            return Decision.REJECT;
+
+        if (this.cutOffCost > 0 && cost >= this.cutOffCost)
+            return Decision.CUTOFF;
+
+        if (this.queueCost > 0 && cost >= this.queueCost)
+            return Decision.QUEUE;
+
+        return Decision.RUN;
+    };
+
+
+    /**
+     * Wait for a slot to run a queued search.
+     * The slot needs to be released by {@link #release()}.
+     *
+     * @param timeout
+     *            The maximum time to wait in milliseconds.
+     * @return <code>true</code> in case a slot was acquired,
+     *         <code>false</code> in case of a timeout.
+     */
+    public boolean acquire (long timeout) {
+        try {
+            return this.slots.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    };
+
+
+    /**
+     * Release a slot acquired by {@link #acquire(long)}.
+     */
+    public void release () {
+        this.slots.release();
+    };
+
+
+    // Get a numerical property, defaults to 0
+    private static long property (Properties prop, String key) {
+        if (prop == null || prop.getProperty(key) == null)
+            return 0;
+
+        try {
+            return Long.parseLong(prop.getProperty(key).trim());
+        }
+        catch (NumberFormatException e) {
+            log.error("{} expected to be a numerical value", key);
+        };
+        return 0;
+    };
+};
@@ -52,6 +52,9 @@ public class Node {
     // Index
     private static KrillIndex index;
 
+    // Admission control of costly searches
+    private static Admission admission;
+
     // Database
     private static ComboPooledDataSource cpds;
     private static String dbUser, dbPwd;
@@ -123,6 +126,9 @@ public class Node {
         dbClass = prop.getProperty("krill.db.class", dbClass);
         dbURL = prop.getProperty("krill.db.jdbcURL", dbURL);
 
+        // Admission properties
+        admission = new Admission(prop);
+
         // create a resource config that scans for JAX-RS resources and providers
         // in de.ids_mannheim.korap.server package
         final ResourceConfig rc = new ResourceConfig()
@@ -218,6 +224,18 @@ public class Node {
     };
 
 
+    /**
+     * Get the admission control of costly searches.
+     * 
+     * @return The {@link Admission} policy.
+     */
+    public static Admission getAdmission () {
+        if (admission == null)
+            admission = new Admission(null);
+        return admission;
+    };
+
+
     /**
      * Shut down the database pool.
      */
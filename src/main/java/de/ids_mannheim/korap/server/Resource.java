@@ -13,6 +13,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.ext.ReaderInterceptor;
 import javax.ws.rs.ext.ReaderInterceptorContext;
 import javax.ws.rs.ext.WriterInterceptor;
@@ -23,15 +24,21 @@ import de.ids_mannheim.korap.server.Node;
 import de.ids_mannheim.korap.Krill;
 import de.ids_mannheim.korap.KrillIndex;
 import de.ids_mannheim.korap.KrillCollection;
+import de.ids_mannheim.korap.KrillStats;
 import de.ids_mannheim.korap.response.Result;
 import de.ids_mannheim.korap.response.Match;
 import de.ids_mannheim.korap.response.Response;
 import de.ids_mannheim.korap.response.MatchCollector;
 import de.ids_mannheim.korap.response.collector.MatchCollectorDB;
+import de.ids_mannheim.korap.response.collector.MatchExporter;
 import de.ids_mannheim.korap.util.QueryException;
+import de.ids_mannheim.korap.util.StatusCodes;
 import de.ids_mannheim.korap.index.FieldDocument;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.zip.GZIPInputStream;
@@ -43,7 +50,9 @@ import org.slf4j.LoggerFactory;
 import java.sql.SQLException;
 import com.mchange.v2.c3p0.ComboPooledDataSource;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
@@ -211,22 +220,45 @@ public class Resource {
         KrillIndex ki = Node.getIndex();
 
         ObjectNode obj = mapper.createObjectNode();
-        obj.put("tokens", ki.numberOf("tokens"));
-        obj.put("base/texts", ki.numberOf("base/texts"));
-        obj.put("base/sentences", ki.numberOf("base/sentences"));
-        obj.put("base/paragraphs", ki.numberOf("base/paragraphs"));
 
-        // <legacy>
-        obj.put("sentences", ki.numberOf("sentences"));
-        obj.put("paragraphs", ki.numberOf("paragraphs"));
-        // </legacy>
+        // Retrieve all numbers in a single pass
+        Map<String, Long> numbers = ki.numbersOf("tokens", "tokens",
+                "base/texts", "base/sentences", "base/paragraphs",
+                // <legacy>
+                "sentences", "paragraphs"
+                // </legacy>
+                );
+
+        for (Map.Entry<String, Long> number : numbers.entrySet())
+            obj.put(number.getKey(), number.getValue());
 
         kresp.addJsonNode("stats", obj);
         return kresp.toJsonString();
     };
 
 
-    // PUT: Return corpus info for virtual corpus
+    /**
+     * Return statistics of a virtual collection,
+     * like the number of texts, meta counts and
+     * annotations per foundry and layer.
+     *
+     * @param json
+     *            A KoralQuery with an optional collection.
+     */
+    @POST
+    @Path("/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public String stats (String json) {
+
+        final Response kresp = _initResponse();
+        if (kresp.hasErrors())
+            return kresp.toJsonString();
+
+        final KrillStats ks = new KrillStats(json);
+        kresp.setStats(ks.apply(Node.getIndex()));
+        return kresp.toJsonString();
+    };
 
 
     /**
@@ -317,6 +349,64 @@ public class Resource {
 
 
 
+    /**
+     * Export all matches of a query as a stream of
+     * newline delimited JSON (<tt>format=ndjson</tt>, the default)
+     * or CSV (<tt>format=csv</tt>) lines, independent of
+     * the page size of a search.
+     * Segments can be processed in parallel using the
+     * <tt>threads</tt> parameter.
+     *
+     * @param json
+     *            JSON-LD string with search and potential meta
+     *            filters.
+     */
+    @POST
+    @Path("/export")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public javax.ws.rs.core.Response export (String json,
+            @Context UriInfo uri) {
+
+        final Response kresp = _initResponse();
+        if (kresp.hasErrors())
+            return _jsonResponse(kresp);
+
+        final Krill ks = new Krill(json);
+        if (ks.hasErrors()) {
+            kresp.moveNotificationsFrom(ks);
+            return _jsonResponse(kresp);
+        };
+
+        // Get query parameters
+        final MultivaluedMap<String, String> qp = uri.getQueryParameters();
+        final MatchExporter.Format format = MatchExporter
+                .format(qp.getFirst("format"));
+
+        int threads = 1;
+        if (qp.getFirst("threads") != null) {
+            try {
+                threads = Integer.parseInt(qp.getFirst("threads"));
+            }
+            catch (NumberFormatException e) {
+                kresp.addError(610, "Missing request parameters",
+                        "threads is not a number");
+                return _jsonResponse(kresp);
+            };
+        };
+        final int exportThreads = threads;
+
+        // The response is written in chunks while matches are found
+        final StreamingOutput stream = os -> {
+            final MatchExporter exporter = new MatchExporter(os, format,
+                    ks.getMeta().getFields());
+            Node.getIndex().export(ks, exporter, exportThreads);
+        };
+
+        return javax.ws.rs.core.Response.ok(stream, format.getMediaType())
+                .build();
+    };
+
+
     /* These routes are still wip: */
 
 
@@ -324,6 +414,13 @@ public class Resource {
     /**
      * Search the lucene index.
      * 
+     * In case an admission policy is configured
+     * (see {@link Admission}), the cost of the query
+     * is estimated and reported in the response,
+     * and costly searches are queued, cut off or
+     * rejected (690). Searches that can't be admitted
+     * within their timeout are aborted (692).
+     * 
      * @param json
      *            JSON-LD string with search and potential meta
      *            filters.
@@ -338,10 +435,63 @@ public class Resource {
         if (kresp.hasErrors())
             return kresp.toJsonString();
 
+        final Krill ks = new Krill(json);
+        final KrillIndex index = Node.getIndex();
+        final Admission admission = Node.getAdmission();
+
         // Search index
         // Reuse Response
-        Result kr = new Krill(json).apply(Node.getIndex());
-        return kr.toJsonString();
+        if (ks.hasErrors() || index == null || !admission.isEnabled())
+            return ks.apply(index).toJsonString();
+
+        // Estimate the cost of the query
+        final long cost = index.estimateCost(ks);
+        kresp.setCost(cost);
+
+        switch (admission.decide(cost)) {
+            case REJECT:
+                kresp.addError(StatusCodes.QUERY_TOO_COSTLY,
+                        "Query is too costly", String.valueOf(cost));
+                return kresp.toJsonString();
+
+            case CUTOFF:
+                ks.getMeta().setCutOff(true);
+                ks.addWarning(StatusCodes.MATCHES_NOT_COUNTED,
+                        "Matches are not counted due to the query cost");
+                // fall through
+
+            // Costly searches wait for a slot
+            case QUEUE:
+                final long timeout = ks.getMeta().getTimeOut();
+                final long queued = System.currentTimeMillis();
+                if (!admission.acquire(timeout)) {
+                    kresp.addError(StatusCodes.QUEUE_TIME_EXCEEDED,
+                            "Response time exceeded while queued",
+                            String.valueOf(timeout));
+                    return kresp.toJsonString();
+                };
+
+                try {
+                    // The time spent in the queue
+                    // is part of the response time
+                    final long remaining = timeout
+                            - (System.currentTimeMillis() - queued);
+                    if (remaining <= 0) {
+                        kresp.addError(StatusCodes.QUEUE_TIME_EXCEEDED,
+                                "Response time exceeded while queued",
+                                String.valueOf(timeout));
+                        return kresp.toJsonString();
+                    };
+                    ks.getMeta().setTimeOut(remaining);
+                    return ks.apply(index).setCost(cost).toJsonString();
+                }
+                finally {
+                    admission.release();
+                }
+
+            default:
+                return ks.apply(index).setCost(cost).toJsonString();
+        }
     };
 
 
@@ -355,10 +505,90 @@ public class Resource {
         if (kresp.hasErrors())
             return kresp.toJsonString();
 
+        try {
+            // Get match info
+            return this._matchInfos(Collections.singletonList(id), uri)
+                    .get(0).toJsonString();
+        }
+
+        // Nothing found
+        catch (QueryException qe) {
+            // Todo: Make Match rely on Response!
+            kresp.addError(qe.getErrorCode(), qe.getMessage());
+        };
+
+        return kresp.toJsonString();
+    };
+
+
+    /**
+     * Get information on multiple matches at once,
+     * e.g. for all matches of a result page.
+     * Expects a JSON object with a list of match identifiers:
+     * 
+     * <pre>
+     * {"matchIDs":["match-...","match-..."]}
+     * </pre>
+     * 
+     * The query parameters are identical to
+     * <tt>GET /match/{matchID}</tt>.
+     * Responds with the list of matches in the order of the
+     * identifiers.
+     * 
+     * @param json
+     *            The list of match identifiers as a JSON string.
+     */
+    @POST
+    @Path("/match")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public String matches (String json, @Context UriInfo uri) {
+
+        Response kresp = _initResponse();
+        if (kresp.hasErrors())
+            return kresp.toJsonString();
+
+        final List<String> ids = new ArrayList<String>();
+        try {
+            for (JsonNode id : new ObjectMapper().readTree(json)
+                    .path("matchIDs"))
+                ids.add(id.asText());
+        }
+        catch (IOException e) {
+            kresp.addError(621, "Unable to parse JSON");
+            return kresp.toJsonString();
+        };
+
+        if (ids.isEmpty()) {
+            kresp.addError(610, "Missing request parameters",
+                    "No match IDs were given");
+            return kresp.toJsonString();
+        };
+
+        try {
+            ObjectNode response = (ObjectNode) kresp.toJsonNode();
+            ArrayNode matches = response.putArray("matches");
+            for (Match match : this._matchInfos(ids, uri))
+                matches.add(match.toJsonNode());
+            return response.toString();
+        }
+
+        // Nothing found
+        catch (QueryException qe) {
+            kresp.addError(qe.getErrorCode(), qe.getMessage());
+        };
+
+        return kresp.toJsonString();
+    };
+
+
+    // Retrieve match information based on query parameters
+    private List<Match> _matchInfos (List<String> ids, UriInfo uri)
+            throws QueryException {
+
         // Get index
         KrillIndex index = Node.getIndex();
 
-
         // Get query parameters
         MultivaluedMap<String, String> qp = uri.getQueryParameters();
 
@@ -387,21 +617,8 @@ public class Resource {
         List<String> foundries = qp.get("foundry");
         List<String> layers = qp.get("layer");
 
-        try {
-            // Get match info
-            return index
-                    .getMatchInfo(id, "tokens", info, foundries, layers,
-                            includeSpans, includeHighlights, extendToSentence)
-                    .toJsonString();
-        }
-
-        // Nothing found
-        catch (QueryException qe) {
-            // Todo: Make Match rely on Response!
-            kresp.addError(qe.getErrorCode(), qe.getMessage());
-        };
-
-        return kresp.toJsonString();
+        return index.getMatchInfos(ids, "tokens", info, foundries, layers,
+                includeSpans, includeHighlights, extendToSentence);
     };
 
 
@@ -477,6 +694,13 @@ public class Resource {
     };
 
 
+    // Wrap a JSON response
+    private static javax.ws.rs.core.Response _jsonResponse (Response kresp) {
+        return javax.ws.rs.core.Response
+                .ok(kresp.toJsonString(), MediaType.APPLICATION_JSON).build();
+    };
+
+
     // Check if a string is meant to represent null
     private static boolean _isNull (String value) {
         if (value == null)
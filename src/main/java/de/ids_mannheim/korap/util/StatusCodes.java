@@ -8,6 +8,7 @@ public class StatusCodes {
     public static final int UNABLE_TP_COMMIT_STAGED_DATA_TO_INDEX = 603;
     public static final int UNABLE_TO_CONNECT_TO_DB = 604;
     public static final int MISSING_KRILL_PROPERTIES = 605;
+    public static final int UNABLE_TO_WRITE_EXPORT = 606;
     public static final int MISSING_REQUEST_PARAMETER = 610;
     public static final int ARBITRARY_DESERIALIZATION_ERROR = 613;
     public static final int UNABLE_TO_GENERATE_JSON = 620;
@@ -18,6 +19,9 @@ public class StatusCodes {
     public static final int DOC_ADDED = 681;
     public static final int RESPONSE_TIME_EXCEEDED = 682;
     public static final int STAGED_DATA_COMMITTED = 683;
+    public static final int QUERY_TOO_COSTLY = 690;
+    public static final int MATCHES_NOT_COUNTED = 691;
+    public static final int QUEUE_TIME_EXCEEDED = 692;
 
     // 700 - 799 - KoralQuery Deserialization errors
     public static final int NO_QUERY_GIVEN = 700;
@@ -83,6 +87,7 @@ public class StatusCodes {
     // 900 - 999 - Corpus Data errors 
     public static final int INVALID_OFFSET = 952;
     public static final int INCOMPLETE_OFFSET = 953;
+    public static final int INVALID_TERM_ENCODING = 954;
     public static final int INVALID_FOUNDRY = 970;
 
 }
@@ -6,7 +6,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
 
+import org.apache.lucene.store.MMapDirectory;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -67,6 +69,40 @@ public class TestIndexer {
         assertEquals("Added or updated 5 files.\n", outputStream.toString());
     }
 
+    @Test
+    public void testRecursiveThreads () throws IOException {
+        File nested = new File(outputDirectory, "input/a/b");
+        nested.mkdirs();
+        Files.copy(new File("src/test/resources/bzk/D59-00089.json.gz")
+                .toPath(), new File(outputDirectory, "input/D59-00089.json.gz")
+                .toPath());
+        for (String file : new File("src/test/resources/goe").list()) {
+            Files.copy(new File("src/test/resources/goe", file).toPath(),
+                    new File(nested, file).toPath());
+        };
+
+        Indexer.main(new String[] { "-c", "src/test/resources/krill.properties",
+                                    "-i", outputDirectory + "/input",
+                                    "-o", outputDirectory + "/index",
+                                    "-t", "3"});
+        assertEquals("Added or updated 4 files.\n", outputStream.toString());
+    }
+
+    @Test
+    public void testBulkLoad () throws IOException {
+        Indexer.main(new String[] { "-c", "src/test/resources/krill.properties",
+                                    "-i", "src/test/resources/wiki",
+                                    "-o", outputDirectory + "/bulk",
+                                    "-b", "-m", "1"});
+        assertEquals("Added 19 files.\n", outputStream.toString());
+
+        KrillIndex ki = new KrillIndex(new MMapDirectory(
+                new File(outputDirectory, "bulk").toPath()));
+        assertEquals(19, ki.numberOf("documents"));
+        assertEquals(1, ki.reader().leaves().size());
+        ki.close();
+    }
+
     @Test
     public void testEmptyArgument () throws IOException {
         Indexer.main(new String[] {});
@@ -0,0 +1,70 @@
+package de.ids_mannheim.korap.benchmark;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+import de.ids_mannheim.korap.response.collector.MatchCollectorDB;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+@RunWith(JUnit4.class)
+public class TestBenchmarkMatchCollectorDB {
+
+    private final int rows = 1000000;
+    private long t1 = 0, t2 = 0;
+
+
+    @Test
+    public void insertMatchCounts () throws Exception {
+        System.setProperty("com.mchange.v2.log.MLog",
+                "com.mchange.v2.log.FallbackMLog");
+        System.setProperty("com.mchange.v2.log.FallbackMLog.DEFAULT_CUTOFF_LEVEL",
+                "WARNING");
+
+        ComboPooledDataSource cpds = new ComboPooledDataSource();
+        cpds.setDriverClass("org.sqlite.JDBC");
+        cpds.setJdbcUrl("jdbc:sqlite:");
+
+        Connection conn = cpds.getConnection();
+        conn.setAutoCommit(false);
+        Statement stat = conn.createStatement();
+        stat.executeUpdate("CREATE TABLE IF NOT EXISTS bench "
+                + "(text_id INTEGER, match_count INTEGER);");
+        conn.commit();
+
+        MatchCollectorDB mc = new MatchCollectorDB(1000, "bench");
+        mc.setDBPool("sqlite", cpds, conn);
+
+        t1 = System.nanoTime();
+        for (int i = 1; i <= rows; i++)
+            mc.add(i, i % 100);
+        t2 = System.nanoTime();
+
+        // Time spent in the collecting thread
+        double collect = (double) (t2 - t1) / 1000000000.0;
+
+        mc.close(false);
+        t2 = System.nanoTime();
+        double seconds = (double) (t2 - t1) / 1000000000.0;
+
+        assertFalse(mc.hasErrors());
+
+        ResultSet rs = stat
+                .executeQuery("SELECT count('*') AS num FROM bench;");
+        assertEquals(rows, rs.getInt("num"));
+        rs.close();
+        stat.close();
+        conn.close();
+
+        System.err.println("Collect: " + collect + " seconds");
+        System.err.println("Total: " + seconds + " seconds ("
+                + (long) (rows / seconds) + " rows/s)");
+    };
+};
@@ -0,0 +1,82 @@
+package de.ids_mannheim.korap.benchmark;
+
+import static de.ids_mannheim.korap.TestSimple.simpleFieldDoc;
+
+import java.io.IOException;
+
+import org.apache.lucene.search.spans.SpanQuery;
+
+import de.ids_mannheim.korap.Krill;
+import de.ids_mannheim.korap.KrillIndex;
+import de.ids_mannheim.korap.query.QueryBuilder;
+import de.ids_mannheim.korap.response.Result;
+import de.ids_mannheim.korap.util.QueryException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measure repetition queries on documents with long runs
+ * of adjacent matches.
+ */
+@RunWith(JUnit4.class)
+public class TestBenchmarkRepetition {
+
+    private final int rounds = 10;
+    private final int docs = 50;
+    private final int runLength = 500;
+
+
+    @Test
+    public void repetitionOnLongRuns () throws IOException, QueryException {
+        KrillIndex ki = new KrillIndex();
+
+        // Every document consists of a single long run
+        StringBuilder sb = new StringBuilder("b");
+        for (int i = 0; i < runLength; i++)
+            sb.append('c');
+        sb.append('d');
+
+        for (int i = 0; i < docs; i++)
+            ki.addDoc(simpleFieldDoc(sb.toString()));
+        ki.commit();
+
+        QueryBuilder qb = new QueryBuilder("base");
+
+        // c{1,10}
+        SpanQuery sq = qb.repeat(qb.seg("s:c"), 1, 10).toQuery();
+        long total = this.benchmark("c{1,10}", ki, sq);
+
+        // Every position starts up to 10 matches
+        assertEquals((long) docs * (runLength * 10 - 45), total);
+
+        // b c{2,5} d
+        sq = qb.seq(qb.seg("s:b")).append(qb.repeat(qb.seg("s:c"), 2, 5))
+                .append(qb.seg("s:d")).toQuery();
+        assertEquals(0, this.benchmark("b c{2,5} d", ki, sq));
+
+        // c{2,5} d
+        sq = qb.seq(qb.repeat(qb.seg("s:c"), 2, 5)).append(qb.seg("s:d"))
+                .toQuery();
+        assertEquals((long) docs * 4, this.benchmark("c{2,5} d", ki, sq));
+    };
+
+
+    // Search the query multiple times and return the number of matches
+    private long benchmark (String name, KrillIndex ki, SpanQuery sq) {
+        Krill ks = new Krill(sq);
+        ks.getMeta().setCount((short) 25);
+
+        Result kr = null;
+        long t1 = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            kr = ks.apply(ki);
+        double ms = (double) (System.nanoTime() - t1) / 1000000.0 / rounds;
+
+        System.err.println(
+                String.format("%s: %.2fms per search", name, ms));
+        return kr.getTotalResults();
+    };
+};
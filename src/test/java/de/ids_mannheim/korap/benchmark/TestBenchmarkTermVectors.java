@@ -0,0 +1,111 @@
+package de.ids_mannheim.korap.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.store.MMapDirectory;
+
+import de.ids_mannheim.korap.Krill;
+import de.ids_mannheim.korap.KrillIndex;
+import de.ids_mannheim.korap.query.QueryBuilder;
+import de.ids_mannheim.korap.response.Match;
+import de.ids_mannheim.korap.response.Result;
+import de.ids_mannheim.korap.util.QueryException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Compare indices with and without term vectors
+ * regarding index size, build time and match info latency.
+ */
+@RunWith(JUnit4.class)
+public class TestBenchmarkTermVectors {
+
+    private final int rounds = 10;
+
+
+    @Test
+    public void compareTermVectors () throws Exception {
+        Path dir = Files.createTempDirectory("krill-tv");
+        try {
+            String[] withTV = this.benchmark(dir.resolve("tv"), true);
+            String[] withoutTV = this.benchmark(dir.resolve("notv"), false);
+
+            System.err.println("With term vectors:    " + withTV[0]);
+            System.err.println("Without term vectors: " + withoutTV[0]);
+
+            // The match information is identical
+            assertEquals(withTV[1], withoutTV[1]);
+        }
+        finally {
+            _delete(dir.toFile());
+        };
+    };
+
+
+    // Build an index and retrieve match information
+    private String[] benchmark (Path path, boolean termVectors)
+            throws IOException, QueryException {
+        KrillIndex ki = new KrillIndex(new MMapDirectory(path));
+        ki.setTermVectors(termVectors);
+
+        long t1 = System.nanoTime();
+        for (File file : new File(getClass().getResource("/wiki").getFile())
+                .listFiles()) {
+            if (file.getName().endsWith(".json.gz"))
+                ki.addDoc(Files.newInputStream(file.toPath()), true);
+        };
+        ki.commit();
+        double build = (double) (System.nanoTime() - t1) / 1000000000.0;
+
+        long size = 0;
+        for (File file : path.toFile().listFiles())
+            size += file.length();
+
+        // Get some matches
+        QueryBuilder qb = new QueryBuilder("tokens");
+        Krill ks = new Krill(qb.seg("opennlp/p:NE"));
+        ks.getMeta().setCount((short) 25);
+        Result kr = ks.apply(ki);
+
+        List<String> ids = new ArrayList<String>();
+        for (Match km : kr.getMatches())
+            ids.add(km.getID());
+
+        StringBuilder info = new StringBuilder();
+        t1 = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            info.setLength(0);
+            for (String id : ids) {
+                info.append(ki.getMatchInfo(id, "tokens", true,
+                        (String) null, (String) null, true, true, false)
+                        .getSnippetBrackets());
+            };
+        };
+        double latency = (double) (System.nanoTime() - t1) / 1000000.0
+                / (rounds * Math.max(ids.size(), 1));
+
+        ki.close();
+
+        return new String[] {
+                String.format("%.2f MB, built in %.2fs, %.3fms per match info",
+                        size / (1024.0 * 1024.0), build, latency),
+                info.toString() };
+    };
+
+
+    private static void _delete (File file) {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles())
+                _delete(child);
+        };
+        file.delete();
+    };
+};
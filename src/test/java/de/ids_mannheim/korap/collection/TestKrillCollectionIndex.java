@@ -2,6 +2,7 @@ package de.ids_mannheim.korap.collection;
 
 import java.io.IOException;
 
+import java.util.Map;
 import java.util.Properties;
 
 import de.ids_mannheim.korap.KrillIndex;
@@ -1334,6 +1335,58 @@ public class TestKrillCollectionIndex {
     };
 
 
+    @Test
+    public void filterExampleNumbersOfCached () throws Exception {
+
+        // Construct index
+        KrillIndex ki = new KrillIndex();
+        // Indexing test files
+        for (String i : new String[] { "00001", "00002", "00003", "00004",
+                "00005", "00006" }) {
+            ki.addDoc(getClass().getResourceAsStream("/wiki/" + i + ".json.gz"),
+                    true);
+        };
+        ki.commit();
+
+        KrillCollection kc = new KrillCollection(ki);
+        CollectionBuilder cb = kc.build();
+        kc.filter(cb.andGroup().with(cb.term("textClass", "reisen"))
+                .with(cb.term("textClass", "freizeit-unterhaltung")));
+
+        assertEquals(0, ki.getStatisticsCache().size());
+
+        Map<String, Long> numbers = kc.numbersOf("tokens", "documents",
+                "tokens", "sentences", "paragraphs");
+        assertEquals(4, numbers.size());
+        assertTrue(ki.getStatisticsCache().size() > 0);
+
+        // Cached values are identical
+        assertEquals(numbers, kc.numbersOf("tokens", "documents", "tokens",
+                "sentences", "paragraphs"));
+        assertEquals((long) numbers.get("tokens"), kc.numberOf("tokens"));
+
+        // Add a new segment
+        ki.addDoc(getClass().getResourceAsStream("/wiki/02439.json.gz"),
+                true);
+        ki.commit();
+
+        numbers = kc.numbersOf("tokens", "documents", "tokens", "sentences",
+                "paragraphs");
+
+        assertEquals("Documents", 5, (long) numbers.get("documents"));
+        assertEquals("Tokens", 1678, (long) numbers.get("tokens"));
+        assertEquals("Sentences", 194, (long) numbers.get("sentences"));
+        assertEquals("Paragraphs", 139, (long) numbers.get("paragraphs"));
+        assertEquals("Documents", 5, kc.docCount());
+        assertEquals("Documents", 5, kc.docCount("tokens"));
+
+        // The order of types is kept
+        assertEquals("[paragraphs, documents]",
+                kc.numbersOf("tokens", "paragraphs", "documents").keySet()
+                        .toString());
+    };
+
+
     @Test
     public void uidCollectionLegacy () throws IOException {
 
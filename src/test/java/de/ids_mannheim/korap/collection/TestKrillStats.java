@@ -0,0 +1,153 @@
+package de.ids_mannheim.korap.collection;
+
+import java.io.IOException;
+
+import de.ids_mannheim.korap.KrillIndex;
+import de.ids_mannheim.korap.KrillCollection;
+import de.ids_mannheim.korap.KrillStats;
+import de.ids_mannheim.korap.index.FieldDocument;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+@RunWith(JUnit4.class)
+public class TestKrillStats {
+    private KrillIndex ki;
+
+
+    @Test
+    public void testStatsIndex () throws IOException {
+        ki = new KrillIndex();
+        ki.addDoc(createDoc1());
+        ki.commit();
+        ki.addDoc(createDoc2());
+        ki.commit();
+
+        KrillStats ks = new KrillStats("{}").apply(ki);
+        assertFalse(ks.hasErrors());
+
+        assertEquals(2, ks.getValue(null, null, "texts"));
+        assertEquals(5, ks.getValue(null, null, "tokens"));
+        assertEquals(3, ks.getValue("base", null, "sentences"));
+        assertEquals(3, ks.getValue("base", "s", "s"));
+        assertEquals(3, ks.getValue("opennlp", "p", "tokens"));
+        assertEquals(5, ks.getValue(null, "s", "tokens"));
+        assertEquals(5, ks.getValue(null, "i", "tokens"));
+        assertEquals(0, ks.getValue("mate", "p", "tokens"));
+        assertEquals(7, ks.size());
+
+        JsonNode res = ks.toJsonNode();
+        assertEquals("koral:stats", res.at("/@type").asText());
+        assertEquals("stats:collection", res.at("/collection/0/@type").asText());
+        assertEquals("texts", res.at("/collection/0/key").asText());
+        assertEquals(2, res.at("/collection/0/value").asInt());
+        assertTrue(res.at("/collection/0/foundry").isMissingNode());
+        assertEquals("base", res.at("/collection/5/foundry").asText());
+        assertEquals("s", res.at("/collection/5/layer").asText());
+        assertEquals("s", res.at("/collection/5/key").asText());
+        assertEquals(3, res.at("/collection/5/value").asInt());
+
+        // Statistics are cached
+        assertTrue(ki.getStatisticsCache().size() > 0);
+        ks = new KrillStats("{}").apply(ki);
+        assertEquals(5, ks.getValue(null, null, "tokens"));
+    };
+
+
+    @Test
+    public void testStatsCollection () throws IOException {
+        ki = new KrillIndex();
+        ki.addDoc(createDoc1());
+        ki.commit();
+        ki.addDoc(createDoc2());
+        ki.commit();
+
+        KrillCollection kc = new KrillCollection();
+        kc.fromBuilder(kc.build().term("author", "Frank"));
+
+        KrillStats ks = new KrillStats(kc).apply(ki);
+        assertEquals(1, ks.getValue(null, null, "texts"));
+        assertEquals(3, ks.getValue(null, null, "tokens"));
+        assertEquals(1, ks.getValue("base", null, "sentences"));
+        assertEquals(1, ks.getValue("base", "s", "s"));
+        assertEquals(2, ks.getValue("opennlp", "p", "tokens"));
+        assertEquals(3, ks.getValue(null, "s", "tokens"));
+
+        // Statistics of the new revision
+        ki.addDoc(createDoc3());
+        ki.commit();
+
+        ks = new KrillStats(kc).apply(ki);
+        assertEquals(2, ks.getValue(null, null, "texts"));
+        assertEquals(4, ks.getValue(null, null, "tokens"));
+        assertEquals(2, ks.getValue("base", null, "sentences"));
+        assertEquals(2, ks.getValue("base", "s", "s"));
+        assertEquals(3, ks.getValue("opennlp", "p", "tokens"));
+    };
+
+
+    @Test
+    public void testStatsKoral () throws IOException {
+        ki = new KrillIndex();
+        ki.addDoc(createDoc1());
+        ki.addDoc(createDoc2());
+        ki.commit();
+
+        KrillStats ks = new KrillStats("{\"collection\":{"
+                + "\"@type\":\"koral:doc\",\"key\":\"author\","
+                + "\"value\":\"Peter\",\"match\":\"match:eq\"}}").apply(ki);
+        assertFalse(ks.hasErrors());
+        assertEquals(1, ks.getValue(null, null, "texts"));
+        assertEquals(2, ks.getValue(null, null, "tokens"));
+        assertEquals(2, ks.getValue("base", "s", "s"));
+
+        ks = new KrillStats("{lalala}").apply(ki);
+        assertTrue(ks.hasErrors());
+        assertEquals(0, ks.size());
+    };
+
+
+    private FieldDocument createDoc1 () {
+        FieldDocument fd = new FieldDocument();
+        fd.addString("UID", "1");
+        fd.addString("author", "Frank");
+        fd.addTV("tokens", "abc",
+                "[(0-1)s:a|i:a|opennlp/p:X|_0$<i>0<i>1|-:tokens$<i>3"
+                        + "|-:base/sentences$<i>1"
+                        + "|<>:base/s:s$<b>64<i>0<i>3<i>3<b>0]"
+                        + "[(1-2)s:b|i:b|opennlp/p:Y|_1$<i>1<i>2]"
+                        + "[(2-3)s:c|i:c|_2$<i>2<i>3]");
+        return fd;
+    };
+
+
+    private FieldDocument createDoc2 () {
+        FieldDocument fd = new FieldDocument();
+        fd.addString("UID", "2");
+        fd.addString("author", "Peter");
+        fd.addTV("tokens", "ab",
+                "[(0-1)s:a|i:a|opennlp/p:X|_0$<i>0<i>1|-:tokens$<i>2"
+                        + "|-:base/sentences$<i>2"
+                        + "|<>:base/s:s$<b>64<i>0<i>1<i>1<b>0]"
+                        + "[(1-2)s:b|i:b|_1$<i>1<i>2"
+                        + "|<>:base/s:s$<b>64<i>1<i>2<i>2<b>0]");
+        return fd;
+    };
+
+
+    private FieldDocument createDoc3 () {
+        FieldDocument fd = new FieldDocument();
+        fd.addString("UID", "3");
+        fd.addString("author", "Frank");
+        fd.addTV("tokens", "c",
+                "[(0-1)s:c|i:c|opennlp/p:Z|_0$<i>0<i>1|-:tokens$<i>1"
+                        + "|-:base/sentences$<i>1"
+                        + "|<>:base/s:s$<b>64<i>0<i>1<i>1<b>0]");
+        return fd;
+    };
+};
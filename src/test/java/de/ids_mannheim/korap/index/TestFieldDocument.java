@@ -3,6 +3,7 @@ package de.ids_mannheim.korap.index;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 
 import java.util.*;
@@ -10,6 +11,7 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URLDecoder;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.lucene.search.spans.SpanQuery;
 import org.junit.Test;
@@ -18,6 +20,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import static de.ids_mannheim.korap.TestSimple.*;
 import de.ids_mannheim.korap.Krill;
@@ -31,7 +34,12 @@ import de.ids_mannheim.korap.response.MetaFields;
 import de.ids_mannheim.korap.response.Result;
 import de.ids_mannheim.korap.util.QueryException;
 
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
 
 
 @RunWith(JUnit4.class)
@@ -101,6 +109,32 @@ public class TestFieldDocument {
     };
 
 
+    @Test
+    public void indexCountValues () throws IOException {
+        FieldDocument fd = new FieldDocument();
+        fd.addString("ID", "WPD-AAA-00001");
+        fd.addTV("tokens", "abc",
+                "[(0-1)s:a|i:a|_0$<i>0<i>1|-:tokens$<i>3|-:t$<i>10]"
+                        + "[(1-2)s:b|i:b|_1$<i>1<i>2|-:t$<i>5]"
+                        + "[(2-3)s:c|i:c|_2$<i>2<i>3]");
+
+        assertEquals(3, fd.doc.getField(FieldDocument.countField("tokens", "tokens"))
+                .numericValue().longValue());
+
+        // Only the first occurrence is respected
+        assertEquals(10, fd.doc.getField(FieldDocument.countField("tokens", "t"))
+                .numericValue().longValue());
+
+        KrillIndex ki = new KrillIndex();
+        ki.addDoc(fd);
+        ki.commit();
+
+        assertEquals(3, ki.numberOf("tokens"));
+        assertEquals(10, ki.numberOf("t"));
+        assertEquals(0, ki.numberOf("sentences"));
+    };
+
+
     @Test
     public void indexExample2 () throws Exception {
 
@@ -274,6 +308,68 @@ public class TestFieldDocument {
         assertEquals(fd.getFieldValueAsDate("pubDate").toDisplay(), "");
 	};
 
+    @Test
+    public void indexStreamingParser () throws Exception {
+        String file = "/goe/AGA-03828.json.gz";
+
+        FieldDocument fd = FieldDocumentParser.parse(
+                new GZIPInputStream(getClass().getResourceAsStream(file)));
+        FieldDocument fdBound = new ObjectMapper().readValue(
+                new GZIPInputStream(getClass().getResourceAsStream(file)),
+                FieldDocument.class);
+
+        assertFalse(fd.hasErrors());
+        assertNotNull(fd.getTextSigle());
+        assertEquals(fdBound.getTextSigle(), fd.getTextSigle());
+        assertEquals(fdBound.getPrimaryData(), fd.getPrimaryData());
+
+        // The streamed document is identical to the bound document
+        List<IndexableField> fields = fd.compile().getFields();
+        List<IndexableField> fieldsBound = fdBound.compile().getFields();
+        assertEquals(fieldsBound.size(), fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            assertEquals(fieldsBound.get(i).name(), fields.get(i).name());
+            assertEquals(fieldsBound.get(i).stringValue(),
+                    fields.get(i).stringValue());
+        };
+
+        assertEquals(
+                ((MultiTermTokenStream) fdBound.doc.getField("tokens")
+                        .tokenStreamValue()).toString(),
+                ((MultiTermTokenStream) fd.doc.getField("tokens")
+                        .tokenStreamValue()).toString());
+
+        // The spooled document is identical to the streamed document
+        FieldDocument fdSpooled = FieldDocumentParser.stream(
+                new GZIPInputStream(getClass().getResourceAsStream(file)));
+        assertEquals(fd.getTextSigle(), fdSpooled.getTextSigle());
+
+        List<IndexableField> fieldsSpooled = fdSpooled.compile().getFields();
+        assertEquals(fields.size(), fieldsSpooled.size());
+        for (int i = 0; i < fields.size(); i++) {
+            assertEquals(fields.get(i).name(), fieldsSpooled.get(i).name());
+            assertEquals(fields.get(i).stringValue(),
+                    fieldsSpooled.get(i).stringValue());
+            assertEquals(fields.get(i).numericValue(),
+                    fieldsSpooled.get(i).numericValue());
+        };
+
+        assertEquals(
+                _consume(fd.doc.getField("tokens").tokenStreamValue()),
+                _consume(fdSpooled.doc.getField("tokens")
+                        .tokenStreamValue()));
+
+        // Invalid documents
+        try {
+            FieldDocumentParser.parse("[]");
+            fail("Arrays are no valid documents");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Document is not an object"));
+        };
+    };
+
+
     @Test
     public void indexNewMetaData () throws Exception {
 
@@ -781,4 +877,23 @@ public class TestFieldDocument {
             + "  ]"
             + "}");
     };
+
+
+    // Serialize all terms, increments and payloads of a token stream
+    private static String _consume (TokenStream ts) throws IOException {
+        CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+        PositionIncrementAttribute posIncr = ts
+                .addAttribute(PositionIncrementAttribute.class);
+        PayloadAttribute payload = ts.addAttribute(PayloadAttribute.class);
+
+        StringBuilder sb = new StringBuilder();
+        ts.reset();
+        while (ts.incrementToken()) {
+            sb.append(posIncr.getPositionIncrement()).append(':')
+                    .append(term.toString()).append('$')
+                    .append(payload.getPayload()).append(' ');
+        };
+        ts.close();
+        return sb.toString();
+    };
 };
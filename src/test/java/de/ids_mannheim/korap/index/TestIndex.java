@@ -112,6 +112,48 @@ public class TestIndex { // extends LuceneTestCase {
     };
 
 
+    @Test
+    public void multiTermPayloads () throws Exception {
+        MultiTerm test = new MultiTerm("<>:s#0-38$<b>64<i>0<i>38<i>7<b>0");
+        assertEquals("<>:s", test.getTerm());
+        assertEquals(0, test.getStart());
+        assertEquals(38, test.getEnd());
+        assertEquals("[40 0 0 0 0 0 0 0 26 0 0 0 7 0]",
+                test.getPayload().toString());
+
+        // Invalid values result in no payload
+        test = new MultiTerm("pos:NN#0-4$<b>128<s>1");
+        assertEquals("pos:NN", test.getTerm());
+        assertNull(test.getPayload());
+
+        test = new MultiTerm("a\\$b$c");
+        assertEquals("a$b", test.getTerm());
+        assertEquals("c", test.getPayload().utf8ToString());
+
+        // Array encoding is identical to the string representation
+        FieldDocument fd = FieldDocumentParser.parse("{\"data\":{"
+                + "\"name\":\"tokens\",\"text\":\"abc\",\"stream\":[["
+                + "\"<>:s#0-38$<b>64<i>0<i>38<i>7<b>0\","
+                + "[\"<>:s\",0,38,\"b\",64,\"i\",0,\"i\",38,\"i\",7,\"b\",0],"
+                + "[\"s:a\",0,1],"
+                + "[\"x:y\",\"x\",\"abc\"]"
+                + "],[[\"s:b\",1,2,\"b\",300]]]}}");
+
+        MultiTermTokenStream mtts = (MultiTermTokenStream) fd.doc
+                .getField("tokens").tokenStreamValue();
+        assertEquals(1, mtts.getSize());
+        MultiTermToken mtt = mtts.get(0);
+        assertEquals(mtt.get(0).toString(), mtt.get(1).toString());
+        assertEquals(mtt.get(0).getPayload(), mtt.get(1).getPayload());
+        assertEquals("s:a#0-1", mtt.get(2).toString());
+        assertEquals("x:y$abc", mtt.get(3).toString());
+
+        // Out of range values invalidate the token
+        assertTrue(fd.hasErrors());
+        assertEquals(954, fd.getError(0).getCode());
+    };
+
+
     @Test
     public void multiTermToken () throws CorpusDataException {
         MultiTermToken test = new MultiTermToken("hunde", "pos:n", "m:gen:pl");
@@ -3,11 +3,16 @@ package de.ids_mannheim.korap.index;
 import java.util.*;
 import java.io.*;
 
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
 import org.apache.lucene.util.Version;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Bits;
 
 import static org.junit.Assert.*;
+import static de.ids_mannheim.korap.TestSimple.simpleFieldDoc;
 import org.junit.Test;
 import org.junit.Ignore;
 import org.junit.runner.RunWith;
@@ -16,6 +21,7 @@ import org.junit.runners.JUnit4;
 import de.ids_mannheim.korap.KrillIndex;
 import de.ids_mannheim.korap.KrillQuery;
 import de.ids_mannheim.korap.query.QueryBuilder;
+import de.ids_mannheim.korap.query.SpanNextQuery;
 import de.ids_mannheim.korap.index.FieldDocument;
 import de.ids_mannheim.korap.index.MultiTermTokenStream;
 import de.ids_mannheim.korap.response.Result;
@@ -375,4 +381,204 @@ public class TestKrillIndex {
         assertEquals(1, checkC);
         
     }
+
+
+    @Test
+    public void indexReaderSnapshot () throws IOException {
+        KrillIndex ki = new KrillIndex();
+        assertNull(ki.acquireReader());
+        ki.releaseReader();
+
+        FieldDocument fd = new FieldDocument();
+        fd.addString("textSigle", "a/b/c");
+        ki.addDoc(fd);
+        ki.commit();
+
+        String fingerprint = ki.getFingerprint();
+
+        // Acquire a snapshot
+        IndexReader snapshot = ki.acquireReader();
+        assertEquals(1, snapshot.numDocs());
+
+        fd = new FieldDocument();
+        fd.addString("textSigle", "a/b/d");
+        ki.addDoc(fd);
+        ki.commit();
+
+        // The snapshot is stable
+        assertSame(snapshot, ki.reader());
+        assertSame(snapshot, ki.acquireReader());
+        assertEquals(1, ki.reader().numDocs());
+        assertEquals(fingerprint, ki.getFingerprint());
+        ki.releaseReader();
+        assertSame(snapshot, ki.reader());
+        ki.releaseReader();
+
+        // The snapshot is closed after release
+        assertEquals(0, snapshot.getRefCount());
+        assertEquals(2, ki.reader().numDocs());
+        assertNotEquals(fingerprint, ki.getFingerprint());
+
+        // Refresh in the background
+        ki.setRefreshInterval(10);
+        ki.close();
+        assertFalse(ki.isReaderOpen());
+    };
+
+
+    @Test
+    public void indexPrimaryKeyResolver ()
+            throws IOException, InterruptedException {
+        final KrillIndex ki = new KrillIndex();
+        assertNull(ki.getPrimaryKeyResolver());
+
+        // Add documents in multiple segments
+        for (int i = 1; i <= 3; i++) {
+            FieldDocument fd = new FieldDocument();
+            fd.addString("textSigle", "a/b/" + i);
+            fd.addText("title", "Title " + i);
+            fd.setUID(i);
+            ki.addDoc(fd);
+            ki.commit();
+        };
+
+        PrimaryKeyResolver pk = ki.getPrimaryKeyResolver();
+        assertSame(ki.reader(), pk.getReader());
+        assertSame(pk, ki.getPrimaryKeyResolver());
+
+        PrimaryKeyResolver.Location loc = pk.lookup("textSigle", "a/b/2");
+        assertNotNull(loc);
+        assertEquals("Title 2", loc.getContext().reader()
+                .document(loc.getDocID()).get("title"));
+        assertNull(pk.lookup("textSigle", "a/b/4"));
+        assertNull(pk.lookup("unknown", "a/b/2"));
+        assertEquals(0.0, pk.getHitRate(), 0.0);
+
+        // Cached lookup
+        loc = pk.lookup("textSigle", "a/b/2");
+        assertEquals("Title 2", loc.getContext().reader()
+                .document(loc.getDocID()).get("title"));
+        assertEquals(0.25, pk.getHitRate(), 0.0);
+
+        assertEquals("Title 3", ki.getDoc("3").getFieldValue("title"));
+        assertTrue(ki.getFields("a/b/1").toJsonNode().toString()
+                .contains("Title 1"));
+
+        // Upsert a document
+        FieldDocument fd = new FieldDocument();
+        fd.addString("textSigle", "a/b/2");
+        fd.addText("title", "New title 2");
+        ki.upsertDoc(fd);
+        ki.commit();
+
+        // The resolver is invalidated by the reopened reader
+        assertNotSame(pk, ki.getPrimaryKeyResolver());
+        pk = ki.getPrimaryKeyResolver();
+        loc = pk.lookup("textSigle", "a/b/2");
+        assertEquals("New title 2", loc.getContext().reader()
+                .document(loc.getDocID()).get("title"));
+        assertEquals(3, ki.reader().numDocs());
+
+        // Lookups on an older snapshot keep the resolver
+        // of the newer reader
+        ki.acquireReader();
+        fd = new FieldDocument();
+        fd.addString("textSigle", "a/b/5");
+        ki.addDoc(fd);
+        ki.commit();
+        final PrimaryKeyResolver[] current = new PrimaryKeyResolver[1];
+        Thread t = new Thread(() -> current[0] = ki.getPrimaryKeyResolver());
+        t.start();
+        t.join();
+        assertNotSame(pk, current[0]);
+        assertNotNull(current[0].lookup("textSigle", "a/b/5"));
+
+        assertSame(pk, ki.getPrimaryKeyResolver());
+        assertNull(pk.lookup("textSigle", "a/b/5"));
+        ki.releaseReader();
+        assertSame(current[0], ki.getPrimaryKeyResolver());
+
+        // Disable the cache
+        ki.setPrimaryKeyCacheSize(0);
+        fd = new FieldDocument();
+        fd.addString("textSigle", "a/b/4");
+        ki.addDoc(fd);
+        ki.commit();
+        pk = ki.getPrimaryKeyResolver();
+        assertNotNull(pk.lookup("textSigle", "a/b/1"));
+        assertNotNull(pk.lookup("textSigle", "a/b/4"));
+        assertNotNull(pk.lookup("textSigle", "a/b/1"));
+        assertEquals(0.0, pk.getHitRate(), 0.0);
+        ki.close();
+    };
+
+
+    @Test
+    public void indexTermContextCache ()
+            throws IOException, InterruptedException {
+        KrillIndex ki = new KrillIndex();
+        assertNull(ki.getTermContextCache());
+
+        // Add documents in multiple segments
+        ki.addDoc(simpleFieldDoc("abab"));
+        ki.commit();
+        ki.addDoc(simpleFieldDoc("bbab"));
+        ki.commit();
+
+        SpanQuery sq = new SpanNextQuery(
+                new SpanTermQuery(new Term("base", "s:a")),
+                new SpanTermQuery(new Term("base", "s:b")));
+
+        TermContextCache tc = ki.getTermContextCache();
+        assertSame(ki.reader(), tc.getReader());
+        assertEquals(0, tc.size());
+
+        assertEquals(3, ki.search(sq, (short) 10).getTotalResults());
+        assertEquals(2, tc.size());
+        assertEquals(2, tc.get(new Term("base", "s:a")).docFreq());
+        double hitRate = tc.getHitRate();
+
+        // The contexts are shared by subsequent searches
+        assertEquals(3, ki.search(sq, (short) 10).getTotalResults());
+        assertSame(tc, ki.getTermContextCache());
+        assertEquals(2, tc.size());
+        assertTrue(tc.getHitRate() > hitRate);
+
+        // The cache is invalidated by the reopened reader
+        ki.addDoc(simpleFieldDoc("aab"));
+        ki.commit();
+        assertNotSame(tc, ki.getTermContextCache());
+        tc = ki.getTermContextCache();
+        assertEquals(4, ki.search(sq, (short) 10).getTotalResults());
+        assertEquals(3, tc.get(new Term("base", "s:a")).docFreq());
+
+        // Searches on an older snapshot keep the cache
+        // of the newer reader
+        ki.acquireReader();
+        ki.addDoc(simpleFieldDoc("abb"));
+        ki.commit();
+        final TermContextCache[] current = new TermContextCache[1];
+        Thread t = new Thread(() -> current[0] = ki.getTermContextCache());
+        t.start();
+        t.join();
+        assertNotSame(tc, current[0]);
+
+        assertEquals(4, ki.search(sq, (short) 10).getTotalResults());
+        assertSame(tc, ki.getTermContextCache());
+        ki.releaseReader();
+        assertSame(current[0], ki.getTermContextCache());
+        assertEquals(5, ki.search(sq, (short) 10).getTotalResults());
+        assertEquals(4, current[0].get(new Term("base", "s:a")).docFreq());
+
+        // Disable the cache
+        ki.setTermContextCacheSize(0);
+        ki.addDoc(simpleFieldDoc("ab"));
+        ki.commit();
+        tc = ki.getTermContextCache();
+        assertEquals(6, ki.search(sq, (short) 10).getTotalResults());
+        assertNull(tc.get(new Term("base", "s:a")));
+        assertEquals(0, tc.size());
+        assertEquals(0.0, tc.getHitRate(), 0.0);
+        ki.close();
+    };
 };
@@ -7,6 +7,9 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.Test;
 import org.junit.Ignore;
@@ -290,6 +293,104 @@ public class TestMatchIdentifier {
     };
 
 
+    @Test
+    public void indexWithoutTermVectors () throws IOException, QueryException {
+        KrillIndex kiTV = new KrillIndex();
+        KrillIndex ki = new KrillIndex();
+        ki.setTermVectors(false);
+
+        for (KrillIndex index : new KrillIndex[] { kiTV, ki }) {
+            index.addDoc(createSimpleFieldDoc());
+            index.addDoc(getClass().getResourceAsStream("/goe/AGX-00002.json"),
+                    false);
+            index.commit();
+        };
+
+        // Match information is identical
+        Match km = ki.getMatchInfo("match-c1!d1-p7-9(4)8-8(2)7-8", "tokens",
+                "f", null, false, true);
+        assertEquals("SnippetBrackets",
+                "... [[{2:{f/m:acht:{f/y:eight:b}}{4:{f/m:neun:{f/y:nine:a}}}}]] ...",
+                km.getSnippetBrackets());
+
+        String id = "match-GOE!GOE_AGX.00002-p210-215";
+        assertEquals(
+                kiTV.getMatchInfo(id, "tokens", true, (String) null,
+                        (String) null, true, true, true).toJsonString(),
+                ki.getMatchInfo(id, "tokens", true, (String) null,
+                        (String) null, true, true, true).toJsonString());
+
+        assertEquals(
+                kiTV.getMatchInfo(id, "tokens", true, "corenlp", "p", true,
+                        true, false).getSnippetBrackets(),
+                ki.getMatchInfo(id, "tokens", true, "corenlp", "p", true,
+                        true, false).getSnippetBrackets());
+
+        // Multiple matches of a document with foundry and layer filters
+        List<String> ids = new ArrayList<String>();
+        ids.add(id);
+        ids.add("match-GOE!GOE_AGX.00002-p212-220");
+        ids.add("match-GOE!GOE_AGX.00002-p5-7");
+
+        List<String> foundries = new ArrayList<String>();
+        foundries.add("cnx");
+        foundries.add("xip");
+
+        List<List<String>> layerFilters = new ArrayList<List<String>>();
+        layerFilters.add(null);
+        layerFilters.add(Collections.singletonList("l"));
+        layerFilters.add(Arrays.asList("c", "p"));
+
+        for (List<String> layers : layerFilters) {
+            List<Match> matchesTV = kiTV.getMatchInfos(ids, "tokens", true,
+                    foundries, layers, true, false, false);
+            List<Match> matches = ki.getMatchInfos(ids, "tokens", true,
+                    foundries, layers, true, false, false);
+            for (int i = 0; i < ids.size(); i++) {
+                assertEquals(matchesTV.get(i).toJsonString(),
+                        matches.get(i).toJsonString());
+            };
+        };
+    };
+
+
+    @Test
+    public void indexMatchInfos () throws IOException, QueryException {
+        KrillIndex ki = new KrillIndex();
+        ki.addDoc(createSimpleFieldDoc());
+        ki.addDoc(getClass().getResourceAsStream("/goe/AGX-00002.json"), false);
+        ki.commit();
+
+        List<String> ids = new ArrayList<String>();
+        ids.add("match-c1!d1-p7-9(4)8-8(2)7-8");
+        ids.add("match-GOE!GOE_AGX.00002-p210-215");
+        ids.add("match-invalid");
+        ids.add("match-c1!d1-p3-5");
+
+        List<Match> matches = ki.getMatchInfos(ids, "tokens", true,
+                Collections.singletonList("f"), null, false, true, false);
+        assertEquals(4, matches.size());
+
+        // Matches are identical to single requests
+        assertEquals("... [[{2:{f/m:acht:{f/y:eight:b}}{4:{f/m:neun:{f/y:nine:a}}}}]] ...",
+                matches.get(0).getSnippetBrackets());
+        assertEquals("match-c1!d1-p7-9(4)8-8(2)7-8", matches.get(0).getID());
+
+        for (int i : new int[] { 1, 3 }) {
+            assertEquals(ki.getMatchInfo(ids.get(i), "tokens", true,
+                    Collections.singletonList("f"), null, false, true, false)
+                    .toJsonString(), matches.get(i).toJsonString());
+        };
+        assertEquals("GOE_AGX.00002", matches.get(1).getTextSigle());
+
+        // Invalid foundries are reported for all matches
+        matches = ki.getMatchInfos(ids, "tokens", true,
+                Collections.singletonList("f!"), null, false, true, false);
+        assertEquals(970, matches.get(0).getError(0).getCode());
+        assertEquals(970, matches.get(1).getError(0).getCode());
+    };
+
+
     @Test
     public void indexNewStructure () throws IOException, QueryException {
         KrillIndex ki = new KrillIndex();
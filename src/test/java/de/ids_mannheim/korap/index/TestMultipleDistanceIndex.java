@@ -2,6 +2,8 @@ package de.ids_mannheim.korap.index;
 
 import static de.ids_mannheim.korap.TestSimple.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -32,6 +34,7 @@ import de.ids_mannheim.korap.query.SpanDistanceQuery;
 import de.ids_mannheim.korap.query.SpanElementQuery;
 import de.ids_mannheim.korap.query.SpanMultipleDistanceQuery;
 import de.ids_mannheim.korap.query.SpanNextQuery;
+import de.ids_mannheim.korap.query.spans.MultipleDistanceJoinSpans;
 import de.ids_mannheim.korap.query.wrap.SpanQueryWrapper;
 import de.ids_mannheim.korap.response.Match;
 import de.ids_mannheim.korap.response.Result;
@@ -509,6 +512,176 @@ public class TestMultipleDistanceIndex {
     }
 
 
+    /**
+     * Multi-way join of all constraints
+     */
+    @Test
+    public void testMultiwayJoin () throws IOException {
+        ki = new KrillIndex();
+        ki.addDoc(createFieldDoc0());
+        ki.commit();
+
+        // Ordered - two constraints
+        List<DistanceConstraint> constraints =
+                new ArrayList<DistanceConstraint>();
+        constraints.add(createConstraint("w", 0, 2, true, false));
+        constraints.add(createConstraint("s", 1, 1, true, false));
+
+        SpanMultipleDistanceQuery mdq = (SpanMultipleDistanceQuery) createQuery(
+                "s:b", "s:c", constraints, true);
+        mdq.setMultiwayJoin(true);
+        kr = ki.search(mdq, (short) 10);
+        assertEquals((long) 3, kr.getTotalResults());
+        assertEquals(0, kr.getMatch(0).getStartPos());
+        assertEquals(3, kr.getMatch(0).getEndPos());
+        assertEquals(1, kr.getMatch(1).getStartPos());
+        assertEquals(3, kr.getMatch(1).getEndPos());
+        assertEquals(3, kr.getMatch(2).getStartPos());
+        assertEquals(5, kr.getMatch(2).getEndPos());
+
+        // Three constraints
+        constraints.add(createConstraint("p", 0, 0, true, false));
+        mdq = (SpanMultipleDistanceQuery) createQuery("s:b", "s:c",
+                constraints, true);
+        mdq.setMultiwayJoin(true);
+        kr = ki.search(mdq, (short) 10);
+        assertEquals((long) 2, kr.getTotalResults());
+
+        // Unordered constraints are evaluated nested
+        constraints.clear();
+        constraints.add(createConstraint("w", 0, 2, false, false));
+        constraints.add(createConstraint("s", 0, 0, false, false));
+        assertFalse(MultipleDistanceJoinSpans.supports(constraints, false));
+
+        mdq = (SpanMultipleDistanceQuery) createQuery("s:b", "s:c",
+                constraints, false);
+        mdq.setMultiwayJoin(true);
+        kr = ki.search(mdq, (short) 10);
+        assertEquals((long) 3, kr.getTotalResults());
+
+        // Element constraints require a token constraint
+        constraints.clear();
+        constraints.add(createConstraint("s", 0, 1, true, false));
+        constraints.add(createConstraint("p", 0, 0, true, false));
+        assertFalse(MultipleDistanceJoinSpans.supports(constraints, true));
+
+        // Exclusions and mixed orders are not joined
+        constraints.clear();
+        constraints.add(createConstraint("w", 0, 1, false, true));
+        constraints.add(createConstraint("s", 1, 1, false, false));
+        assertFalse(MultipleDistanceJoinSpans.supports(constraints, false));
+
+        constraints.clear();
+        constraints.add(createConstraint("w", 1, 2, true, false));
+        constraints.add(createConstraint("s", 1, 2, true, false));
+        assertFalse(MultipleDistanceJoinSpans.supports(constraints, false));
+        assertTrue(MultipleDistanceJoinSpans.supports(constraints, true));
+    };
+
+
+    /**
+     * Multi-way join with multiple documents
+     */
+    @Test
+    public void testMultiwayJoinDocuments () throws IOException {
+        ki = new KrillIndex();
+        ki.addDoc(createFieldDoc0());
+        ki.addDoc(createFieldDoc1());
+        ki.addDoc(createFieldDoc2());
+        ki.commit();
+
+        List<DistanceConstraint> constraints =
+                new ArrayList<DistanceConstraint>();
+        constraints.add(createConstraint("w", 1, 2, false, false));
+        constraints.add(createConstraint("s", 1, 2, false, false));
+
+        SpanQuery mdq = createQuery("s:b", "s:e", constraints, true);
+        ki.setDistanceJoin(true);
+        kr = ki.search(new Krill(mdq));
+
+        // The searched query is not modified
+        assertFalse(((SpanMultipleDistanceQuery) mdq).hasMultiwayJoin());
+
+        assertEquals((long) 4, kr.getTotalResults());
+        assertEquals(0, kr.getMatch(0).getLocalDocID());
+        assertEquals(3, kr.getMatch(0).getStartPos());
+        assertEquals(6, kr.getMatch(0).getEndPos());
+        assertEquals(2, kr.getMatch(1).getLocalDocID());
+        assertEquals(0, kr.getMatch(1).getStartPos());
+        assertEquals(3, kr.getMatch(1).getEndPos());
+        assertEquals(1, kr.getMatch(2).getStartPos());
+        assertEquals(3, kr.getMatch(2).getEndPos());
+        assertEquals(3, kr.getMatch(3).getStartPos());
+        assertEquals(5, kr.getMatch(3).getEndPos());
+    };
+
+
+    @Test
+    public void testMultiwayJoinEquality () throws IOException {
+        ki = new KrillIndex();
+        ki.addDoc(createFieldDoc0());
+        ki.addDoc(createFieldDoc1());
+        ki.addDoc(createFieldDoc2());
+        ki.addDoc(createFieldDoc3());
+        ki.commit();
+
+        String[][] operands = new String[][] { { "s:b", "s:c" },
+                { "s:c", "s:b" }, { "s:b", "s:e" }, { "s:e", "s:b" },
+                { "s:c", "s:e" } };
+
+        // Constraints as unit, min and max
+        Object[][][] constraintSets = new Object[][][] {
+                { { "w", 0, 2 }, { "s", 1, 1 } },
+                { { "w", 1, 2 }, { "s", 1, 2 } },
+                { { "w", 0, 2 }, { "s", 0, 0 } },
+                { { "w", 0, 2 }, { "s", 1, 1 }, { "p", 0, 0 } },
+                { { "w", 1, 2 }, { "s", 1, 2 }, { "p", 0, 1 } },
+                { { "s", 0, 1 }, { "w", 1, 3 } },
+                { { "w", 0, 0 }, { "s", 0, 0 } },
+                { { "w", 2, 3 }, { "p", 0, 0 } },
+                { { "w", 1, 1 }, { "s", 0, 1 } },
+                { { "w", 0, 3 }, { "p", 0, 1 } } };
+
+        Result withoutJoin, withJoin;
+        for (boolean isOrdered : new boolean[] { true, false }) {
+            for (String[] operand : operands) {
+                for (Object[][] constraintSet : constraintSets) {
+                    List<DistanceConstraint> constraints =
+                            new ArrayList<DistanceConstraint>();
+                    for (Object[] c : constraintSet) {
+                        constraints.add(createConstraint((String) c[0],
+                                (int) c[1], (int) c[2], isOrdered, false));
+                    };
+
+                    SpanQuery mdq = createQuery(operand[0], operand[1],
+                            constraints, isOrdered);
+
+                    ki.setDistanceJoin(false);
+                    withoutJoin = ki.search(mdq, (short) 100);
+                    ki.setDistanceJoin(true);
+                    withJoin = ki.search(mdq, (short) 100);
+
+                    assertEquals(mdq.toString(),
+                            withoutJoin.getTotalResults(),
+                            withJoin.getTotalResults());
+                    for (int i = 0; i < withoutJoin.getMatches()
+                            .size(); i++) {
+                        Match m1 = withoutJoin.getMatch(i);
+                        Match m2 = withJoin.getMatch(i);
+                        assertEquals(mdq.toString(), m1.getLocalDocID(),
+                                m2.getLocalDocID());
+                        assertEquals(mdq.toString(), m1.getStartPos(),
+                                m2.getStartPos());
+                        assertEquals(mdq.toString(), m1.getEndPos(),
+                                m2.getEndPos());
+                    };
+                };
+            };
+        };
+        ki.setDistanceJoin(false);
+    };
+
+
     /**
      * Exclusion
      * Gaps
@@ -2,6 +2,9 @@ package de.ids_mannheim.korap.index;
 
 import static de.ids_mannheim.korap.TestSimple.simpleFieldDoc;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -23,6 +26,7 @@ import de.ids_mannheim.korap.query.SpanElementQuery;
 import de.ids_mannheim.korap.query.SpanExpansionQuery;
 import de.ids_mannheim.korap.query.SpanFocusQuery;
 import de.ids_mannheim.korap.query.SpanNextQuery;
+import de.ids_mannheim.korap.query.TermSequence;
 import de.ids_mannheim.korap.query.wrap.SpanSequenceQueryWrapper;
 import de.ids_mannheim.korap.response.Match;
 import de.ids_mannheim.korap.response.Result;
@@ -523,6 +527,71 @@ public class TestNextIndex {
         assertEquals("totalResults", kr.getTotalResults(), 3);
     };
 
+    @Test
+    public void indexExampleTermSequence () throws IOException {
+        KrillIndex ki = new KrillIndex();
+
+        // abcabcabac
+        FieldDocument fd = new FieldDocument();
+        fd.addTV("base", "abcabcabac", "[(0-1)s:a|i:a|_0$<i>0<i>1|-:t$<i>10]"
+                + "[(1-2)s:b|i:b|_1$<i>1<i>2]" + "[(2-3)s:c|i:c|_2$<i>2<i>3]"
+                + "[(3-4)s:a|i:a|_3$<i>3<i>4]" + "[(4-5)s:b|i:b|_4$<i>4<i>5]"
+                + "[(5-6)s:c|i:c|_5$<i>5<i>6]" + "[(6-7)s:a|i:a|_6$<i>6<i>7]"
+                + "[(7-8)s:b|i:b|_7$<i>7<i>8]" + "[(8-9)s:a|i:a|_8$<i>8<i>9]"
+                + "[(9-10)s:c|i:c|_9$<i>9<i>10]");
+        ki.addDoc(fd);
+        ki.commit();
+
+        // a[]c
+        SpanNextQuery sq = new SpanNextQuery(
+                new SpanTermQuery(new Term("base", "s:a")),
+                new SpanExpansionQuery(
+                        new SpanTermQuery(new Term("base", "s:c")), 1, 1, -1,
+                        (byte) 1, true));
+
+        TermSequence sequence = TermSequence.of(sq);
+        assertNotNull(sequence);
+        assertEquals(3, sequence.getLength());
+        assertEquals(3, sequence.size());
+        assertEquals(2, sequence.getStart(1));
+        assertFalse(sequence.isTerm(2));
+        assertEquals(1, sequence.getStart(2));
+        assertEquals(2, sequence.getEnd(2));
+
+        Result kr = ki.search(sq, (short) 10);
+        assertEquals(2, kr.getTotalResults());
+        assertEquals(0, kr.getMatch(0).startPos);
+        assertEquals(3, kr.getMatch(0).endPos);
+        assertEquals(3, kr.getMatch(1).startPos);
+        assertEquals(6, kr.getMatch(1).endPos);
+        assertEquals("[[a{1:b}c]]abcabac",
+                kr.getMatch(0).getSnippetBrackets());
+
+        // []bc
+        sq = new SpanNextQuery(
+                new SpanExpansionQuery(
+                        new SpanTermQuery(new Term("base", "s:b")), 1, 1, -1,
+                        true),
+                new SpanTermQuery(new Term("base", "s:c")));
+        kr = ki.search(sq, (short) 10);
+        assertEquals(2, kr.getTotalResults());
+        assertEquals(0, kr.getMatch(0).startPos);
+        assertEquals(3, kr.getMatch(0).endPos);
+        assertEquals(3, kr.getMatch(1).startPos);
+        assertEquals(6, kr.getMatch(1).endPos);
+
+        // Operators relying on payloads are no term sequences
+        sq = new SpanNextQuery(
+                new SpanFocusQuery(new SpanClassQuery(
+                        new SpanTermQuery(new Term("base", "s:a")), (byte) 1),
+                        (byte) 1),
+                new SpanTermQuery(new Term("base", "s:b")));
+        assertNull(TermSequence.of(sq));
+        kr = ki.search(sq, (short) 10);
+        assertEquals(3, kr.getTotalResults());
+    };
+
+
     private FieldDocument createFieldDoc1 () {
         FieldDocument fd = new FieldDocument();
         fd.addString("ID", "doc-0");
@@ -5,6 +5,7 @@ import static org.junit.Assert.fail;
 
 import java.io.*;
 import java.net.URLDecoder;
+import java.util.Collections;
 import static de.ids_mannheim.korap.TestSimple.*;
 
 import org.apache.lucene.index.Term;
@@ -1161,4 +1162,88 @@ public class TestWithinIndex {
         Result kr = ki.search(sq, (short) 1);
         assertEquals(1, kr.getTotalResults());
     }
+
+
+    @Test
+    public void indexIntervals () throws IOException {
+        KrillIndex ki = new KrillIndex();
+
+        // <a>x<a>y<a>zhij</a>hij</a>hij</a>
+        FieldDocument fd = new FieldDocument();
+        fd.addTV("base", "x   y   z   h   i   j   h   i   j   h   i   j   ",
+                "[(0-3)s:x|<>:a$<b>64<i>0<i>36<i>12<b>0]" + // 1
+                        "[(3-6)s:y|<>:a$<b>64<i>3<i>27<i>9<b>0]" + // 2
+                        "[(6-9)s:z|<>:a$<b>64<i>6<i>18<i>6<b>0]" + // 3
+                        "[(9-12)s:h]" +   // 4
+                        "[(12-15)s:i]" +  // 5
+                        "[(15-18)s:j|<>:a$<b>64<i>15<i>24<i>8<b>0]" + // 6
+                        "[(18-21)s:h]" +  // 7
+                        "[(21-24)s:i]" +  // 8
+                        "[(24-27)s:j]" +  // 9
+                        "[(27-30)s:h]" +  // 10
+                        "[(30-33)s:i]" +  // 11
+                        "[(33-36)s:j]");  // 12
+        ki.addDoc(fd);
+        ki.commit();
+
+        SpanWithinQuery sq = new SpanWithinQuery(
+                new SpanElementQuery("base", "a"),
+                new SpanTermQuery(new Term("base", "s:h")));
+
+        // Interval index is enabled for the element
+        ki.setIntervalElements("a");
+        Result kr = ki.search(sq, (short) 10);
+        assertEquals(true, ((SpanWithinQuery) SpanWithinQuery
+                .withIntervalIndex(sq, Collections.singleton("a")))
+                        .hasIntervalIndex());
+
+        // The searched query is not modified
+        assertEquals(false, sq.hasIntervalIndex());
+
+        assertEquals("totalResults", kr.getTotalResults(), 7);
+        assertEquals("StartPos (0)", 0, kr.getMatch(0).startPos);
+        assertEquals("EndPos (0)", 12, kr.getMatch(0).endPos);
+        assertEquals("StartPos (2)", 0, kr.getMatch(2).startPos);
+        assertEquals("EndPos (2)", 12, kr.getMatch(2).endPos);
+        assertEquals("StartPos (3)", 1, kr.getMatch(3).startPos);
+        assertEquals("EndPos (3)", 9, kr.getMatch(3).endPos);
+        assertEquals("StartPos (4)", 1, kr.getMatch(4).startPos);
+        assertEquals("EndPos (4)", 9, kr.getMatch(4).endPos);
+        assertEquals("StartPos (5)", 2, kr.getMatch(5).startPos);
+        assertEquals("EndPos (5)", 6, kr.getMatch(5).endPos);
+        assertEquals("StartPos (6)", 5, kr.getMatch(6).startPos);
+        assertEquals("EndPos (6)", 8, kr.getMatch(6).endPos);
+
+        // The interval index gives the same results
+        // for all containment conditions
+        byte[] flags = new byte[] { SpanWithinQuery.WITHIN,
+                SpanWithinQuery.REAL_WITHIN, SpanWithinQuery.STARTSWITH,
+                SpanWithinQuery.ENDSWITH, SpanWithinQuery.MATCH };
+        SpanQuery[] embedded = new SpanQuery[] {
+                new SpanTermQuery(new Term("base", "s:h")),
+                new SpanTermQuery(new Term("base", "s:x")),
+                new SpanTermQuery(new Term("base", "s:j")) };
+
+        for (byte flag : flags) {
+            for (SpanQuery e : embedded) {
+                ki.setIntervalElements("a");
+                Result withIndex = ki.search(new SpanWithinQuery(
+                        new SpanElementQuery("base", "a"), e, flag),
+                        (short) 20);
+                ki.setIntervalElements();
+                Result withoutIndex = ki.search(new SpanWithinQuery(
+                        new SpanElementQuery("base", "a"), e, flag),
+                        (short) 20);
+
+                assertEquals(withoutIndex.getTotalResults(),
+                        withIndex.getTotalResults());
+                for (int i = 0; i < withIndex.getMatches().size(); i++) {
+                    assertEquals(withoutIndex.getMatch(i).getStartPos(),
+                            withIndex.getMatch(i).getStartPos());
+                    assertEquals(withoutIndex.getMatch(i).getEndPos(),
+                            withIndex.getMatch(i).getEndPos());
+                };
+            };
+        };
+    };
 };
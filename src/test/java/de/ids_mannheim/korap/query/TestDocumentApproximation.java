@@ -0,0 +1,112 @@
+package de.ids_mannheim.korap.query;
+
+import static de.ids_mannheim.korap.TestSimple.simpleFieldDoc;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.util.Bits;
+
+import de.ids_mannheim.korap.KrillIndex;
+import de.ids_mannheim.korap.response.Result;
+import de.ids_mannheim.korap.util.QueryException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestDocumentApproximation {
+
+    private QueryBuilder qb = new QueryBuilder("base");
+
+
+    private Set<Term> required (SpanQuery sq) {
+        Set<Term> terms = new HashSet<Term>();
+        DocumentApproximation.extractRequiredTerms(sq, terms);
+        return terms;
+    };
+
+
+    private Term term (String term) {
+        return new Term("base", term);
+    };
+
+
+    @Test
+    public void requiredTerms () throws QueryException {
+        Set<Term> terms = required(qb.seq(qb.seg("s:a"), qb.seg("s:b")).toQuery());
+        assertEquals(2, terms.size());
+        assertTrue(terms.contains(term("s:a")));
+        assertTrue(terms.contains(term("s:b")));
+
+        // Alternatives are not required
+        assertTrue(required(qb.or("s:a", "s:b").toQuery()).isEmpty());
+
+        terms = required(qb.seq(qb.seg("s:a"), qb.or("s:b", "s:c")).toQuery());
+        assertEquals(1, terms.size());
+        assertTrue(terms.contains(term("s:a")));
+
+        terms = required(qb.contains(qb.tag("x"), qb.seg("s:a")).toQuery());
+        assertEquals(2, terms.size());
+        assertTrue(terms.contains(term("<>:x")));
+        assertTrue(terms.contains(term("s:a")));
+
+        terms = required(
+                qb.nr(1, qb.seq(qb.seg("s:a"), qb.seg("s:b"))).toQuery());
+        assertEquals(2, terms.size());
+    };
+
+
+    @Test
+    public void approximateDocuments () throws IOException, QueryException {
+        KrillIndex ki = new KrillIndex();
+        ki.addDoc(simpleFieldDoc("ab"));
+        ki.addDoc(simpleFieldDoc("ac"));
+        ki.addDoc(simpleFieldDoc("ba"));
+        ki.addDoc(simpleFieldDoc("abab"));
+        ki.commit();
+
+        LeafReaderContext atomic = ki.reader().leaves().get(0);
+
+        SpanQuery sq = qb.seq(qb.seg("s:a"), qb.seg("s:b")).toQuery();
+        Bits docs = DocumentApproximation.approximate(sq, atomic, null);
+        assertTrue(docs.get(0));
+        assertFalse(docs.get(1));
+        assertTrue(docs.get(2));
+        assertTrue(docs.get(3));
+        assertEquals(4, docs.length());
+
+        // Documents are determined on request, in any order
+        docs = DocumentApproximation.approximate(sq, atomic, null);
+        assertTrue(docs.get(2));
+        assertFalse(docs.get(1));
+        assertTrue(docs.get(0));
+        assertTrue(docs.get(3));
+        assertFalse(docs.get(1));
+
+        // Missing terms
+        sq = qb.seq(qb.seg("s:a"), qb.seg("s:x")).toQuery();
+        docs = DocumentApproximation.approximate(sq, atomic, null);
+        for (int i = 0; i < 4; i++)
+            assertFalse(docs.get(i));
+
+        // Single terms are not approximated
+        sq = qb.seg("s:a").toQuery();
+        assertNull(DocumentApproximation.approximate(sq, atomic, null));
+
+        // The approximation doesn't change the results
+        Result kr = ki.search(qb.seq(qb.seg("s:a"), qb.seg("s:b")).toQuery(),
+                (short) 10);
+        assertEquals(3, kr.getTotalResults());
+        assertEquals("[[ab]]", kr.getMatch(0).getSnippetBrackets());
+        assertEquals("[[ab]]ab", kr.getMatch(1).getSnippetBrackets());
+        assertEquals("ab[[ab]]", kr.getMatch(2).getSnippetBrackets());
+        ki.close();
+    };
+};
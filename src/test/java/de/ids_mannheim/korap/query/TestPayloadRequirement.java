@@ -0,0 +1,108 @@
+package de.ids_mannheim.korap.query;
+
+import static de.ids_mannheim.korap.TestSimple.simpleFieldDoc;
+
+import java.io.IOException;
+
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+
+import de.ids_mannheim.korap.Krill;
+import de.ids_mannheim.korap.KrillIndex;
+import de.ids_mannheim.korap.response.Result;
+import de.ids_mannheim.korap.util.QueryException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestPayloadRequirement {
+
+    private QueryBuilder qb = new QueryBuilder("base");
+
+
+    @Test
+    public void rewriteWithoutPayloads () throws QueryException {
+        SpanQuery sq = qb.seg("s:a").toQuery();
+        SpanQuery pq = PayloadRequirement.withoutPayloads(sq);
+        assertTrue(pq instanceof SpanTermPositionsQuery);
+        assertEquals(sq.toString(), pq.toString());
+
+        // Positional operators don't collect payloads
+        sq = qb.seq(qb.seg("s:a"), qb.or("s:b", "s:c")).toQuery();
+        pq = PayloadRequirement.withoutPayloads(sq);
+        assertTrue(pq instanceof SpanNextQuery);
+        assertFalse(((SpanNextQuery) pq).isCollectPayloads());
+        assertTrue(((SpanNextQuery) pq)
+                .getFirstClause() instanceof SpanTermPositionsQuery);
+        SpanQuery[] alternatives = ((SpanOrQuery) ((SpanNextQuery) pq)
+                .getSecondClause()).getClauses();
+        assertTrue(alternatives[0] instanceof SpanTermPositionsQuery);
+        assertTrue(alternatives[1] instanceof SpanTermPositionsQuery);
+
+        // The original query is unchanged
+        assertTrue(((SpanNextQuery) sq).isCollectPayloads());
+        assertFalse(((SpanNextQuery) sq)
+                .getFirstClause() instanceof SpanTermPositionsQuery);
+
+        // Classes are omitted
+        sq = qb.nr(1, qb.seg("s:a")).toQuery();
+        pq = PayloadRequirement.withoutPayloads(sq);
+        assertTrue(pq instanceof SpanTermPositionsQuery);
+
+        // Focus requires payloads
+        sq = qb.focus(1, qb.seq(qb.seg("s:a"), qb.nr(1, qb.seg("s:b"))))
+                .toQuery();
+        assertSame(sq, PayloadRequirement.withoutPayloads(sq));
+
+        // Elements require payloads
+        sq = qb.tag("x").toQuery();
+        assertSame(sq, PayloadRequirement.withoutPayloads(sq));
+    };
+
+
+    @Test
+    public void searchWithoutPayloads () throws IOException, QueryException {
+        KrillIndex ki = new KrillIndex();
+        ki.addDoc(simpleFieldDoc("abcabd"));
+        ki.addDoc(simpleFieldDoc("bbab"));
+        ki.addDoc(simpleFieldDoc("cabab"));
+        ki.commit();
+
+        SpanQuery[] queries = new SpanQuery[] {
+                qb.seq(qb.seg("s:a"), qb.seg("s:b")).toQuery(),
+                qb.seq(qb.nr(1, qb.seg("s:a")), qb.or("s:b", "s:c"))
+                        .toQuery(),
+                qb.repeat(qb.seg("s:b"), 1, 2).toQuery(),
+                qb.focus(1, qb.seq(qb.seg("s:a"), qb.nr(1, qb.seg("s:b"))))
+                        .toQuery() };
+
+        for (SpanQuery sq : queries) {
+            Krill ks = new Krill(sq);
+            ks.getMeta().setCount((short) 20).setCutOff(false);
+            Result withPayloads = ki.search(ks);
+
+            ks = new Krill(sq);
+            ks.getMeta().setCount((short) 20).setCutOff(false)
+                    .setSnippets(false);
+            Result withoutPayloads = ki.search(ks);
+
+            assertEquals(withPayloads.getTotalResults(),
+                    withoutPayloads.getTotalResults());
+            assertEquals(withPayloads.getMatches().size(),
+                    withoutPayloads.getMatches().size());
+
+            for (int i = 0; i < withPayloads.getMatches().size(); i++) {
+                assertEquals(withPayloads.getMatch(i).getDocID(),
+                        withoutPayloads.getMatch(i).getDocID());
+                assertEquals(withPayloads.getMatch(i).getStartPos(),
+                        withoutPayloads.getMatch(i).getStartPos());
+                assertEquals(withPayloads.getMatch(i).getEndPos(),
+                        withoutPayloads.getMatch(i).getEndPos());
+            };
+        };
+        ki.close();
+    };
+};
@@ -0,0 +1,89 @@
+package de.ids_mannheim.korap.query;
+
+import static de.ids_mannheim.korap.TestSimple.simpleFieldDoc;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+import de.ids_mannheim.korap.Krill;
+import de.ids_mannheim.korap.KrillIndex;
+import de.ids_mannheim.korap.util.QueryException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestSpanQueryCost {
+
+    private QueryBuilder qb = new QueryBuilder("base");
+
+
+    private SpanQuery term (String term) {
+        return new SpanTermQuery(new Term("base", term));
+    };
+
+
+    private long estimate (KrillIndex ki, SpanQuery sq) throws IOException {
+        return SpanQueryCost.estimate(sq, ki.reader(),
+                new HashMap<Term, TermContext>());
+    };
+
+
+    @Test
+    public void estimateQueries () throws IOException {
+        KrillIndex ki = new KrillIndex();
+        ki.addDoc(simpleFieldDoc("abcabd"));
+        ki.addDoc(simpleFieldDoc("bbab"));
+        ki.addDoc(simpleFieldDoc("cabab"));
+        ki.commit();
+
+        SpanQuery a = term("s:a");
+        SpanQuery b = term("s:b");
+
+        // Terms occur 5 and 7 times
+        assertEquals(5, estimate(ki, a));
+        assertEquals(7, estimate(ki, b));
+        assertEquals(0, estimate(ki, term("s:z")));
+
+        // Operands are merged
+        assertEquals(12, estimate(ki, new SpanOrQuery(a, b)));
+        assertEquals(12, estimate(ki, new SpanNextQuery(a, b)));
+        assertEquals(5,
+                estimate(ki, new SpanFocusQuery(new SpanClassQuery(a))));
+
+        // Fan-out of repetitions and expansions
+        assertEquals(15,
+                estimate(ki, new SpanRepetitionQuery(a, 1, 3, true)));
+        assertEquals(15,
+                estimate(ki, new SpanExpansionQuery(a, 0, 2, 0, true)));
+        assertEquals(20, estimate(ki, new SpanNextQuery(
+                new SpanExpansionQuery(a, 0, 2, 0, true), a)));
+        ki.close();
+    };
+
+
+    @Test
+    public void estimateSearches () throws IOException, QueryException {
+        KrillIndex ki = new KrillIndex();
+        ki.addDoc(simpleFieldDoc("abcabd"));
+        ki.addDoc(simpleFieldDoc("bbab"));
+        ki.commit();
+
+        assertEquals(3, ki.estimateCost(new Krill(qb.seg("s:a"))));
+
+        // Regular expressions are expanded
+        assertEquals(8, ki.estimateCost(new Krill(qb.re("s:[ab]"))));
+
+        // Queries with errors can't be estimated
+        assertEquals(-1, ki.estimateCost(new Krill("{}")));
+        ki.close();
+    };
+};
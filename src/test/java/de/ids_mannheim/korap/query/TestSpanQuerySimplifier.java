@@ -0,0 +1,246 @@
+package de.ids_mannheim.korap.query;
+
+import static de.ids_mannheim.korap.TestSimple.getJsonQuery;
+import static de.ids_mannheim.korap.TestSimple.getSpanInfo;
+import static de.ids_mannheim.korap.TestSimple.simpleFieldDoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+import de.ids_mannheim.korap.KrillIndex;
+import de.ids_mannheim.korap.query.wrap.SpanQueryWrapper;
+import de.ids_mannheim.korap.util.QueryException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestSpanQuerySimplifier {
+
+    private QueryBuilder qb = new QueryBuilder("base");
+
+
+    private SpanQuery term (String term) {
+        return new SpanTermQuery(new Term("base", term));
+    };
+
+
+    @Test
+    public void simplifyQueries () throws QueryException {
+        SpanQuery a = term("s:a");
+        SpanQuery b = term("s:b");
+
+        // Single alternative
+        SpanQuery sq = new SpanOrQuery(a);
+        assertSame(a, SpanQuerySimplifier.simplify(sq, true));
+
+        // Single repetition
+        sq = new SpanRepetitionQuery(a, 1, 1, true);
+        assertSame(a, SpanQuerySimplifier.simplify(sq, true));
+        sq = new SpanRepetitionQuery(new SpanNextQuery(a, b), 1, 1, false);
+        assertFalse(((SpanNextQuery) SpanQuerySimplifier.simplify(sq, true))
+                .isCollectPayloads());
+
+        // Alternatives may have duplicate spans
+        sq = new SpanRepetitionQuery(new SpanOrQuery(a, b), 1, 1, true);
+        assertSame(sq, SpanQuerySimplifier.simplify(sq, true));
+
+        // Subspan covering the whole span
+        sq = new SpanSubspanQuery(new SpanNextQuery(a, b), 0, 0, true);
+        assertEquals("spanNext(base:s:a, base:s:b)",
+                SpanQuerySimplifier.simplify(sq, true).toString());
+
+        // Elements have payloads removed by subspans
+        sq = new SpanSubspanQuery(qb.tag("x").toQuery(), 0, 0, true);
+        assertSame(sq, SpanQuerySimplifier.simplify(sq, true));
+
+        // Highlighted classes are kept
+        sq = new SpanNextQuery(new SpanClassQuery(a, (byte) 1), b);
+        assertSame(sq, SpanQuerySimplifier.simplify(sq, true));
+        assertEquals("spanNext(base:s:a, base:s:b)",
+                SpanQuerySimplifier.simplify(sq, false).toString());
+
+        // Only given highlights are kept
+        Set<Integer> highlights = new HashSet<Integer>();
+        highlights.add(2);
+        sq = new SpanNextQuery(new SpanClassQuery(a, (byte) 1),
+                new SpanClassQuery(b, (byte) 2));
+        assertEquals(new SpanNextQuery(a, new SpanClassQuery(b, (byte) 2))
+                .toString(),
+                SpanQuerySimplifier.simplify(sq, highlights).toString());
+        highlights.add(1);
+        assertSame(sq, SpanQuerySimplifier.simplify(sq, highlights));
+        assertSame(sq, SpanQuerySimplifier.simplify(sq, (Set<Integer>) null));
+
+        // Classes referred to are kept, even if not highlighted
+        highlights.clear();
+        highlights.add(2);
+        sq = new SpanFocusQuery(new SpanNextQuery(
+                new SpanClassQuery(a, (byte) 1), b), (byte) 1);
+        assertSame(sq, SpanQuerySimplifier.simplify(sq, highlights));
+
+        // Temporary classes are only kept when referred to
+        sq = new SpanNextQuery(new SpanClassQuery(a, (byte) 129), b);
+        assertEquals("spanNext(base:s:a, base:s:b)",
+                SpanQuerySimplifier.simplify(sq, true).toString());
+        sq = new SpanFocusQuery(sq, (byte) 129);
+        assertSame(sq, SpanQuerySimplifier.simplify(sq, true));
+
+        // Nested focus
+        SpanFocusQuery inner = new SpanFocusQuery(
+                new SpanNextQuery(new SpanClassQuery(a, (byte) 1), b),
+                (byte) 1);
+        sq = new SpanFocusQuery(inner, (byte) 1);
+        assertSame(inner, SpanQuerySimplifier.simplify(sq, true));
+        sq = new SpanFocusQuery(inner, (byte) 2);
+        assertSame(sq, SpanQuerySimplifier.simplify(sq, true));
+
+        // The original query is unchanged
+        sq = new SpanNextQuery(new SpanRepetitionQuery(a, 1, 1, true),
+                new SpanOrQuery(b));
+        String serialized = sq.toString();
+        assertEquals("spanNext(base:s:a, base:s:b)",
+                SpanQuerySimplifier.simplify(sq, true).toString());
+        assertEquals(serialized, sq.toString());
+    };
+
+
+    @Test
+    public void searchSimplified () throws IOException, QueryException {
+        KrillIndex ki = new KrillIndex();
+        ki.addDoc(simpleFieldDoc("abcabd"));
+        ki.addDoc(simpleFieldDoc("bbab"));
+        ki.addDoc(simpleFieldDoc("cabab"));
+        ki.commit();
+
+        SpanQuery a = term("s:a");
+        SpanQuery b = term("s:b");
+
+        SpanQuery[] queries = new SpanQuery[] {
+                new SpanNextQuery(new SpanClassQuery(a, (byte) 1),
+                        new SpanOrQuery(b)),
+                new SpanRepetitionQuery(
+                        new SpanNextQuery(a, new SpanClassQuery(b, (byte) 2)),
+                        1, 1, true),
+                new SpanSubspanQuery(
+                        new SpanNextQuery(new SpanClassQuery(a, (byte) 1), b),
+                        0, 0, true),
+                new SpanFocusQuery(new SpanFocusQuery(
+                        new SpanNextQuery(a, new SpanClassQuery(b, (byte) 1)),
+                        (byte) 1), (byte) 1) };
+
+        // Simplified queries have identical spans and payloads
+        for (SpanQuery sq : queries) {
+            SpanQuery simplified = SpanQuerySimplifier.simplify(sq, true);
+            assertNotSame(sq, simplified);
+            assertEquals(getSpanInfo(ki.reader(), sq),
+                    getSpanInfo(ki.reader(), simplified));
+        };
+        ki.close();
+    };
+
+
+    @Test
+    public void simplifyJSONQueries () throws IOException {
+        KrillIndex ki = new KrillIndex();
+        for (String i : new String[] { "00001", "00002", "00003", "00004",
+                "00005", "00006", "02439" }) {
+            ki.addDoc(getClass().getResourceAsStream("/wiki/" + i + ".json.gz"),
+                    true);
+        };
+        ki.commit();
+
+        Set<Integer> highlights = new HashSet<Integer>();
+        highlights.add(1);
+
+        // All queries of the query tests, including subdirectories
+        List<File> files = new ArrayList<File>();
+        _queryFiles(new File(getClass().getResource("/queries").getFile()),
+                files);
+
+        for (File file : files) {
+            SpanQuery sq;
+            try {
+                SpanQueryWrapper sqwi = getJsonQuery(file.getPath());
+                if (sqwi == null || sqwi.isNull() || sqwi.isEmpty())
+                    continue;
+                sq = sqwi.toQuery();
+            }
+
+            // Not all files contain valid queries
+            catch (QueryException e) {
+                continue;
+            };
+
+            if (sq == null)
+                continue;
+
+            // The compiled query is never modified
+            String serialized = sq.toString();
+            SpanQuery all = SpanQuerySimplifier.simplify(sq, true);
+            SpanQuery none = SpanQuerySimplifier.simplify(sq, false);
+            SpanQuery some = SpanQuerySimplifier.simplify(sq, highlights);
+            assertEquals(file.getName(), serialized, sq.toString());
+
+            // Simplified queries match the same spans
+            List<String> spans;
+            try {
+                spans = _positions(ki.reader(), sq);
+            }
+
+            // Not all queries can be searched
+            catch (Exception e) {
+                continue;
+            };
+            assertEquals(file.getName(), spans,
+                    _positions(ki.reader(), all));
+            assertEquals(file.getName(), spans,
+                    _positions(ki.reader(), none));
+            assertEquals(file.getName(), spans,
+                    _positions(ki.reader(), some));
+        };
+        ki.close();
+    };
+
+
+    // Collect all query files in a directory
+    private void _queryFiles (File dir, List<File> files) {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory())
+                _queryFiles(file, files);
+            else if (file.getName().endsWith(".jsonld"))
+                files.add(file);
+        };
+    };
+
+
+    // Get the spans of a query without payloads,
+    // as removed classes don't add payloads
+    private List<String> _positions (IndexReader reader, SpanQuery sq)
+            throws IOException {
+
+        // Rewrite query (for regex and wildcard queries)
+        for (Query rewritten = sq.rewrite(reader); !rewritten
+                .equals(sq); rewritten = sq.rewrite(reader)) {
+            sq = (SpanQuery) rewritten;
+        };
+
+        List<String> positions = new ArrayList<String>();
+        for (String span : getSpanInfo(reader, sq))
+            positions.add(span.substring(0, span.indexOf(" ||")));
+        return positions;
+    };
+};
@@ -5,6 +5,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -1386,4 +1388,51 @@ public class TestKrill {
         assertEquals(kr.getMatch(0).getTextSigle(), "GOE_AGX.00002");
     };
 
+    @Test
+    public void searchQueryCache () {
+        Krill.setQueryCacheSize(10);
+        try {
+            String json1 = "{\"query\":{\"@type\":\"koral:token\","
+                    + "\"wrap\":{\"@type\":\"koral:term\","
+                    + "\"layer\":\"orth\",\"key\":\"Baum\","
+                    + "\"match\":\"match:eq\"}}}";
+            String json2 = "{\"query\":{\"wrap\":{\"match\":\"match:eq\","
+                    + "\"key\":\"Baum\",\"layer\":\"orth\","
+                    + "\"@type\":\"koral:term\"},"
+                    + "\"@type\":\"koral:token\"}}";
+
+            // Equivalent queries share the compiled query
+            Krill ks1 = new Krill(json1);
+            Krill ks2 = new Krill(json2);
+            assertTrue(ks1.hasSharedQuery());
+            assertSame(ks1.getSpanQuery(), ks2.getSpanQuery());
+            assertEquals(1, Krill.getQueryCache().size());
+            assertEquals(0.5, Krill.getQueryCache().getHitRate(), 0.0);
+
+            // The query is reserialized as requested
+            assertTrue(ks2.toJsonString().contains("\"wrap\":{\"match\""));
+
+            // Errors are cached as well
+            ks1 = new Krill("{\"query\":{\"wrap\":{}}}");
+            ks2 = new Krill("{\"query\":{\"wrap\":{}}}");
+            assertNull(ks2.getSpanQuery());
+            assertEquals(701, ks1.getError(0).getCode());
+            assertEquals(701, ks2.getError(0).getCode());
+            assertEquals(1, ks2.getErrors().size());
+            assertEquals(2, Krill.getQueryCache().size());
+
+            // Disable the cache
+            Krill.setQueryCacheSize(0);
+            ks1 = new Krill(json1);
+            ks2 = new Krill(json1);
+            assertFalse(ks1.hasSharedQuery());
+            assertNotSame(ks1.getSpanQuery(), ks2.getSpanQuery());
+            assertEquals(ks1.getSpanQuery(), ks2.getSpanQuery());
+            assertEquals(0, Krill.getQueryCache().size());
+        }
+        finally {
+            Krill.setQueryCacheSize(1000);
+        };
+    };
+
 };
@@ -11,6 +11,10 @@ import de.ids_mannheim.korap.KrillQuery;
 import de.ids_mannheim.korap.response.Result;
 import de.ids_mannheim.korap.Krill;
 import de.ids_mannheim.korap.response.Match;
+import de.ids_mannheim.korap.response.Aggregation;
+import de.ids_mannheim.korap.response.Collocations;
+import de.ids_mannheim.korap.response.SearchContext;
+import de.ids_mannheim.korap.response.collector.MatchExporter;
 import de.ids_mannheim.korap.query.QueryBuilder;
 import de.ids_mannheim.korap.index.FieldDocument;
 
@@ -260,4 +264,436 @@ public class TestResult {
         assertEquals(1, res.at("/matches/2/tokens/1/0").asInt());
         assertEquals(2, res.at("/matches/2/tokens/1/1").asInt());
     };
+
+
+    @Test
+    public void checkAggregation () throws Exception {
+        KrillIndex ki = new KrillIndex();
+        ki.setFacets("author", "textClass", "pubDate");
+        _addAggregationDocs(ki);
+
+        QueryBuilder kq = new QueryBuilder("base");
+        Krill ks = new Krill(kq.seg("s:a"));
+        ks.getMeta().setCount(1).addAggregation("author")
+                .addAggregation("textClass").addAggregation("pubDate:year");
+
+        Result kr = ki.search(ks);
+        assertEquals(1, kr.getMatches().size());
+        assertEquals((long) 3, kr.getTotalResults());
+
+        Aggregation agg = kr.getAggregation();
+        assertTrue(agg.isComplete());
+        assertEquals(3, agg.getMatches());
+        assertEquals(2, agg.getDocuments());
+
+        // The total is unknown for cut off searches
+        ks.getMeta().setCutOff(true);
+        kr = ki.search(ks);
+        assertEquals(1, kr.getMatches().size());
+        assertEquals((long) -1, kr.getTotalResults());
+        assertEquals(3, kr.getAggregation().getMatches());
+        ks.getMeta().setCutOff(false);
+
+        assertEquals(2, agg.size("author"));
+        assertEquals(2, agg.getMatches("author", "Frank"));
+        assertEquals(1, agg.getDocuments("author", "Frank"));
+        assertEquals(1, agg.getMatches("author", "Peter"));
+
+        assertEquals(2, agg.size("textClass"));
+        assertEquals(2, agg.getMatches("textClass", "Kultur"));
+        assertEquals(3, agg.getMatches("textClass", "Reisen"));
+        assertEquals(2, agg.getDocuments("textClass", "Reisen"));
+        assertEquals(0, agg.getMatches("textClass", "Finanzen"));
+
+        assertEquals(2, agg.getMatches("pubDate:year", "2005"));
+        assertEquals(1, agg.getMatches("pubDate:year", "2006"));
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode res = mapper.readTree(kr.toJsonString());
+        assertEquals(3, res.at("/aggregation/matches").asInt());
+        assertEquals(2, res.at("/aggregation/documents").asInt());
+        assertEquals("pubDate:year",
+                res.at("/aggregation/fields/2/field").asText());
+        assertEquals("2005",
+                res.at("/aggregation/fields/2/buckets/0/value").asText());
+        assertEquals(2,
+                res.at("/aggregation/fields/2/buckets/0/matches").asInt());
+        assertEquals(1,
+                res.at("/aggregation/fields/2/buckets/0/documents").asInt());
+        assertEquals("textClass", res.at("/meta/aggregate/1").asText());
+
+        // Aggregation is requested via KoralQuery
+        String json = "{\"query\":{\"@type\":\"koral:token\","
+                + "\"wrap\":{\"@type\":\"koral:term\",\"key\":\"a\","
+                + "\"layer\":\"orth\",\"match\":\"match:eq\"}},"
+                + "\"meta\":{\"aggregate\":[\"author\"]}}";
+        ks = new Krill(json);
+        assertEquals("author", ks.getMeta().getAggregations().get(0));
+    };
+
+
+    @Test
+    public void checkAggregationWithoutFacets () throws Exception {
+        KrillIndex ki = new KrillIndex();
+        ki.setFacets("author");
+        _addAggregationDocs(ki);
+
+        QueryBuilder kq = new QueryBuilder("base");
+        Krill ks = new Krill(kq.seg("s:a"));
+        ks.getMeta().setCount(1).addAggregation("author")
+                .addAggregation("textClass").addAggregation("pubDate:year")
+                .addAggregation("pubDate");
+
+        Aggregation agg = ki.search(ks).getAggregation();
+        assertTrue(agg.isComplete());
+        assertEquals(3, agg.getMatches());
+        assertEquals(2, agg.getDocuments());
+
+        assertEquals(2, agg.size("author"));
+        assertEquals(2, agg.getMatches("author", "Frank"));
+        assertEquals(1, agg.getMatches("author", "Peter"));
+
+        // Keywords are aggregated by their indexed terms
+        assertEquals(2, agg.size("textClass"));
+        assertEquals(2, agg.getMatches("textClass", "kultur"));
+        assertEquals(3, agg.getMatches("textClass", "reisen"));
+        assertEquals(2, agg.getDocuments("textClass", "reisen"));
+
+        // Dates are decoded
+        assertEquals(2, agg.size("pubDate:year"));
+        assertEquals(2, agg.getMatches("pubDate:year", "2005"));
+        assertEquals(1, agg.getMatches("pubDate:year", "2006"));
+        assertEquals(2, agg.size("pubDate"));
+        assertEquals(2, agg.getMatches("pubDate", "20051210"));
+        assertEquals(1, agg.getMatches("pubDate", "20061207"));
+    };
+
+
+    private void _addAggregationDocs (KrillIndex ki) throws Exception {
+        FieldDocument fd = new FieldDocument();
+        fd.addString("ID", "doc-1");
+        fd.addString("UID", "1");
+        fd.addString("author", "Frank");
+        fd.addKeywords("textClass", "Kultur Reisen");
+        fd.addDate("pubDate", 20051210);
+        fd.addTV("base", "aba", "[(0-1)s:a|i:a|_0#0-1|-:t$<i>3]"
+                + "[(1-2)s:b|i:b|_1#1-2]" + "[(2-3)s:a|i:a|_2#2-3]");
+        ki.addDoc(fd);
+        ki.commit();
+
+        fd = new FieldDocument();
+        fd.addString("ID", "doc-2");
+        fd.addString("UID", "2");
+        fd.addString("author", "Peter");
+        fd.addKeywords("textClass", "Reisen");
+        fd.addDate("pubDate", 20061207);
+        fd.addTV("base", "ac",
+                "[(0-1)s:a|i:a|_0#0-1|-:t$<i>2]" + "[(1-2)s:c|i:c|_1#1-2]");
+        ki.addDoc(fd);
+        ki.commit();
+
+        fd = new FieldDocument();
+        fd.addString("ID", "doc-3");
+        fd.addString("UID", "3");
+        fd.addString("author", "Frank");
+        fd.addKeywords("textClass", "Finanzen");
+        fd.addDate("pubDate", 20051216);
+        fd.addTV("base", "bc",
+                "[(0-1)s:b|i:b|_0#0-1|-:t$<i>2]" + "[(1-2)s:c|i:c|_1#1-2]");
+        ki.addDoc(fd);
+        ki.commit();
+    };
+
+
+    @Test
+    public void checkExport () throws Exception {
+        KrillIndex ki = new KrillIndex();
+        FieldDocument fd = new FieldDocument();
+        fd.addString("ID", "doc-1");
+        fd.addString("UID", "1");
+        fd.addTV("base", "abcab",
+                "[(0-1)s:a|i:a|_0#0-1]" + "[(1-2)s:b|i:b|_1#1-2]"
+                        + "[(2-3)s:c|i:c|_2#2-3]" + "[(3-4)s:a|i:a|_3#3-4]"
+                        + "[(4-5)s:b|i:b|_4#4-5]");
+        ki.addDoc(fd);
+        ki.commit();
+
+        fd = new FieldDocument();
+        fd.addString("ID", "doc-2");
+        fd.addString("UID", "2");
+        fd.addTV("base", "a\"d", "[(0-1)s:a|i:a|_0#0-1]"
+                + "[(1-2)s:q|i:q|_1#1-2]" + "[(2-3)s:d|i:d|_2#2-3]");
+        ki.addDoc(fd);
+        ki.commit();
+
+        fd = new FieldDocument();
+        fd.addString("ID", "doc-3");
+        fd.addString("UID", "3");
+        fd.addTV("base", "cd", "[(0-1)s:c|i:c|_0#0-1]" + "[(1-2)s:d|i:d|_1#1-2]");
+        ki.addDoc(fd);
+        ki.commit();
+
+        QueryBuilder kq = new QueryBuilder("base");
+        Krill ks = new Krill(kq.seg("s:a"));
+        ks.getMeta().setContext(
+                new SearchContext(true, (short) 1, true, (short) 1));
+        ks.getMeta().getFields().clear();
+        ks.getMeta().addField("ID");
+
+        // Export as CSV
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MatchExporter exporter = ki.export(ks,
+                new MatchExporter(os, MatchExporter.format("csv"),
+                        ks.getMeta().getFields()), 1);
+        assertFalse(exporter.hasErrors());
+        assertEquals(3, exporter.getExported());
+        assertEquals(3, exporter.getTotalResults());
+
+        String[] lines = os.toString("UTF-8").split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("matchID,\"ID\",left,match,right", lines[0]);
+        assertTrue(lines[1].startsWith("\"match-"));
+        assertTrue(lines[1].endsWith(",\"doc-1\",\"\",\"a\",\"b\""));
+        assertTrue(lines[2].endsWith(",\"doc-1\",\"c\",\"a\",\"b\""));
+        assertTrue(lines[3].endsWith(",\"doc-2\",\"\",\"a\",\"\"\"\""));
+
+        // Export as NDJSON
+        os = new ByteArrayOutputStream();
+        ki.export(ks, new MatchExporter(os, MatchExporter.format(null),
+                ks.getMeta().getFields()), 1);
+        String sequential = os.toString("UTF-8");
+        lines = sequential.split("\n");
+        assertEquals(3, lines.length);
+
+        JsonNode res = new ObjectMapper().readTree(lines[2]);
+        assertTrue(lines[2].contains("doc-2"));
+        assertTrue(res.at("/snippet").asText()
+                .contains("<span class=\"match\">"));
+
+        // Parallel export keeps the order of segments
+        os = new ByteArrayOutputStream();
+        exporter = ki.export(ks, new MatchExporter(os,
+                MatchExporter.Format.NDJSON, ks.getMeta().getFields()), 3);
+        assertFalse(exporter.hasErrors());
+        assertEquals(sequential, os.toString("UTF-8"));
+    };
+
+
+    @Test
+    public void checkExportErrors () throws Exception {
+        List<String> fields = new ArrayList<String>();
+        fields.add("ID");
+
+        // Errors are appended as rows with the columns of matches
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MatchExporter exporter = new MatchExporter(os,
+                MatchExporter.format("csv"), fields);
+        exporter.writeHeader();
+        exporter.addError(682, "Response time exceeded");
+        exporter.close();
+
+        String[] lines = os.toString("UTF-8").split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("matchID,\"ID\",left,match,right", lines[0]);
+        assertEquals("\"#error\",,,\"682: Response time exceeded\",",
+                lines[1]);
+
+        // Errors are appended as a JSON object
+        os = new ByteArrayOutputStream();
+        exporter = new MatchExporter(os, MatchExporter.Format.NDJSON, fields);
+        exporter.addError(682, "Response time exceeded");
+        exporter.close();
+
+        JsonNode res = new ObjectMapper().readTree(os.toString("UTF-8"));
+        assertEquals(682, res.at("/errors/0/0").asInt());
+    };
+
+
+    @Test
+    public void checkExportAborted () throws Exception {
+        KrillIndex ki = new KrillIndex();
+
+        // Segments with more matches than fit in the export queues
+        for (int d = 1; d <= 3; d++) {
+            StringBuilder text = new StringBuilder();
+            StringBuilder tokens = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                text.append('a');
+                tokens.append("[(" + i + "-" + (i + 1) + ")s:a|_" + i + "#"
+                        + i + "-" + (i + 1) + "]");
+            };
+            FieldDocument fd = new FieldDocument();
+            fd.addString("ID", "doc-" + d);
+            fd.addString("UID", String.valueOf(d));
+            fd.addTV("base", text.toString(), tokens.toString());
+            ki.addDoc(fd);
+            ki.commit();
+        };
+
+        QueryBuilder kq = new QueryBuilder("base");
+        Krill ks = new Krill(kq.seg("s:a"));
+
+        // The client closes the connection
+        OutputStream os = new OutputStream() {
+            @Override
+            public void write (int b) throws IOException {
+                throw new IOException("Connection closed");
+            };
+        };
+
+        MatchExporter exporter = ki.export(ks, new MatchExporter(os,
+                MatchExporter.Format.NDJSON, ks.getMeta().getFields()), 3);
+        assertTrue(exporter.isAborted());
+        assertEquals(606, exporter.getError(0).getCode());
+
+        // No segment is left blocking on its queue
+        for (int i = 0; i < 50 && _exportThreads() > 0; i++)
+            Thread.sleep(100);
+        assertEquals(0, _exportThreads());
+    };
+
+
+    private static int _exportThreads () {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("KrillIndex-export") && t.isAlive())
+                count++;
+        };
+        return count;
+    };
+
+
+    @Test
+    public void checkCollocations () throws Exception {
+        KrillIndex ki = new KrillIndex();
+        FieldDocument fd = new FieldDocument();
+        fd.addString("ID", "doc-1");
+        fd.addString("UID", "1");
+        fd.addTV("base", "abcab",
+                "[(0-1)s:a|i:a|_0#0-1|-:t$<i>5]" + "[(1-2)s:b|i:b|_1#1-2]"
+                        + "[(2-3)s:c|i:c|_2#2-3]" + "[(3-4)s:a|i:a|_3#3-4]"
+                        + "[(4-5)s:b|i:b|_4#4-5]");
+        ki.addDoc(fd);
+        ki.commit();
+
+        fd = new FieldDocument();
+        fd.addString("ID", "doc-2");
+        fd.addString("UID", "2");
+        fd.addTV("base", "abd", "[(0-1)s:a|i:a|_0#0-1|-:t$<i>3]"
+                + "[(1-2)s:b|i:b|_1#1-2]" + "[(2-3)s:d|i:d|_2#2-3]");
+        ki.addDoc(fd);
+        ki.commit();
+
+        fd = new FieldDocument();
+        fd.addString("ID", "doc-3");
+        fd.addString("UID", "3");
+        fd.addTV("base", "cd",
+                "[(0-1)s:c|i:c|_0#0-1|-:t$<i>2]" + "[(1-2)s:d|i:d|_1#1-2]");
+        ki.addDoc(fd);
+        ki.commit();
+
+        QueryBuilder kq = new QueryBuilder("base");
+        Krill ks = new Krill(kq.seg("s:a"));
+        ks.getMeta().setCollocations(new Collocations().setLayer("s")
+                .setLeft(1).setRight(1).setMeasure("mi"));
+
+        Result kr = ki.search(ks);
+        assertEquals((long) 3, kr.getTotalResults());
+
+        Collocations coll = kr.getCollocations();
+        assertTrue(coll.isComplete());
+        assertEquals(3, coll.getMatches());
+        assertEquals(4, coll.getWindow());
+        assertEquals(2, coll.getCollocates().size());
+
+        assertEquals("b", coll.getCollocates().get(0).getTerm());
+        assertEquals(3, coll.getCollocates().get(0).getCooccurrences());
+        assertEquals(3, coll.getCollocates().get(0).getFrequency());
+        assertEquals(1.3219, coll.getCollocates().get(0).getScore(), 0.001);
+
+        assertEquals("c", coll.getCollocates().get(1).getTerm());
+        assertEquals(1, coll.getCollocates().get(1).getCooccurrences());
+        assertEquals(2, coll.getCollocates().get(1).getFrequency());
+        assertEquals(0.3219, coll.getCollocates().get(1).getScore(), 0.001);
+
+        // Log-likelihood
+        ks = new Krill(kq.seg("s:a"));
+        ks.getMeta().setCollocations(new Collocations().setLeft(1)
+                .setRight(1).setTop(1));
+        kr = ks.apply(ki);
+
+        coll = kr.getCollocations();
+        assertEquals(1, coll.getCollocates().size());
+        assertEquals("b", coll.getCollocates().get(0).getTerm());
+        assertEquals(7.7186, coll.getCollocates().get(0).getScore(), 0.001);
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode res = mapper.readTree(kr.toJsonString());
+        assertEquals("ll", res.at("/collocations/measure").asText());
+        assertEquals(10, res.at("/collocations/tokens").asInt());
+        assertEquals("b", res.at("/collocations/collocates/0/term").asText());
+        assertEquals(3,
+                res.at("/collocations/collocates/0/cooccurrences").asInt());
+        assertEquals(1, res.at("/meta/collocation/left").asInt());
+    };
+
+
+    @Test
+    public void checkCollocationsWithoutTermVectors () throws Exception {
+        KrillIndex ki = new KrillIndex();
+        FieldDocument fd = new FieldDocument().setTermVectors(false);
+        fd.addString("ID", "doc-1");
+        fd.addString("UID", "1");
+        fd.addTV("base", "abcab",
+                "[(0-1)s:a|i:a|_0#0-1|-:t$<i>5]" + "[(1-2)s:b|i:b|_1#1-2]"
+                        + "[(2-3)s:c|i:c|_2#2-3]" + "[(3-4)s:a|i:a|_3#3-4]"
+                        + "[(4-5)s:b|i:b|_4#4-5]");
+        ki.addDoc(fd);
+
+        fd = new FieldDocument().setTermVectors(false);
+        fd.addString("ID", "doc-2");
+        fd.addString("UID", "2");
+        fd.addTV("base", "abd", "[(0-1)s:a|i:a|_0#0-1|-:t$<i>3]"
+                + "[(1-2)s:b|i:b|_1#1-2]" + "[(2-3)s:d|i:d|_2#2-3]");
+        ki.addDoc(fd);
+
+        fd = new FieldDocument().setTermVectors(false);
+        fd.addString("ID", "doc-3");
+        fd.addString("UID", "3");
+        fd.addTV("base", "cd",
+                "[(0-1)s:c|i:c|_0#0-1|-:t$<i>2]" + "[(1-2)s:d|i:d|_1#1-2]");
+        ki.addDoc(fd);
+
+        // Positions of all documents are read from
+        // the postings of a single segment
+        ki.commit();
+
+        QueryBuilder kq = new QueryBuilder("base");
+        Krill ks = new Krill(kq.seg("s:a"));
+        ks.getMeta().setCollocations(new Collocations().setLayer("s")
+                .setLeft(1).setRight(1).setMeasure("mi"));
+
+        Result kr = ki.search(ks);
+        assertEquals((long) 3, kr.getTotalResults());
+
+        Collocations coll = kr.getCollocations();
+        assertTrue(coll.isComplete());
+        assertEquals(3, coll.getMatches());
+        assertEquals(4, coll.getWindow());
+        assertEquals(2, coll.getCollocates().size());
+
+        assertEquals("b", coll.getCollocates().get(0).getTerm());
+        assertEquals(3, coll.getCollocates().get(0).getCooccurrences());
+        assertEquals(3, coll.getCollocates().get(0).getFrequency());
+        assertEquals(1.3219, coll.getCollocates().get(0).getScore(), 0.001);
+
+        assertEquals("c", coll.getCollocates().get(1).getTerm());
+        assertEquals(1, coll.getCollocates().get(1).getCooccurrences());
+        assertEquals(2, coll.getCollocates().get(1).getFrequency());
+        assertEquals(0.3219, coll.getCollocates().get(1).getScore(), 0.001);
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode res = mapper.readTree(kr.toJsonString());
+        assertEquals(10, res.at("/collocations/tokens").asInt());
+    };
 };
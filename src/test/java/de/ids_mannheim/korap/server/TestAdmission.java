@@ -0,0 +1,47 @@
+package de.ids_mannheim.korap.server;
+
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import de.ids_mannheim.korap.server.Admission.Decision;
+
+/**
+ */
+public class TestAdmission {
+
+    @Test
+    public void admissionDecisions () {
+        Admission admission = new Admission(100, 1000, 10000, 1);
+        assertTrue(admission.isEnabled());
+        assertEquals(Decision.RUN, admission.decide(-1));
+        assertEquals(Decision.RUN, admission.decide(99));
+        assertEquals(Decision.QUEUE, admission.decide(100));
+        assertEquals(Decision.CUTOFF, admission.decide(5000));
+        assertEquals(Decision.REJECT, admission.decide(10000));
+
+        // Only a single queued search runs at a time
+        assertTrue(admission.acquire(10));
+        assertFalse(admission.acquire(10));
+        admission.release();
+        assertTrue(admission.acquire(10));
+        admission.release();
+    };
+
+
+    @Test
+    public void admissionProperties () {
+        Admission admission = new Admission((Properties) null);
+        assertFalse(admission.isEnabled());
+        assertEquals(Decision.RUN, admission.decide(Long.MAX_VALUE));
+
+        Properties prop = new Properties();
+        prop.setProperty("krill.admission.reject", "500");
+        prop.setProperty("krill.admission.cutOff", "no number");
+        admission = new Admission(prop);
+        assertTrue(admission.isEnabled());
+        assertEquals(Decision.RUN, admission.decide(499));
+        assertEquals(Decision.REJECT, admission.decide(500));
+    };
+};
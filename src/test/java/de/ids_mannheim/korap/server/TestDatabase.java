@@ -3,12 +3,14 @@ package de.ids_mannheim.korap.server;
 import de.ids_mannheim.korap.response.MatchCollector;
 import de.ids_mannheim.korap.response.collector.MatchCollectorDB;
 
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
+import javax.sql.DataSource;
 
 import com.mchange.v2.c3p0.*;
 
@@ -214,6 +216,29 @@ public class TestDatabase {
     };
 
 
+    @Test
+    public void TestMatchCollectorDBWriterFailure () throws Exception {
+
+        // The database driver fails fatally
+        DataSource ds = (DataSource) Proxy.newProxyInstance(
+                DataSource.class.getClassLoader(),
+                new Class[] { DataSource.class }, (proxy, method, args) -> {
+                    throw new Error("Driver failure");
+                });
+
+        MatchCollectorDB mc = new MatchCollectorDB(1, "matchXYZ");
+        mc.setDBPool("sqlite", ds);
+
+        // More buffers than fit in the queue of the terminated writer
+        for (int i = 0; i < MatchCollectorDB.QUEUE_SIZE * 3; i++)
+            mc.add(i, 1);
+
+        mc.close();
+        assertEquals(MatchCollectorDB.QUEUE_SIZE * 3, mc.getTotalResults());
+        assertEquals(604, mc.getError(0).getCode());
+    };
+
+
     @After
     public void shutDown () throws Exception {
         this.conn.close();